@@ -101,9 +101,25 @@ public class ComisionService {
 
     public BigDecimal calcularComision(Integer comisionId, Integer numeroTransacciones, BigDecimal montoTransaccion) {
         Comision comision = obtenerComisionPorId(comisionId);
-        
+        return calcularComision(comision, obtenerSegmentos(comision), numeroTransacciones, montoTransaccion);
+    }
+
+    @Transactional(readOnly = true)
+    public List<ComisionSegmento> obtenerSegmentos(Comision comision) {
+        if (!Boolean.TRUE.equals(comision.getManejaSegmentos())) {
+            return List.of();
+        }
+        return comisionSegmentoRepository.findByComisionOrderByPkCodSegmentoAsc(comision);
+    }
+
+    /**
+     * Calcula la comisión con una comisión y sus segmentos ya resueltos, para
+     * que quien procesa varias transacciones del mismo banco los consulte una sola vez.
+     */
+    public BigDecimal calcularComision(Comision comision, List<ComisionSegmento> segmentos,
+                                       Integer numeroTransacciones, BigDecimal montoTransaccion) {
         if (comision.getManejaSegmentos()) {
-            return calcularComisionPorSegmento(comision, numeroTransacciones, montoTransaccion);
+            return calcularComisionPorSegmento(comision, segmentos, numeroTransacciones, montoTransaccion);
         } else {
             return calcularComisionBase(comision, montoTransaccion);
         }
@@ -142,10 +158,8 @@ public class ComisionService {
         }
     }
 
-    private BigDecimal calcularComisionPorSegmento(Comision comision, Integer numeroTransacciones, 
-                                                  BigDecimal montoTransaccion) {
-        List<ComisionSegmento> segmentos = comisionSegmentoRepository.findByComisionOrderByPkCodSegmentoAsc(comision);
-        
+    private BigDecimal calcularComisionPorSegmento(Comision comision, List<ComisionSegmento> segmentos,
+                                                  Integer numeroTransacciones, BigDecimal montoTransaccion) {
         for (ComisionSegmento segmento : segmentos) {
             if (new BigDecimal(numeroTransacciones).compareTo(segmento.getTransaccionesHasta()) <= 0) {
                 if (Comision.TIPO_PORCENTAJE.equals(comision.getTipo())) {
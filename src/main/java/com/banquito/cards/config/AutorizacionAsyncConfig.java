@@ -0,0 +1,189 @@
+package com.banquito.cards.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class AutorizacionAsyncConfig {
+
+    @Bean(name = "autorizacionExecutor")
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ThreadPoolTaskExecutor autorizacionExecutor(
+            @Value("${transaccion.autorizacion.hilos:32}") int hilos,
+            @Value("${transaccion.autorizacion.capacidad-cola:500}") int capacidadCola) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(hilos);
+        executor.setMaxPoolSize(hilos);
+        executor.setQueueCapacity(capacidadCola);
+        executor.setThreadNamePrefix("autorizacion-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Con hilos virtuales cada autorización obtiene su propio hilo; el límite de
+     * autorizaciones en curso lo sigue imponiendo AutorizacionAsincronaService con
+     * hilos + capacidad-cola permisos, por lo que este límite nunca se alcanza.
+     */
+    @Bean(name = "autorizacionExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public SimpleAsyncTaskExecutor autorizacionExecutorVirtual(
+            @Value("${transaccion.autorizacion.hilos:32}") int hilos,
+            @Value("${transaccion.autorizacion.capacidad-cola:500}") int capacidadCola) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("autorizacion-");
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(hilos + capacidadCola);
+        executor.setTaskTerminationTimeout(30_000);
+        return executor;
+    }
+
+    /**
+     * Lecturas del estado para las consultas con espera, fuera del executor de
+     * autorización: una espera larga no debe ocupar la capacidad reservada a las
+     * llamadas al banco. Cada consulta abierta tiene a lo sumo una lectura en cola,
+     * por lo que la cola crece con las consultas abiertas y no se rechaza ninguna.
+     */
+    @Bean(name = "consultaEstadoExecutor")
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ThreadPoolTaskExecutor consultaEstadoExecutor(
+            @Value("${transaccion.autorizacion.hilos-consulta:4}") int hilos) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(hilos);
+        executor.setMaxPoolSize(hilos);
+        executor.setThreadNamePrefix("consulta-estado-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Sin límite de concurrencia: al alcanzarlo el executor bloquearía al hilo que
+     * vence las esperas de CompletableFuture, que es compartido por toda la JVM.
+     * Las lecturas quedan acotadas por el pool de conexiones.
+     */
+    @Bean(name = "consultaEstadoExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public SimpleAsyncTaskExecutor consultaEstadoExecutorVirtual() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("consulta-estado-");
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+
+    @Bean(name = "despachadorOutboxExecutor")
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ThreadPoolTaskExecutor despachadorOutboxExecutor(
+            @Value("${transaccion.outbox.trabajadores:16}") int trabajadores) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(trabajadores);
+        executor.setMaxPoolSize(trabajadores);
+        executor.setQueueCapacity(trabajadores);
+        executor.setThreadNamePrefix("outbox-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean(name = "despachadorOutboxExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public SimpleAsyncTaskExecutor despachadorOutboxExecutorVirtual(
+            @Value("${transaccion.outbox.trabajadores:16}") int trabajadores) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("outbox-");
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(trabajadores);
+        executor.setTaskTerminationTimeout(30_000);
+        return executor;
+    }
+
+    /**
+     * Avisos del procesamiento suplente al banco, separados del planificador
+     * compartido y del despachador del outbox.
+     */
+    @Bean(name = "avisosSuplenteExecutor")
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ThreadPoolTaskExecutor avisosSuplenteExecutor(
+            @Value("${transaccion.stip.trabajadores-avisos:4}") int trabajadores) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(trabajadores);
+        executor.setMaxPoolSize(trabajadores);
+        executor.setQueueCapacity(trabajadores);
+        executor.setThreadNamePrefix("avisos-stip-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean(name = "avisosSuplenteExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public SimpleAsyncTaskExecutor avisosSuplenteExecutorVirtual(
+            @Value("${transaccion.stip.trabajadores-avisos:4}") int trabajadores) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("avisos-stip-");
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(trabajadores);
+        executor.setTaskTerminationTimeout(30_000);
+        return executor;
+    }
+
+    @Bean(name = "preautorizacionExecutor")
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ThreadPoolTaskExecutor preautorizacionExecutor(
+            @Value("${transaccion.preautorizacion.hilos:64}") int hilos,
+            @Value("${transaccion.preautorizacion.capacidad-cola:1000}") int capacidadCola) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(hilos);
+        executor.setMaxPoolSize(hilos);
+        executor.setQueueCapacity(capacidadCola);
+        executor.setThreadNamePrefix("preautorizacion-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Admite a lo sumo hilos + capacidad-cola verificaciones en curso, como el pool
+     * de plataforma. Al llegar al límite rechaza en lugar de bloquear al llamador
+     * (el límite de concurrencia de SimpleAsyncTaskExecutor espera), y la
+     * verificación rechazada cuenta como no concluida.
+     */
+    @Bean(name = "preautorizacionExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public TaskExecutor preautorizacionExecutorVirtual(
+            @Value("${transaccion.preautorizacion.hilos:64}") int hilos,
+            @Value("${transaccion.preautorizacion.capacidad-cola:1000}") int capacidadCola) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("preautorizacion-");
+        executor.setVirtualThreads(true);
+        Semaphore enCurso = new Semaphore(hilos + capacidadCola);
+        return tarea -> {
+            if (!enCurso.tryAcquire()) {
+                throw new TaskRejectedException("Verificaciones de preautorización en curso al límite");
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        tarea.run();
+                    } finally {
+                        enCurso.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                enCurso.release();
+                throw e;
+            }
+        };
+    }
+}
@@ -0,0 +1,23 @@
+package com.banquito.cards.config;
+
+import org.apache.hc.core5.util.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.openfeign.clientconfig.HttpClient5FeignConfiguration.HttpClientBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Los clientes Feign usan el pool de conexiones de Apache HttpClient 5 que arma
+ * Spring Cloud OpenFeign con spring.cloud.openfeign.httpclient.*. Aquí solo se
+ * cierran las conexiones inactivas antes de que el servidor remoto las descarte,
+ * para no reutilizar un socket ya cerrado del otro lado.
+ */
+@Configuration
+public class ClienteHttpFeignConfig {
+
+    @Bean
+    public HttpClientBuilderCustomizer inactividadConexionesFeign(
+            @Value("${transaccion.http.inactividad-maxima-s:30}") long inactividadMaximaSegundos) {
+        return builder -> builder.evictIdleConnections(TimeValue.ofSeconds(inactividadMaximaSegundos));
+    }
+}
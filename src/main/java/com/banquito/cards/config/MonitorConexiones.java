@@ -0,0 +1,67 @@
+package com.banquito.cards.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Lleva la cuenta de conexiones JDBC retenidas por el hilo actual. Publica el
+ * máximo de conexiones simultáneas por solicitud y cuántas veces se inició una
+ * llamada remota con una conexión todavía tomada.
+ */
+@Slf4j
+@Component
+public class MonitorConexiones {
+
+    private static final int ACTUALES = 0;
+    private static final int PICO = 1;
+
+    private final ThreadLocal<int[]> conexiones = ThreadLocal.withInitial(() -> new int[2]);
+    private final DistributionSummary conexionesPorSolicitud;
+    private final Counter conexionesDuranteIo;
+
+    public MonitorConexiones(MeterRegistry meterRegistry) {
+        this.conexionesPorSolicitud = DistributionSummary.builder("pagos.conexiones.por.solicitud")
+                .description("Máximo de conexiones JDBC retenidas a la vez por una solicitud")
+                .register(meterRegistry);
+        this.conexionesDuranteIo = Counter.builder("pagos.conexiones.durante.io")
+                .description("Llamadas remotas iniciadas mientras el hilo retenía una conexión JDBC")
+                .register(meterRegistry);
+    }
+
+    public void iniciarSolicitud() {
+        int[] contador = conexiones.get();
+        contador[PICO] = contador[ACTUALES];
+    }
+
+    public void finalizarSolicitud() {
+        int[] contador = conexiones.get();
+        conexionesPorSolicitud.record(contador[PICO]);
+        contador[PICO] = contador[ACTUALES];
+    }
+
+    public void verificarSinConexion(String operacion) {
+        int retenidas = conexiones.get()[ACTUALES];
+        if (retenidas > 0) {
+            conexionesDuranteIo.increment();
+            log.warn("Llamada remota {} iniciada con {} conexión(es) JDBC retenidas", operacion, retenidas);
+        }
+    }
+
+    void conexionObtenida() {
+        int[] contador = conexiones.get();
+        contador[ACTUALES]++;
+        if (contador[ACTUALES] > contador[PICO]) {
+            contador[PICO] = contador[ACTUALES];
+        }
+    }
+
+    void conexionLiberada() {
+        int[] contador = conexiones.get();
+        if (contador[ACTUALES] > 0) {
+            contador[ACTUALES]--;
+        }
+    }
+}
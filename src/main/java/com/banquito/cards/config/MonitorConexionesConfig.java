@@ -0,0 +1,93 @@
+package com.banquito.cards.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Configuration
+@ConditionalOnProperty(name = "transaccion.monitor-conexiones.habilitado", havingValue = "true", matchIfMissing = true)
+public class MonitorConexionesConfig {
+
+    @Bean
+    public static BeanPostProcessor dataSourceMonitoreadoPostProcessor(ObjectProvider<MonitorConexiones> monitor) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof DataSourceMonitoreado)) {
+                    return new DataSourceMonitoreado(dataSource, monitor);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public OncePerRequestFilter monitorConexionesFilter(MonitorConexiones monitor) {
+        return new OncePerRequestFilter() {
+            @Override
+            protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                            FilterChain filterChain) throws ServletException, IOException {
+                monitor.iniciarSolicitud();
+                try {
+                    filterChain.doFilter(request, response);
+                } finally {
+                    monitor.finalizarSolicitud();
+                }
+            }
+        };
+    }
+
+    static class DataSourceMonitoreado extends DelegatingDataSource {
+
+        private final ObjectProvider<MonitorConexiones> monitor;
+
+        DataSourceMonitoreado(DataSource dataSource, ObjectProvider<MonitorConexiones> monitor) {
+            super(dataSource);
+            this.monitor = monitor;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return monitorear(super.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return monitorear(super.getConnection(username, password));
+        }
+
+        private Connection monitorear(Connection conexion) {
+            MonitorConexiones monitorConexiones = monitor.getObject();
+            monitorConexiones.conexionObtenida();
+            AtomicBoolean cerrada = new AtomicBoolean(false);
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, metodo, argumentos) -> {
+                    if ("close".equals(metodo.getName()) && cerrada.compareAndSet(false, true)) {
+                        monitorConexiones.conexionLiberada();
+                    }
+                    try {
+                        return metodo.invoke(conexion, argumentos);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.banquito.cards.exception;
+
+public class CapacidadExcedidaException extends RuntimeException {
+
+    private final String data;
+    private final String entity;
+
+    public CapacidadExcedidaException(String data, String entity) {
+        super();
+        this.data = data;
+        this.entity = entity;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Capacidad de procesamiento excedida para: " + this.entity + ", con el dato: " + this.data;
+    }
+}
@@ -0,0 +1,18 @@
+package com.banquito.cards.exception;
+
+public class ClaveReutilizadaException extends RuntimeException {
+
+    private final String data;
+    private final String entity;
+
+    public ClaveReutilizadaException(String data, String entity) {
+        super();
+        this.data = data;
+        this.entity = entity;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Clave de idempotencia reutilizada con otra solicitud para: " + this.entity + ", con el dato: " + this.data;
+    }
+}
@@ -0,0 +1,8 @@
+package com.banquito.cards.exception;
+
+public class CodigoUnicoRegistradoException extends BusinessException {
+
+    public CodigoUnicoRegistradoException(String data, String entity) {
+        super(data, entity, "validar código único");
+    }
+}
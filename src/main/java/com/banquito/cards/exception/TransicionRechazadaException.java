@@ -0,0 +1,15 @@
+package com.banquito.cards.exception;
+
+public class TransicionRechazadaException extends BusinessException {
+
+    private final String estadoActual;
+
+    public TransicionRechazadaException(String estadoActual, String entity) {
+        super(estadoActual, entity, "validar cambio estado");
+        this.estadoActual = estadoActual;
+    }
+
+    public String getEstadoActual() {
+        return estadoActual;
+    }
+}
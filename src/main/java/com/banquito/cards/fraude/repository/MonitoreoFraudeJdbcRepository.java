@@ -0,0 +1,42 @@
+package com.banquito.cards.fraude.repository;
+
+import com.banquito.cards.fraude.model.MonitoreoFraude;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Inserción por lotes JDBC de alertas de MONITOREO_FRAUDE. El código de cada
+ * alerta se asigna antes de insertarla, así que no hay claves que recuperar.
+ */
+@Repository
+public class MonitoreoFraudeJdbcRepository {
+
+    private static final String INSERT_ALERTA =
+        "INSERT INTO MONITOREO_FRAUDE (COD_MONITOREO_FRAUDE, COD_REGLA, COD_TRANSACCION, NIVEL_RIESGO, "
+            + "PUNTAJE_RIESGO, ESTADO, DETALLE, REQUIERE_VERIFICACION_ADICIONAL, MOTIVO_VERIFICACION, "
+            + "FECHA_DETECCION, CODIGO_UNICO_TRANSACCION) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public MonitoreoFraudeJdbcRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void insertarAlertas(List<MonitoreoFraude> alertas) {
+        jdbcTemplate.batchUpdate(INSERT_ALERTA, alertas, alertas.size(), (ps, alerta) -> {
+            ps.setString(1, alerta.getCodigo());
+            ps.setInt(2, alerta.getReglaFraude().getCodRegla());
+            ps.setInt(3, alerta.getTransaccion().getCodigo());
+            ps.setString(4, alerta.getNivelRiesgo());
+            ps.setInt(5, alerta.getPuntajeRiesgo());
+            ps.setString(6, alerta.getEstado());
+            ps.setString(7, alerta.getDetalle());
+            ps.setBoolean(8, Boolean.TRUE.equals(alerta.getRequiereVerificacionAdicional()));
+            ps.setString(9, alerta.getMotivoVerificacion());
+            ps.setObject(10, alerta.getFechaDeteccion());
+            ps.setString(11, alerta.getCodigoUnicoTransaccion());
+        });
+    }
+}
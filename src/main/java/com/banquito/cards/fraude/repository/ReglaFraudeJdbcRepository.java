@@ -0,0 +1,30 @@
+package com.banquito.cards.fraude.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Consultas de REGLA_FRAUDE que no se expresan con métodos derivados.
+ */
+@Repository
+public class ReglaFraudeJdbcRepository {
+
+    private static final String VERSION =
+        "SELECT COALESCE(MD5(STRING_AGG(COD_REGLA || ':' || ESTADO || ':' "
+            + "|| COALESCE(FECHA_ACTUALIZACION, FECHA_CREACION), ',' ORDER BY COD_REGLA)), '') "
+            + "FROM REGLA_FRAUDE";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ReglaFraudeJdbcRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Huella de todas las reglas que cambia con cualquier alta, modificación o
+     * cambio de estado, sin depender de que los relojes de los nodos coincidan.
+     */
+    public String version() {
+        return jdbcTemplate.queryForObject(VERSION, String.class);
+    }
+}
@@ -0,0 +1,85 @@
+package com.banquito.cards.fraude.service;
+
+/**
+ * Conjunto inmutable de comercios con direccionamiento abierto, sin distinguir
+ * mayúsculas ni espacios en los extremos. El hash y la comparación recorren los
+ * caracteres del texto consultado, así que buscar no crea cadenas.
+ */
+final class ConjuntoComercios {
+
+    private final String[] tabla;
+    private final int[] hashes;
+    private final int mascara;
+    private final int tamano;
+
+    ConjuntoComercios(Iterable<String> comercios) {
+        int cantidad = 0;
+        for (String ignored : comercios) {
+            cantidad++;
+        }
+        int capacidad = Integer.highestOneBit(Math.max(4, cantidad * 2 - 1)) << 1;
+        this.tabla = new String[capacidad];
+        this.hashes = new int[capacidad];
+        this.mascara = capacidad - 1;
+        int agregados = 0;
+        for (String comercio : comercios) {
+            String normalizado = comercio.trim();
+            if (!normalizado.isEmpty() && agregar(normalizado)) {
+                agregados++;
+            }
+        }
+        this.tamano = agregados;
+    }
+
+    int tamano() {
+        return tamano;
+    }
+
+    boolean contiene(String comercio) {
+        if (comercio == null || tamano == 0) {
+            return false;
+        }
+        int inicio = 0;
+        int fin = comercio.length();
+        while (inicio < fin && Character.isWhitespace(comercio.charAt(inicio))) {
+            inicio++;
+        }
+        while (fin > inicio && Character.isWhitespace(comercio.charAt(fin - 1))) {
+            fin--;
+        }
+        if (inicio == fin) {
+            return false;
+        }
+        int hash = hash(comercio, inicio, fin);
+        for (int i = hash & mascara; tabla[i] != null; i = (i + 1) & mascara) {
+            String candidato = tabla[i];
+            if (hashes[i] == hash && candidato.length() == fin - inicio
+                    && candidato.regionMatches(true, 0, comercio, inicio, fin - inicio)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean agregar(String comercio) {
+        int hash = hash(comercio, 0, comercio.length());
+        int i = hash & mascara;
+        while (tabla[i] != null) {
+            if (hashes[i] == hash && tabla[i].equalsIgnoreCase(comercio)) {
+                return false;
+            }
+            i = (i + 1) & mascara;
+        }
+        tabla[i] = comercio;
+        hashes[i] = hash;
+        return true;
+    }
+
+    private static int hash(String texto, int inicio, int fin) {
+        int hash = 0;
+        for (int i = inicio; i < fin; i++) {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(texto.charAt(i)));
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
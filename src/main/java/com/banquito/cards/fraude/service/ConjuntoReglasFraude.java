@@ -0,0 +1,485 @@
+package com.banquito.cards.fraude.service;
+
+import com.banquito.cards.fraude.model.ReglaFraude;
+import com.banquito.cards.fraude.repository.ReglaFraudeJdbcRepository;
+import com.banquito.cards.fraude.repository.ReglaFraudeRepository;
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.banquito.cards.transaccion.repository.TransaccionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Reglas de fraude activas compiladas en memoria. Cada regla ACT se traduce una
+ * vez a un {@link EvaluadorReglaFraude} y el conjunto se publica como un arreglo
+ * inmutable, primero las reglas que solo miran la transacción y después las que
+ * consultan el historial de la tarjeta, cada grupo por prioridad; evaluar una
+ * transacción no lee reglas de la base ni interpreta su tipo. Junto al arreglo
+ * se guarda, para cada posición, el mayor nivel de riesgo de las reglas que
+ * siguen, con el que la evaluación se detiene cuando ya no puede subir el nivel.
+ * Cualquier cambio hecho por {@link ReglaFraudeService} recompila el conjunto al
+ * confirmarse su transacción y lo reemplaza de una vez; las evaluaciones en
+ * curso terminan con el anterior.
+ * Los cambios hechos en otro nodo se detectan comparando periódicamente la
+ * versión de REGLA_FRAUDE con la del conjunto publicado.
+ * Las listas de países y comercios y los horarios se interpretan al compilar.
+ * Las reglas de un tipo sin evaluador o con un período desconocido se omiten;
+ * las de un nivel de riesgo desconocido se evalúan como de riesgo alto.
+ */
+@Slf4j
+@Component
+public class ConjuntoReglasFraude {
+
+    private static final String TIPO_UBICACION_ANTERIOR = "UBI";
+    private static final String PERIODO_SEMANA = "SEM";
+    private static final int PAISES_POSIBLES = 26 * 26;
+    private static final Pattern SEPARADOR_LISTA = Pattern.compile("\\s*[,;\\n]\\s*");
+    private static final Pattern SEPARADOR_PAISES = Pattern.compile("[,;\\s]+");
+
+    private final ReglaFraudeRepository reglaFraudeRepository;
+    private final ReglaFraudeJdbcRepository reglaFraudeJdbcRepository;
+    private final TransaccionRepository transaccionRepository;
+    private final VentanasTarjeta ventanasTarjeta;
+    private final MeterRegistry meterRegistry;
+    private final AtomicReference<ReglasActivas> reglas = new AtomicReference<>();
+    private final ReentrantLock bloqueoCarga = new ReentrantLock();
+
+    public ConjuntoReglasFraude(ReglaFraudeRepository reglaFraudeRepository,
+                                ReglaFraudeJdbcRepository reglaFraudeJdbcRepository,
+                                TransaccionRepository transaccionRepository,
+                                VentanasTarjeta ventanasTarjeta,
+                                MeterRegistry meterRegistry) {
+        this.reglaFraudeRepository = reglaFraudeRepository;
+        this.reglaFraudeJdbcRepository = reglaFraudeJdbcRepository;
+        this.transaccionRepository = transaccionRepository;
+        this.ventanasTarjeta = ventanasTarjeta;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargar() {
+        try {
+            recargar();
+        } catch (RuntimeException e) {
+            log.error("No se pudieron cargar las reglas de fraude, se reintentará en la primera evaluación: {}",
+                e.getMessage());
+        }
+    }
+
+    /**
+     * Recompila las reglas si cambiaron desde la última carga, aunque el cambio se
+     * haya hecho en otro nodo.
+     */
+    @Scheduled(fixedDelayString = "${fraude.reglas.intervalo-verificacion-ms:30000}",
+        initialDelayString = "${fraude.reglas.intervalo-verificacion-ms:30000}")
+    public void verificarVersion() {
+        try {
+            ReglasActivas actuales = reglas.get();
+            String version = reglaFraudeJdbcRepository.version();
+            if (actuales == null || !Objects.equals(actuales.version(), version)) {
+                log.info("Reglas de fraude modificadas, se recompilan");
+                recargar();
+            }
+        } catch (RuntimeException e) {
+            log.error("No se pudo verificar la versión de las reglas de fraude: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reglas activas en orden de evaluación. No se modifican; un cambio de reglas
+     * publica un conjunto nuevo.
+     */
+    ReglasActivas activas() {
+        ReglasActivas actuales = reglas.get();
+        return actuales != null ? actuales : recargar();
+    }
+
+    /**
+     * Historial de la tarjeta para evaluar la transacción; no consulta nada hasta
+     * que una regla lo necesita.
+     */
+    HistorialTarjeta historial(Transaccion transaccion, ReglasActivas activas) {
+        return new HistorialTarjeta(transaccion, ventanasTarjeta, transaccionRepository, activas.periodoHistorial());
+    }
+
+    /**
+     * Recompila las reglas al confirmarse la transacción en curso, o de inmediato
+     * si no hay una.
+     */
+    public void recargarAlConfirmar() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            recargar();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    recargar();
+                } catch (RuntimeException e) {
+                    log.error("No se pudieron recargar las reglas de fraude: {}", e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Lee y compila las reglas activas. El bloqueo evita que una recarga lenta
+     * publique reglas más viejas que otra que terminó antes. La versión se lee
+     * antes que las reglas: un cambio confirmado entre ambas lecturas deja una
+     * versión vieja y la siguiente verificación vuelve a recompilar.
+     */
+    ReglasActivas recargar() {
+        bloqueoCarga.lock();
+        try {
+            String version = reglaFraudeJdbcRepository.version();
+            List<ReglaFraude> activas = reglaFraudeRepository.findByEstadoOrderByPrioridadAsc(ReglaFraude.ESTADO_ACTIVO);
+            List<ReglaCompilada> compiladas = new ArrayList<>(activas.size());
+            for (ReglaFraude regla : activas) {
+                EvaluadorReglaFraude evaluador = compilar(regla);
+                if (evaluador == null) {
+                    log.warn("Regla de fraude {} ({}) sin evaluador para tipo {} y período {}, se omite",
+                        regla.getCodRegla(), regla.getNombreRegla(), regla.getTipoRegla(), regla.getPeriodoTiempo());
+                    continue;
+                }
+                String nivel = nivelRiesgo(regla);
+                compiladas.add(new ReglaCompilada(regla, evaluador, nivel, pesoNivelRiesgo(nivel),
+                    puntajeRiesgo(nivel), contador("pagos.fraude.reglas.evaluadas", regla),
+                    contador("pagos.fraude.reglas.omitidas", regla)));
+            }
+            // El orden es estable: dentro de cada grupo se conserva el de prioridad
+            compiladas.sort(Comparator.comparing(compilada -> compilada.evaluador().periodoHistorial() != null));
+            ReglasActivas nuevas = new ReglasActivas(compiladas.toArray(ReglaCompilada[]::new), version);
+            reglas.set(nuevas);
+            log.info("Reglas de fraude compiladas: {} de {} activas", compiladas.size(), activas.size());
+            return nuevas;
+        } finally {
+            bloqueoCarga.unlock();
+        }
+    }
+
+    private EvaluadorReglaFraude compilar(ReglaFraude regla) {
+        String tipo = regla.getTipoRegla();
+        if (ReglaFraude.TIPO_MONTO.equals(tipo)) {
+            return regla.getLimiteMontoTotal() == null ? NUNCA : new EvaluadorMonto(regla.getLimiteMontoTotal());
+        }
+        if (ReglaFraude.TIPO_TRANSACCIONES.equals(tipo)) {
+            if (regla.getLimiteTransacciones() == null || regla.getPeriodoTiempo() == null) {
+                return NUNCA;
+            }
+            VentanasTarjeta.Periodo periodo = periodo(regla.getPeriodoTiempo());
+            return periodo == null ? null : new EvaluadorTransacciones(regla.getLimiteTransacciones().intValue(),
+                periodo, regla.getPeriodoTiempo().toLowerCase());
+        }
+        if (ReglaFraude.TIPO_UBICACION.equals(tipo) || TIPO_UBICACION_ANTERIOR.equals(tipo)) {
+            if (regla.getPeriodoTiempo() == null) {
+                return NUNCA;
+            }
+            VentanasTarjeta.Periodo periodo = periodo(regla.getPeriodoTiempo());
+            return periodo == null ? null : new EvaluadorUbicacion(periodo);
+        }
+        if (ReglaFraude.TIPO_COMERCIO.equals(tipo)) {
+            long[] paises = paisesPermitidos(regla.getPaisesPermitidos());
+            ConjuntoComercios excluidos = new ConjuntoComercios(separar(regla.getComerciosExcluidos()));
+            return paises == null && excluidos.tamano() == 0 ? NUNCA : new EvaluadorComercio(paises, excluidos);
+        }
+        if (ReglaFraude.TIPO_HORARIO.equals(tipo)) {
+            if (regla.getHoraInicio() == null || regla.getHoraFin() == null) {
+                return NUNCA;
+            }
+            int inicio = minutoDelDia(regla.getHoraInicio().getHour(), regla.getHoraInicio().getMinute());
+            int fin = minutoDelDia(regla.getHoraFin().getHour(), regla.getHoraFin().getMinute());
+            return inicio == fin ? NUNCA : new EvaluadorHorario(inicio, fin);
+        }
+        return null;
+    }
+
+    private static List<String> separar(String lista) {
+        return separar(lista, SEPARADOR_LISTA);
+    }
+
+    private static List<String> separar(String lista, Pattern separador) {
+        return lista == null || lista.isBlank() ? List.of() : Arrays.asList(separador.split(lista.trim()));
+    }
+
+    /**
+     * Bits de los códigos ISO de dos letras permitidos, uno por cada combinación de
+     * letras (26 * 26). Null si la regla no restringe países; los códigos que no son
+     * dos letras se ignoran.
+     */
+    private static long[] paisesPermitidos(String lista) {
+        List<String> codigos = separar(lista, SEPARADOR_PAISES);
+        if (codigos.isEmpty()) {
+            return null;
+        }
+        long[] bits = new long[(PAISES_POSIBLES + 63) / 64];
+        for (String codigo : codigos) {
+            int indice = indicePais(codigo);
+            if (indice < 0) {
+                log.warn("Código de país inválido en regla de fraude: {}", codigo);
+                continue;
+            }
+            bits[indice >>> 6] |= 1L << indice;
+        }
+        return bits;
+    }
+
+    private static int indicePais(String pais) {
+        if (pais == null || pais.length() != 2) {
+            return -1;
+        }
+        int primera = Character.toUpperCase(pais.charAt(0)) - 'A';
+        int segunda = Character.toUpperCase(pais.charAt(1)) - 'A';
+        if (primera < 0 || primera >= 26 || segunda < 0 || segunda >= 26) {
+            return -1;
+        }
+        return primera * 26 + segunda;
+    }
+
+    private static int minutoDelDia(int hora, int minuto) {
+        return hora * 60 + minuto;
+    }
+
+    private Counter contador(String nombre, ReglaFraude regla) {
+        return Counter.builder(nombre)
+                .tag("regla", String.valueOf(regla.getCodRegla()))
+                .register(meterRegistry);
+    }
+
+    private static VentanasTarjeta.Periodo periodo(String periodoTiempo) {
+        return switch (periodoTiempo) {
+            case ReglaFraude.PERIODO_MINUTOS -> VentanasTarjeta.Periodo.MINUTO;
+            case ReglaFraude.PERIODO_HORAS -> VentanasTarjeta.Periodo.HORA;
+            case ReglaFraude.PERIODO_DIAS -> VentanasTarjeta.Periodo.DIA;
+            case PERIODO_SEMANA -> VentanasTarjeta.Periodo.SEMANA;
+            default -> null;
+        };
+    }
+
+    /**
+     * Nivel de riesgo de la regla; uno desconocido se toma como alto para que una
+     * regla mal cargada no deje de detener la transacción.
+     */
+    private static String nivelRiesgo(ReglaFraude regla) {
+        String nivel = regla.getNivelRiesgo();
+        if (ReglaFraude.NIVEL_RIESGO_BAJO.equals(nivel) || ReglaFraude.NIVEL_RIESGO_MEDIO.equals(nivel)
+                || ReglaFraude.NIVEL_RIESGO_ALTO.equals(nivel)) {
+            return nivel;
+        }
+        log.warn("Regla de fraude {} ({}) con nivel de riesgo desconocido {}, se evalúa como {}",
+            regla.getCodRegla(), regla.getNombreRegla(), nivel, ReglaFraude.NIVEL_RIESGO_ALTO);
+        return ReglaFraude.NIVEL_RIESGO_ALTO;
+    }
+
+    private static int pesoNivelRiesgo(String nivel) {
+        return switch (nivel) {
+            case ReglaFraude.NIVEL_RIESGO_BAJO -> 1;
+            case ReglaFraude.NIVEL_RIESGO_MEDIO -> 2;
+            default -> 3;
+        };
+    }
+
+    private static int puntajeRiesgo(String nivel) {
+        return switch (nivel) {
+            case ReglaFraude.NIVEL_RIESGO_BAJO -> 30;
+            case ReglaFraude.NIVEL_RIESGO_MEDIO -> 60;
+            default -> 90;
+        };
+    }
+
+    /**
+     * Regla activa lista para evaluar, con su nivel de riesgo ya validado y
+     * convertido a peso y puntaje, y sus contadores de evaluaciones y omisiones.
+     */
+    record ReglaCompilada(ReglaFraude regla, EvaluadorReglaFraude evaluador, String nivel, int pesoNivel,
+                          int puntaje, Counter evaluadas, Counter omitidas) {
+    }
+
+    /**
+     * Reglas en orden de evaluación con el mayor peso de riesgo desde cada
+     * posición hasta el final, el período de historial más largo que consultan y
+     * la versión de REGLA_FRAUDE de la que se compilaron.
+     */
+    static final class ReglasActivas {
+        private final ReglaCompilada[] reglas;
+        private final int[] pesoMaximoDesde;
+        private final VentanasTarjeta.Periodo periodoHistorial;
+        private final String version;
+
+        private ReglasActivas(ReglaCompilada[] reglas, String version) {
+            this.reglas = reglas;
+            this.version = version;
+            this.pesoMaximoDesde = new int[reglas.length + 1];
+            VentanasTarjeta.Periodo mayor = VentanasTarjeta.Periodo.MINUTO;
+            for (int i = reglas.length - 1; i >= 0; i--) {
+                pesoMaximoDesde[i] = Math.max(pesoMaximoDesde[i + 1], reglas[i].pesoNivel());
+                VentanasTarjeta.Periodo periodo = reglas[i].evaluador().periodoHistorial();
+                if (periodo != null && periodo.compareTo(mayor) > 0) {
+                    mayor = periodo;
+                }
+            }
+            this.periodoHistorial = mayor;
+        }
+
+        int cantidad() {
+            return reglas.length;
+        }
+
+        ReglaCompilada regla(int posicion) {
+            return reglas[posicion];
+        }
+
+        /**
+         * Mayor peso de riesgo que pueden aportar las reglas desde la posición.
+         */
+        int pesoMaximoDesde(int posicion) {
+            return pesoMaximoDesde[posicion];
+        }
+
+        VentanasTarjeta.Periodo periodoHistorial() {
+            return periodoHistorial;
+        }
+
+        String version() {
+            return version;
+        }
+    }
+
+    private static final EvaluadorReglaFraude NUNCA = new EvaluadorReglaFraude() {
+        @Override
+        public boolean cumple(Transaccion transaccion, HistorialTarjeta historial) {
+            return false;
+        }
+
+        @Override
+        public String detalle(Transaccion transaccion) {
+            return "";
+        }
+    };
+
+    private record EvaluadorMonto(BigDecimal limite) implements EvaluadorReglaFraude {
+
+        @Override
+        public boolean cumple(Transaccion transaccion, HistorialTarjeta historial) {
+            return transaccion.getMonto().compareTo(limite) > 0;
+        }
+
+        @Override
+        public String detalle(Transaccion transaccion) {
+            return "Monto excede el límite establecido. Monto transacción: " + transaccion.getMonto()
+                + ", Límite: " + limite;
+        }
+    }
+
+    private record EvaluadorTransacciones(int limite, VentanasTarjeta.Periodo periodo, String nombrePeriodo)
+            implements EvaluadorReglaFraude {
+
+        @Override
+        public boolean cumple(Transaccion transaccion, HistorialTarjeta historial) {
+            return historial.resumen(periodo).cantidad() >= limite;
+        }
+
+        @Override
+        public VentanasTarjeta.Periodo periodoHistorial() {
+            return periodo;
+        }
+
+        @Override
+        public String detalle(Transaccion transaccion) {
+            return "Exceso de transacciones en período de tiempo. Regla: " + limite
+                + " transacciones por " + nombrePeriodo;
+        }
+    }
+
+    private record EvaluadorUbicacion(VentanasTarjeta.Periodo periodo) implements EvaluadorReglaFraude {
+
+        @Override
+        public boolean cumple(Transaccion transaccion, HistorialTarjeta historial) {
+            return historial.resumen(periodo).paisesDistintos() > 1;
+        }
+
+        @Override
+        public VentanasTarjeta.Periodo periodoHistorial() {
+            return periodo;
+        }
+
+        @Override
+        public String detalle(Transaccion transaccion) {
+            return "Transacciones desde diferentes países en corto tiempo. País actual: " + transaccion.getPais();
+        }
+    }
+
+    /**
+     * País fuera de los permitidos, o beneficiario o cuenta destino entre los
+     * comercios excluidos.
+     */
+    private record EvaluadorComercio(long[] paisesPermitidos, ConjuntoComercios excluidos)
+            implements EvaluadorReglaFraude {
+
+        @Override
+        public boolean cumple(Transaccion transaccion, HistorialTarjeta historial) {
+            return paisNoPermitido(transaccion.getPais()) || comercioExcluido(transaccion);
+        }
+
+        @Override
+        public String detalle(Transaccion transaccion) {
+            if (paisNoPermitido(transaccion.getPais())) {
+                return "País no permitido para la regla. País transacción: " + transaccion.getPais();
+            }
+            return "Comercio excluido. Beneficiario: " + transaccion.getBeneficiario()
+                + ", Cuenta: " + transaccion.getNumeroCuenta();
+        }
+
+        private boolean paisNoPermitido(String pais) {
+            if (paisesPermitidos == null) {
+                return false;
+            }
+            int indice = indicePais(pais);
+            return indice < 0 || (paisesPermitidos[indice >>> 6] & (1L << indice)) == 0;
+        }
+
+        private boolean comercioExcluido(Transaccion transaccion) {
+            return excluidos.contiene(transaccion.getBeneficiario()) || excluidos.contiene(transaccion.getNumeroCuenta());
+        }
+    }
+
+    /**
+     * Hora de creación dentro del rango [inicio, fin) en minutos del día; si inicio
+     * es mayor que fin el rango cruza la medianoche.
+     */
+    private record EvaluadorHorario(int inicio, int fin) implements EvaluadorReglaFraude {
+
+        @Override
+        public boolean cumple(Transaccion transaccion, HistorialTarjeta historial) {
+            LocalDateTime fecha = transaccion.getFechaCreacion();
+            if (fecha == null) {
+                return false;
+            }
+            int minuto = minutoDelDia(fecha.getHour(), fecha.getMinute());
+            return inicio < fin ? minuto >= inicio && minuto < fin : minuto >= inicio || minuto < fin;
+        }
+
+        @Override
+        public String detalle(Transaccion transaccion) {
+            return String.format("Transacción en horario restringido %02d:%02d-%02d:%02d. Hora transacción: %s",
+                inicio / 60, inicio % 60, fin / 60, fin % 60, transaccion.getFechaCreacion().toLocalTime());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.banquito.cards.fraude.service;
+
+import com.banquito.cards.fraude.model.MonitoreoFraude;
+import com.banquito.cards.fraude.repository.MonitoreoFraudeJdbcRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escritura diferida de alertas de fraude. La evaluación deja cada alerta en una
+ * cola acotada y un hilo escritor las inserta en lotes JDBC cada intervalo-ms o
+ * al juntar tamano-lote, de modo que una transacción que activa varias reglas no
+ * espera ningún insert. Con la cola llena la alerta se inserta en el hilo que la
+ * generó. Si un lote falla se reintenta cada alerta por separado y las que
+ * vuelven a fallar se descartan con un error en el log. Al detenerse se escriben
+ * las alertas que quedan en la cola.
+ */
+@Slf4j
+@Component
+public class EscritorAlertasFraude {
+
+    private final MonitoreoFraudeJdbcRepository monitoreoFraudeJdbcRepository;
+    private final BlockingQueue<MonitoreoFraude> pendientes;
+    private final int tamanoLote;
+    private final long intervaloMs;
+    private final long esperaDetencionMs;
+    private final Timer escrituras;
+    private final Counter sincronas;
+    private final Counter descartadas;
+    private Thread escritor;
+    private volatile boolean activo;
+
+    public EscritorAlertasFraude(MonitoreoFraudeJdbcRepository monitoreoFraudeJdbcRepository,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${fraude.alertas.capacidad-cola:10000}") int capacidadCola,
+                                 @Value("${fraude.alertas.tamano-lote:200}") int tamanoLote,
+                                 @Value("${fraude.alertas.intervalo-ms:200}") long intervaloMs,
+                                 @Value("${fraude.alertas.espera-detencion-ms:10000}") long esperaDetencionMs) {
+        this.monitoreoFraudeJdbcRepository = monitoreoFraudeJdbcRepository;
+        this.pendientes = new ArrayBlockingQueue<>(capacidadCola);
+        this.tamanoLote = tamanoLote;
+        this.intervaloMs = intervaloMs;
+        this.esperaDetencionMs = esperaDetencionMs;
+        this.escrituras = Timer.builder("pagos.fraude.alertas.escritura")
+                .description("Duración de cada inserción por lote de alertas de fraude")
+                .register(meterRegistry);
+        this.sincronas = Counter.builder("pagos.fraude.alertas.sincronas")
+                .description("Alertas insertadas en el hilo de evaluación por cola llena")
+                .register(meterRegistry);
+        this.descartadas = Counter.builder("pagos.fraude.alertas.descartadas")
+                .description("Alertas que no se pudieron insertar")
+                .register(meterRegistry);
+        Gauge.builder("pagos.fraude.alertas.cola", pendientes, BlockingQueue::size)
+                .description("Alertas de fraude pendientes de escribir")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        activo = true;
+        escritor = Thread.ofPlatform().name("escritor-alertas-fraude").daemon(true).start(this::escribir);
+    }
+
+    /**
+     * Deja de aceptar alertas en la cola y espera a que el escritor inserte las
+     * pendientes.
+     */
+    @PreDestroy
+    public void detener() throws InterruptedException {
+        activo = false;
+        escritor.join(esperaDetencionMs);
+        if (!pendientes.isEmpty()) {
+            log.error("{} alertas de fraude sin escribir al detener", pendientes.size());
+        }
+    }
+
+    /**
+     * Encola la alerta para el próximo lote; si la cola está llena o el escritor
+     * se detuvo, la inserta de inmediato.
+     */
+    public void registrar(MonitoreoFraude alerta) {
+        if (activo && pendientes.offer(alerta)) {
+            return;
+        }
+        sincronas.increment();
+        monitoreoFraudeJdbcRepository.insertarAlertas(List.of(alerta));
+    }
+
+    private void escribir() {
+        List<MonitoreoFraude> lote = new ArrayList<>(tamanoLote);
+        while (activo || !pendientes.isEmpty()) {
+            try {
+                MonitoreoFraude primera = pendientes.poll(intervaloMs, TimeUnit.MILLISECONDS);
+                if (primera == null) {
+                    continue;
+                }
+                lote.add(primera);
+                long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervaloMs);
+                while (lote.size() < tamanoLote) {
+                    if (pendientes.drainTo(lote, tamanoLote - lote.size()) > 0) {
+                        continue;
+                    }
+                    long restante = limite - System.nanoTime();
+                    MonitoreoFraude siguiente = restante > 0 ? pendientes.poll(restante, TimeUnit.NANOSECONDS) : null;
+                    if (siguiente == null) {
+                        break;
+                    }
+                    lote.add(siguiente);
+                }
+                insertar(lote);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                insertar(lote);
+                return;
+            } finally {
+                lote.clear();
+            }
+        }
+    }
+
+    private void insertar(List<MonitoreoFraude> lote) {
+        if (lote.isEmpty()) {
+            return;
+        }
+        try {
+            escrituras.record(() -> monitoreoFraudeJdbcRepository.insertarAlertas(lote));
+        } catch (RuntimeException e) {
+            log.warn("Inserción de {} alertas de fraude falló, se reintentan por separado: {}", lote.size(),
+                e.getMessage());
+            for (MonitoreoFraude alerta : lote) {
+                try {
+                    monitoreoFraudeJdbcRepository.insertarAlertas(List.of(alerta));
+                } catch (RuntimeException error) {
+                    descartadas.increment();
+                    log.error("No se pudo guardar la alerta de fraude {} de la transacción {}: {}", alerta.getCodigo(),
+                        alerta.getCodigoUnicoTransaccion(), error.getMessage());
+                }
+            }
+        }
+    }
+}
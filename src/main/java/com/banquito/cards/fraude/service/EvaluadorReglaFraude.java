@@ -0,0 +1,22 @@
+package com.banquito.cards.fraude.service;
+
+import com.banquito.cards.transaccion.model.Transaccion;
+
+/**
+ * Condición de una regla de fraude ya compilada: los parámetros de la regla se
+ * leen una vez al compilarla y no en cada evaluación.
+ */
+interface EvaluadorReglaFraude {
+
+    boolean cumple(Transaccion transaccion, HistorialTarjeta historial);
+
+    String detalle(Transaccion transaccion);
+
+    /**
+     * Período del historial de la tarjeta que consulta la regla, o null si solo
+     * mira los datos de la transacción. Las reglas sin historial se evalúan primero.
+     */
+    default VentanasTarjeta.Periodo periodoHistorial() {
+        return null;
+    }
+}
@@ -0,0 +1,62 @@
+package com.banquito.cards.fraude.service;
+
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.banquito.cards.transaccion.repository.TransaccionRepository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Historial de la tarjeta para una sola evaluación. No consulta nada hasta que
+ * una regla lo pide; cada período se resume una vez desde las
+ * {@link VentanasTarjeta} y, si no pueden responder, las transacciones se leen de
+ * la base una sola vez para el período más largo que usan las reglas activas y
+ * los períodos más cortos se filtran de esa lista.
+ */
+final class HistorialTarjeta {
+
+    private final Transaccion transaccion;
+    private final VentanasTarjeta ventanasTarjeta;
+    private final TransaccionRepository transaccionRepository;
+    private final VentanasTarjeta.Periodo periodoMaximo;
+    private VentanasTarjeta.Resumen[] resumenes;
+    private List<Transaccion> transacciones;
+
+    HistorialTarjeta(Transaccion transaccion, VentanasTarjeta ventanasTarjeta,
+                     TransaccionRepository transaccionRepository, VentanasTarjeta.Periodo periodoMaximo) {
+        this.transaccion = transaccion;
+        this.ventanasTarjeta = ventanasTarjeta;
+        this.transaccionRepository = transaccionRepository;
+        this.periodoMaximo = periodoMaximo;
+    }
+
+    VentanasTarjeta.Resumen resumen(VentanasTarjeta.Periodo periodo) {
+        if (resumenes == null) {
+            resumenes = new VentanasTarjeta.Resumen[VentanasTarjeta.Periodo.values().length];
+        }
+        VentanasTarjeta.Resumen resumen = resumenes[periodo.ordinal()];
+        if (resumen == null) {
+            resumen = ventanasTarjeta.resumen(transaccion.getNumeroTarjeta(), periodo, transaccion.getFechaCreacion())
+                .orElseGet(() -> desdeBase(periodo));
+            resumenes[periodo.ordinal()] = resumen;
+        }
+        return resumen;
+    }
+
+    private VentanasTarjeta.Resumen desdeBase(VentanasTarjeta.Periodo periodo) {
+        LocalDateTime fin = transaccion.getFechaCreacion();
+        VentanasTarjeta.Periodo consultado = periodoMaximo.compareTo(periodo) >= 0 ? periodoMaximo : periodo;
+        if (transacciones == null) {
+            transacciones = transaccionRepository.findByNumeroTarjetaAndFechaCreacionBetweenOrderByFechaCreacionDesc(
+                transaccion.getNumeroTarjeta(), fin.minus(consultado.duracion()), fin);
+        }
+        LocalDateTime inicio = fin.minus(periodo.duracion());
+        List<Transaccion> delPeriodo = transacciones.stream()
+            .filter(t -> !t.getFechaCreacion().isBefore(inicio))
+            .toList();
+        return new VentanasTarjeta.Resumen(delPeriodo.size(),
+            delPeriodo.stream().map(Transaccion::getMonto).reduce(BigDecimal.ZERO, BigDecimal::add),
+            (int) delPeriodo.stream().map(Transaccion::getPais).distinct().count());
+    }
+}
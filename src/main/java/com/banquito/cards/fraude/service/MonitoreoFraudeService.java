@@ -3,51 +3,42 @@ package com.banquito.cards.fraude.service;
 import com.banquito.cards.fraude.model.MonitoreoFraude;
 import com.banquito.cards.fraude.model.ReglaFraude;
 import com.banquito.cards.fraude.repository.MonitoreoFraudeRepository;
-import com.banquito.cards.fraude.repository.ReglaFraudeRepository;
 import com.banquito.cards.transaccion.model.Transaccion;
-import com.banquito.cards.transaccion.repository.TransaccionRepository;
 import com.banquito.cards.exception.BusinessException;
 import com.banquito.cards.exception.NotFoundException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
 @Slf4j
 @Service
-@Transactional
 public class MonitoreoFraudeService {
 
     private static final String ENTITY_NAME = "MonitoreoFraude";
-    private static final String ESTADO_ACTIVO = "ACT";
     private static final String ESTADO_PENDIENTE = "PEN";
     private static final String ESTADO_PROCESADO = "PRO";
     private static final String ESTADO_RECHAZADO = "REC";
     private static final String ESTADO_APROBADO = "APR";
     private static final String ESTADO_REVISION = "REV";
-    private static final String TIPO_REGLA_MONTO = "MNT";
-    private static final String TIPO_REGLA_TRANSACCION = "TRX";
-    private static final String TIPO_REGLA_UBICACION = "UBI";
-    private static final String PERIODO_DIA = "DIA";
-    private static final String PERIODO_HORA = "HOR";
-    private static final String PERIODO_SEMANA = "SEM";
 
     private final MonitoreoFraudeRepository monitoreoFraudeRepository;
-    private final ReglaFraudeRepository reglaFraudeRepository;
-    private final TransaccionRepository transaccionRepository;
+    private final ConjuntoReglasFraude conjuntoReglas;
+    private final EscritorAlertasFraude escritorAlertas;
 
     public MonitoreoFraudeService(MonitoreoFraudeRepository monitoreoFraudeRepository,
-                                ReglaFraudeRepository reglaFraudeRepository,
-                                TransaccionRepository transaccionRepository) {
+                                ConjuntoReglasFraude conjuntoReglas,
+                                EscritorAlertasFraude escritorAlertas) {
         this.monitoreoFraudeRepository = monitoreoFraudeRepository;
-        this.reglaFraudeRepository = reglaFraudeRepository;
-        this.transaccionRepository = transaccionRepository;
+        this.conjuntoReglas = conjuntoReglas;
+        this.escritorAlertas = escritorAlertas;
     }
 
     @Transactional(readOnly = true)
@@ -130,6 +121,15 @@ public class MonitoreoFraudeService {
         }
     }
 
+    /**
+     * Nivel de riesgo más alto entre las reglas activas que cumple la transacción,
+     * con una alerta por cada regla cumplida. Las reglas se recorren en el orden
+     * del {@link ConjuntoReglasFraude} y la evaluación termina cuando ninguna de las
+     * restantes puede subir el nivel alcanzado, así que no se generan sus alertas.
+     * No ocupa una conexión durante la evaluación: las reglas están en memoria, el
+     * historial abre sus propias lecturas y las alertas las inserta el escritor.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public String evaluarRiesgoTransaccion(Transaccion transaccion) {
         if (transaccion == null) {
             throw new BusinessException("La transacción es requerida para evaluar el riesgo", ENTITY_NAME, "evaluar riesgo");
@@ -137,48 +137,46 @@ public class MonitoreoFraudeService {
 
         try {
             String nivelRiesgoMayor = "BAJ";
-            List<ReglaFraude> reglasActivas = reglaFraudeRepository.findByEstado(ESTADO_ACTIVO);
-
-            if (reglasActivas.isEmpty()) {
-                return nivelRiesgoMayor;
-            }
-
-            for (ReglaFraude regla : reglasActivas) {
-                boolean cumpleRegla = false;
-
-                switch (regla.getTipoRegla()) {
-                    case TIPO_REGLA_MONTO:
-                        cumpleRegla = evaluarReglaMonto(transaccion, regla);
-                        break;
-                    case TIPO_REGLA_TRANSACCION:
-                        cumpleRegla = evaluarReglaTransacciones(transaccion, regla);
-                        break;
-                    case TIPO_REGLA_UBICACION:
-                        cumpleRegla = evaluarReglaUbicacion(transaccion, regla);
-                        break;
-                    default:
-                        continue;
+            int pesoMayor = 0;
+            ConjuntoReglasFraude.ReglasActivas activas = conjuntoReglas.activas();
+            HistorialTarjeta historial = conjuntoReglas.historial(transaccion, activas);
+
+            for (int i = 0; i < activas.cantidad(); i++) {
+                ConjuntoReglasFraude.ReglaCompilada compilada = activas.regla(i);
+                if (pesoMayor >= activas.pesoMaximoDesde(i)) {
+                    for (int j = i; j < activas.cantidad(); j++) {
+                        activas.regla(j).omitidas().increment();
+                    }
+                    break;
                 }
+                compilada.evaluadas().increment();
+                if (!compilada.evaluador().cumple(transaccion, historial)) {
+                    continue;
+                }
+                ReglaFraude regla = compilada.regla();
+                try {
+                    MonitoreoFraude alerta = new MonitoreoFraude(UUID.randomUUID().toString());
+                    alerta.setTransaccion(transaccion);
+                    alerta.setReglaFraude(regla);
+                    alerta.setNivelRiesgo(compilada.nivel());
+                    alerta.setPuntajeRiesgo(compilada.puntaje());
+                    alerta.setEstado("PEN");
+                    alerta.setDetalle("Alerta de fraude detectada - " + compilada.evaluador().detalle(transaccion));
+                    alerta.setFechaDeteccion(LocalDateTime.now());
+                    alerta.setCodigoUnicoTransaccion(transaccion.getCodigoUnicoTransaccion());
+                    boolean requiereVerificacion = MonitoreoFraude.NIVEL_RIESGO_ALTO.equals(compilada.nivel());
+                    alerta.setRequiereVerificacionAdicional(requiereVerificacion);
+                    if (requiereVerificacion) {
+                        alerta.setMotivoVerificacion("Riesgo alto: " + regla.getNombreRegla());
+                    }
+                    escritorAlertas.registrar(alerta);
 
-                if (cumpleRegla) {
-                    try {
-                        MonitoreoFraude alerta = new MonitoreoFraude();
-                        alerta.setTransaccion(transaccion);
-                        alerta.setReglaFraude(regla);
-                        alerta.setNivelRiesgo(regla.getNivelRiesgo());
-                        alerta.setPuntajeRiesgo(calcularPuntajeRiesgo(regla));
-                        alerta.setEstado("PEN");
-                        alerta.setDetalle(generarDetalleFraude(transaccion, regla));
-                        alerta.setFechaDeteccion(LocalDateTime.now());
-                        alerta.setCodigoUnicoTransaccion(transaccion.getCodigoUnicoTransaccion());
-                        monitoreoFraudeRepository.save(alerta);
-
-                        if (compararNivelRiesgo(regla.getNivelRiesgo(), nivelRiesgoMayor) > 0) {
-                            nivelRiesgoMayor = regla.getNivelRiesgo();
-                        }
-                    } catch (Exception e) {
-                        throw new BusinessException(e.getMessage(), ENTITY_NAME, "crear monitoreo");
+                    if (compilada.pesoNivel() > pesoMayor) {
+                        pesoMayor = compilada.pesoNivel();
+                        nivelRiesgoMayor = compilada.nivel();
                     }
+                } catch (Exception e) {
+                    throw new BusinessException(e.getMessage(), ENTITY_NAME, "crear monitoreo");
                 }
             }
 
@@ -188,107 +186,6 @@ public class MonitoreoFraudeService {
         }
     }
 
-    private boolean evaluarReglaMonto(Transaccion transaccion, ReglaFraude regla) {
-        if (regla.getLimiteMontoTotal() == null) {
-            return false;
-        }
-        return transaccion.getMonto().compareTo(regla.getLimiteMontoTotal()) > 0;
-    }
-
-    private boolean evaluarReglaTransacciones(Transaccion transaccion, ReglaFraude regla) {
-        if (regla.getLimiteTransacciones() == null || regla.getPeriodoTiempo() == null) {
-            return false;
-        }
-
-        LocalDateTime fechaInicio = calcularFechaInicio(transaccion.getFechaCreacion(), regla.getPeriodoTiempo());
-        List<Transaccion> transaccionesPeriodo = transaccionRepository
-            .findByNumeroTarjetaAndFechaCreacionBetweenOrderByFechaCreacionDesc(
-                transaccion.getNumeroTarjeta(),
-                fechaInicio,
-                transaccion.getFechaCreacion());
-
-        return transaccionesPeriodo.size() >= regla.getLimiteTransacciones().intValue();
-    }
-
-    private boolean evaluarReglaUbicacion(Transaccion transaccion, ReglaFraude regla) {
-        if (regla.getPeriodoTiempo() == null) {
-            return false;
-        }
-
-        LocalDateTime fechaInicio = calcularFechaInicio(transaccion.getFechaCreacion(), regla.getPeriodoTiempo());
-        List<Transaccion> transaccionesPeriodo = transaccionRepository
-            .findByNumeroTarjetaAndFechaCreacionBetweenOrderByFechaCreacionDesc(
-                transaccion.getNumeroTarjeta(),
-                fechaInicio,
-                transaccion.getFechaCreacion());
-
-        return transaccionesPeriodo.stream()
-            .map(Transaccion::getPais)
-            .distinct()
-            .count() > 1;
-    }
-
-    private LocalDateTime calcularFechaInicio(LocalDateTime fechaReferencia, String periodoTiempo) {
-        switch (periodoTiempo) {
-            case PERIODO_HORA:
-                return fechaReferencia.minus(1, ChronoUnit.HOURS);
-            case PERIODO_DIA:
-                return fechaReferencia.minus(1, ChronoUnit.DAYS);
-            case PERIODO_SEMANA:
-                return fechaReferencia.minus(7, ChronoUnit.DAYS);
-            default:
-                throw new BusinessException("Periodo de tiempo no válido", ENTITY_NAME, "validar periodo");
-        }
-    }
-
-    private int compararNivelRiesgo(String nivel1, String nivel2) {
-        int pesoNivel1 = obtenerPesoNivelRiesgo(nivel1);
-        int pesoNivel2 = obtenerPesoNivelRiesgo(nivel2);
-        return Integer.compare(pesoNivel1, pesoNivel2);
-    }
-
-    private int obtenerPesoNivelRiesgo(String nivel) {
-        switch (nivel) {
-            case "BAJ": return 1;
-            case "MED": return 2;
-            case "ALT": return 3;
-            default: return 0;
-        }
-    }
-
-    private Integer calcularPuntajeRiesgo(ReglaFraude regla) {
-        switch (regla.getNivelRiesgo()) {
-            case "BAJ": return 30;
-            case "MED": return 60;
-            case "ALT": return 90;
-            default: return 0;
-        }
-    }
-
-    private String generarDetalleFraude(Transaccion transaccion, ReglaFraude regla) {
-        StringBuilder detalle = new StringBuilder();
-        detalle.append("Alerta de fraude detectada - ");
-        
-        switch (regla.getTipoRegla()) {
-            case TIPO_REGLA_MONTO:
-                detalle.append("Monto excede el límite establecido. ");
-                detalle.append("Monto transacción: ").append(transaccion.getMonto());
-                detalle.append(", Límite: ").append(regla.getLimiteMontoTotal());
-                break;
-            case TIPO_REGLA_TRANSACCION:
-                detalle.append("Exceso de transacciones en período de tiempo. ");
-                detalle.append("Regla: ").append(regla.getLimiteTransacciones());
-                detalle.append(" transacciones por ").append(regla.getPeriodoTiempo().toLowerCase());
-                break;
-            case TIPO_REGLA_UBICACION:
-                detalle.append("Transacciones desde diferentes países en corto tiempo. ");
-                detalle.append("País actual: ").append(transaccion.getPais());
-                break;
-        }
-        
-        return detalle.toString();
-    }
-
     @Transactional(readOnly = true)
     public List<MonitoreoFraude> obtenerAlertasPendientes() {
         return monitoreoFraudeRepository.findByEstado("PEN");
@@ -327,6 +224,7 @@ public class MonitoreoFraudeService {
         monitoreoFraudeRepository.save(alerta);
     }
 
+    @Transactional
     public void actualizarEstadoMonitoreoFraude(String codigoUnicoTransaccion, String estado) {
         MonitoreoFraude monitoreo = monitoreoFraudeRepository.findByCodigoUnicoTransaccion(codigoUnicoTransaccion)
                 .orElseThrow(() -> new NotFoundException(codigoUnicoTransaccion, ENTITY_NAME));
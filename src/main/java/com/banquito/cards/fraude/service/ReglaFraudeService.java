@@ -22,9 +22,11 @@ public class ReglaFraudeService {
 
     private static final String ENTITY_NAME = "ReglaFraude";
     private final ReglaFraudeRepository reglaFraudeRepository;
+    private final ConjuntoReglasFraude conjuntoReglas;
 
-    public ReglaFraudeService(ReglaFraudeRepository reglaFraudeRepository) {
+    public ReglaFraudeService(ReglaFraudeRepository reglaFraudeRepository, ConjuntoReglasFraude conjuntoReglas) {
         this.reglaFraudeRepository = reglaFraudeRepository;
+        this.conjuntoReglas = conjuntoReglas;
     }
 
     @Transactional(readOnly = true)
@@ -71,7 +73,9 @@ public class ReglaFraudeService {
         validarRegla(regla);
         regla.setFechaCreacion(LocalDateTime.now());
         regla.setEstado(ReglaFraude.ESTADO_ACTIVO);
-        return reglaFraudeRepository.save(regla);
+        ReglaFraude creada = reglaFraudeRepository.save(regla);
+        conjuntoReglas.recargarAlConfirmar();
+        return creada;
     }
 
     @Transactional
@@ -83,7 +87,9 @@ public class ReglaFraudeService {
         validarRegla(regla);
         actualizarDatosRegla(reglaExistente, regla);
         
-        return reglaFraudeRepository.save(reglaExistente);
+        ReglaFraude actualizada = reglaFraudeRepository.save(reglaExistente);
+        conjuntoReglas.recargarAlConfirmar();
+        return actualizada;
     }
 
     @Transactional
@@ -101,6 +107,7 @@ public class ReglaFraudeService {
         regla.setUsuarioActualizacion("SYSTEM"); 
         
         reglaFraudeRepository.save(regla);
+        conjuntoReglas.recargarAlConfirmar();
     }
 
     private void validarRegla(ReglaFraude regla) {
@@ -0,0 +1,364 @@
+package com.banquito.cards.fraude.service;
+
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.banquito.cards.transaccion.repository.TransaccionJdbcRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Actividad reciente por tarjeta para las reglas de velocidad (TRX) y de
+ * ubicación (GEO). Por cada período se guarda un anillo de intervalos con la
+ * cantidad y el monto de las transacciones, y por tarjeta los últimos países con
+ * la fecha en que se vieron, así que una consulta recorre un número fijo de
+ * intervalos sin ir a la base. Un intervalo cuenta entero si se solapa con la
+ * ventana, de modo que la cantidad puede incluir transacciones hasta un intervalo
+ * más antiguas que el período; para reglas de fraude se prefiere contar de más.
+ *
+ * <p>Las transacciones se registran al confirmarse su inserción. Cada tarjeta
+ * recuerda desde cuándo su actividad está completa en memoria: las cargadas al
+ * arrancar, desde el inicio de la semana leída; las que aparecen después, desde
+ * su primera transacción registrada. Un período que empieza antes de esa fecha,
+ * una tarjeta desconocida o que no entró por superar maximo-tarjetas, y
+ * cualquier consulta antes de terminar la carga quedan vacíos y las reglas
+ * consultan la base. Cada nodo solo registra lo que inserta él mismo, así que
+ * con varios nodos las ventanas requieren que las transacciones de una tarjeta
+ * lleguen siempre al mismo nodo; si no, deben deshabilitarse. Una transacción
+ * confirmada mientras corre la carga puede contarse dos veces.
+ */
+@Slf4j
+@Component
+public class VentanasTarjeta {
+
+    private static final int MAXIMO_PAISES = 8;
+
+    /**
+     * Períodos de las reglas con el ancho y la cantidad de intervalos de su anillo.
+     */
+    public enum Periodo {
+        MINUTO(Duration.ofMinutes(1), 5, 12),
+        HORA(Duration.ofHours(1), 300, 12),
+        DIA(Duration.ofDays(1), 3600, 24),
+        SEMANA(Duration.ofDays(7), 21600, 28);
+
+        private final Duration duracion;
+        private final long segundos;
+        private final int anchoIntervalo;
+        private final int intervalos;
+
+        Periodo(Duration duracion, int anchoIntervalo, int intervalos) {
+            this.duracion = duracion;
+            this.segundos = duracion.getSeconds();
+            this.anchoIntervalo = anchoIntervalo;
+            this.intervalos = intervalos;
+        }
+
+        public Duration duracion() {
+            return duracion;
+        }
+    }
+
+    /**
+     * Actividad de una tarjeta en un período que termina en la fecha consultada.
+     */
+    public record Resumen(int cantidad, BigDecimal monto, int paisesDistintos) {
+    }
+
+    private final TransaccionJdbcRepository transaccionJdbcRepository;
+    private final boolean habilitado;
+    private final int maximoTarjetas;
+    private final ConcurrentMap<String, ActividadTarjeta> tarjetas = new ConcurrentHashMap<>();
+    private volatile boolean cargado;
+
+    public VentanasTarjeta(TransaccionJdbcRepository transaccionJdbcRepository,
+                           MeterRegistry meterRegistry,
+                           @Value("${fraude.ventanas.habilitado:true}") boolean habilitado,
+                           @Value("${fraude.ventanas.maximo-tarjetas:100000}") int maximoTarjetas) {
+        this.transaccionJdbcRepository = transaccionJdbcRepository;
+        this.habilitado = habilitado;
+        this.maximoTarjetas = maximoTarjetas;
+        Gauge.builder("pagos.fraude.ventanas.tarjetas", tarjetas, ConcurrentMap::size)
+                .description("Tarjetas con actividad reciente en memoria")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void cargar() {
+        if (!habilitado) {
+            return;
+        }
+        long inicio = System.nanoTime();
+        LocalDateTime desde = LocalDateTime.now().minus(Periodo.SEMANA.duracion());
+        long cubiertaDesde = segundos(desde);
+        try {
+            transaccionJdbcRepository.recorrerActividadDesde(desde,
+                transaccion -> registrar(transaccion, cubiertaDesde));
+            cargado = true;
+            log.info("Ventanas por tarjeta cargadas con {} tarjetas en {} ms", tarjetas.size(),
+                (System.nanoTime() - inicio) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.error("No se pudieron cargar las ventanas por tarjeta, las reglas consultarán la base: {}",
+                e.getMessage());
+        }
+    }
+
+    /**
+     * Suma las transacciones a la actividad de sus tarjetas al confirmarse la
+     * transacción en curso, o de inmediato si no hay una; una inserción revertida
+     * no queda contada.
+     */
+    public void registrarAlConfirmar(List<Transaccion> transacciones) {
+        if (!habilitado || transacciones.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            transacciones.forEach(this::registrar);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                transacciones.forEach(VentanasTarjeta.this::registrar);
+            }
+        });
+    }
+
+    /**
+     * Suma la transacción a la actividad de su tarjeta; se llama una vez por
+     * transacción confirmada.
+     */
+    public void registrar(Transaccion transaccion) {
+        if (transaccion.getFechaCreacion() != null) {
+            registrar(transaccion, segundos(transaccion.getFechaCreacion()));
+        }
+    }
+
+    private void registrar(Transaccion transaccion, long cubiertaDesde) {
+        if (!habilitado || transaccion.getNumeroTarjeta() == null || transaccion.getFechaCreacion() == null) {
+            return;
+        }
+        if (tarjetas.size() >= maximoTarjetas && !tarjetas.containsKey(transaccion.getNumeroTarjeta())) {
+            return;
+        }
+        long segundo = segundos(transaccion.getFechaCreacion());
+        long centavos = aCentavos(transaccion.getMonto());
+        int pais = codigoPais(transaccion.getPais());
+        tarjetas.compute(transaccion.getNumeroTarjeta(), (numero, actividad) -> {
+            ActividadTarjeta destino = actividad != null ? actividad : new ActividadTarjeta(cubiertaDesde);
+            destino.registrar(segundo, centavos, pais, cubiertaDesde);
+            return destino;
+        });
+    }
+
+    /**
+     * Actividad de la tarjeta en el período que termina en la fecha indicada. Vacío
+     * si la memoria no cubre el período completo de la tarjeta y hay que consultar
+     * la base.
+     */
+    public Optional<Resumen> resumen(String numeroTarjeta, Periodo periodo, LocalDateTime hasta) {
+        if (!habilitado || !cargado || numeroTarjeta == null || hasta == null) {
+            return Optional.empty();
+        }
+        ActividadTarjeta actividad = tarjetas.get(numeroTarjeta);
+        return actividad == null ? Optional.empty() : actividad.resumen(periodo, segundos(hasta));
+    }
+
+    /**
+     * Descarta las tarjetas sin actividad en la última semana para dejar lugar a
+     * otras. Se descartan con computeIfPresent para no perder una transacción que
+     * se registre a la vez.
+     */
+    @Scheduled(fixedDelayString = "${fraude.ventanas.intervalo-limpieza-ms:600000}")
+    public void limpiar() {
+        if (!habilitado) {
+            return;
+        }
+        long limite = segundos(LocalDateTime.now()) - Periodo.SEMANA.segundos - Periodo.SEMANA.anchoIntervalo;
+        for (String numeroTarjeta : tarjetas.keySet()) {
+            tarjetas.computeIfPresent(numeroTarjeta,
+                (numero, actividad) -> actividad.ultimaActividad() < limite ? null : actividad);
+        }
+    }
+
+    private static long segundos(LocalDateTime fecha) {
+        return fecha.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static long aCentavos(BigDecimal monto) {
+        return monto == null ? 0 : monto.setScale(2, RoundingMode.HALF_UP).movePointRight(2).longValue();
+    }
+
+    private static int codigoPais(String pais) {
+        return pais == null || pais.length() != 2 ? 0 : (Character.toUpperCase(pais.charAt(0)) << 16)
+            | Character.toUpperCase(pais.charAt(1));
+    }
+
+    /**
+     * Anillos de una tarjeta. Las escrituras y lecturas de una misma tarjeta se
+     * serializan con su bloqueo; tarjetas distintas no compiten.
+     */
+    private static final class ActividadTarjeta {
+        private final ReentrantLock bloqueo = new ReentrantLock();
+        private final Anillo[] anillos = new Anillo[Periodo.values().length];
+        private final int[] paises = new int[MAXIMO_PAISES];
+        private final long[] paisVistoEn = new long[MAXIMO_PAISES];
+        private long cubiertaDesde;
+        private volatile long ultimaActividad;
+
+        private ActividadTarjeta(long cubiertaDesde) {
+            this.cubiertaDesde = cubiertaDesde;
+            for (Periodo periodo : Periodo.values()) {
+                anillos[periodo.ordinal()] = new Anillo(periodo.anchoIntervalo, periodo.intervalos);
+            }
+        }
+
+        /**
+         * Una carga que incluye la transacción adelanta la fecha desde la que la
+         * tarjeta está completa; un registro posterior no la cambia.
+         */
+        private void registrar(long segundo, long centavos, int pais, long cubiertaDesde) {
+            bloqueo.lock();
+            try {
+                this.cubiertaDesde = Math.min(this.cubiertaDesde, cubiertaDesde);
+                for (Anillo anillo : anillos) {
+                    anillo.sumar(segundo, centavos);
+                }
+                if (pais != 0) {
+                    registrarPais(segundo, pais);
+                }
+                ultimaActividad = Math.max(ultimaActividad, segundo);
+            } finally {
+                bloqueo.unlock();
+            }
+        }
+
+        /**
+         * Guarda el país con la fecha más reciente en que se vio; si no hay lugar
+         * reemplaza al visto hace más tiempo.
+         */
+        private void registrarPais(long segundo, int pais) {
+            int libre = 0;
+            for (int i = 0; i < MAXIMO_PAISES; i++) {
+                if (paises[i] == pais) {
+                    paisVistoEn[i] = Math.max(paisVistoEn[i], segundo);
+                    return;
+                }
+                if (paises[i] == 0 || paisVistoEn[i] < paisVistoEn[libre]) {
+                    libre = i;
+                    if (paises[i] == 0) {
+                        break;
+                    }
+                }
+            }
+            paises[libre] = pais;
+            paisVistoEn[libre] = segundo;
+        }
+
+        private Optional<Resumen> resumen(Periodo periodo, long hasta) {
+            bloqueo.lock();
+            try {
+                Anillo anillo = anillos[periodo.ordinal()];
+                long desde = hasta - periodo.segundos;
+                if (desde < cubiertaDesde) {
+                    return Optional.empty();
+                }
+                int distintos = 0;
+                for (int i = 0; i < MAXIMO_PAISES; i++) {
+                    if (paises[i] != 0 && paisVistoEn[i] >= desde) {
+                        distintos++;
+                    }
+                }
+                return Optional.of(new Resumen(anillo.cantidad(desde, hasta),
+                    BigDecimal.valueOf(anillo.monto(desde, hasta), 2), distintos));
+            } finally {
+                bloqueo.unlock();
+            }
+        }
+
+        private long ultimaActividad() {
+            return ultimaActividad;
+        }
+    }
+
+    /**
+     * Anillo de intervalos de ancho fijo, con uno más de los que cubren el período
+     * para conservar el que la ventana corta por la mitad. Cada posición recuerda el inicio del
+     * intervalo que contiene; al llegar una transacción de un intervalo más nuevo
+     * la posición se reinicia, y una más vieja que la que ocupa la posición ya
+     * quedó fuera de todo período y se ignora.
+     */
+    private static final class Anillo {
+        private final int ancho;
+        private final long[] inicios;
+        private final int[] cantidades;
+        private final long[] montos;
+
+        private Anillo(int ancho, int intervalos) {
+            this.ancho = ancho;
+            this.inicios = new long[intervalos + 1];
+            this.cantidades = new int[intervalos + 1];
+            this.montos = new long[intervalos + 1];
+            Arrays.fill(inicios, Long.MIN_VALUE);
+        }
+
+        private void sumar(long segundo, long centavos) {
+            long inicio = Math.floorDiv(segundo, ancho) * ancho;
+            int posicion = (int) Math.floorMod(Math.floorDiv(segundo, ancho), (long) inicios.length);
+            if (inicios[posicion] < inicio) {
+                inicios[posicion] = inicio;
+                cantidades[posicion] = 0;
+                montos[posicion] = 0;
+            } else if (inicios[posicion] > inicio) {
+                return;
+            }
+            cantidades[posicion]++;
+            montos[posicion] += centavos;
+        }
+
+        private int cantidad(long desde, long hasta) {
+            int total = 0;
+            for (int i = 0; i < inicios.length; i++) {
+                if (contiene(i, desde, hasta)) {
+                    total += cantidades[i];
+                }
+            }
+            return total;
+        }
+
+        private long monto(long desde, long hasta) {
+            long total = 0;
+            for (int i = 0; i < inicios.length; i++) {
+                if (contiene(i, desde, hasta)) {
+                    total += montos[i];
+                }
+            }
+            return total;
+        }
+
+        private boolean contiene(int posicion, long desde, long hasta) {
+            long inicio = inicios[posicion];
+            return inicio != Long.MIN_VALUE && inicio + ancho > desde && inicio <= hasta;
+        }
+    }
+}
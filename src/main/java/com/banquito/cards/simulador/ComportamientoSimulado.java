@@ -0,0 +1,96 @@
+package com.banquito.cards.simulador;
+
+import org.springframework.core.env.Environment;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Comportamiento configurable de un endpoint simulado, leído de
+ * simulador.&lt;servicio&gt;.*:
+ * <ul>
+ *   <li>latencia.distribucion: FIJA, UNIFORME, EXPONENCIAL o LOGNORMAL</li>
+ *   <li>latencia.mediana-ms y latencia.p99-ms: FIJA usa la mediana, UNIFORME
+ *       reparte entre 0 y el doble de la mediana, EXPONENCIAL usa la mediana y
+ *       LOGNORMAL ajusta la cola para que el percentil 99 sea p99-ms</li>
+ *   <li>tasa-error: fracción de respuestas 500</li>
+ *   <li>tasa-timeout: fracción de solicitudes que tardan timeout-ms antes de responder</li>
+ *   <li>tasa-aprobacion: fracción de respuestas aprobadas entre las restantes</li>
+ * </ul>
+ */
+final class ComportamientoSimulado {
+
+    /** Cuantil 0.99 de la normal estándar. */
+    private static final double Z_99 = 2.326;
+
+    enum Resultado { APROBADA, RECHAZADA, ERROR, TIMEOUT }
+
+    enum Distribucion { FIJA, UNIFORME, EXPONENCIAL, LOGNORMAL }
+
+    private final Distribucion distribucion;
+    private final double medianaMs;
+    private final double sigma;
+    private final double tasaError;
+    private final double tasaTimeout;
+    private final double tasaAprobacion;
+    private final long timeoutMs;
+
+    private ComportamientoSimulado(Distribucion distribucion, double medianaMs, double p99Ms, double tasaError,
+                                   double tasaTimeout, double tasaAprobacion, long timeoutMs) {
+        this.distribucion = distribucion;
+        this.medianaMs = medianaMs;
+        this.sigma = medianaMs > 0 && p99Ms > medianaMs ? Math.log(p99Ms / medianaMs) / Z_99 : 0;
+        this.tasaError = tasaError;
+        this.tasaTimeout = tasaTimeout;
+        this.tasaAprobacion = tasaAprobacion;
+        this.timeoutMs = timeoutMs;
+    }
+
+    static ComportamientoSimulado desde(Environment environment, String servicio) {
+        String prefijo = "simulador." + servicio + ".";
+        return new ComportamientoSimulado(
+            Distribucion.valueOf(environment.getProperty(prefijo + "latencia.distribucion", "LOGNORMAL")
+                .toUpperCase(Locale.ROOT)),
+            environment.getProperty(prefijo + "latencia.mediana-ms", Double.class, 50.0),
+            environment.getProperty(prefijo + "latencia.p99-ms", Double.class, 250.0),
+            environment.getProperty(prefijo + "tasa-error", Double.class, 0.0),
+            environment.getProperty(prefijo + "tasa-timeout", Double.class, 0.0),
+            environment.getProperty(prefijo + "tasa-aprobacion", Double.class, 0.9),
+            environment.getProperty(prefijo + "timeout-ms", Long.class, 30000L));
+    }
+
+    Resultado sortearResultado() {
+        double valor = ThreadLocalRandom.current().nextDouble();
+        if (valor < tasaError) {
+            return Resultado.ERROR;
+        }
+        if (valor < tasaError + tasaTimeout) {
+            return Resultado.TIMEOUT;
+        }
+        return sortearAprobacion() ? Resultado.APROBADA : Resultado.RECHAZADA;
+    }
+
+    boolean sortearAprobacion() {
+        return ThreadLocalRandom.current().nextDouble() < tasaAprobacion;
+    }
+
+    long sortearLatenciaMs(Resultado resultado) {
+        if (resultado == Resultado.TIMEOUT) {
+            return timeoutMs;
+        }
+        ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+        double latencia = switch (distribucion) {
+            case FIJA -> medianaMs;
+            case UNIFORME -> aleatorio.nextDouble(0, 2 * medianaMs + Double.MIN_VALUE);
+            case EXPONENCIAL -> -medianaMs / Math.log(2) * Math.log(1 - aleatorio.nextDouble());
+            case LOGNORMAL -> medianaMs * Math.exp(sigma * aleatorio.nextGaussian());
+        };
+        return Math.round(latencia);
+    }
+
+    @Override
+    public String toString() {
+        return distribucion + " mediana=" + medianaMs + "ms error=" + tasaError + " timeout=" + tasaTimeout
+            + " aprobacion=" + tasaAprobacion;
+    }
+}
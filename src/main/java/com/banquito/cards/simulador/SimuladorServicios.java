@@ -0,0 +1,175 @@
+package com.banquito.cards.simulador;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Simulador embebido del banco, del servicio de fraude y de la validación de
+ * tarjetas para pruebas de carga sin dependencias externas. Con el perfil
+ * "simulador" levanta un HttpServer en simulador.puerto y los clientes Feign
+ * apuntan a él (ver application-simulador.properties). Cada endpoint sortea
+ * resultado y latencia según su {@link ComportamientoSimulado}.
+ */
+@Slf4j
+@Component
+@Profile("simulador")
+public class SimuladorServicios {
+
+    private static final String PREFIJO_BANCO = "/v1/transacciones/";
+    private static final String SUFIJO_ESTADO = "/estado";
+    private static final String CABECERA_IDEMPOTENCIA = "Idempotency-Key";
+    private static final int MAXIMO_PROCESADAS = 200_000;
+    private static final String CARACTERES_AUTORIZACION = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789";
+
+    private final ObjectMapper objectMapper;
+    private final int puerto;
+    private final ComportamientoSimulado banco;
+    private final ComportamientoSimulado fraude;
+    private final ComportamientoSimulado tarjeta;
+    private final ConcurrentMap<String, Respuesta> procesadas = new ConcurrentHashMap<>();
+    private HttpServer servidor;
+    private ExecutorService executor;
+
+    public SimuladorServicios(ObjectMapper objectMapper, Environment environment,
+                              @Value("${simulador.puerto:8089}") int puerto) {
+        this.objectMapper = objectMapper;
+        this.puerto = puerto;
+        this.banco = ComportamientoSimulado.desde(environment, "banco");
+        this.fraude = ComportamientoSimulado.desde(environment, "fraude");
+        this.tarjeta = ComportamientoSimulado.desde(environment, "tarjeta");
+    }
+
+    @PostConstruct
+    public void iniciar() throws IOException {
+        servidor = HttpServer.create(new InetSocketAddress("localhost", puerto), 4096);
+        servidor.createContext("/v1/transacciones", this::atenderBanco);
+        servidor.createContext("/transacciones/monitoreo-fraude/procesar",
+            intercambio -> atender(intercambio, fraude, this::responderFraude));
+        servidor.createContext("/transacciones/consumo-tarjeta/validar",
+            intercambio -> atender(intercambio, tarjeta, this::responderTarjeta));
+        // El HttpServer del JDK lee dentro de bloques synchronized y fijaría hilos virtuales.
+        executor = Executors.newCachedThreadPool();
+        servidor.setExecutor(executor);
+        servidor.start();
+        log.info("Simulador en http://localhost:{} - banco: {}; fraude: {}; tarjeta: {}",
+            puerto, banco, fraude, tarjeta);
+    }
+
+    @PreDestroy
+    public void detener() {
+        if (servidor != null) {
+            servidor.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Autorizaciones idempotentes por la cabecera Idempotency-Key: un reintento con
+     * la misma clave recibe la respuesta original, y GET
+     * /v1/transacciones/{clave}/estado devuelve el resultado registrado o 404. Una
+     * solicitud que vence por timeout queda registrada igual, como en un banco que
+     * la procesó sin que la respuesta llegara.
+     */
+    private void atenderBanco(HttpExchange intercambio) throws IOException {
+        String ruta = intercambio.getRequestURI().getPath();
+        if ("GET".equals(intercambio.getRequestMethod()) && ruta.endsWith(SUFIJO_ESTADO)) {
+            try (intercambio) {
+                String clave = ruta.substring(PREFIJO_BANCO.length(), ruta.length() - SUFIJO_ESTADO.length());
+                Respuesta registrada = procesadas.get(clave);
+                responder(intercambio, registrada != null
+                    ? new Respuesta(200, registrada.cuerpo())
+                    : new Respuesta(404, Map.of("mensaje", "Transacción no encontrada")));
+            }
+            return;
+        }
+        String clave = intercambio.getRequestHeaders().getFirst(CABECERA_IDEMPOTENCIA);
+        if (procesadas.size() > MAXIMO_PROCESADAS) {
+            procesadas.clear();
+        }
+        atender(intercambio, banco, resultado -> clave == null
+            ? responderBanco(resultado)
+            : procesadas.computeIfAbsent(clave, k -> responderBanco(resultado)));
+    }
+
+    private void atender(HttpExchange intercambio, ComportamientoSimulado comportamiento,
+                         Function<ComportamientoSimulado.Resultado, Respuesta> respuesta) throws IOException {
+        try (intercambio) {
+            intercambio.getRequestBody().readAllBytes();
+            ComportamientoSimulado.Resultado resultado = comportamiento.sortearResultado();
+            Respuesta salida = switch (resultado) {
+                case ERROR -> new Respuesta(500, Map.of("mensaje", "Error simulado"));
+                case TIMEOUT -> respuesta.apply(comportamiento.sortearAprobacion()
+                    ? ComportamientoSimulado.Resultado.APROBADA : ComportamientoSimulado.Resultado.RECHAZADA);
+                default -> respuesta.apply(resultado);
+            };
+            Thread.sleep(comportamiento.sortearLatenciaMs(resultado));
+            responder(intercambio, salida);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void responder(HttpExchange intercambio, Respuesta salida) throws IOException {
+        byte[] cuerpo = salida.cuerpo() != null ? objectMapper.writeValueAsBytes(salida.cuerpo()) : new byte[0];
+        intercambio.getResponseHeaders().add("Content-Type", "application/json");
+        intercambio.sendResponseHeaders(salida.estado(), cuerpo.length > 0 ? cuerpo.length : -1);
+        if (cuerpo.length > 0) {
+            try (OutputStream cuerpoSalida = intercambio.getResponseBody()) {
+                cuerpoSalida.write(cuerpo);
+            }
+        }
+    }
+
+    private Respuesta responderBanco(ComportamientoSimulado.Resultado resultado) {
+        if (resultado == ComportamientoSimulado.Resultado.RECHAZADA) {
+            return new Respuesta(400, Map.of("codigoAutorizacion", codigoAutorizacion(), "estado", "REC",
+                "detalle", "Fondos insuficientes"));
+        }
+        return new Respuesta(201, Map.of("codigoAutorizacion", codigoAutorizacion(), "estado", "APR",
+            "detalle", "Transacción aprobada"));
+    }
+
+    private Respuesta responderFraude(ComportamientoSimulado.Resultado resultado) {
+        return new Respuesta(200, Map.of(
+            "estado", resultado == ComportamientoSimulado.Resultado.RECHAZADA ? "REC" : "APR",
+            "codigoMonitoreo", UUID.randomUUID().toString()));
+    }
+
+    private Respuesta responderTarjeta(ComportamientoSimulado.Resultado resultado) {
+        return resultado == ComportamientoSimulado.Resultado.RECHAZADA
+            ? new Respuesta(400, Map.of("mensaje", "Tarjeta no válida"))
+            : new Respuesta(200, null);
+    }
+
+    private static String codigoAutorizacion() {
+        ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+        char[] codigo = new char[8];
+        for (int i = 0; i < codigo.length; i++) {
+            codigo[i] = CARACTERES_AUTORIZACION.charAt(aleatorio.nextInt(CARACTERES_AUTORIZACION.length()));
+        }
+        return new String(codigo);
+    }
+
+    private record Respuesta(int estado, Object cuerpo) {
+    }
+}
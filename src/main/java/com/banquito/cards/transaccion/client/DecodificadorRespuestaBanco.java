@@ -0,0 +1,91 @@
+package com.banquito.cards.transaccion.client;
+
+import com.banquito.cards.transaccion.controller.dto.RespuestaAutorizacionBancoDTO;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import feign.Response;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * Decodifica la respuesta cruda del banco en una sola lectura del cuerpo. Los
+ * rechazos llegan como 4xx y se devuelven como resultado, sin pasar por el
+ * ErrorDecoder de Feign ni construir una excepción.
+ */
+@Slf4j
+@Component
+public class DecodificadorRespuestaBanco {
+
+    private static final int ESTADO_APROBADA = 201;
+    private static final String MENSAJE_RECHAZO = "Transacción rechazada por el banco";
+    private static final String MENSAJE_FALLA = "Error al procesar la transacción con el banco";
+
+    private final ObjectMapper objectMapper;
+
+    public DecodificadorRespuestaBanco(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public RespuestaAutorizacionBancoDTO decodificar(Response respuesta) {
+        int estado = respuesta.status();
+        JsonNode cuerpo = leerCuerpo(respuesta);
+        if (estado == ESTADO_APROBADA) {
+            return new RespuestaAutorizacionBancoDTO(estado, true, texto(cuerpo, "codigoAutorizacion"), null,
+                "Transacción aceptada por el banco");
+        }
+        String mensaje = texto(cuerpo, "mensaje", "message", "detalle");
+        if (mensaje == null) {
+            mensaje = estado >= 500 ? MENSAJE_FALLA : MENSAJE_RECHAZO;
+        }
+        return new RespuestaAutorizacionBancoDTO(estado, false, null,
+            texto(cuerpo, "codigo", "code", "codigoError"), mensaje);
+    }
+
+    /**
+     * Decodifica la consulta de estado de una autorización: 200 con estado APR es
+     * una aprobación, 200 con otro estado un rechazo y 404 indica que el banco no
+     * recibió la solicitud. Cualquier otro código deja la consulta sin resolver.
+     */
+    public RespuestaAutorizacionBancoDTO decodificarConsulta(Response respuesta) {
+        int estado = respuesta.status();
+        JsonNode cuerpo = leerCuerpo(respuesta);
+        if (estado == 200) {
+            boolean aprobada = "APR".equals(texto(cuerpo, "estado"));
+            return new RespuestaAutorizacionBancoDTO(estado, aprobada, texto(cuerpo, "codigoAutorizacion"),
+                aprobada ? null : texto(cuerpo, "codigo", "code", "codigoError"),
+                aprobada ? "Transacción aceptada por el banco"
+                    : Objects.requireNonNullElse(texto(cuerpo, "mensaje", "message", "detalle"), MENSAJE_RECHAZO));
+        }
+        return new RespuestaAutorizacionBancoDTO(estado, false, null, null,
+            estado == 404 ? "Transacción no registrada por el banco" : MENSAJE_FALLA);
+    }
+
+    private JsonNode leerCuerpo(Response respuesta) {
+        if (respuesta.body() == null) {
+            return null;
+        }
+        try (InputStream entrada = respuesta.body().asInputStream()) {
+            return objectMapper.readTree(entrada);
+        } catch (IOException e) {
+            log.debug("Cuerpo de respuesta del banco no es JSON (HTTP {}): {}", respuesta.status(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static String texto(JsonNode cuerpo, String... campos) {
+        if (cuerpo == null || !cuerpo.isObject()) {
+            return null;
+        }
+        for (String campo : campos) {
+            JsonNode valor = cuerpo.get(campo);
+            if (valor != null && !valor.isNull()) {
+                return valor.asText();
+            }
+        }
+        return null;
+    }
+}
@@ -2,13 +2,15 @@ package com.banquito.cards.transaccion.client;
 
 import com.banquito.cards.transaccion.controller.dto.RespuestaMonitoreoFraudeDTO;
 import com.banquito.cards.transaccion.controller.dto.ProcesamientoFraudeRequestDTO;
+import feign.Request;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 
-@FeignClient(name = "monitoreoFraudeService", url = "https://payment-processor-nu.vercel.app")
+@FeignClient(name = "monitoreoFraudeService", url = "${transaccion.clientes.fraude.url}")
 public interface MonitoreoFraudeClient {
 
     @PostMapping("/transacciones/monitoreo-fraude/procesar")
-    RespuestaMonitoreoFraudeDTO procesarTransaccionFraude(@RequestBody ProcesamientoFraudeRequestDTO request);
+    RespuestaMonitoreoFraudeDTO procesarTransaccionFraude(@RequestBody ProcesamientoFraudeRequestDTO request,
+                                                          Request.Options opciones);
 } 
\ No newline at end of file
@@ -1,15 +1,36 @@
 package com.banquito.cards.transaccion.client;
 
 import com.banquito.cards.transaccion.controller.dto.ConsumoTarjetaRequestDTO;
-import com.banquito.cards.transaccion.controller.dto.RespuestaBancoDTO;
+import feign.Request;
+import feign.Response;
 import org.springframework.cloud.openfeign.FeignClient;
-import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 
-@FeignClient(name = "tarjetaConsumoService", url = "http://3.129.23.35")
+@FeignClient(name = "tarjetaConsumoService", url = "${transaccion.clientes.banco.url}")
 public interface TarjetaConsumoServiceClient {
 
+    String CABECERA_IDEMPOTENCIA = "Idempotency-Key";
+
+    /**
+     * Devuelve la respuesta cruda para cualquier código HTTP; se interpreta con
+     * {@link DecodificadorRespuestaBanco}. Los tiempos de conexión y lectura llegan
+     * en cada llamada desde el presupuesto de latencia de la transacción. La clave
+     * de idempotencia es el codigoUnicoTransaccion: un reintento con la misma clave
+     * no genera un segundo cargo.
+     */
     @PostMapping("/v1/transacciones")
-    ResponseEntity<RespuestaBancoDTO> procesarConsumoTarjeta(@RequestBody ConsumoTarjetaRequestDTO request);
+    Response procesarConsumoTarjeta(@RequestBody ConsumoTarjetaRequestDTO request,
+                                    @RequestHeader(CABECERA_IDEMPOTENCIA) String claveIdempotencia,
+                                    Request.Options opciones);
+
+    /**
+     * Estado final en el banco de una autorización enviada con la clave de
+     * idempotencia indicada; 404 si el banco no la recibió.
+     */
+    @GetMapping("/v1/transacciones/{claveIdempotencia}/estado")
+    Response consultarEstado(@PathVariable("claveIdempotencia") String claveIdempotencia, Request.Options opciones);
 }
@@ -1,13 +1,14 @@
 package com.banquito.cards.transaccion.client;
 
 import com.banquito.cards.transaccion.controller.dto.ConsumoTarjetaRequestDTO;
+import feign.Request;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 
-@FeignClient(name = "tarjetaService", url = "https://payment-processor-nu.vercel.app")
+@FeignClient(name = "tarjetaService", url = "${transaccion.clientes.tarjeta.url}")
 public interface TarjetaServiceClient {
 
     @PostMapping("/transacciones/consumo-tarjeta/validar")
-    void validarConsumoTarjeta(@RequestBody ConsumoTarjetaRequestDTO request);
+    void validarConsumoTarjeta(@RequestBody ConsumoTarjetaRequestDTO request, Request.Options opciones);
 } 
\ No newline at end of file
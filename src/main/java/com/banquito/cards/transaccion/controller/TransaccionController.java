@@ -1,11 +1,21 @@
 package com.banquito.cards.transaccion.controller;
 
-import com.banquito.cards.transaccion.model.HistorialEstadoTransaccion;
-import com.banquito.cards.transaccion.repository.HistorialEstadoTransaccionRepository;
+import com.banquito.cards.transaccion.service.AutorizacionAsincronaService;
+import com.banquito.cards.transaccion.service.IdempotenciaService;
+import com.banquito.cards.transaccion.service.MedidorPresupuestoLatencia;
+import com.banquito.cards.transaccion.service.PresupuestoLatencia;
+import com.banquito.cards.transaccion.service.TransaccionLoteService;
 import com.banquito.cards.transaccion.service.TransaccionService;
+import com.banquito.cards.transaccion.controller.dto.EstadoTransaccionDTO;
+import com.banquito.cards.transaccion.controller.dto.LoteTransaccionDTO;
+import com.banquito.cards.transaccion.controller.dto.LoteTransaccionResponseDTO;
+import com.banquito.cards.transaccion.controller.dto.ResultadoProcesamientoDTO;
+import com.banquito.cards.transaccion.controller.dto.TransaccionAceptadaDTO;
 import com.banquito.cards.transaccion.controller.dto.TransaccionDTO;
 import com.banquito.cards.transaccion.controller.dto.TransaccionResponseDTO;
 import com.banquito.cards.transaccion.controller.mapper.TransaccionMapper;
+import com.banquito.cards.exception.CapacidadExcedidaException;
+import com.banquito.cards.exception.ClaveReutilizadaException;
 import com.banquito.cards.exception.NotFoundException;
 import com.banquito.cards.exception.BusinessException;
 
@@ -16,16 +26,20 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
 
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
+import java.net.URI;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 
 @Tag(name = "Transacciones", description = "API para la gestión de transacciones con tarjetas")
 @RestController
@@ -35,17 +49,31 @@ public class TransaccionController {
 
     private static final Logger log = LoggerFactory.getLogger(TransaccionController.class);
     private static final String ENTITY_NAME = "Transaccion";
+    /**
+     * Margen sobre la espera de la consulta de estado antes de que venza la
+     * respuesta diferida; al vencer se entrega el estado vigente.
+     */
+    private static final long MARGEN_RESPUESTA_MS = 5_000;
 
     private final TransaccionService transaccionService;
-    private final HistorialEstadoTransaccionRepository historialRepository;
+    private final AutorizacionAsincronaService autorizacionAsincronaService;
+    private final TransaccionLoteService transaccionLoteService;
+    private final IdempotenciaService idempotenciaService;
     private final TransaccionMapper transaccionMapper;
+    private final MedidorPresupuestoLatencia medidorPresupuesto;
 
     public TransaccionController(TransaccionService transaccionService,
-                               HistorialEstadoTransaccionRepository historialRepository,
-                               TransaccionMapper transaccionMapper) {
+                               AutorizacionAsincronaService autorizacionAsincronaService,
+                               TransaccionLoteService transaccionLoteService,
+                               IdempotenciaService idempotenciaService,
+                               TransaccionMapper transaccionMapper,
+                               MedidorPresupuestoLatencia medidorPresupuesto) {
         this.transaccionService = transaccionService;
-        this.historialRepository = historialRepository;
+        this.autorizacionAsincronaService = autorizacionAsincronaService;
+        this.transaccionLoteService = transaccionLoteService;
+        this.idempotenciaService = idempotenciaService;
         this.transaccionMapper = transaccionMapper;
+        this.medidorPresupuesto = medidorPresupuesto;
     }
 
     @Operation(summary = "Obtener transacción por ID", 
@@ -134,45 +162,132 @@ public class TransaccionController {
     }
 
     @Operation(summary = "Crear nueva transacción", 
-               description = "Crea una nueva transacción y la procesa con el banco")
+               description = "Crea una nueva transacción y la procesa con el banco. Un reintento con el mismo "
+                   + "codigoUnicoTransaccion recibe el resultado original sin volver a procesarse")
     @ApiResponses({
         @ApiResponse(responseCode = "201", description = "Transacción creada y aprobada"),
-        @ApiResponse(responseCode = "400", description = "Error en la creación o procesamiento de la transacción")
+        @ApiResponse(responseCode = "202", description = "Transacción en revisión (REV), o pendiente de autorización "
+            + "(PEN) porque el banco no pudo atenderla en línea o quedó en el diario local con la base no disponible; "
+            + "se autoriza desde el outbox y su estado se consulta en la URL de Location. Sin Location, la del "
+            + "diario local se sigue por su codigoUnicoTransaccion reintentando la misma solicitud"),
+        @ApiResponse(responseCode = "400", description = "Error en la creación o procesamiento de la transacción"),
+        @ApiResponse(responseCode = "422", description = "codigoUnicoTransaccion ya usado con otra solicitud"),
+        @ApiResponse(responseCode = "503", description = "Capacidad de procesamiento agotada; la transacción no se "
+            + "registró")
     })
     @PostMapping
     public ResponseEntity<TransaccionResponseDTO> crearTransaccion(@RequestBody TransaccionDTO transaccionDTO) {
         try {
+            PresupuestoLatencia presupuesto = medidorPresupuesto.iniciar();
             transaccionDTO.setEstado("PEN");
             transaccionDTO.setFechaCreacion(LocalDateTime.now());
-            TransaccionDTO transaccionGuardada = transaccionService.guardarTransaccion(transaccionDTO);
+            ResultadoProcesamientoDTO transaccionFinal = idempotenciaService.ejecutar(
+                transaccionDTO, () -> transaccionService.crearYProcesar(transaccionDTO, presupuesto));
+            String detalle = transaccionFinal.getMotivoRechazo();
 
-            try {
-                transaccionService.procesarConBanco(transaccionGuardada.getCodigo());
-                
-                TransaccionDTO transaccionFinal = transaccionService.obtenerTransaccionPorId(transaccionGuardada.getCodigo());
-                List<HistorialEstadoTransaccion> historiales = historialRepository.findByTransaccionCodigoOrderByFechaEstadoCambioDesc(
-                    transaccionFinal.getCodigo());
-                String detalle = !historiales.isEmpty() ? historiales.get(0).getDetalle() : null;
-                
-                switch (transaccionFinal.getEstado()) {
-                    case "APR":
-                        return ResponseEntity.status(201)
-                            .body(new TransaccionResponseDTO("Transacción aceptada", transaccionFinal.getEstado(), transaccionFinal.getMonto()));
-                    case "REC":
-                        return ResponseEntity.status(400)
-                            .body(new TransaccionResponseDTO("Transacción rechazada: " + (detalle != null ? detalle : ""), true));
-                    default:
-                        return ResponseEntity.status(400)
-                            .body(new TransaccionResponseDTO("Estado de transacción desconocido", true));
-                }
-            } catch (Exception e) {
-                throw new BusinessException(transaccionGuardada.getCodigo().toString(), ENTITY_NAME, "procesar con banco");
+            switch (transaccionFinal.getEstado()) {
+                case "APR":
+                    return ResponseEntity.status(201)
+                        .body(new TransaccionResponseDTO("Transacción aceptada", transaccionFinal.getEstado(), transaccionFinal.getMonto()));
+                case "REC":
+                    return ResponseEntity.status(400)
+                        .body(new TransaccionResponseDTO("Transacción rechazada: " + (detalle != null ? detalle : ""), true));
+                case "REV":
+                    return ResponseEntity.status(202)
+                        .body(new TransaccionResponseDTO("Transacción en revisión", transaccionFinal.getEstado(), transaccionFinal.getMonto()));
+                case "PEN":
+                    TransaccionResponseDTO pendiente = new TransaccionResponseDTO("Transacción aceptada - Autorización pendiente",
+                        transaccionFinal.getEstado(), transaccionFinal.getMonto());
+                    pendiente.setCodigo(transaccionFinal.getCodigo());
+                    pendiente.setCodigoUnicoTransaccion(transaccionFinal.getCodigoUnicoTransaccion());
+                    if (transaccionFinal.getCodigo() == null) {
+                        pendiente.setMensaje("Transacción aceptada - Autorización al reponerse la base de datos");
+                        return ResponseEntity.status(202).body(pendiente);
+                    }
+                    return ResponseEntity.status(202)
+                        .location(URI.create("/v1/transacciones/" + transaccionFinal.getCodigo() + "/estado"))
+                        .body(pendiente);
+                default:
+                    return ResponseEntity.status(400)
+                        .body(new TransaccionResponseDTO("Estado de transacción desconocido", true));
             }
+        } catch (CapacidadExcedidaException | ClaveReutilizadaException e) {
+            throw e;
         } catch (Exception e) {
             throw new BusinessException("datos de transacción", ENTITY_NAME, "crear transacción");
         }
     }
 
+    @Operation(summary = "Aceptar transacción para autorización asíncrona", 
+               description = "Registra la transacción en estado PEN y la autoriza con el banco en segundo plano. "
+                   + "Se activa enviando la cabecera Prefer: respond-async")
+    @ApiResponses({
+        @ApiResponse(responseCode = "202", description = "Transacción aceptada, autorización en curso",
+                    content = {@Content(schema = @Schema(implementation = TransaccionAceptadaDTO.class))}),
+        @ApiResponse(responseCode = "400", description = "Error en la creación de la transacción"),
+        @ApiResponse(responseCode = "422", description = "codigoUnicoTransaccion ya usado con otra solicitud"),
+        @ApiResponse(responseCode = "503", description = "Capacidad de autorización asíncrona agotada")
+    })
+    @PostMapping(headers = "Prefer=respond-async")
+    public ResponseEntity<TransaccionAceptadaDTO> aceptarTransaccion(@RequestBody TransaccionDTO transaccionDTO) {
+        transaccionDTO.setEstado("PEN");
+        transaccionDTO.setFechaCreacion(LocalDateTime.now());
+        TransaccionAceptadaDTO aceptada = autorizacionAsincronaService.aceptarTransaccion(transaccionDTO);
+        if (aceptada.getCodigo() == null) {
+            return ResponseEntity.accepted().body(aceptada);
+        }
+        return ResponseEntity.accepted()
+            .location(URI.create("/v1/transacciones/" + aceptada.getCodigo() + "/estado"))
+            .body(aceptada);
+    }
+
+    @Operation(summary = "Registrar lote de transacciones", 
+               description = "Valida y registra en una sola operación un lote de transacciones en estado PEN. "
+                   + "Retorna el resultado de cada elemento; los elementos inválidos no detienen el lote y los ya "
+                   + "registrados con el mismo codigoUnicoTransaccion devuelven la transacción existente")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Lote procesado",
+                    content = {@Content(schema = @Schema(implementation = LoteTransaccionResponseDTO.class))}),
+        @ApiResponse(responseCode = "400", description = "Lote vacío o con demasiados elementos")
+    })
+    @PostMapping("/lote")
+    public ResponseEntity<LoteTransaccionResponseDTO> registrarLote(@Valid @RequestBody LoteTransaccionDTO lote) {
+        log.info("Recibido lote de {} transacciones", lote.getTransacciones().size());
+        return ResponseEntity.ok(transaccionLoteService.procesarLote(lote));
+    }
+
+    @Operation(summary = "Consultar estado de autorización", 
+               description = "Retorna el estado vigente de la transacción. Con esperaMs mayor a cero la respuesta "
+                   + "se retiene hasta que la transacción deje PEN o venza la espera, sin ocupar un hilo del servidor")
+    @ApiResponses({
+        @ApiResponse(responseCode = "200", description = "Estado obtenido",
+                    content = {@Content(schema = @Schema(implementation = EstadoTransaccionDTO.class))}),
+        @ApiResponse(responseCode = "404", description = "Transacción no encontrada")
+    })
+    @GetMapping("/{id}/estado")
+    public DeferredResult<ResponseEntity<EstadoTransaccionDTO>> obtenerEstado(
+            @Parameter(description = "ID de la transacción") @PathVariable Integer id,
+            @Parameter(description = "Milisegundos máximos a esperar un estado final") 
+            @RequestParam(defaultValue = "0") long esperaMs) {
+        DeferredResult<ResponseEntity<EstadoTransaccionDTO>> resultado =
+            new DeferredResult<>(autorizacionAsincronaService.esperaEfectiva(esperaMs) + MARGEN_RESPUESTA_MS);
+        resultado.onTimeout(() -> {
+            try {
+                resultado.setResult(ResponseEntity.ok(transaccionService.obtenerEstadoTransaccion(id)));
+            } catch (RuntimeException e) {
+                resultado.setErrorResult(e);
+            }
+        });
+        autorizacionAsincronaService.esperarEstado(id, esperaMs).whenComplete((estado, error) -> {
+            if (error != null) {
+                resultado.setErrorResult(error instanceof CompletionException ? error.getCause() : error);
+            } else {
+                resultado.setResult(ResponseEntity.ok(estado));
+            }
+        });
+        return resultado;
+    }
+
     @Operation(summary = "Procesar respuesta de fraude", 
                description = "Procesa la respuesta del sistema de fraude para una transacción")
     @ApiResponses({
@@ -211,4 +326,14 @@ public class TransaccionController {
     public ResponseEntity<TransaccionResponseDTO> handleBusinessException(BusinessException e) {
         return ResponseEntity.status(400).body(new TransaccionResponseDTO(e.getMessage(), true));
     }
+
+    @ExceptionHandler(ClaveReutilizadaException.class)
+    public ResponseEntity<TransaccionResponseDTO> handleClaveReutilizadaException(ClaveReutilizadaException e) {
+        return ResponseEntity.status(422).body(new TransaccionResponseDTO(e.getMessage(), true));
+    }
+
+    @ExceptionHandler(CapacidadExcedidaException.class)
+    public ResponseEntity<TransaccionResponseDTO> handleCapacidadExcedidaException(CapacidadExcedidaException e) {
+        return ResponseEntity.status(503).body(new TransaccionResponseDTO(e.getMessage(), true));
+    }
 }
\ No newline at end of file
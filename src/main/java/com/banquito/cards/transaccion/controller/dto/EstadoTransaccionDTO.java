@@ -0,0 +1,20 @@
+package com.banquito.cards.transaccion.controller.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EstadoTransaccionDTO {
+    private Integer codigo;
+    private String codigoUnicoTransaccion;
+    private String estado;
+    private String detalle;
+    private BigDecimal monto;
+    private LocalDateTime fechaEstadoCambio;
+    private boolean estadoFinal;
+}
@@ -0,0 +1,16 @@
+package com.banquito.cards.transaccion.controller.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+public class LoteTransaccionDTO {
+
+    @NotEmpty(message = "El lote debe contener al menos una transacción")
+    @Size(max = 5000, message = "El lote no puede exceder las 5000 transacciones")
+    private List<TransaccionDTO> transacciones;
+}
@@ -0,0 +1,16 @@
+package com.banquito.cards.transaccion.controller.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoteTransaccionResponseDTO {
+    private Integer total;
+    private Integer registradas;
+    private Integer rechazadas;
+    private List<ResultadoLoteDTO> resultados;
+}
@@ -0,0 +1,27 @@
+package com.banquito.cards.transaccion.controller.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado de la llamada de autorización al banco ya decodificado: aprobación
+ * con su código de autorización o rechazo con el código y mensaje del banco.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RespuestaAutorizacionBancoDTO {
+    private int estadoHttp;
+    private boolean aprobada;
+    private String codigoAutorizacion;
+    private String codigoRechazo;
+    private String mensaje;
+
+    /**
+     * Un 5xx es una falla del banco, no un rechazo de la transacción.
+     */
+    public boolean esFallaDelBanco() {
+        return estadoHttp >= 500;
+    }
+}
@@ -0,0 +1,15 @@
+package com.banquito.cards.transaccion.controller.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+public class ResultadoLoteDTO {
+    private Integer indice;
+    private String codigoUnicoTransaccion;
+    private Integer codigo;
+    private String estado;
+    private boolean registrada;
+    private String error;
+}
@@ -0,0 +1,18 @@
+package com.banquito.cards.transaccion.controller.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultadoProcesamientoDTO {
+    private Integer codigo;
+    private String codigoUnicoTransaccion;
+    private String estado;
+    private BigDecimal monto;
+    private String motivoRechazo;
+    private String referenciaBanco;
+}
@@ -0,0 +1,15 @@
+package com.banquito.cards.transaccion.controller.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransaccionAceptadaDTO {
+    private Integer codigo;
+    private String codigoUnicoTransaccion;
+    private String estado;
+    private String mensaje;
+}
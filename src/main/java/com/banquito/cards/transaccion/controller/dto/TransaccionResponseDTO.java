@@ -7,6 +7,8 @@ import lombok.NoArgsConstructor;
 @Data
 @NoArgsConstructor
 public class TransaccionResponseDTO {
+    private Integer codigo;
+    private String codigoUnicoTransaccion;
     private String mensaje;
     private String error;
     private String estado;
@@ -0,0 +1,59 @@
+package com.banquito.cards.transaccion.model;
+
+import jakarta.persistence.*;
+import jakarta.validation.constraints.*;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import lombok.EqualsAndHashCode;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Autorización enviada al banco sin respuesta confirmada. La transacción queda en
+ * REV y el conciliador consulta su estado final en el banco; la fila se escribe en
+ * la misma transacción que pasa la TRANSACCION a REV y se elimina al resolverla.
+ */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@EqualsAndHashCode(of = "codigo")
+@Entity
+@Table(name = "CONCILIACION_AUTORIZACION", indexes = {
+    @Index(name = "IDX_CONCILIACION_AUTORIZACION_DISPONIBLE", columnList = "FECHA_DISPONIBLE")
+})
+public class ConciliacionAutorizacion implements Serializable {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "COD_CONCILIACION", nullable = false)
+    private Integer codigo;
+
+    @NotNull
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "COD_TRANSACCION", referencedColumnName = "COD_TRANSACCION", nullable = false, unique = true)
+    private Transaccion transaccion;
+
+    @NotNull
+    @Min(0)
+    @Column(name = "INTENTOS", nullable = false)
+    private Integer intentos;
+
+    @Min(0)
+    @Column(name = "NO_ENCONTRADA")
+    private Integer noEncontrada;
+
+    @NotNull
+    @Column(name = "FECHA_CREACION", nullable = false)
+    private LocalDateTime fechaCreacion;
+
+    @NotNull
+    @Column(name = "FECHA_DISPONIBLE", nullable = false)
+    private LocalDateTime fechaDisponible;
+
+    public ConciliacionAutorizacion(Integer codigo) {
+        this.codigo = codigo;
+    }
+}
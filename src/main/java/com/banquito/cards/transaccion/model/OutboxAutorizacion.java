@@ -0,0 +1,74 @@
+package com.banquito.cards.transaccion.model;
+
+import jakarta.persistence.*;
+import jakarta.validation.constraints.*;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import lombok.EqualsAndHashCode;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Solicitud pendiente de enviar al banco. TIPO AUT es una autorización: se
+ * escribe en la misma transacción local que la TRANSACCION en PEN y se elimina en
+ * la misma transacción que registra la respuesta del banco. TIPO AVI es el aviso
+ * de una aprobación del procesamiento suplente: se escribe en la misma
+ * transacción que la pasa a APR y se elimina al entregarlo.
+ */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@EqualsAndHashCode(of = "codigo")
+@Entity
+@Table(name = "OUTBOX_AUTORIZACION", indexes = {
+    @Index(name = "IDX_OUTBOX_AUTORIZACION_DISPONIBLE", columnList = "FECHA_DISPONIBLE")
+})
+public class OutboxAutorizacion implements Serializable {
+
+    public static final String ESTADO_PENDIENTE = "PEN";
+    public static final String ESTADO_EN_PROCESO = "PRO";
+    public static final String TIPO_AUTORIZACION = "AUT";
+    public static final String TIPO_AVISO = "AVI";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "COD_OUTBOX", nullable = false)
+    private Integer codigo;
+
+    @NotNull
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "COD_TRANSACCION", referencedColumnName = "COD_TRANSACCION", nullable = false, unique = true)
+    private Transaccion transaccion;
+
+    @Pattern(regexp = "AUT|AVI")
+    @Column(name = "TIPO", length = 3)
+    private String tipo;
+
+    @NotNull
+    @Pattern(regexp = "PEN|PRO")
+    @Column(name = "ESTADO", length = 3, nullable = false)
+    private String estado;
+
+    @NotNull
+    @Min(0)
+    @Column(name = "INTENTOS", nullable = false)
+    private Integer intentos;
+
+    @Column(name = "ARRENDAMIENTO")
+    private Integer arrendamiento;
+
+    @NotNull
+    @Column(name = "FECHA_CREACION", nullable = false)
+    private LocalDateTime fechaCreacion;
+
+    @NotNull
+    @Column(name = "FECHA_DISPONIBLE", nullable = false)
+    private LocalDateTime fechaDisponible;
+
+    public OutboxAutorizacion(Integer codigo) {
+        this.codigo = codigo;
+    }
+}
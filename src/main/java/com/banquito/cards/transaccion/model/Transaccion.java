@@ -89,9 +89,8 @@ public class Transaccion implements Serializable {
     @Column(name = "DIRECCION_TARJETA", length = 256, nullable = false)
     private String direccionTarjeta;
     
-    @NotNull
     @Size(min = 3, max = 128)
-    @Column(name = "CVV", length = 128, nullable = false)
+    @Column(name = "CVV", length = 128)
     private String cvv;
 
     @NotNull
@@ -111,6 +110,10 @@ public class Transaccion implements Serializable {
     @Size(min = 32, max = 64)
     @Column(name = "CODIGO_UNICO_TRANSACCION", length = 64)
     private String codigoUnicoTransaccion;
+
+    @Size(min = 64, max = 64)
+    @Column(name = "HASH_SOLICITUD", length = 64)
+    private String hashSolicitud;
     
     @NotNull
     @PastOrPresent
@@ -0,0 +1,108 @@
+package com.banquito.cards.transaccion.repository;
+
+import com.banquito.cards.transaccion.model.OutboxAutorizacion;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Avisos al banco de las aprobaciones del procesamiento suplente, guardados como
+ * filas de OUTBOX_AUTORIZACION con TIPO AVI. Cada aviso se escribe en la misma
+ * transacción que pasa la TRANSACCION a APR y se reclama con el mismo esquema de
+ * arrendamiento que las autorizaciones, así sobrevive a un reinicio y ningún
+ * aviso lo envían dos nodos a la vez. Los avisos pendientes son además la
+ * exposición sin avisar, con la que el suplente concilia periódicamente sus
+ * límites en memoria.
+ */
+@Repository
+public class AvisoSuplenteJdbcRepository {
+
+    private static final String INSERT =
+        "INSERT INTO OUTBOX_AUTORIZACION (COD_TRANSACCION, TIPO, ESTADO, INTENTOS, ARRENDAMIENTO, FECHA_CREACION, "
+            + "FECHA_DISPONIBLE) VALUES (?, '" + OutboxAutorizacion.TIPO_AVISO + "', 'PEN', 0, "
+            + OutboxAutorizacionJdbcRepository.ARRENDAMIENTO_INICIAL + ", LOCALTIMESTAMP, LOCALTIMESTAMP)";
+
+    private static final String PENDIENTES =
+        "SELECT O.COD_TRANSACCION, T.COD_BANCO, T.MONTO, T.NUMERO_TARJETA "
+            + "FROM OUTBOX_AUTORIZACION O JOIN TRANSACCION T ON T.COD_TRANSACCION = O.COD_TRANSACCION "
+            + "WHERE O.TIPO = '" + OutboxAutorizacion.TIPO_AVISO + "'";
+
+    private static final String RECLAMAR =
+        "UPDATE OUTBOX_AUTORIZACION SET ESTADO = 'PRO', ARRENDAMIENTO = COALESCE(ARRENDAMIENTO, 0) + 1, "
+            + "FECHA_DISPONIBLE = LOCALTIMESTAMP + ? * INTERVAL '1 millisecond' "
+            + "WHERE COD_OUTBOX IN (SELECT COD_OUTBOX FROM OUTBOX_AUTORIZACION "
+            + "WHERE TIPO = '" + OutboxAutorizacion.TIPO_AVISO + "' AND FECHA_DISPONIBLE <= LOCALTIMESTAMP "
+            + "ORDER BY FECHA_DISPONIBLE LIMIT ? FOR UPDATE SKIP LOCKED) "
+            + "RETURNING COD_TRANSACCION, ARRENDAMIENTO";
+
+    private static final String REINTENTAR =
+        "UPDATE OUTBOX_AUTORIZACION SET ESTADO = 'PEN', INTENTOS = INTENTOS + 1, "
+            + "FECHA_DISPONIBLE = LOCALTIMESTAMP + ? * INTERVAL '1 millisecond' "
+            + "WHERE COD_TRANSACCION = ? AND ARRENDAMIENTO = ? AND TIPO = '" + OutboxAutorizacion.TIPO_AVISO + "'";
+
+    private static final String ELIMINAR =
+        "DELETE FROM OUTBOX_AUTORIZACION WHERE COD_TRANSACCION = ? AND ARRENDAMIENTO = ? "
+            + "AND TIPO = '" + OutboxAutorizacion.TIPO_AVISO + "'";
+
+    private static final String CONTAR =
+        "SELECT COUNT(*) FROM OUTBOX_AUTORIZACION WHERE TIPO = '" + OutboxAutorizacion.TIPO_AVISO + "'";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long arrendamientoMs;
+    private final long reintentoMs;
+
+    public AvisoSuplenteJdbcRepository(JdbcTemplate jdbcTemplate,
+                                       @Value("${transaccion.outbox.arrendamiento-ms:60000}") long arrendamientoMs,
+                                       @Value("${transaccion.stip.reintento-avisos-ms:5000}") long reintentoMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.arrendamientoMs = arrendamientoMs;
+        this.reintentoMs = reintentoMs;
+    }
+
+    /**
+     * Registra el aviso disponible de inmediato. Debe ejecutarse en la misma
+     * transacción que pasa la TRANSACCION a APR, después de completar su solicitud
+     * de autorización.
+     */
+    public void registrar(Integer codigoTransaccion) {
+        jdbcTemplate.update(INSERT, codigoTransaccion);
+    }
+
+    /**
+     * Avisos pendientes con el banco, monto y tarjeta de su transacción.
+     */
+    public List<AvisoPendiente> pendientes() {
+        return jdbcTemplate.query(PENDIENTES, (rs, fila) ->
+            new AvisoPendiente(rs.getInt(1), rs.getInt(2), rs.getBigDecimal(3), rs.getString(4)));
+    }
+
+    public List<OutboxAutorizacionJdbcRepository.Reclamada> reclamar(int limite) {
+        return jdbcTemplate.query(RECLAMAR, (rs, fila) ->
+                new OutboxAutorizacionJdbcRepository.Reclamada(rs.getInt(1), rs.getInt(2)),
+            arrendamientoMs, limite);
+    }
+
+    /**
+     * Devuelve el aviso para reintentarlo tras reintento-avisos-ms. Un aviso no
+     * se descarta por intentos: la aprobación ya se entregó al cliente.
+     */
+    public boolean reintentar(Integer codigoTransaccion, int arrendamiento) {
+        return jdbcTemplate.update(REINTENTAR, reintentoMs, codigoTransaccion, arrendamiento) > 0;
+    }
+
+    public boolean completar(Integer codigoTransaccion, int arrendamiento) {
+        return jdbcTemplate.update(ELIMINAR, codigoTransaccion, arrendamiento) > 0;
+    }
+
+    public int contar() {
+        Integer pendientes = jdbcTemplate.queryForObject(CONTAR, Integer.class);
+        return pendientes != null ? pendientes : 0;
+    }
+
+    public record AvisoPendiente(Integer codigoTransaccion, Integer codigoBanco, BigDecimal monto,
+                                 String numeroTarjeta) {
+    }
+}
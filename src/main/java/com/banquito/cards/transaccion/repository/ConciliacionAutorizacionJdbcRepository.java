@@ -0,0 +1,96 @@
+package com.banquito.cards.transaccion.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Operaciones sobre CONCILIACION_AUTORIZACION con el mismo esquema de
+ * arrendamiento que el outbox: una fila reclamada queda fuera del alcance de los
+ * demás nodos hasta que se resuelve, se pospone o vence su arrendamiento.
+ */
+@Repository
+public class ConciliacionAutorizacionJdbcRepository {
+
+    private static final String INSERT =
+        "INSERT INTO CONCILIACION_AUTORIZACION (COD_TRANSACCION, INTENTOS, FECHA_CREACION, FECHA_DISPONIBLE) "
+            + "VALUES (?, 0, LOCALTIMESTAMP, LOCALTIMESTAMP + ? * INTERVAL '1 millisecond') "
+            + "ON CONFLICT (COD_TRANSACCION) DO NOTHING";
+
+    private static final String RECLAMAR =
+        "UPDATE CONCILIACION_AUTORIZACION SET INTENTOS = INTENTOS + 1, "
+            + "FECHA_DISPONIBLE = LOCALTIMESTAMP + ? * INTERVAL '1 millisecond' "
+            + "WHERE COD_CONCILIACION IN (SELECT COD_CONCILIACION FROM CONCILIACION_AUTORIZACION "
+            + "WHERE FECHA_DISPONIBLE <= LOCALTIMESTAMP AND INTENTOS < ? "
+            + "ORDER BY FECHA_DISPONIBLE LIMIT ? FOR UPDATE SKIP LOCKED) "
+            + "RETURNING COD_TRANSACCION";
+
+    private static final String POSPONER =
+        "UPDATE CONCILIACION_AUTORIZACION SET "
+            + "FECHA_DISPONIBLE = LOCALTIMESTAMP + ? * INTERVAL '1 millisecond' WHERE COD_TRANSACCION = ?";
+
+    private static final String REGISTRAR_NO_ENCONTRADA =
+        "UPDATE CONCILIACION_AUTORIZACION SET NO_ENCONTRADA = COALESCE(NO_ENCONTRADA, 0) + 1, "
+            + "FECHA_DISPONIBLE = LOCALTIMESTAMP + ? * INTERVAL '1 millisecond' WHERE COD_TRANSACCION = ? "
+            + "RETURNING NO_ENCONTRADA >= ? AND FECHA_CREACION <= LOCALTIMESTAMP - ? * INTERVAL '1 millisecond'";
+
+    private static final String ELIMINAR = "DELETE FROM CONCILIACION_AUTORIZACION WHERE COD_TRANSACCION = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long esperaInicialMs;
+    private final long arrendamientoMs;
+    private final long reintentoMs;
+    private final int maxIntentos;
+    private final int minimoNoEncontrada;
+    private final long ventanaNoEncontradaMs;
+
+    public ConciliacionAutorizacionJdbcRepository(JdbcTemplate jdbcTemplate,
+                                                  @Value("${transaccion.conciliacion.espera-inicial-ms:10000}") long esperaInicialMs,
+                                                  @Value("${transaccion.conciliacion.arrendamiento-ms:60000}") long arrendamientoMs,
+                                                  @Value("${transaccion.conciliacion.reintento-ms:30000}") long reintentoMs,
+                                                  @Value("${transaccion.conciliacion.max-intentos:20}") int maxIntentos,
+                                                  @Value("${transaccion.conciliacion.no-encontrada.minimo:3}") int minimoNoEncontrada,
+                                                  @Value("${transaccion.conciliacion.no-encontrada.ventana-ms:120000}") long ventanaNoEncontradaMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.esperaInicialMs = esperaInicialMs;
+        this.arrendamientoMs = arrendamientoMs;
+        this.reintentoMs = reintentoMs;
+        this.maxIntentos = maxIntentos;
+        this.minimoNoEncontrada = minimoNoEncontrada;
+        this.ventanaNoEncontradaMs = ventanaNoEncontradaMs;
+    }
+
+    /**
+     * Registra la transacción para conciliar tras la espera inicial, que da tiempo
+     * al banco a terminar de procesarla. Debe ejecutarse en la misma transacción
+     * que la pasa a REV.
+     */
+    public void registrar(Integer codigoTransaccion) {
+        jdbcTemplate.update(INSERT, codigoTransaccion, esperaInicialMs);
+    }
+
+    public List<Integer> reclamar(int limite) {
+        return jdbcTemplate.queryForList(RECLAMAR, Integer.class, arrendamientoMs, maxIntentos, limite);
+    }
+
+    public void posponer(Integer codigoTransaccion) {
+        jdbcTemplate.update(POSPONER, reintentoMs, codigoTransaccion);
+    }
+
+    /**
+     * Cuenta una consulta en la que el banco no encontró la transacción y la
+     * pospone. Retorna true solo cuando ya no la encontró min-no-encontrada veces y
+     * pasó la ventana desde que se registró: un 404 temprano puede deberse a que el
+     * banco aún no la persiste o a una réplica atrasada, y no prueba que no hubo cargo.
+     */
+    public boolean registrarNoEncontrada(Integer codigoTransaccion) {
+        return jdbcTemplate.queryForList(REGISTRAR_NO_ENCONTRADA, Boolean.class, reintentoMs, codigoTransaccion,
+            minimoNoEncontrada, ventanaNoEncontradaMs).stream().findFirst().orElse(false);
+    }
+
+    public void completar(Integer codigoTransaccion) {
+        jdbcTemplate.update(ELIMINAR, codigoTransaccion);
+    }
+}
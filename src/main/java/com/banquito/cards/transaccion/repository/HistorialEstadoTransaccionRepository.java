@@ -9,11 +9,14 @@ import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface HistorialEstadoTransaccionRepository extends JpaRepository<HistorialEstadoTransaccion, Integer> {
     
     List<HistorialEstadoTransaccion> findByTransaccionCodigoOrderByFechaEstadoCambioDesc(Integer codigoTransaccion);
+
+    Optional<HistorialEstadoTransaccion> findFirstByTransaccionCodigoOrderByFechaEstadoCambioDesc(Integer codigoTransaccion);
     
     List<HistorialEstadoTransaccion> findByEstadoAndFechaEstadoCambioBetweenOrderByFechaEstadoCambioDesc(
             String estado, LocalDateTime fechaInicio, LocalDateTime fechaFin);
@@ -0,0 +1,173 @@
+package com.banquito.cards.transaccion.repository;
+
+import com.banquito.cards.transaccion.model.OutboxAutorizacion;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Operaciones sobre OUTBOX_AUTORIZACION. Las fechas se calculan con el reloj de la
+ * base para que todos los nodos compartan la misma referencia de arrendamiento.
+ * Una fila se crea arrendada a su creador, que intenta la autorización en línea;
+ * si el nodo cae antes de completarla, el arrendamiento vence y cualquier
+ * despachador la reclama. Cada reclamo incrementa ARRENDAMIENTO y las operaciones
+ * que liberan o completan la fila exigen el valor con que se obtuvo, de modo que
+ * quien perdió el arrendamiento no pisa lo que hizo el nuevo titular.
+ * INTENTOS cuenta solo intentos fallidos: las esperas por circuito abierto o
+ * límite de concurrencia no lo incrementan, y las filas que llegan a max-intentos
+ * dejan de reclamarse para autorizar y se reclaman como agotadas. Todas las
+ * operaciones se limitan a las filas de TIPO AUT; los avisos del procesamiento
+ * suplente comparten la tabla y los maneja {@link AvisoSuplenteJdbcRepository}.
+ */
+@Repository
+public class OutboxAutorizacionJdbcRepository {
+
+    /**
+     * Arrendamiento con el que se crea cada fila; lo tiene quien la registró.
+     */
+    public static final int ARRENDAMIENTO_INICIAL = 0;
+
+    private static final String AUTORIZACION = "TIPO = '" + OutboxAutorizacion.TIPO_AUTORIZACION + "'";
+
+    private static final String INSERT =
+        "INSERT INTO OUTBOX_AUTORIZACION (COD_TRANSACCION, TIPO, ESTADO, INTENTOS, ARRENDAMIENTO, FECHA_CREACION, "
+            + "FECHA_DISPONIBLE) VALUES (?, '" + OutboxAutorizacion.TIPO_AUTORIZACION + "', 'PRO', 0, "
+            + ARRENDAMIENTO_INICIAL + ", LOCALTIMESTAMP, LOCALTIMESTAMP + ? * INTERVAL '1 millisecond')";
+
+    /**
+     * Una fila que se reclama todavía en PRO es un arrendamiento vencido: su
+     * titular no la completó ni la devolvió y pudo haber llegado al banco, así que
+     * cuenta como intento.
+     */
+    private static final String RECLAMAR =
+        "UPDATE OUTBOX_AUTORIZACION SET INTENTOS = INTENTOS + CASE WHEN ESTADO = 'PRO' THEN 1 ELSE 0 END, "
+            + "ESTADO = 'PRO', ARRENDAMIENTO = COALESCE(ARRENDAMIENTO, 0) + 1, "
+            + "FECHA_DISPONIBLE = LOCALTIMESTAMP + ? * INTERVAL '1 millisecond' "
+            + "WHERE COD_OUTBOX IN (SELECT COD_OUTBOX FROM OUTBOX_AUTORIZACION "
+            + "WHERE " + AUTORIZACION + " AND FECHA_DISPONIBLE <= LOCALTIMESTAMP AND INTENTOS < ? "
+            + "ORDER BY FECHA_DISPONIBLE LIMIT ? FOR UPDATE SKIP LOCKED) "
+            + "RETURNING COD_TRANSACCION, ARRENDAMIENTO";
+
+    private static final String RECLAMAR_AGOTADAS =
+        "UPDATE OUTBOX_AUTORIZACION SET ESTADO = 'PRO', ARRENDAMIENTO = COALESCE(ARRENDAMIENTO, 0) + 1, "
+            + "FECHA_DISPONIBLE = LOCALTIMESTAMP + ? * INTERVAL '1 millisecond' "
+            + "WHERE COD_OUTBOX IN (SELECT COD_OUTBOX FROM OUTBOX_AUTORIZACION "
+            + "WHERE " + AUTORIZACION + " AND FECHA_DISPONIBLE <= LOCALTIMESTAMP AND INTENTOS >= ? "
+            + "ORDER BY FECHA_DISPONIBLE LIMIT ? FOR UPDATE SKIP LOCKED) "
+            + "RETURNING COD_TRANSACCION, ARRENDAMIENTO";
+
+    private static final String REPROGRAMAR =
+        "UPDATE OUTBOX_AUTORIZACION SET ESTADO = 'PEN', INTENTOS = INTENTOS + ?, "
+            + "FECHA_DISPONIBLE = LOCALTIMESTAMP + ? * INTERVAL '1 millisecond' "
+            + "WHERE COD_TRANSACCION = ? AND ARRENDAMIENTO = ? AND " + AUTORIZACION;
+
+    private static final String ELIMINAR =
+        "DELETE FROM OUTBOX_AUTORIZACION WHERE COD_TRANSACCION = ? AND ARRENDAMIENTO = ? AND " + AUTORIZACION;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean habilitado;
+    private final long arrendamientoMs;
+    private final long reintentoMs;
+    private final int maxIntentos;
+
+    public OutboxAutorizacionJdbcRepository(JdbcTemplate jdbcTemplate,
+                                            @Value("${transaccion.outbox.habilitado:true}") boolean habilitado,
+                                            @Value("${transaccion.outbox.arrendamiento-ms:60000}") long arrendamientoMs,
+                                            @Value("${transaccion.outbox.reintento-ms:5000}") long reintentoMs,
+                                            @Value("${transaccion.outbox.max-intentos:10}") int maxIntentos) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.habilitado = habilitado;
+        this.arrendamientoMs = arrendamientoMs;
+        this.reintentoMs = reintentoMs;
+        this.maxIntentos = maxIntentos;
+    }
+
+    /**
+     * Sin outbox habilitado no hay despachador que drene las filas, así que no se
+     * registran y las transacciones que no se resuelven en línea no quedan en PEN.
+     */
+    public boolean habilitado() {
+        return habilitado;
+    }
+
+    /**
+     * Registra la solicitud arrendada al llamador con {@link #ARRENDAMIENTO_INICIAL}.
+     * Debe ejecutarse en la misma transacción que inserta la TRANSACCION.
+     */
+    public void registrar(Integer codigoTransaccion) {
+        if (habilitado) {
+            jdbcTemplate.update(INSERT, codigoTransaccion, arrendamientoMs);
+        }
+    }
+
+    public void registrarLote(List<Integer> codigosTransaccion) {
+        if (!habilitado || codigosTransaccion.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT, codigosTransaccion, codigosTransaccion.size(), (ps, codigo) -> {
+            ps.setInt(1, codigo);
+            ps.setLong(2, arrendamientoMs);
+        });
+    }
+
+    /**
+     * Reclama hasta {@code limite} solicitudes disponibles o con arrendamiento
+     * vencido que no agotaron sus intentos. SKIP LOCKED permite que varios nodos
+     * reclamen en paralelo sin repartirse la misma fila.
+     */
+    public List<Reclamada> reclamar(int limite) {
+        return jdbcTemplate.query(RECLAMAR, (rs, fila) -> new Reclamada(rs.getInt(1), rs.getInt(2)),
+            arrendamientoMs, maxIntentos, limite);
+    }
+
+    /**
+     * Reclama solicitudes que agotaron sus intentos para sacarlas del outbox.
+     */
+    public List<Reclamada> reclamarAgotadas(int limite) {
+        return jdbcTemplate.query(RECLAMAR_AGOTADAS, (rs, fila) -> new Reclamada(rs.getInt(1), rs.getInt(2)),
+            arrendamientoMs, maxIntentos, limite);
+    }
+
+    /**
+     * Deja la solicitud disponible para cualquier despachador.
+     */
+    public boolean liberar(Integer codigoTransaccion, int arrendamiento) {
+        return reprogramar(codigoTransaccion, arrendamiento, 0, false);
+    }
+
+    /**
+     * Devuelve la solicitud al outbox para reintentarla tras el retraso configurado
+     * sin contar un intento: el banco no llegó a llamarse (circuito abierto o
+     * límite de concurrencia).
+     */
+    public boolean posponer(Integer codigoTransaccion, int arrendamiento) {
+        return reprogramar(codigoTransaccion, arrendamiento, reintentoMs, false);
+    }
+
+    /**
+     * Devuelve la solicitud al outbox tras un intento fallido, que cuenta para
+     * max-intentos.
+     */
+    public boolean reintentar(Integer codigoTransaccion, int arrendamiento) {
+        return reprogramar(codigoTransaccion, arrendamiento, reintentoMs, true);
+    }
+
+    private boolean reprogramar(Integer codigoTransaccion, int arrendamiento, long retrasoMs, boolean fallido) {
+        return jdbcTemplate.update(REPROGRAMAR, fallido ? 1 : 0, retrasoMs, codigoTransaccion, arrendamiento) > 0;
+    }
+
+    /**
+     * Elimina la solicitud si el llamador conserva el arrendamiento. Retorna false
+     * si otro despachador la reclamó entretanto; en ese caso el llamador no debe
+     * registrar su resultado. Sin outbox habilitado no hay filas y siempre retorna
+     * true.
+     */
+    public boolean completar(Integer codigoTransaccion, int arrendamiento) {
+        return jdbcTemplate.update(ELIMINAR, codigoTransaccion, arrendamiento) > 0 || !habilitado;
+    }
+
+    public record Reclamada(Integer codigoTransaccion, int arrendamiento) {
+    }
+}
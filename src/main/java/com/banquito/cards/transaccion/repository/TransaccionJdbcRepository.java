@@ -0,0 +1,239 @@
+package com.banquito.cards.transaccion.repository;
+
+import com.banquito.cards.transaccion.model.HistorialEstadoTransaccion;
+import com.banquito.cards.transaccion.model.Transaccion;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Escrituras por lotes JDBC sobre TRANSACCION e HISTORIAL_ESTADO_TRANSACCION.
+ * Hibernate no agrupa inserts de entidades con GenerationType.IDENTITY, por lo
+ * que los lotes se envían directamente con JdbcTemplate y las claves generadas
+ * se recuperan en el mismo viaje.
+ */
+@Repository
+public class TransaccionJdbcRepository {
+
+    private static final String INSERT_TRANSACCION =
+        "INSERT INTO TRANSACCION (COD_BANCO, COD_COMISION, MONTO, MODALIDAD, CODIGO_MONEDA, MARCA, "
+            + "FECHA_EXPIRACION_TARJETA, NOMBRE_TARJETA, NUMERO_TARJETA, DIRECCION_TARJETA, CVV, PAIS, ESTADO, "
+            + "DETALLE, CODIGO_UNICO_TRANSACCION, FECHA_CREACION, FECHA_EJECUCION_RECURRENCIA, "
+            + "FECHA_FIN_RECURRENCIA, GTW_COMISION, GTW_CUENTA, NUMERO_CUENTA, CUOTAS, INTERES_DIFERIDO, "
+            + "BENEFICIARIO, HASH_SOLICITUD) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, "
+            + "?, ?, ?)";
+
+    private static final String INSERT_HISTORIAL =
+        "INSERT INTO HISTORIAL_ESTADO_TRANSACCION (CODIGO_TRANSACCION, ESTADO, FECHA_ESTADO_CAMBIO, DETALLE) "
+            + "VALUES (?, ?, ?, ?)";
+
+    private static final String UPDATE_ESTADO =
+        "UPDATE TRANSACCION SET ESTADO = ?, DETALLE = ? WHERE COD_TRANSACCION = ? AND ESTADO = ANY (?) "
+            + "RETURNING COD_TRANSACCION, CODIGO_UNICO_TRANSACCION, MONTO, ESTADO, DETALLE";
+
+    private static final String SELECT_ESTADO = "SELECT ESTADO FROM TRANSACCION WHERE COD_TRANSACCION = ?";
+
+    private static final String SELECT_CODIGOS_UNICOS =
+        "SELECT CODIGO_UNICO_TRANSACCION FROM TRANSACCION WHERE FECHA_CREACION >= ? "
+            + "AND CODIGO_UNICO_TRANSACCION IS NOT NULL";
+
+    private static final String SELECT_ACTIVIDAD =
+        "SELECT NUMERO_TARJETA, FECHA_CREACION, MONTO, PAIS FROM TRANSACCION WHERE FECHA_CREACION >= ?";
+
+    private static final String COLUMNA_CODIGO = "cod_transaccion";
+    private static final String COLUMNA_CODIGO_HISTORIAL = "cod_historial_estado";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int tamanoBatch;
+
+    public TransaccionJdbcRepository(JdbcTemplate jdbcTemplate,
+                                     @Value("${transaccion.lote.tamano-batch:500}") int tamanoBatch) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tamanoBatch = tamanoBatch;
+    }
+
+    /**
+     * Inserta las transacciones en lotes JDBC y asigna a cada una el código generado.
+     */
+    public void insertarTransacciones(List<Transaccion> transacciones) {
+        for (int desde = 0; desde < transacciones.size(); desde += tamanoBatch) {
+            insertarBatch(transacciones.subList(desde, Math.min(desde + tamanoBatch, transacciones.size())));
+        }
+    }
+
+    public void insertarHistoriales(List<HistorialEstadoTransaccion> historiales) {
+        for (int desde = 0; desde < historiales.size(); desde += tamanoBatch) {
+            insertarBatchHistorial(historiales.subList(desde, Math.min(desde + tamanoBatch, historiales.size())));
+        }
+    }
+
+    /**
+     * Cambia el estado con una sola sentencia condicionada al estado actual, sin
+     * leer la fila antes. Retorna la transacción con código, código único, monto,
+     * estado y detalle actualizados, o vacío si la fila no existe o su estado no
+     * es ninguno de los esperados.
+     */
+    public Optional<Transaccion> actualizarEstado(Integer codigo, String nuevoEstado, String detalle,
+                                                  List<String> estadosEsperados) {
+        List<Transaccion> actualizadas = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(UPDATE_ESTADO);
+            ps.setString(1, nuevoEstado);
+            asignar(ps, 2, detalle, Types.VARCHAR);
+            ps.setInt(3, codigo);
+            ps.setArray(4, con.createArrayOf("varchar", estadosEsperados.toArray()));
+            return ps;
+        }, (rs, fila) -> {
+            Transaccion transaccion = new Transaccion(rs.getInt(1));
+            transaccion.setCodigoUnicoTransaccion(rs.getString(2));
+            transaccion.setMonto(rs.getBigDecimal(3));
+            transaccion.setEstado(rs.getString(4));
+            transaccion.setDetalle(rs.getString(5));
+            return transaccion;
+        });
+        return actualizadas.stream().findFirst();
+    }
+
+    public Optional<String> obtenerEstado(Integer codigo) {
+        return jdbcTemplate.queryForList(SELECT_ESTADO, String.class, codigo).stream().findFirst();
+    }
+
+    /**
+     * Inserta un historial y asigna el código generado.
+     */
+    public void insertarHistorial(HistorialEstadoTransaccion historial) {
+        KeyHolder clave = new GeneratedKeyHolder();
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(INSERT_HISTORIAL, new String[] {COLUMNA_CODIGO_HISTORIAL});
+            asignarHistorial(ps, historial);
+            return ps;
+        }, clave);
+        historial.setCodHistorialEstado(clave.getKeyAs(Number.class).intValue());
+    }
+
+    /**
+     * Recorre los códigos únicos creados desde la fecha indicada sin materializar
+     * el resultado completo en memoria.
+     */
+    public void recorrerCodigosUnicosDesde(LocalDateTime desde, Consumer<String> consumidor) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(SELECT_CODIGOS_UNICOS);
+            ps.setFetchSize(tamanoBatch);
+            ps.setObject(1, desde);
+            return ps;
+        }, (RowCallbackHandler) rs -> consumidor.accept(rs.getString(1)));
+    }
+
+    /**
+     * Recorre tarjeta, fecha, monto y país de las transacciones creadas desde la
+     * fecha indicada, sin cargar las entidades completas.
+     */
+    public void recorrerActividadDesde(LocalDateTime desde, Consumer<Transaccion> consumidor) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(SELECT_ACTIVIDAD);
+            ps.setFetchSize(tamanoBatch);
+            ps.setObject(1, desde);
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            Transaccion transaccion = new Transaccion();
+            transaccion.setNumeroTarjeta(rs.getString(1));
+            transaccion.setFechaCreacion(rs.getObject(2, LocalDateTime.class));
+            transaccion.setMonto(rs.getBigDecimal(3));
+            transaccion.setPais(rs.getString(4));
+            consumidor.accept(transaccion);
+        });
+    }
+
+    private void insertarBatch(List<Transaccion> transacciones) {
+        KeyHolder claves = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(
+            con -> con.prepareStatement(INSERT_TRANSACCION, new String[] {COLUMNA_CODIGO}),
+            new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    asignarTransaccion(ps, transacciones.get(i));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return transacciones.size();
+                }
+            },
+            claves);
+
+        List<Map<String, Object>> generadas = claves.getKeyList();
+        for (int i = 0; i < transacciones.size(); i++) {
+            Number codigo = (Number) generadas.get(i).get(COLUMNA_CODIGO);
+            transacciones.get(i).setCodigo(codigo.intValue());
+        }
+    }
+
+    private void insertarBatchHistorial(List<HistorialEstadoTransaccion> historiales) {
+        jdbcTemplate.batchUpdate(INSERT_HISTORIAL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                asignarHistorial(ps, historiales.get(i));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return historiales.size();
+            }
+        });
+    }
+
+    private void asignarHistorial(PreparedStatement ps, HistorialEstadoTransaccion historial) throws SQLException {
+        ps.setInt(1, historial.getTransaccion().getCodigo());
+        ps.setString(2, historial.getEstado());
+        ps.setObject(3, historial.getFechaEstadoCambio());
+        asignar(ps, 4, historial.getDetalle(), Types.VARCHAR);
+    }
+
+    private void asignarTransaccion(PreparedStatement ps, Transaccion t) throws SQLException {
+        ps.setInt(1, t.getBanco().getCodigo());
+        asignar(ps, 2, t.getComision() != null ? t.getComision().getCodigo() : null, Types.INTEGER);
+        ps.setBigDecimal(3, t.getMonto());
+        ps.setString(4, t.getModalidad());
+        ps.setString(5, t.getCodigoMoneda());
+        ps.setString(6, t.getMarca());
+        ps.setString(7, t.getFechaExpiracionTarjeta());
+        ps.setString(8, t.getNombreTarjeta());
+        ps.setString(9, t.getNumeroTarjeta());
+        ps.setString(10, t.getDireccionTarjeta());
+        ps.setString(11, t.getCvv());
+        ps.setString(12, t.getPais());
+        ps.setString(13, t.getEstado());
+        asignar(ps, 14, t.getDetalle(), Types.VARCHAR);
+        asignar(ps, 15, t.getCodigoUnicoTransaccion(), Types.VARCHAR);
+        ps.setObject(16, t.getFechaCreacion());
+        asignar(ps, 17, t.getFechaEjecucionRecurrencia(), Types.TIMESTAMP);
+        asignar(ps, 18, t.getFechaFinRecurrencia(), Types.TIMESTAMP);
+        asignar(ps, 19, t.getGtwComision(), Types.VARCHAR);
+        asignar(ps, 20, t.getGtwCuenta(), Types.VARCHAR);
+        asignar(ps, 21, t.getNumeroCuenta(), Types.VARCHAR);
+        asignar(ps, 22, t.getCuotas(), Types.INTEGER);
+        asignar(ps, 23, t.getInteresDiferido(), Types.BOOLEAN);
+        asignar(ps, 24, t.getBeneficiario(), Types.VARCHAR);
+        asignar(ps, 25, t.getHashSolicitud(), Types.VARCHAR);
+    }
+
+    private void asignar(PreparedStatement ps, int indice, Object valor, int tipoSql) throws SQLException {
+        if (valor == null) {
+            ps.setNull(indice, tipoSql);
+        } else {
+            ps.setObject(indice, valor);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -31,4 +32,6 @@ public interface TransaccionRepository extends JpaRepository<Transaccion, Intege
             String codigoUnicoTransaccion);
 
     boolean existsByCodigoUnicoTransaccion(String codigoUnicoTransaccion);
+
+    List<Transaccion> findByCodigoUnicoTransaccionIn(Collection<String> codigosUnicos);
 }
@@ -0,0 +1,94 @@
+package com.banquito.cards.transaccion.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cola acotada de varios productores y varios consumidores sobre un arreglo
+ * circular preasignado (algoritmo de Dmitry Vyukov). Cada casilla lleva un número
+ * de secuencia que indica si está libre para el productor de esa vuelta o lista
+ * para su consumidor, de modo que productores y consumidores solo compiten por un
+ * compareAndSet sobre su propio índice y el anillo no toma bloqueos. Con el anillo
+ * lleno {@link #ofrecer} retorna false y con el anillo vacío {@link #tomar}
+ * retorna null, sin esperar: quien necesite esperar, como {@link MotorEtapas},
+ * lo hace por fuera del anillo.
+ */
+final class AnilloAcotado<T> {
+
+    private final int mascara;
+    private final AtomicLongArray secuencias;
+    private final Object[] elementos;
+    private final AtomicLong cola = new AtomicLong();
+    private final AtomicLong cabeza = new AtomicLong();
+
+    AnilloAcotado(int capacidadMinima) {
+        int capacidad = Integer.highestOneBit(Math.max(2, capacidadMinima - 1)) << 1;
+        this.mascara = capacidad - 1;
+        this.secuencias = new AtomicLongArray(capacidad);
+        this.elementos = new Object[capacidad];
+        for (int i = 0; i < capacidad; i++) {
+            secuencias.set(i, i);
+        }
+    }
+
+    boolean ofrecer(T elemento) {
+        long posicion = cola.get();
+        int indice;
+        while (true) {
+            indice = (int) (posicion & mascara);
+            long diferencia = secuencias.getAcquire(indice) - posicion;
+            if (diferencia == 0) {
+                long previa = cola.compareAndExchange(posicion, posicion + 1);
+                if (previa == posicion) {
+                    break;
+                }
+                posicion = previa;
+            } else if (diferencia < 0) {
+                return false;
+            } else {
+                posicion = cola.get();
+            }
+        }
+        elementos[indice] = elemento;
+        secuencias.setRelease(indice, posicion + 1);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    T tomar() {
+        long posicion = cabeza.get();
+        int indice;
+        while (true) {
+            indice = (int) (posicion & mascara);
+            long diferencia = secuencias.getAcquire(indice) - (posicion + 1);
+            if (diferencia == 0) {
+                long previa = cabeza.compareAndExchange(posicion, posicion + 1);
+                if (previa == posicion) {
+                    break;
+                }
+                posicion = previa;
+            } else if (diferencia < 0) {
+                return null;
+            } else {
+                posicion = cabeza.get();
+            }
+        }
+        T elemento = (T) elementos[indice];
+        elementos[indice] = null;
+        secuencias.setRelease(indice, posicion + mascara + 1);
+        return elemento;
+    }
+
+    /**
+     * Elementos en el anillo; aproximado mientras haya productores o consumidores
+     * activos.
+     */
+    int tamano() {
+        long tamano = cola.get() - cabeza.get();
+        return (int) Math.max(0, Math.min(tamano, mascara + 1));
+    }
+
+    int capacidad() {
+        return mascara + 1;
+    }
+}
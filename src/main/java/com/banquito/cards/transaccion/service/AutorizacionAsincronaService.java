@@ -0,0 +1,193 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.transaccion.controller.dto.EstadoTransaccionDTO;
+import com.banquito.cards.transaccion.controller.dto.ResultadoProcesamientoDTO;
+import com.banquito.cards.transaccion.controller.dto.TransaccionAceptadaDTO;
+import com.banquito.cards.transaccion.controller.dto.TransaccionDTO;
+import com.banquito.cards.config.MonitorConexiones;
+import com.banquito.cards.exception.CapacidadExcedidaException;
+import com.banquito.cards.transaccion.repository.OutboxAutorizacionJdbcRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Modo aceptar-y-autorizar: registra la transacción en PEN y delega la
+ * autorización con el banco a un executor acotado, sin retener el hilo
+ * del servlet durante la llamada remota.
+ */
+@Slf4j
+@Service
+public class AutorizacionAsincronaService {
+
+    private static final String ENTITY_NAME = "Transaccion";
+
+    private final TransaccionService transaccionService;
+    private final TaskExecutor autorizacionExecutor;
+    private final TaskExecutor consultaEstadoExecutor;
+    private final MonitorConexiones monitorConexiones;
+    private final OutboxAutorizacionJdbcRepository outboxJdbcRepository;
+    private final IdempotenciaService idempotenciaService;
+    private final Semaphore permisos;
+    private final Duration esperaMaxima;
+    private final long intervaloConsultaMs;
+    private final ConcurrentMap<Integer, CompletableFuture<Void>> enProceso = new ConcurrentHashMap<>();
+
+    public AutorizacionAsincronaService(TransaccionService transaccionService,
+                                        @Qualifier("autorizacionExecutor") TaskExecutor autorizacionExecutor,
+                                        @Qualifier("consultaEstadoExecutor") TaskExecutor consultaEstadoExecutor,
+                                        MonitorConexiones monitorConexiones,
+                                        OutboxAutorizacionJdbcRepository outboxJdbcRepository,
+                                        IdempotenciaService idempotenciaService,
+                                        @Value("${transaccion.autorizacion.hilos:32}") int hilos,
+                                        @Value("${transaccion.autorizacion.capacidad-cola:500}") int capacidadCola,
+                                        @Value("${transaccion.autorizacion.espera-maxima-ms:30000}") long esperaMaximaMs,
+                                        @Value("${transaccion.autorizacion.intervalo-consulta-ms:250}") long intervaloConsultaMs) {
+        this.transaccionService = transaccionService;
+        this.autorizacionExecutor = autorizacionExecutor;
+        this.consultaEstadoExecutor = consultaEstadoExecutor;
+        this.monitorConexiones = monitorConexiones;
+        this.outboxJdbcRepository = outboxJdbcRepository;
+        this.idempotenciaService = idempotenciaService;
+        this.permisos = new Semaphore(hilos + capacidadCola);
+        this.esperaMaxima = Duration.ofMillis(esperaMaximaMs);
+        this.intervaloConsultaMs = intervaloConsultaMs;
+    }
+
+    /**
+     * Registra la transacción y programa su autorización. Pasa por la capa de
+     * idempotencia como la creación síncrona: un reintento con el mismo código
+     * único recibe la transacción ya registrada sin ocupar capacidad. Una
+     * transacción que quedó en el diario local se acepta sin código: no se
+     * despacha y el outbox la autoriza cuando el diario se reproduzca.
+     */
+    public TransaccionAceptadaDTO aceptarTransaccion(TransaccionDTO transaccionDTO) {
+        AtomicReference<String> mensaje = new AtomicReference<>("Transacción ya registrada");
+        ResultadoProcesamientoDTO registrada = idempotenciaService.ejecutar(transaccionDTO, () -> {
+            if (!permisos.tryAcquire()) {
+                log.warn("Autorizaciones en curso al límite, se rechaza transacción {}",
+                    transaccionDTO.getCodigoUnicoTransaccion());
+                throw new CapacidadExcedidaException(transaccionDTO.getCodigoUnicoTransaccion(), ENTITY_NAME);
+            }
+
+            TransaccionDTO transaccionGuardada;
+            try {
+                transaccionGuardada = transaccionService.guardarTransaccion(transaccionDTO);
+            } catch (RuntimeException e) {
+                permisos.release();
+                throw e;
+            }
+
+            Integer codigo = transaccionGuardada.getCodigo();
+            if (codigo == null) {
+                permisos.release();
+                mensaje.set("Transacción aceptada - Autorización al reponerse la base de datos");
+            } else if (despachar(codigo)) {
+                mensaje.set("Transacción aceptada - Autorización en curso");
+            } else {
+                outboxJdbcRepository.liberar(codigo, OutboxAutorizacionJdbcRepository.ARRENDAMIENTO_INICIAL);
+                mensaje.set("Transacción aceptada - Autorización en cola");
+            }
+            return new ResultadoProcesamientoDTO(codigo, transaccionGuardada.getCodigoUnicoTransaccion(),
+                transaccionGuardada.getEstado(), transaccionGuardada.getMonto(), null, null);
+        });
+        return new TransaccionAceptadaDTO(registrada.getCodigo(), registrada.getCodigoUnicoTransaccion(),
+            registrada.getEstado(), mensaje.get());
+    }
+
+    /**
+     * Programa la autorización de una transacción ya registrada en PEN si hay
+     * capacidad disponible. Retorna false cuando no la hay; en ese caso la
+     * solicitud queda liberada en el outbox para el despachador.
+     */
+    public boolean programarAutorizacion(Integer codigo) {
+        if (permisos.tryAcquire() && despachar(codigo)) {
+            return true;
+        }
+        outboxJdbcRepository.liberar(codigo, OutboxAutorizacionJdbcRepository.ARRENDAMIENTO_INICIAL);
+        return false;
+    }
+
+    private boolean despachar(Integer codigo) {
+        CompletableFuture<Void> finalizacion = new CompletableFuture<>();
+        enProceso.put(codigo, finalizacion);
+        try {
+            autorizacionExecutor.execute(() -> autorizar(codigo, finalizacion));
+            return true;
+        } catch (RejectedExecutionException e) {
+            log.error("Executor de autorización no aceptó la transacción {}: {}", codigo, e.getMessage());
+            finalizar(codigo, finalizacion);
+            return false;
+        }
+    }
+
+    /**
+     * Espera, sin bloquear al llamador, a que la transacción llegue a un estado
+     * final o a que venza la espera solicitada; en ambos casos entrega el estado
+     * vigente. Las transacciones en curso en este nodo se esperan por su
+     * finalización; las aceptadas en otro nodo o despachadas por el outbox se
+     * consultan en la base cada intervalo-consulta-ms. Las lecturas corren en el
+     * executor de consultas de estado, no en el pool común ni en el de autorización.
+     */
+    public CompletableFuture<EstadoTransaccionDTO> esperarEstado(Integer codigo, long esperaMs) {
+        EstadoTransaccionDTO estado = transaccionService.obtenerEstadoTransaccion(codigo);
+        if (estado.isEstadoFinal() || esperaMs <= 0) {
+            return CompletableFuture.completedFuture(estado);
+        }
+        long espera = esperaEfectiva(esperaMs);
+        CompletableFuture<Void> finalizacion = enProceso.get(codigo);
+        if (finalizacion != null) {
+            return finalizacion.copy()
+                    .completeOnTimeout(null, espera, TimeUnit.MILLISECONDS)
+                    .thenApplyAsync(ignorado -> transaccionService.obtenerEstadoTransaccion(codigo),
+                        consultaEstadoExecutor);
+        }
+        return consultarHasta(codigo, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(espera));
+    }
+
+    /**
+     * Espera que aplicará esperarEstado a la solicitada, acotada por espera-maxima-ms.
+     */
+    public long esperaEfectiva(long esperaMs) {
+        return Math.max(0, Math.min(esperaMs, esperaMaxima.toMillis()));
+    }
+
+    private CompletableFuture<EstadoTransaccionDTO> consultarHasta(Integer codigo, long limite) {
+        long restanteMs = TimeUnit.NANOSECONDS.toMillis(limite - System.nanoTime());
+        return new CompletableFuture<Void>()
+                .completeOnTimeout(null, Math.max(0, Math.min(intervaloConsultaMs, restanteMs)), TimeUnit.MILLISECONDS)
+                .thenApplyAsync(ignorado -> transaccionService.obtenerEstadoTransaccion(codigo), consultaEstadoExecutor)
+                .thenCompose(estado -> estado.isEstadoFinal() || System.nanoTime() - limite >= 0
+                    ? CompletableFuture.completedFuture(estado)
+                    : consultarHasta(codigo, limite));
+    }
+
+    private void autorizar(Integer codigo, CompletableFuture<Void> finalizacion) {
+        monitorConexiones.iniciarSolicitud();
+        try {
+            transaccionService.procesarConBanco(codigo);
+        } catch (RuntimeException e) {
+            log.error("Error en autorización asíncrona de la transacción {}: {}", codigo, e.getMessage());
+        } finally {
+            monitorConexiones.finalizarSolicitud();
+            finalizar(codigo, finalizacion);
+        }
+    }
+
+    private void finalizar(Integer codigo, CompletableFuture<Void> finalizacion) {
+        enProceso.remove(codigo, finalizacion);
+        permisos.release();
+        finalizacion.complete(null);
+    }
+}
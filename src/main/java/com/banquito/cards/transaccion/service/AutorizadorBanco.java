@@ -0,0 +1,142 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.transaccion.client.DecodificadorRespuestaBanco;
+import com.banquito.cards.transaccion.client.TarjetaConsumoServiceClient;
+import com.banquito.cards.transaccion.controller.dto.ConsumoTarjetaRequestDTO;
+import com.banquito.cards.transaccion.controller.dto.RespuestaAutorizacionBancoDTO;
+import feign.Response;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.apache.hc.core5.http.ConnectionRequestTimeoutException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.ConnectException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Llamada de autorización al banco con reintentos acotados. Solo se reintenta si
+ * la solicitud no llegó a enviarse (sin conexión) o el banco respondió 5xx; una
+ * solicitud enviada sin respuesta no se repite y queda sin confirmar. Todos los
+ * intentos llevan el codigoUnicoTransaccion como clave de idempotencia. Entre
+ * intentos se espera un tiempo aleatorio entre cero y un tope exponencial, y solo
+ * se reintenta si el presupuesto de latencia alcanza para otro intento.
+ * Si alguna solicitud llegó a enviarse y no hubo respuesta definitiva, el
+ * resultado queda sin confirmar y la transacción se concilia después.
+ */
+@Slf4j
+@Component
+public class AutorizadorBanco {
+
+    public enum Desenlace {
+        /** El banco respondió: aprobación, rechazo o 5xx tras agotar reintentos. */
+        RESPONDIDA,
+        /** Ninguna solicitud llegó al banco; no pudo haber cargo. */
+        NO_ENVIADA,
+        /** Al menos una solicitud se envió sin respuesta; el banco pudo haberla procesado. */
+        SIN_CONFIRMAR
+    }
+
+    public record Resultado(Desenlace desenlace, RespuestaAutorizacionBancoDTO respuesta) {
+    }
+
+    private final TarjetaConsumoServiceClient tarjetaConsumoServiceClient;
+    private final DecodificadorRespuestaBanco decodificadorRespuestaBanco;
+    private final int maxReintentos;
+    private final long esperaBaseMs;
+    private final long esperaMaximaMs;
+    private final long minimoIntentoMs;
+    private final Counter reintentos;
+    private final Counter sinConfirmar;
+
+    public AutorizadorBanco(TarjetaConsumoServiceClient tarjetaConsumoServiceClient,
+                            DecodificadorRespuestaBanco decodificadorRespuestaBanco,
+                            MeterRegistry meterRegistry,
+                            @Value("${transaccion.banco.reintentos.maximo:2}") int maxReintentos,
+                            @Value("${transaccion.banco.reintentos.espera-base-ms:50}") long esperaBaseMs,
+                            @Value("${transaccion.banco.reintentos.espera-maxima-ms:400}") long esperaMaximaMs,
+                            @Value("${transaccion.presupuesto.minimo-banco-ms:100}") long minimoIntentoMs) {
+        this.tarjetaConsumoServiceClient = tarjetaConsumoServiceClient;
+        this.decodificadorRespuestaBanco = decodificadorRespuestaBanco;
+        this.maxReintentos = maxReintentos;
+        this.esperaBaseMs = esperaBaseMs;
+        this.esperaMaximaMs = esperaMaximaMs;
+        this.minimoIntentoMs = minimoIntentoMs;
+        this.reintentos = Counter.builder("pagos.banco.reintentos")
+                .description("Reintentos de autorización con el banco")
+                .register(meterRegistry);
+        this.sinConfirmar = Counter.builder("pagos.banco.sin.confirmar")
+                .description("Autorizaciones enviadas al banco sin respuesta confirmada")
+                .register(meterRegistry);
+    }
+
+    public Resultado autorizar(ConsumoTarjetaRequestDTO request, String claveIdempotencia,
+                               PresupuestoLatencia presupuesto) {
+        RespuestaAutorizacionBancoDTO ultimaRespuesta = null;
+        boolean enviadaSinRespuesta = false;
+        for (int intento = 0; ; intento++) {
+            try (Response respuesta = tarjetaConsumoServiceClient.procesarConsumoTarjeta(request, claveIdempotencia,
+                    presupuesto.opcionesFeign())) {
+                ultimaRespuesta = decodificadorRespuestaBanco.decodificar(respuesta);
+                if (!ultimaRespuesta.esFallaDelBanco()) {
+                    return new Resultado(Desenlace.RESPONDIDA, ultimaRespuesta);
+                }
+                log.warn("Banco respondió HTTP {} para {} (intento {})", ultimaRespuesta.getEstadoHttp(),
+                    claveIdempotencia, intento + 1);
+            } catch (Exception e) {
+                boolean enviada = fueEnviada(e);
+                ultimaRespuesta = null;
+                log.warn("Sin respuesta del banco para {} (intento {}, {}): {}", claveIdempotencia, intento + 1,
+                    enviada ? "enviada" : "no enviada", e.getMessage());
+                if (enviada) {
+                    enviadaSinRespuesta = true;
+                    break;
+                }
+            }
+            if (intento >= maxReintentos || !esperarReintento(intento, presupuesto)) {
+                break;
+            }
+            reintentos.increment();
+        }
+        if (enviadaSinRespuesta) {
+            sinConfirmar.increment();
+            return new Resultado(Desenlace.SIN_CONFIRMAR, null);
+        }
+        return new Resultado(ultimaRespuesta != null ? Desenlace.RESPONDIDA : Desenlace.NO_ENVIADA, ultimaRespuesta);
+    }
+
+    /**
+     * Espera con jitter completo: un valor aleatorio entre cero y
+     * min(espera-maxima, espera-base * 2^intento).
+     */
+    private boolean esperarReintento(int intento, PresupuestoLatencia presupuesto) {
+        long tope = Math.min(esperaMaximaMs, esperaBaseMs << Math.min(intento, 20));
+        long espera = ThreadLocalRandom.current().nextLong(tope + 1);
+        if (presupuesto.restanteMs() < espera + minimoIntentoMs) {
+            return false;
+        }
+        try {
+            Thread.sleep(espera);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Sin conexión establecida o sin conexión disponible en el pool la solicitud
+     * nunca salió; cualquier otra falla pudo ocurrir después de enviarla.
+     */
+    private static boolean fueEnviada(Throwable error) {
+        for (Throwable causa = error; causa != null; causa = causa.getCause()) {
+            if (causa instanceof ConnectException || causa instanceof ConnectTimeoutException
+                    || causa instanceof ConnectionRequestTimeoutException) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,172 @@
+package com.banquito.cards.transaccion.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cortacircuitos de la llamada de autorización al banco. Cerrado deja pasar todas
+ * las llamadas y mide la tasa de fallas en una ventana de las últimas llamadas;
+ * al superar el umbral se abre y rechaza de inmediato durante la espera
+ * configurada. Luego pasa a semiabierto y deja pasar unas pocas llamadas de
+ * prueba: si todas responden se cierra, si alguna falla vuelve a abrirse.
+ * Una falla es no obtener respuesta del banco o un 5xx; un rechazo del banco es
+ * una respuesta válida.
+ */
+@Slf4j
+@Component
+public class CircuitoBanco {
+
+    private static final int CERRADO = 0;
+    private static final int ABIERTO = 1;
+    private static final int SEMIABIERTO = 2;
+
+    private final ReentrantLock bloqueo = new ReentrantLock();
+    private final boolean[] ventana;
+    private final int llamadasMinimas;
+    private final double umbralFallas;
+    private final long esperaAbiertoNanos;
+    private final int llamadasPrueba;
+    private final Counter cortocircuitos;
+
+    private volatile int estado = CERRADO;
+    private int posicion;
+    private int registradas;
+    private int fallas;
+    private long abiertoHasta;
+    private int pruebasEnCurso;
+    private int pruebasExitosas;
+
+    public CircuitoBanco(MeterRegistry meterRegistry,
+                         @Value("${transaccion.banco.circuito.ventana:50}") int ventana,
+                         @Value("${transaccion.banco.circuito.llamadas-minimas:20}") int llamadasMinimas,
+                         @Value("${transaccion.banco.circuito.umbral-fallas:0.5}") double umbralFallas,
+                         @Value("${transaccion.banco.circuito.espera-abierto-ms:30000}") long esperaAbiertoMs,
+                         @Value("${transaccion.banco.circuito.llamadas-prueba:3}") int llamadasPrueba) {
+        this.ventana = new boolean[ventana];
+        this.llamadasMinimas = Math.min(llamadasMinimas, ventana);
+        this.umbralFallas = umbralFallas;
+        this.esperaAbiertoNanos = esperaAbiertoMs * 1_000_000;
+        this.llamadasPrueba = llamadasPrueba;
+        Gauge.builder("pagos.banco.circuito.estado", this, circuito -> circuito.estado)
+                .description("Estado del cortacircuitos del banco: 0 cerrado, 1 abierto, 2 semiabierto")
+                .register(meterRegistry);
+        this.cortocircuitos = Counter.builder("pagos.banco.circuito.cortocircuitos")
+                .description("Autorizaciones resueltas sin llamar al banco por circuito abierto")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Indica si se puede llamar al banco. Con el circuito cerrado no toma ningún
+     * bloqueo.
+     */
+    public boolean permitirLlamada() {
+        if (estado == CERRADO) {
+            return true;
+        }
+        bloqueo.lock();
+        try {
+            if (estado == ABIERTO && System.nanoTime() - abiertoHasta >= 0) {
+                log.info("Circuito del banco semiabierto, se permiten {} llamadas de prueba", llamadasPrueba);
+                estado = SEMIABIERTO;
+                pruebasEnCurso = 0;
+                pruebasExitosas = 0;
+            }
+            if (estado == SEMIABIERTO && pruebasEnCurso < llamadasPrueba) {
+                pruebasEnCurso++;
+                return true;
+            }
+            if (estado == CERRADO) {
+                return true;
+            }
+        } finally {
+            bloqueo.unlock();
+        }
+        cortocircuitos.increment();
+        return false;
+    }
+
+    /**
+     * Indica si el circuito está cerrado, sin reservar llamadas de prueba.
+     */
+    public boolean estaCerrado() {
+        return estado == CERRADO;
+    }
+
+    /**
+     * Devuelve el lugar de una llamada permitida que finalmente no se hizo.
+     */
+    public void cancelarLlamada() {
+        if (estado == CERRADO) {
+            return;
+        }
+        bloqueo.lock();
+        try {
+            if (estado == SEMIABIERTO && pruebasEnCurso > 0) {
+                pruebasEnCurso--;
+            }
+        } finally {
+            bloqueo.unlock();
+        }
+    }
+
+    public void registrarResultado(boolean exitosa) {
+        bloqueo.lock();
+        try {
+            switch (estado) {
+                case CERRADO -> registrarCerrado(exitosa);
+                case SEMIABIERTO -> {
+                    if (!exitosa) {
+                        abrir("falló una llamada de prueba");
+                    } else if (++pruebasExitosas >= llamadasPrueba) {
+                        log.info("Circuito del banco cerrado tras {} llamadas de prueba exitosas", pruebasExitosas);
+                        estado = CERRADO;
+                        reiniciarVentana();
+                    }
+                }
+                default -> {
+                    // Respuesta de una llamada iniciada antes de abrir el circuito.
+                }
+            }
+        } finally {
+            bloqueo.unlock();
+        }
+    }
+
+    private void registrarCerrado(boolean exitosa) {
+        if (registradas == ventana.length) {
+            if (!ventana[posicion]) {
+                fallas--;
+            }
+        } else {
+            registradas++;
+        }
+        ventana[posicion] = exitosa;
+        if (!exitosa) {
+            fallas++;
+        }
+        posicion = (posicion + 1) % ventana.length;
+
+        if (registradas >= llamadasMinimas && fallas >= umbralFallas * registradas) {
+            abrir(fallas + " fallas en " + registradas + " llamadas");
+        }
+    }
+
+    private void abrir(String motivo) {
+        log.warn("Circuito del banco abierto: {}", motivo);
+        estado = ABIERTO;
+        abiertoHasta = System.nanoTime() + esperaAbiertoNanos;
+        reiniciarVentana();
+    }
+
+    private void reiniciarVentana() {
+        posicion = 0;
+        registradas = 0;
+        fallas = 0;
+    }
+}
@@ -0,0 +1,132 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.exception.BusinessException;
+import com.banquito.cards.transaccion.client.DecodificadorRespuestaBanco;
+import com.banquito.cards.transaccion.client.TarjetaConsumoServiceClient;
+import com.banquito.cards.transaccion.controller.dto.RespuestaAutorizacionBancoDTO;
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.banquito.cards.transaccion.repository.ConciliacionAutorizacionJdbcRepository;
+import com.banquito.cards.transaccion.repository.TransaccionRepository;
+import feign.Request;
+import feign.Response;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Resuelve las autorizaciones sin confirmar: reclama un lote de
+ * CONCILIACION_AUTORIZACION, consulta en el banco el estado final de cada una por
+ * su clave de idempotencia y pasa la transacción de REV a APR o REC. Si el banco
+ * no la encuentra queda en REC, ya que no hubo cargo, pero solo después de varias
+ * consultas con 404 a lo largo de una ventana mínima. Una consulta sin respuesta se
+ * pospone; tras max-intentos la fila queda para revisión manual. Si el proceso cae
+ * entre la transición y el borrado de la fila, la siguiente pasada la encuentra
+ * fuera de REV y solo la borra.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "transaccion.conciliacion.habilitado", havingValue = "true", matchIfMissing = true)
+public class ConciliadorAutorizaciones {
+
+    private static final String ESTADO_REVISION = "REV";
+    private static final String ESTADO_APROBADA = "APR";
+    private static final String ESTADO_RECHAZADA = "REC";
+
+    private final ConciliacionAutorizacionJdbcRepository conciliacionJdbcRepository;
+    private final TransaccionRepository transaccionRepository;
+    private final TarjetaConsumoServiceClient tarjetaConsumoServiceClient;
+    private final DecodificadorRespuestaBanco decodificadorRespuestaBanco;
+    private final MaquinaEstadosTransaccion maquinaEstados;
+    private final Request.Options opcionesConsulta;
+    private final int tamanoLote;
+    private final Counter conciliadas;
+
+    public ConciliadorAutorizaciones(ConciliacionAutorizacionJdbcRepository conciliacionJdbcRepository,
+                                     TransaccionRepository transaccionRepository,
+                                     TarjetaConsumoServiceClient tarjetaConsumoServiceClient,
+                                     DecodificadorRespuestaBanco decodificadorRespuestaBanco,
+                                     MaquinaEstadosTransaccion maquinaEstados,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${transaccion.conciliacion.tiempo-consulta-ms:2000}") long tiempoConsultaMs,
+                                     @Value("${transaccion.conciliacion.tamano-lote:50}") int tamanoLote) {
+        this.conciliacionJdbcRepository = conciliacionJdbcRepository;
+        this.transaccionRepository = transaccionRepository;
+        this.tarjetaConsumoServiceClient = tarjetaConsumoServiceClient;
+        this.decodificadorRespuestaBanco = decodificadorRespuestaBanco;
+        this.maquinaEstados = maquinaEstados;
+        this.opcionesConsulta = new Request.Options(tiempoConsultaMs, TimeUnit.MILLISECONDS,
+            tiempoConsultaMs, TimeUnit.MILLISECONDS, true);
+        this.tamanoLote = tamanoLote;
+        this.conciliadas = Counter.builder("pagos.banco.conciliadas")
+                .description("Autorizaciones sin confirmar resueltas por conciliación")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${transaccion.conciliacion.intervalo-ms:5000}")
+    public void conciliar() {
+        List<Integer> codigos;
+        try {
+            codigos = conciliacionJdbcRepository.reclamar(tamanoLote);
+        } catch (RuntimeException e) {
+            log.error("No se pudo reclamar autorizaciones por conciliar: {}", e.getMessage());
+            return;
+        }
+        if (codigos.isEmpty()) {
+            return;
+        }
+        log.info("Conciliando {} autorizaciones sin confirmar", codigos.size());
+        Map<Integer, Transaccion> transacciones = transaccionRepository.findAllById(codigos).stream()
+                .collect(Collectors.toMap(Transaccion::getCodigo, Function.identity()));
+        for (Integer codigo : codigos) {
+            Transaccion transaccion = transacciones.get(codigo);
+            try {
+                if (transaccion == null || !ESTADO_REVISION.equals(transaccion.getEstado())) {
+                    conciliacionJdbcRepository.completar(codigo);
+                } else {
+                    conciliar(transaccion);
+                }
+            } catch (RuntimeException e) {
+                log.error("Error al conciliar la transacción {}: {}", codigo, e.getMessage());
+                conciliacionJdbcRepository.posponer(codigo);
+            }
+        }
+    }
+
+    private void conciliar(Transaccion transaccion) {
+        Integer codigo = transaccion.getCodigo();
+        RespuestaAutorizacionBancoDTO consulta;
+        try (Response respuesta = tarjetaConsumoServiceClient.consultarEstado(
+                transaccion.getCodigoUnicoTransaccion(), opcionesConsulta)) {
+            consulta = decodificadorRespuestaBanco.decodificarConsulta(respuesta);
+        }
+        if (consulta.getEstadoHttp() == 404 && !conciliacionJdbcRepository.registrarNoEncontrada(codigo)) {
+            log.info("El banco aún no encuentra la transacción {}, se vuelve a consultar", codigo);
+            return;
+        }
+        if (consulta.getEstadoHttp() != 200 && consulta.getEstadoHttp() != 404) {
+            log.warn("Consulta de estado de la transacción {} sin resolver (HTTP {}), se pospone",
+                codigo, consulta.getEstadoHttp());
+            conciliacionJdbcRepository.posponer(codigo);
+            return;
+        }
+        String nuevoEstado = consulta.isAprobada() ? ESTADO_APROBADA : ESTADO_RECHAZADA;
+        try {
+            maquinaEstados.transicionar(codigo, ESTADO_REVISION, nuevoEstado, "Conciliación: " + consulta.getMensaje());
+        } catch (BusinessException e) {
+            log.info("Transacción {} ya no está en revisión, se descarta la conciliación", codigo);
+        }
+        conciliacionJdbcRepository.completar(codigo);
+        conciliadas.increment();
+        log.info("Transacción {} conciliada en {}", codigo, nuevoEstado);
+    }
+}
@@ -0,0 +1,114 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.transaccion.repository.AvisoSuplenteJdbcRepository;
+import com.banquito.cards.transaccion.repository.OutboxAutorizacionJdbcRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Entrega al banco los avisos de las aprobaciones del procesamiento suplente
+ * mientras el circuito esté cerrado. El planificador solo reclama filas; las
+ * llamadas al banco corren en su propio executor con a lo sumo
+ * {@code trabajadores-avisos} en curso, así un banco lento al recibir avisos no
+ * retrasa al outbox ni a la conciliación, que comparten el planificador.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "transaccion.stip.habilitado", havingValue = "true")
+public class DespachadorAvisosSuplente {
+
+    private final AvisoSuplenteJdbcRepository avisoJdbcRepository;
+    private final TransaccionService transaccionService;
+    private final CircuitoBanco circuitoBanco;
+    private final TaskExecutor avisosExecutor;
+    private final Semaphore trabajadoresLibres;
+    private final int tamanoLote;
+    private final AtomicInteger pendientes = new AtomicInteger();
+
+    public DespachadorAvisosSuplente(AvisoSuplenteJdbcRepository avisoJdbcRepository,
+                                     TransaccionService transaccionService,
+                                     CircuitoBanco circuitoBanco,
+                                     @Qualifier("avisosSuplenteExecutor") TaskExecutor avisosExecutor,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${transaccion.stip.trabajadores-avisos:4}") int trabajadores,
+                                     @Value("${transaccion.stip.tamano-lote-avisos:50}") int tamanoLote) {
+        this.avisoJdbcRepository = avisoJdbcRepository;
+        this.transaccionService = transaccionService;
+        this.circuitoBanco = circuitoBanco;
+        this.avisosExecutor = avisosExecutor;
+        this.trabajadoresLibres = new Semaphore(trabajadores);
+        this.tamanoLote = tamanoLote;
+        Gauge.builder("pagos.stip.avisos.pendientes", pendientes, AtomicInteger::get)
+                .description("Aprobaciones del suplente pendientes de avisar al banco")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${transaccion.stip.intervalo-avisos-ms:5000}")
+    public void despachar() {
+        try {
+            pendientes.set(avisoJdbcRepository.contar());
+        } catch (RuntimeException e) {
+            log.error("No se pudo contar los avisos del suplente: {}", e.getMessage());
+            return;
+        }
+        if (pendientes.get() == 0 || !circuitoBanco.estaCerrado()) {
+            return;
+        }
+        int libres = Math.min(trabajadoresLibres.availablePermits(), tamanoLote);
+        if (libres == 0) {
+            return;
+        }
+        List<OutboxAutorizacionJdbcRepository.Reclamada> reclamadas;
+        try {
+            reclamadas = avisoJdbcRepository.reclamar(libres);
+        } catch (RuntimeException e) {
+            log.error("No se pudo reclamar avisos del suplente: {}", e.getMessage());
+            return;
+        }
+        reclamadas.forEach(this::enviar);
+    }
+
+    private void enviar(OutboxAutorizacionJdbcRepository.Reclamada reclamada) {
+        trabajadoresLibres.acquireUninterruptibly();
+        try {
+            avisosExecutor.execute(() -> avisar(reclamada));
+        } catch (RejectedExecutionException e) {
+            trabajadoresLibres.release();
+            log.warn("Sin capacidad para avisar la transacción {}, se reintenta", reclamada.codigoTransaccion());
+            reintentar(reclamada);
+        }
+    }
+
+    private void avisar(OutboxAutorizacionJdbcRepository.Reclamada reclamada) {
+        try {
+            transaccionService.avisarSuplente(reclamada.codigoTransaccion(), reclamada.arrendamiento());
+        } catch (RuntimeException e) {
+            log.error("Error al avisar la transacción {} aprobada por el suplente: {}",
+                reclamada.codigoTransaccion(), e.getMessage());
+            reintentar(reclamada);
+        } finally {
+            trabajadoresLibres.release();
+        }
+    }
+
+    private void reintentar(OutboxAutorizacionJdbcRepository.Reclamada reclamada) {
+        try {
+            avisoJdbcRepository.reintentar(reclamada.codigoTransaccion(), reclamada.arrendamiento());
+        } catch (RuntimeException e) {
+            log.error("No se pudo reprogramar el aviso de la transacción {}, se reintentará al vencer el "
+                + "arrendamiento: {}", reclamada.codigoTransaccion(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.config.MonitorConexiones;
+import com.banquito.cards.transaccion.repository.OutboxAutorizacionJdbcRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Drena OUTBOX_AUTORIZACION: reclama solicitudes disponibles o con arrendamiento
+ * vencido y las autoriza con el banco con a lo sumo {@code trabajadores} llamadas
+ * en curso por nodo. Solo se reclaman tantas filas como trabajadores libres, así
+ * ninguna fila queda arrendada esperando turno en memoria. Las solicitudes que
+ * agotaron sus intentos pasan a conciliación y se cuentan en
+ * pagos.outbox.agotadas.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "transaccion.outbox.habilitado", havingValue = "true", matchIfMissing = true)
+public class DespachadorOutboxAutorizacion {
+
+    private final OutboxAutorizacionJdbcRepository outboxJdbcRepository;
+    private final TransaccionService transaccionService;
+    private final TaskExecutor despachadorExecutor;
+    private final MonitorConexiones monitorConexiones;
+    private final Semaphore trabajadoresLibres;
+    private final int tamanoLote;
+    private final Counter agotadas;
+
+    public DespachadorOutboxAutorizacion(OutboxAutorizacionJdbcRepository outboxJdbcRepository,
+                                         TransaccionService transaccionService,
+                                         @Qualifier("despachadorOutboxExecutor") TaskExecutor despachadorExecutor,
+                                         MonitorConexiones monitorConexiones,
+                                         @Value("${transaccion.outbox.trabajadores:16}") int trabajadores,
+                                         @Value("${transaccion.outbox.tamano-lote:100}") int tamanoLote,
+                                         MeterRegistry meterRegistry) {
+        this.outboxJdbcRepository = outboxJdbcRepository;
+        this.transaccionService = transaccionService;
+        this.despachadorExecutor = despachadorExecutor;
+        this.monitorConexiones = monitorConexiones;
+        this.trabajadoresLibres = new Semaphore(trabajadores);
+        this.tamanoLote = tamanoLote;
+        this.agotadas = Counter.builder("pagos.outbox.agotadas")
+                .description("Solicitudes del outbox que agotaron sus intentos y pasaron a conciliación")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${transaccion.outbox.intervalo-ms:500}")
+    public void despachar() {
+        conciliarAgotadas();
+        int reclamadas;
+        do {
+            int libres = Math.min(trabajadoresLibres.availablePermits(), tamanoLote);
+            if (libres == 0) {
+                return;
+            }
+            List<OutboxAutorizacionJdbcRepository.Reclamada> codigos;
+            try {
+                codigos = outboxJdbcRepository.reclamar(libres);
+            } catch (RuntimeException e) {
+                log.error("No se pudo reclamar solicitudes del outbox: {}", e.getMessage());
+                return;
+            }
+            reclamadas = codigos.size();
+            if (reclamadas > 0) {
+                log.debug("Reclamadas {} solicitudes del outbox", reclamadas);
+            }
+            codigos.forEach(this::enviar);
+        } while (reclamadas > 0);
+    }
+
+    private void conciliarAgotadas() {
+        List<OutboxAutorizacionJdbcRepository.Reclamada> reclamadas;
+        try {
+            reclamadas = outboxJdbcRepository.reclamarAgotadas(tamanoLote);
+        } catch (RuntimeException e) {
+            log.error("No se pudo reclamar solicitudes agotadas del outbox: {}", e.getMessage());
+            return;
+        }
+        for (OutboxAutorizacionJdbcRepository.Reclamada reclamada : reclamadas) {
+            try {
+                if (transaccionService.conciliarAgotada(reclamada.codigoTransaccion(), reclamada.arrendamiento())) {
+                    agotadas.increment();
+                    log.error("Transacción {} agotó sus intentos en el outbox, pasa a conciliación",
+                        reclamada.codigoTransaccion());
+                }
+            } catch (RuntimeException e) {
+                log.error("No se pudo pasar a conciliación la transacción {}: {}", reclamada.codigoTransaccion(),
+                    e.getMessage());
+            }
+        }
+    }
+
+    private void enviar(OutboxAutorizacionJdbcRepository.Reclamada reclamada) {
+        trabajadoresLibres.acquireUninterruptibly();
+        try {
+            despachadorExecutor.execute(() -> autorizar(reclamada));
+        } catch (RejectedExecutionException e) {
+            trabajadoresLibres.release();
+            log.warn("Despachador sin capacidad para la transacción {}, se reprograma", reclamada.codigoTransaccion());
+            reprogramar(reclamada, false);
+        }
+    }
+
+    private void autorizar(OutboxAutorizacionJdbcRepository.Reclamada reclamada) {
+        Integer codigo = reclamada.codigoTransaccion();
+        monitorConexiones.iniciarSolicitud();
+        try {
+            transaccionService.procesarConBanco(codigo, reclamada.arrendamiento());
+        } catch (RuntimeException e) {
+            log.error("Error al autorizar desde el outbox la transacción {}: {}", codigo, e.getMessage());
+            reprogramar(reclamada, true);
+        } finally {
+            monitorConexiones.finalizarSolicitud();
+            trabajadoresLibres.release();
+        }
+    }
+
+    /**
+     * Devuelve la solicitud al outbox; solo un intento fallido cuenta para
+     * max-intentos.
+     */
+    private void reprogramar(OutboxAutorizacionJdbcRepository.Reclamada reclamada, boolean fallido) {
+        try {
+            if (fallido) {
+                outboxJdbcRepository.reintentar(reclamada.codigoTransaccion(), reclamada.arrendamiento());
+            } else {
+                outboxJdbcRepository.posponer(reclamada.codigoTransaccion(), reclamada.arrendamiento());
+            }
+        } catch (RuntimeException e) {
+            log.error("No se pudo reprogramar la transacción {}, se reintentará al vencer el arrendamiento: {}",
+                reclamada.codigoTransaccion(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.comision.model.Banco;
+import com.banquito.cards.comision.model.Comision;
+import com.banquito.cards.exception.CapacidadExcedidaException;
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Diario local de solo anexado para seguir aceptando transacciones mientras la
+ * base de datos no responde. Es un archivo mapeado en memoria: una cabecera con
+ * la época vigente y la posición hasta la que el diario ya se reprodujo en la
+ * base, seguida de registros [longitud, CRC32C, época, JSON]. Cada lote se
+ * escribe completo y se fuerza a disco con una sola sincronización antes de
+ * confirmar a los llamadores. {@link ReproductorDiarioTransacciones} lo
+ * reproduce en orden; cuando queda al día se reinicia con una nueva época para
+ * que los registros viejos que siguen en el archivo no vuelvan a leerse.
+ *
+ * <p>El CVV no se anota: una transacción reproducida se registra y se autoriza sin
+ * él. El resto del registro, incluido el número de tarjeta, se cifra con
+ * AES-GCM y la clave de transaccion.diario.clave; cada registro lleva su propio
+ * vector de inicialización y un registro alterado o leído con otra clave falla
+ * la verificación de autenticidad en lugar de reproducirse.
+ *
+ * <p>Mientras una transacción no se reproduce, la base no conoce su código único.
+ * Por eso el diario guarda en memoria la huella de la solicitud de cada código
+ * pendiente, para que un código reutilizado con otra solicitud se rechace antes
+ * de anotarse y no se descarte después en silencio al reproducirse.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "transaccion.diario.habilitado", havingValue = "true")
+public class DiarioTransacciones {
+
+    private static final String ENTITY_NAME = "Transaccion";
+    private static final int CABECERA = 64;
+    private static final int POSICION_EPOCA = 0;
+    private static final int POSICION_REPRODUCIDA = 8;
+    private static final int ENCABEZADO_REGISTRO = 16;
+    private static final String CIFRADO = "AES/GCM/NoPadding";
+    private static final int LONGITUD_IV = 12;
+    private static final int LONGITUD_ETIQUETA_BITS = 128;
+
+    private final ObjectMapper objectMapper;
+    private final SecretKeySpec clave;
+    private final SecureRandom aleatorio = new SecureRandom();
+    private final FileChannel canal;
+    private final MappedByteBuffer mapa;
+    private final ReentrantLock bloqueo = new ReentrantLock();
+    private final ConcurrentMap<String, Anotada> huellas = new ConcurrentHashMap<>();
+    private long epoca;
+    private volatile int posicionEscritura;
+    private volatile int posicionReproducida;
+
+    public DiarioTransacciones(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                               @Value("${transaccion.diario.directorio:diario}") String directorio,
+                               @Value("${transaccion.diario.tamano-mb:256}") int tamanoMb,
+                               @Value("${transaccion.diario.clave:}") String claveBase64) throws IOException {
+        this.objectMapper = objectMapper;
+        this.clave = leerClave(claveBase64);
+        Path archivo = Files.createDirectories(Path.of(directorio)).resolve("transacciones.diario");
+        this.canal = FileChannel.open(archivo, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        this.mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, (long) tamanoMb * 1024 * 1024);
+        this.epoca = mapa.getLong(POSICION_EPOCA);
+        int reproducida = (int) mapa.getLong(POSICION_REPRODUCIDA);
+        this.posicionReproducida = reproducida < CABECERA ? CABECERA : reproducida;
+        this.posicionEscritura = recorrer(posicionReproducida, mapa.capacity(), Integer.MAX_VALUE, null);
+        Gauge.builder("pagos.diario.pendientes", this, diario -> diario.posicionEscritura - diario.posicionReproducida)
+                .description("Bytes del diario local pendientes de reproducir en la base")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        if (hayPendientes()) {
+            log.warn("Diario local con {} bytes pendientes de reproducir en {}",
+                posicionEscritura - posicionReproducida, archivo);
+            try {
+                recorrer(posicionReproducida, posicionEscritura, Integer.MAX_VALUE, new ArrayList<>());
+            } catch (RuntimeException e) {
+                log.error("No se pudieron leer las huellas pendientes del diario local: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Indica si el error corresponde a una base de datos caída o que no responde,
+     * el caso en que conviene anotar en el diario en lugar de rechazar.
+     */
+    public static boolean esInterrupcionBaseDeDatos(Throwable error) {
+        for (Throwable causa = error; causa != null; causa = causa.getCause()) {
+            if (causa instanceof DataAccessResourceFailureException || causa instanceof TransientDataAccessException
+                    || causa instanceof RecoverableDataAccessException
+                    || causa instanceof CannotCreateTransactionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Anota el lote y lo fuerza a disco con una sola sincronización.
+     *
+     * @throws CapacidadExcedidaException si el lote no cabe en el diario
+     */
+    public void anotar(List<Transaccion> transacciones) {
+        List<byte[]> cuerpos = new ArrayList<>(transacciones.size());
+        for (Transaccion transaccion : transacciones) {
+            try {
+                cuerpos.add(cifrar(objectMapper.writeValueAsBytes(Entrada.desde(transaccion))));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        bloqueo.lock();
+        try {
+            int inicio = posicionEscritura;
+            long requerido = cuerpos.stream().mapToLong(cuerpo -> ENCABEZADO_REGISTRO + cuerpo.length).sum();
+            if (inicio + requerido > mapa.capacity()) {
+                throw new CapacidadExcedidaException("diario local", ENTITY_NAME);
+            }
+            int posicion = inicio;
+            for (int i = 0; i < cuerpos.size(); i++) {
+                byte[] cuerpo = cuerpos.get(i);
+                CRC32C crc = new CRC32C();
+                crc.update(longABytes(epoca));
+                crc.update(cuerpo);
+                mapa.putInt(posicion, cuerpo.length);
+                mapa.putInt(posicion + 4, (int) crc.getValue());
+                mapa.putLong(posicion + 8, epoca);
+                mapa.put(posicion + ENCABEZADO_REGISTRO, cuerpo);
+                posicion += ENCABEZADO_REGISTRO + cuerpo.length;
+                recordarHuella(transacciones.get(i), posicion);
+            }
+            if (posicion + 4 <= mapa.capacity()) {
+                mapa.putInt(posicion, 0);
+            }
+            mapa.force(inicio, Math.min(posicion + 4, mapa.capacity()) - inicio);
+            posicionEscritura = posicion;
+        } finally {
+            bloqueo.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void cerrar() throws IOException {
+        bloqueo.lock();
+        try {
+            mapa.force();
+            canal.close();
+        } finally {
+            bloqueo.unlock();
+        }
+    }
+
+    public boolean hayPendientes() {
+        return posicionReproducida < posicionEscritura;
+    }
+
+    /**
+     * Huella de la solicitud anotada con el código único que todavía no se
+     * reprodujo en la base, si la hay.
+     */
+    public Optional<String> huellaPendiente(String codigoUnicoTransaccion) {
+        if (codigoUnicoTransaccion == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(huellas.get(codigoUnicoTransaccion)).map(Anotada::hashSolicitud);
+    }
+
+    /**
+     * Lee hasta limite transacciones pendientes en el orden en que se anotaron,
+     * sin marcarlas como reproducidas.
+     */
+    public Lectura leerPendientes(int limite) {
+        List<Transaccion> transacciones = new ArrayList<>(limite);
+        int hasta = recorrer(posicionReproducida, posicionEscritura, limite, transacciones);
+        return new Lectura(transacciones, hasta);
+    }
+
+    /**
+     * Registra que todo lo anterior a la posición ya está en la base. Si el diario
+     * quedó al día se reinicia con una nueva época.
+     */
+    public void confirmarReproduccion(int posicion) {
+        bloqueo.lock();
+        try {
+            if (posicion >= posicionEscritura) {
+                epoca++;
+                mapa.putLong(POSICION_EPOCA, epoca);
+                mapa.putInt(CABECERA, 0);
+                posicionEscritura = CABECERA;
+                posicion = CABECERA;
+                huellas.clear();
+            } else {
+                int reproducida = posicion;
+                huellas.values().removeIf(anotada -> anotada.posicion() <= reproducida);
+            }
+            mapa.putLong(POSICION_REPRODUCIDA, posicion);
+            mapa.force(0, CABECERA + 4);
+            posicionReproducida = posicion;
+        } finally {
+            bloqueo.unlock();
+        }
+    }
+
+    /**
+     * Recorre registros válidos desde la posición dada; se detiene en el primero
+     * vacío, incompleto, con CRC inválido o de otra época, o al llegar a la posición
+     * final. Retorna la posición siguiente al último registro leído. Las
+     * transacciones que deja en destino quedan con su huella en memoria.
+     */
+    private int recorrer(int desde, int posicionFinal, int limite, List<Transaccion> destino) {
+        int posicion = desde;
+        int leidos = 0;
+        while (leidos < limite && posicion + ENCABEZADO_REGISTRO <= posicionFinal) {
+            int longitud = mapa.getInt(posicion);
+            if (longitud <= 0 || (long) posicion + ENCABEZADO_REGISTRO + longitud > mapa.capacity()
+                    || mapa.getLong(posicion + 8) != epoca) {
+                break;
+            }
+            byte[] cuerpo = new byte[longitud];
+            mapa.get(posicion + ENCABEZADO_REGISTRO, cuerpo);
+            CRC32C crc = new CRC32C();
+            crc.update(longABytes(epoca));
+            crc.update(cuerpo);
+            if ((int) crc.getValue() != mapa.getInt(posicion + 4)) {
+                break;
+            }
+            posicion += ENCABEZADO_REGISTRO + longitud;
+            if (destino != null) {
+                Transaccion transaccion;
+                try {
+                    transaccion = objectMapper.readValue(descifrar(cuerpo), Entrada.class).aTransaccion();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                recordarHuella(transaccion, posicion);
+                destino.add(transaccion);
+            }
+            leidos++;
+        }
+        return posicion;
+    }
+
+    /**
+     * Guarda la huella hasta que se reproduzca el registro que termina en la
+     * posición indicada; si el código se anotó más de una vez queda la última.
+     */
+    private void recordarHuella(Transaccion transaccion, int posicionFinal) {
+        if (transaccion.getCodigoUnicoTransaccion() != null && transaccion.getHashSolicitud() != null) {
+            huellas.put(transaccion.getCodigoUnicoTransaccion(),
+                new Anotada(transaccion.getHashSolicitud(), posicionFinal));
+        }
+    }
+
+    private static SecretKeySpec leerClave(String claveBase64) {
+        if (claveBase64 == null || claveBase64.isBlank()) {
+            throw new IllegalStateException("transaccion.diario.clave es obligatoria con el diario habilitado");
+        }
+        byte[] bytes = Base64.getDecoder().decode(claveBase64.trim());
+        if (bytes.length != 16 && bytes.length != 24 && bytes.length != 32) {
+            throw new IllegalStateException("transaccion.diario.clave debe ser una clave AES de 128, 192 o 256 bits");
+        }
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    /**
+     * Retorna el vector de inicialización seguido del texto cifrado con su etiqueta.
+     */
+    private byte[] cifrar(byte[] texto) {
+        byte[] iv = new byte[LONGITUD_IV];
+        aleatorio.nextBytes(iv);
+        try {
+            Cipher cifrador = Cipher.getInstance(CIFRADO);
+            cifrador.init(Cipher.ENCRYPT_MODE, clave, new GCMParameterSpec(LONGITUD_ETIQUETA_BITS, iv));
+            byte[] cuerpo = new byte[LONGITUD_IV + cifrador.getOutputSize(texto.length)];
+            System.arraycopy(iv, 0, cuerpo, 0, LONGITUD_IV);
+            cifrador.doFinal(texto, 0, texto.length, cuerpo, LONGITUD_IV);
+            return cuerpo;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("No se pudo cifrar el registro del diario", e);
+        }
+    }
+
+    private byte[] descifrar(byte[] cuerpo) {
+        try {
+            Cipher cifrador = Cipher.getInstance(CIFRADO);
+            cifrador.init(Cipher.DECRYPT_MODE, clave,
+                new GCMParameterSpec(LONGITUD_ETIQUETA_BITS, cuerpo, 0, LONGITUD_IV));
+            return cifrador.doFinal(cuerpo, LONGITUD_IV, cuerpo.length - LONGITUD_IV);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("No se pudo descifrar el registro del diario; la clave no corresponde", e);
+        }
+    }
+
+    private static byte[] longABytes(long valor) {
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) valor;
+            valor >>>= 8;
+        }
+        return bytes;
+    }
+
+    public record Lectura(List<Transaccion> transacciones, int hasta) {
+    }
+
+    private record Anotada(String hashSolicitud, int posicion) {
+    }
+
+    private record Entrada(Integer codigoBanco, Integer codigoComision, BigDecimal monto, String modalidad,
+                           String codigoMoneda, String marca, String fechaExpiracionTarjeta, String nombreTarjeta,
+                           String numeroTarjeta, String direccionTarjeta, String pais, String estado,
+                           String detalle, String codigoUnicoTransaccion, LocalDateTime fechaCreacion,
+                           LocalDateTime fechaEjecucionRecurrencia, LocalDateTime fechaFinRecurrencia,
+                           String gtwComision, String gtwCuenta, String numeroCuenta, Integer cuotas,
+                           Boolean interesDiferido, String beneficiario, String hashSolicitud) {
+
+        static Entrada desde(Transaccion t) {
+            return new Entrada(t.getBanco().getCodigo(), t.getComision() != null ? t.getComision().getCodigo() : null,
+                t.getMonto(), t.getModalidad(), t.getCodigoMoneda(), t.getMarca(), t.getFechaExpiracionTarjeta(),
+                t.getNombreTarjeta(), t.getNumeroTarjeta(), t.getDireccionTarjeta(), t.getPais(),
+                t.getEstado(), t.getDetalle(), t.getCodigoUnicoTransaccion(), t.getFechaCreacion(),
+                t.getFechaEjecucionRecurrencia(), t.getFechaFinRecurrencia(), t.getGtwComision(), t.getGtwCuenta(),
+                t.getNumeroCuenta(), t.getCuotas(), t.getInteresDiferido(), t.getBeneficiario(), t.getHashSolicitud());
+        }
+
+        Transaccion aTransaccion() {
+            Transaccion t = new Transaccion();
+            t.setBanco(new Banco(codigoBanco));
+            t.setComision(codigoComision != null ? new Comision(codigoComision) : null);
+            t.setMonto(monto);
+            t.setModalidad(modalidad);
+            t.setCodigoMoneda(codigoMoneda);
+            t.setMarca(marca);
+            t.setFechaExpiracionTarjeta(fechaExpiracionTarjeta);
+            t.setNombreTarjeta(nombreTarjeta);
+            t.setNumeroTarjeta(numeroTarjeta);
+            t.setDireccionTarjeta(direccionTarjeta);
+            t.setPais(pais);
+            t.setEstado(estado);
+            t.setDetalle(detalle);
+            t.setCodigoUnicoTransaccion(codigoUnicoTransaccion);
+            t.setFechaCreacion(fechaCreacion);
+            t.setFechaEjecucionRecurrencia(fechaEjecucionRecurrencia);
+            t.setFechaFinRecurrencia(fechaFinRecurrencia);
+            t.setGtwComision(gtwComision);
+            t.setGtwCuenta(gtwCuenta);
+            t.setNumeroCuenta(numeroCuenta);
+            t.setCuotas(cuotas);
+            t.setInteresDiferido(interesDiferido);
+            t.setBeneficiario(beneficiario);
+            t.setHashSolicitud(hashSolicitud);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.fraude.model.MonitoreoFraude;
+import com.banquito.cards.fraude.service.MonitoreoFraudeService;
+import com.banquito.cards.transaccion.client.MonitoreoFraudeClient;
+import com.banquito.cards.transaccion.client.TarjetaServiceClient;
+import com.banquito.cards.transaccion.controller.dto.ConsumoTarjetaRequestDTO;
+import com.banquito.cards.transaccion.controller.dto.ProcesamientoFraudeRequestDTO;
+import com.banquito.cards.transaccion.controller.dto.RespuestaMonitoreoFraudeDTO;
+import com.banquito.cards.transaccion.model.Transaccion;
+import feign.FeignException;
+import feign.Request;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verificaciones previas a la autorización con el banco: monitoreo de fraude
+ * remoto, reglas de fraude locales y validación de la tarjeta. Las tres se lanzan
+ * a la vez y comparten un mismo plazo, así la etapa tarda lo que la más lenta y
+ * no la suma de las tres. El plazo nunca excede lo que queda del presupuesto de
+ * latencia de la transacción, y las llamadas remotas usan ese mismo plazo como
+ * tiempo de lectura, de modo que no siguen corriendo después de él.
+ * Los resultados se atienden en el orden en que llegan: el primer rechazo decide
+ * sin esperar a las demás, que se cancelan interrumpiendo su hilo.
+ * Una verificación que no concluye dentro del plazo o falla envía la transacción
+ * a revisión; con fallo-abierto=true se ignora y se cuenta en
+ * pagos.preautorizacion.fallo-abierto.
+ */
+@Slf4j
+@Service
+public class EvaluacionPreautorizacionService {
+
+    private static final String ESTADO_RECHAZADA = "REC";
+    private static final String ESTADO_REVISION = "REV";
+
+    private final MonitoreoFraudeClient monitoreoFraudeClient;
+    private final TarjetaServiceClient tarjetaServiceClient;
+    private final MonitoreoFraudeService monitoreoFraudeService;
+    private final TaskExecutor preautorizacionExecutor;
+    private final MeterRegistry meterRegistry;
+    private final boolean habilitado;
+    private final long plazoNanos;
+    private final boolean falloAbierto;
+
+    public EvaluacionPreautorizacionService(MonitoreoFraudeClient monitoreoFraudeClient,
+                                            TarjetaServiceClient tarjetaServiceClient,
+                                            MonitoreoFraudeService monitoreoFraudeService,
+                                            @Qualifier("preautorizacionExecutor") TaskExecutor preautorizacionExecutor,
+                                            MeterRegistry meterRegistry,
+                                            @Value("${transaccion.preautorizacion.habilitado:true}") boolean habilitado,
+                                            @Value("${transaccion.preautorizacion.plazo-ms:800}") long plazoMs,
+                                            @Value("${transaccion.preautorizacion.fallo-abierto:false}") boolean falloAbierto) {
+        this.monitoreoFraudeClient = monitoreoFraudeClient;
+        this.tarjetaServiceClient = tarjetaServiceClient;
+        this.monitoreoFraudeService = monitoreoFraudeService;
+        this.preautorizacionExecutor = preautorizacionExecutor;
+        this.meterRegistry = meterRegistry;
+        this.habilitado = habilitado;
+        this.plazoNanos = TimeUnit.MILLISECONDS.toNanos(plazoMs);
+        this.falloAbierto = falloAbierto;
+    }
+
+    /**
+     * Retorna la decisión que impide enviar la transacción al banco, si la hay, y
+     * si las tres verificaciones concluyeron. Deshabilitadas no se ejecuta ninguna.
+     */
+    public Evaluacion evaluar(Transaccion transaccion, ConsumoTarjetaRequestDTO request,
+                              PresupuestoLatencia presupuesto) {
+        if (!habilitado) {
+            return Evaluacion.OMITIDA;
+        }
+        long plazo = Math.min(plazoNanos, presupuesto.restanteNanos());
+        long limite = System.nanoTime() + plazo;
+        Request.Options opciones = presupuesto.opcionesFeign(TimeUnit.NANOSECONDS.toMillis(plazo));
+        BlockingQueue<Verificacion> completadas = new ArrayBlockingQueue<>(3);
+        List<Verificacion> verificaciones = List.of(
+            lanzar("validación de tarjeta", () -> validarTarjeta(request, opciones), completadas),
+            lanzar("fraude remoto", () -> evaluarFraudeRemoto(transaccion, opciones), completadas),
+            lanzar("reglas de fraude", () -> evaluarReglasLocales(transaccion), completadas));
+        List<Verificacion> pendientes = new ArrayList<>(verificaciones);
+
+        Decision revision = null;
+        while (!pendientes.isEmpty()) {
+            Verificacion verificacion = siguiente(completadas, limite);
+            if (verificacion == null) {
+                break;
+            }
+            pendientes.remove(verificacion);
+            Optional<Decision> decision = resultado(verificacion, transaccion.getCodigo());
+            if (decision.isPresent()) {
+                if (ESTADO_RECHAZADA.equals(decision.get().estado())) {
+                    cancelar(pendientes);
+                    return new Evaluacion(decision.get(), true);
+                }
+                if (revision == null) {
+                    revision = decision.get();
+                }
+            }
+        }
+        for (Verificacion verificacion : pendientes) {
+            Optional<Decision> decision = noConcluida(verificacion, transaccion.getCodigo(), "sin respuesta dentro del plazo");
+            if (revision == null && decision.isPresent()) {
+                revision = decision.get();
+            }
+        }
+        cancelar(pendientes);
+        return new Evaluacion(revision, verificaciones.stream().allMatch(Verificacion::concluida));
+    }
+
+    private Verificacion lanzar(String nombre, Callable<Optional<Decision>> tarea,
+                                BlockingQueue<Verificacion> completadas) {
+        Verificacion verificacion = new Verificacion(nombre, tarea, completadas);
+        try {
+            preautorizacionExecutor.execute(verificacion);
+        } catch (RuntimeException e) {
+            verificacion.fallar(e);
+        }
+        return verificacion;
+    }
+
+    private static Verificacion siguiente(BlockingQueue<Verificacion> completadas, long limite) {
+        try {
+            return completadas.poll(Math.max(0, limite - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private Optional<Decision> resultado(Verificacion verificacion, Integer codigoTransaccion) {
+        try {
+            Optional<Decision> decision = verificacion.get();
+            verificacion.concluida = true;
+            return decision;
+        } catch (ExecutionException e) {
+            return noConcluida(verificacion, codigoTransaccion, "falló: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return noConcluida(verificacion, codigoTransaccion, "espera interrumpida");
+        }
+    }
+
+    private Optional<Decision> noConcluida(Verificacion verificacion, Integer codigoTransaccion, String motivo) {
+        log.warn("Transacción {}: {} {}", codigoTransaccion, verificacion.nombre(), motivo);
+        if (falloAbierto) {
+            meterRegistry.counter("pagos.preautorizacion.fallo-abierto", "verificacion", verificacion.nombre())
+                .increment();
+            return Optional.empty();
+        }
+        return Optional.of(new Decision(ESTADO_REVISION, "Verificación no concluida: " + verificacion.nombre()));
+    }
+
+    private Optional<Decision> evaluarFraudeRemoto(Transaccion transaccion, Request.Options opciones) {
+        ProcesamientoFraudeRequestDTO request = new ProcesamientoFraudeRequestDTO();
+        request.setCodigoTransaccion(transaccion.getCodigo());
+        request.setCodigoUnicoTransaccion(transaccion.getCodigoUnicoTransaccion());
+        RespuestaMonitoreoFraudeDTO respuesta = monitoreoFraudeClient.procesarTransaccionFraude(request, opciones);
+        if (respuesta == null || respuesta.getEstado() == null) {
+            throw new IllegalStateException("respuesta de monitoreo de fraude vacía");
+        }
+        return switch (respuesta.getEstado()) {
+            case ESTADO_RECHAZADA -> Optional.of(new Decision(ESTADO_RECHAZADA, "Rechazada por monitoreo de fraude"));
+            case ESTADO_REVISION -> Optional.of(new Decision(ESTADO_REVISION, "En revisión por monitoreo de fraude"));
+            default -> Optional.empty();
+        };
+    }
+
+    private Optional<Decision> evaluarReglasLocales(Transaccion transaccion) {
+        String nivelRiesgo = monitoreoFraudeService.evaluarRiesgoTransaccion(transaccion);
+        return MonitoreoFraude.NIVEL_RIESGO_ALTO.equals(nivelRiesgo)
+            ? Optional.of(new Decision(ESTADO_REVISION, "Riesgo alto por reglas de fraude"))
+            : Optional.empty();
+    }
+
+    /**
+     * Un 4xx es un rechazo de la tarjeta; cualquier otra falla es una verificación
+     * no concluida.
+     */
+    private Optional<Decision> validarTarjeta(ConsumoTarjetaRequestDTO request, Request.Options opciones) {
+        try {
+            tarjetaServiceClient.validarConsumoTarjeta(request, opciones);
+            return Optional.empty();
+        } catch (FeignException e) {
+            if (e.status() >= 400 && e.status() < 500) {
+                return Optional.of(new Decision(ESTADO_RECHAZADA, "Tarjeta no válida"));
+            }
+            throw e;
+        }
+    }
+
+    private static void cancelar(List<Verificacion> pendientes) {
+        pendientes.forEach(verificacion -> verificacion.cancel(true));
+    }
+
+    /**
+     * Resultado de la etapa. concluida es false si alguna verificación no terminó y
+     * se ignoró por fallo-abierto, o si las verificaciones están deshabilitadas. Un
+     * rechazo anticipado es concluyente aunque las demás verificaciones se hayan
+     * cancelado.
+     */
+    public record Evaluacion(Decision decision, boolean concluida) {
+
+        static final Evaluacion OMITIDA = new Evaluacion(null, false);
+
+        public Optional<Decision> resolucion() {
+            return Optional.ofNullable(decision);
+        }
+    }
+
+    /**
+     * Estado al que pasa la transacción sin llamar al banco y su detalle.
+     */
+    public record Decision(String estado, String detalle) {
+    }
+
+    /**
+     * Verificación en curso; al terminar, por cualquier motivo, se entrega a la
+     * cola de completadas de su evaluación.
+     */
+    private static final class Verificacion extends FutureTask<Optional<Decision>> {
+
+        private final String nombre;
+        private final BlockingQueue<Verificacion> completadas;
+        private boolean concluida;
+
+        Verificacion(String nombre, Callable<Optional<Decision>> tarea, BlockingQueue<Verificacion> completadas) {
+            super(tarea);
+            this.nombre = nombre;
+            this.completadas = completadas;
+        }
+
+        String nombre() {
+            return nombre;
+        }
+
+        boolean concluida() {
+            return concluida;
+        }
+
+        void fallar(Throwable error) {
+            setException(error);
+        }
+
+        @Override
+        protected void done() {
+            completadas.offer(this);
+        }
+    }
+}
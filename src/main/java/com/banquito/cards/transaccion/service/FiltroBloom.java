@@ -0,0 +1,73 @@
+package com.banquito.cards.transaccion.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filtro de Bloom concurrente sobre cadenas. Responde "no existe" con certeza y
+ * "podría existir" con la probabilidad de falso positivo configurada mientras no
+ * se supere la capacidad esperada; por encima de ella los falsos positivos crecen
+ * de forma gradual, nunca se pierden elementos.
+ */
+final class FiltroBloom {
+
+    private final AtomicLongArray bits;
+    private final long totalBits;
+    private final int funciones;
+
+    FiltroBloom(long elementosEsperados, double probabilidadFalsoPositivo) {
+        long m = (long) Math.ceil(-elementosEsperados * Math.log(probabilidadFalsoPositivo)
+            / (Math.log(2) * Math.log(2)));
+        int palabras = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64);
+        this.bits = new AtomicLongArray(palabras);
+        this.totalBits = (long) palabras * 64;
+        this.funciones = Math.max(1, (int) Math.round((double) totalBits / elementosEsperados * Math.log(2)));
+    }
+
+    void agregar(String valor) {
+        long hash = hash64(valor);
+        long h1 = hash;
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < funciones; i++) {
+            long indice = Math.floorMod(h1 + i * h2, totalBits);
+            int palabra = (int) (indice >>> 6);
+            long mascara = 1L << indice;
+            long actual = bits.get(palabra);
+            while ((actual & mascara) == 0) {
+                long previo = bits.compareAndExchange(palabra, actual, actual | mascara);
+                if (previo == actual) {
+                    break;
+                }
+                actual = previo;
+            }
+        }
+    }
+
+    boolean podriaContener(String valor) {
+        long hash = hash64(valor);
+        long h1 = hash;
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < funciones; i++) {
+            long indice = Math.floorMod(h1 + i * h2, totalBits);
+            if ((bits.get((int) (indice >>> 6)) & (1L << indice)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a de 64 bits con mezcla final para repartir los bits altos, de los que
+     * se deriva el segundo hash.
+     */
+    private static long hash64(String valor) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < valor.length(); i++) {
+            hash ^= valor.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
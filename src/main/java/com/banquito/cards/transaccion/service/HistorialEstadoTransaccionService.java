@@ -27,14 +27,17 @@ public class HistorialEstadoTransaccionService {
     private final HistorialEstadoTransaccionRepository historialRepository;
     private final TransaccionRepository transaccionRepository;
     private final HistorialEstadoTransaccionMapper historialMapper;
+    private final MaquinaEstadosTransaccion maquinaEstados;
 
     public HistorialEstadoTransaccionService(
             HistorialEstadoTransaccionRepository historialRepository,
             TransaccionRepository transaccionRepository,
-            HistorialEstadoTransaccionMapper historialMapper) {
+            HistorialEstadoTransaccionMapper historialMapper,
+            MaquinaEstadosTransaccion maquinaEstados) {
         this.historialRepository = historialRepository;
         this.transaccionRepository = transaccionRepository;
         this.historialMapper = historialMapper;
+        this.maquinaEstados = maquinaEstados;
     }
 
     @Transactional(readOnly = true)
@@ -160,39 +163,8 @@ public class HistorialEstadoTransaccionService {
                 .orElseThrow(() -> new NotFoundException(id.toString(), "HistorialEstadoTransaccion"));
     }
 
-    @Transactional
     public HistorialEstadoTransaccionDTO registrarCambioEstado(Integer codigoTransaccion, String estado, String detalle) {
         log.info("Registrando cambio de estado {} para transacción {}", estado, codigoTransaccion);
-        Transaccion transaccion = transaccionRepository.findById(codigoTransaccion)
-                .orElseThrow(() -> new NotFoundException(codigoTransaccion.toString(), "Transaccion"));
-
-        validarTransicionEstado(transaccion.getEstado(), estado);
-
-        HistorialEstadoTransaccion historial = new HistorialEstadoTransaccion();
-        historial.setTransaccion(transaccion);
-        historial.setEstado(estado);
-        historial.setFechaEstadoCambio(LocalDateTime.now());
-        historial.setDetalle(detalle);
-        transaccion.setEstado(estado);
-        transaccion.setDetalle(detalle);
-        transaccionRepository.save(transaccion);
-
-        return historialMapper.toDTO(historialRepository.save(historial));
-    }
-
-    private void validarTransicionEstado(String estadoActual, String nuevoEstado) {
-        if ("REC".equals(estadoActual)) {
-            throw new BusinessException(estadoActual, ENTITY_NAME, "validar transición estado");
-        }
-        
-        if ("APR".equals(estadoActual) && !"REV".equals(nuevoEstado)) {
-            throw new BusinessException(estadoActual, ENTITY_NAME, "validar transición estado");
-        }
-        
-        if ("PEN".equals(estadoActual) && 
-            !"APR".equals(nuevoEstado) && 
-            !"REC".equals(nuevoEstado)) {
-            throw new BusinessException(estadoActual, ENTITY_NAME, "validar transición estado");
-        }
+        return maquinaEstados.transicionar(codigoTransaccion, estado, detalle);
     }
 }
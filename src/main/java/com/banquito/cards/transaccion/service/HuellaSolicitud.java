@@ -0,0 +1,56 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.transaccion.controller.dto.TransaccionDTO;
+import com.banquito.cards.transaccion.model.Transaccion;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
+
+/**
+ * Huella SHA-256 de los datos que envía el cliente en una solicitud de
+ * transacción, para reconocer si un reintento con el mismo
+ * codigoUnicoTransaccion trae la misma solicitud. No incluye el CVV ni los
+ * campos que asigna el servidor (estado, fechas y comisión calculada), y las
+ * transacciones simples se toman sin cuotas ni interés diferido, como se
+ * registran.
+ */
+final class HuellaSolicitud {
+
+    private static final String SEPARADOR = "\u001f";
+
+    private HuellaSolicitud() {
+    }
+
+    static String calcular(TransaccionDTO solicitud) {
+        boolean simple = Transaccion.MODALIDAD_SIMPLE.equals(solicitud.getModalidad());
+        String canonica = String.join(SEPARADOR,
+            texto(solicitud.getCodigoBanco()),
+            texto(solicitud.getNumeroTarjeta()),
+            texto(solicitud.getMarca()),
+            texto(solicitud.getModalidad()),
+            texto(solicitud.getCodigoMoneda()),
+            solicitud.getMonto() == null ? "" : solicitud.getMonto().stripTrailingZeros().toPlainString(),
+            texto(solicitud.getPais()),
+            texto(solicitud.getFechaExpiracionTarjeta()),
+            texto(solicitud.getNombreTarjeta()),
+            texto(solicitud.getDireccionTarjeta()),
+            texto(simple ? Integer.valueOf(0) : solicitud.getCuotas()),
+            texto(simple ? Boolean.FALSE : solicitud.getInteresDiferido()),
+            texto(solicitud.getGtwCuenta()),
+            texto(solicitud.getNumeroCuenta()),
+            texto(solicitud.getBeneficiario()));
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha.digest(canonica.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String texto(Object valor) {
+        return Objects.toString(valor, "");
+    }
+}
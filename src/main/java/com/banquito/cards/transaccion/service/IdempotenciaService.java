@@ -0,0 +1,185 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.exception.BusinessException;
+import com.banquito.cards.exception.ClaveReutilizadaException;
+import com.banquito.cards.exception.CodigoUnicoRegistradoException;
+import com.banquito.cards.transaccion.controller.dto.ResultadoProcesamientoDTO;
+import com.banquito.cards.transaccion.controller.dto.TransaccionDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Capa de idempotencia para la creación de transacciones, con clave en
+ * codigoUnicoTransaccion. Un reintento de una transacción ya resuelta (APR o REC)
+ * recibe el resultado original desde una caché acotada, sin volver a llamar al
+ * banco ni a la base; uno de una transacción todavía sin resolver (PEN o REV)
+ * recibe su estado vigente desde la base. Los reintentos concurrentes esperan al
+ * primer intento en lugar de competir con él. Cada solicitud se compara por su
+ * huella con la registrada: reutilizar el código único para otra solicitud se
+ * rechaza con {@link ClaveReutilizadaException}. Si el primer intento llegó a
+ * otro nodo, el registro falla con {@link CodigoUnicoRegistradoException} y se
+ * responde con la transacción que registró ese nodo.
+ */
+@Slf4j
+@Service
+public class IdempotenciaService {
+
+    private static final String ENTITY_NAME = "Transaccion";
+    private static final String ESTADO_APROBADA = "APR";
+    private static final String ESTADO_RECHAZADA = "REC";
+
+    private final TransaccionService transaccionService;
+    private final RegistroCodigosUnicos registroCodigosUnicos;
+    private final long esperaEnCursoMs;
+    private final ConcurrentMap<String, EnCurso> enCurso = new ConcurrentHashMap<>();
+    private final ReentrantLock bloqueoRespuestas = new ReentrantLock();
+    private final LinkedHashMap<String, Respuesta> respuestas;
+
+    public IdempotenciaService(TransaccionService transaccionService,
+                               RegistroCodigosUnicos registroCodigosUnicos,
+                               @Value("${transaccion.idempotencia.cache.capacidad:10000}") int capacidad,
+                               @Value("${transaccion.idempotencia.espera-en-curso-ms:15000}") long esperaEnCursoMs) {
+        this.transaccionService = transaccionService;
+        this.registroCodigosUnicos = registroCodigosUnicos;
+        this.esperaEnCursoMs = esperaEnCursoMs;
+        this.respuestas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Respuesta> eldest) {
+                return size() > capacidad;
+            }
+        };
+    }
+
+    /**
+     * Ejecuta la operación de creación una sola vez por código único. Si la
+     * transacción ya existe se devuelve su resultado, final o no; solo los finales
+     * (APR o REC) se guardan en la caché. El código único se normaliza antes como
+     * se registra, así que el de una transacción recurrente queda completado con
+     * ceros en la solicitud.
+     */
+    public ResultadoProcesamientoDTO ejecutar(TransaccionDTO solicitud, Supplier<ResultadoProcesamientoDTO> operacion) {
+        String codigoUnico = TransaccionService.codigoUnicoRegistrado(solicitud);
+        if (codigoUnico == null) {
+            return operacion.get();
+        }
+        solicitud.setCodigoUnicoTransaccion(codigoUnico);
+        String hash = HuellaSolicitud.calcular(solicitud);
+
+        Respuesta almacenada = obtenerRespuesta(codigoUnico);
+        if (almacenada != null) {
+            validarHash(codigoUnico, almacenada.hash(), hash);
+            log.info("Reintento de transacción {} respondido desde caché: {}", codigoUnico,
+                almacenada.resultado().getEstado());
+            return almacenada.resultado();
+        }
+
+        EnCurso propio = new EnCurso(hash, new CompletableFuture<>());
+        EnCurso existente = enCurso.putIfAbsent(codigoUnico, propio);
+        if (existente != null) {
+            validarHash(codigoUnico, existente.hash(), hash);
+            return esperar(codigoUnico, existente.resultado());
+        }
+
+        try {
+            ResultadoProcesamientoDTO resultado = buscarResultadoPrevio(codigoUnico, hash)
+                .orElseGet(() -> ejecutarNueva(codigoUnico, hash, operacion));
+            if (esResultadoFinal(resultado)) {
+                guardarRespuesta(codigoUnico, new Respuesta(hash, resultado));
+            }
+            propio.resultado().complete(resultado);
+            return resultado;
+        } catch (RuntimeException e) {
+            propio.resultado().completeExceptionally(e);
+            throw e;
+        } finally {
+            enCurso.remove(codigoUnico, propio);
+        }
+    }
+
+    private Optional<ResultadoProcesamientoDTO> buscarResultadoPrevio(String codigoUnico, String hash) {
+        if (!registroCodigosUnicos.podriaExistir(codigoUnico)) {
+            return Optional.empty();
+        }
+        Optional<ResultadoProcesamientoDTO> previo = transaccionService.obtenerResultadoPorCodigoUnico(codigoUnico, hash);
+        previo.ifPresent(resultado ->
+            log.info("Reintento de transacción {} respondido desde la base: {}", codigoUnico, resultado.getEstado()));
+        return previo;
+    }
+
+    private ResultadoProcesamientoDTO ejecutarNueva(String codigoUnico, String hash,
+                                                    Supplier<ResultadoProcesamientoDTO> operacion) {
+        try {
+            return operacion.get();
+        } catch (CodigoUnicoRegistradoException e) {
+            ResultadoProcesamientoDTO registrado = transaccionService.obtenerResultadoPorCodigoUnico(codigoUnico, hash)
+                .orElseThrow(() -> e);
+            log.info("Transacción {} registrada por otro intento, se responde su estado: {}", codigoUnico,
+                registrado.getEstado());
+            return registrado;
+        }
+    }
+
+    private static void validarHash(String codigoUnico, String registrado, String recibido) {
+        if (!registrado.equals(recibido)) {
+            throw new ClaveReutilizadaException(codigoUnico, ENTITY_NAME);
+        }
+    }
+    private ResultadoProcesamientoDTO esperar(String codigoUnico, CompletableFuture<ResultadoProcesamientoDTO> existente) {
+        log.debug("Transacción {} en curso, esperando el primer intento", codigoUnico);
+        try {
+            return existente.get(esperaEnCursoMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw new BusinessException(codigoUnico, ENTITY_NAME, "esperar transacción en curso");
+        } catch (TimeoutException e) {
+            throw new BusinessException(codigoUnico, ENTITY_NAME, "esperar transacción en curso");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException(codigoUnico, ENTITY_NAME, "esperar transacción en curso");
+        }
+    }
+
+    private boolean esResultadoFinal(ResultadoProcesamientoDTO resultado) {
+        return resultado != null
+            && (ESTADO_APROBADA.equals(resultado.getEstado()) || ESTADO_RECHAZADA.equals(resultado.getEstado()));
+    }
+
+    private Respuesta obtenerRespuesta(String codigoUnico) {
+        bloqueoRespuestas.lock();
+        try {
+            return respuestas.get(codigoUnico);
+        } finally {
+            bloqueoRespuestas.unlock();
+        }
+    }
+
+    private void guardarRespuesta(String codigoUnico, Respuesta respuesta) {
+        bloqueoRespuestas.lock();
+        try {
+            respuestas.put(codigoUnico, respuesta);
+        } finally {
+            bloqueoRespuestas.unlock();
+        }
+    }
+
+    private record Respuesta(String hash, ResultadoProcesamientoDTO resultado) {
+    }
+
+    private record EnCurso(String hash, CompletableFuture<ResultadoProcesamientoDTO> resultado) {
+    }
+}
@@ -0,0 +1,155 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.exception.CapacidadExcedidaException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compartimentos por banco para las llamadas de autorización. Cada banco tiene su
+ * propio límite de llamadas en curso que se ajusta con AIMD: crece en uno por
+ * ventana completa mientras las respuestas llegan bajo el umbral de latencia y se
+ * reduce multiplicativamente ante una respuesta lenta o un error. Un banco lento
+ * agota solo su propio límite y se rechaza de inmediato, sin retener hilos que
+ * necesitan los demás bancos.
+ * Publica por banco pagos.banco.en.curso, pagos.banco.limite y
+ * pagos.banco.rechazos.
+ */
+@Slf4j
+@Component
+public class LimitadorConcurrenciaBancos {
+
+    private static final String ENTITY_NAME = "Banco";
+
+    private final ConcurrentMap<Integer, Limitador> limitadores = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final int limiteInicial;
+    private final int limiteMinimo;
+    private final int limiteMaximo;
+    private final long umbralLatenciaNanos;
+    private final double factorReduccion;
+
+    public LimitadorConcurrenciaBancos(MeterRegistry meterRegistry,
+                                       @Value("${transaccion.banco.limite.inicial:20}") int limiteInicial,
+                                       @Value("${transaccion.banco.limite.minimo:2}") int limiteMinimo,
+                                       @Value("${transaccion.banco.limite.maximo:200}") int limiteMaximo,
+                                       @Value("${transaccion.banco.limite.umbral-latencia-ms:2000}") long umbralLatenciaMs,
+                                       @Value("${transaccion.banco.limite.factor-reduccion:0.7}") double factorReduccion) {
+        this.meterRegistry = meterRegistry;
+        this.limiteInicial = limiteInicial;
+        this.limiteMinimo = limiteMinimo;
+        this.limiteMaximo = limiteMaximo;
+        this.umbralLatenciaNanos = umbralLatenciaMs * 1_000_000;
+        this.factorReduccion = factorReduccion;
+    }
+
+    /**
+     * Reserva un lugar para llamar al banco. Lanza CapacidadExcedidaException si el
+     * banco ya tiene su límite de llamadas en curso.
+     */
+    public Permiso adquirir(Integer codigoBanco) {
+        Limitador limitador = limitadores.computeIfAbsent(codigoBanco, this::crear);
+        if (!limitador.intentarAdquirir()) {
+            limitador.rechazos.increment();
+            log.warn("Banco {} al límite de {} llamadas en curso, se rechaza la autorización",
+                codigoBanco, limitador.limiteActual());
+            throw new CapacidadExcedidaException(codigoBanco.toString(), ENTITY_NAME);
+        }
+        return new Permiso(limitador, System.nanoTime());
+    }
+
+    private Limitador crear(Integer codigoBanco) {
+        Limitador limitador = new Limitador(limiteInicial);
+        String banco = codigoBanco.toString();
+        Gauge.builder("pagos.banco.en.curso", limitador.enCurso, AtomicInteger::get)
+                .description("Llamadas de autorización en curso por banco")
+                .tag("banco", banco)
+                .register(meterRegistry);
+        Gauge.builder("pagos.banco.limite", limitador, Limitador::limiteActual)
+                .description("Límite adaptativo de llamadas en curso por banco")
+                .tag("banco", banco)
+                .register(meterRegistry);
+        limitador.rechazos = Counter.builder("pagos.banco.rechazos")
+                .description("Autorizaciones rechazadas por límite de concurrencia del banco")
+                .tag("banco", banco)
+                .register(meterRegistry);
+        return limitador;
+    }
+
+    /**
+     * Lugar reservado para una llamada; debe liberarse exactamente una vez.
+     */
+    public final class Permiso {
+
+        private final Limitador limitador;
+        private final long inicio;
+
+        private Permiso(Limitador limitador, long inicio) {
+            this.limitador = limitador;
+            this.inicio = inicio;
+        }
+
+        public void liberar(boolean exitosa) {
+            limitador.liberar(System.nanoTime() - inicio, exitosa);
+        }
+    }
+
+    private final class Limitador {
+
+        private final AtomicInteger enCurso = new AtomicInteger();
+        private final ReentrantLock bloqueo = new ReentrantLock();
+        private volatile double limite;
+        private long ultimaReduccion = System.nanoTime();
+        private Counter rechazos;
+
+        private Limitador(int limiteInicial) {
+            this.limite = limiteInicial;
+        }
+
+        private boolean intentarAdquirir() {
+            int actual;
+            do {
+                actual = enCurso.get();
+                if (actual >= (int) limite) {
+                    return false;
+                }
+            } while (!enCurso.compareAndSet(actual, actual + 1));
+            return true;
+        }
+
+        /**
+         * La reducción se aplica a lo sumo una vez por latencia observada, para que
+         * una ráfaga de respuestas lentas de la misma ventana cuente como una sola
+         * señal de congestión.
+         */
+        private void liberar(long latenciaNanos, boolean exitosa) {
+            int enVuelo = enCurso.getAndDecrement();
+            long ahora = System.nanoTime();
+            bloqueo.lock();
+            try {
+                if (!exitosa || latenciaNanos > umbralLatenciaNanos) {
+                    if (ahora - ultimaReduccion >= latenciaNanos) {
+                        limite = Math.max(limiteMinimo, limite * factorReduccion);
+                        ultimaReduccion = ahora;
+                    }
+                } else if (enVuelo * 2 >= limite) {
+                    limite = Math.min(limiteMaximo, limite + 1.0 / limite);
+                }
+            } finally {
+                bloqueo.unlock();
+            }
+        }
+
+        private double limiteActual() {
+            return Math.floor(limite);
+        }
+    }
+}
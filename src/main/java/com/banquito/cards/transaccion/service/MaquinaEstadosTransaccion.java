@@ -0,0 +1,180 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.exception.BusinessException;
+import com.banquito.cards.exception.NotFoundException;
+import com.banquito.cards.exception.TransicionRechazadaException;
+import com.banquito.cards.transaccion.controller.dto.HistorialEstadoTransaccionDTO;
+import com.banquito.cards.transaccion.controller.dto.TransaccionDTO;
+import com.banquito.cards.transaccion.model.HistorialEstadoTransaccion;
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.banquito.cards.transaccion.repository.TransaccionJdbcRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Motor único de transiciones de estado de una transacción. Las transiciones
+ * permitidas están en una matriz precalculada y cada cambio se aplica con un
+ * UPDATE condicionado al estado actual más un insert de historial, sin leer la
+ * fila antes. Si dos cambios compiten sobre la misma fila (respuesta del banco y
+ * decisión de fraude) solo se aplica el que encuentra un estado válido; el otro
+ * falla con {@link TransicionRechazadaException}, que no revierte la transacción
+ * en curso porque no escribió nada.
+ *
+ * <pre>
+ * PEN -> APR, REC, REV
+ * APR -> REV
+ * REV -> PEN, APR, REC, PRO
+ * PRO -> PEN, APR, REC, REV
+ * REC -> (final)
+ * </pre>
+ */
+@Slf4j
+@Component
+public class MaquinaEstadosTransaccion {
+
+    private static final String ENTITY_NAME = "Transaccion";
+    private static final int LONGITUD_DETALLE_TRANSACCION = 50;
+    private static final int LONGITUD_DETALLE_HISTORIAL = 200;
+
+    private static final String[] ESTADOS = {
+        Transaccion.ESTADO_PENDIENTE,
+        Transaccion.ESTADO_APROBADA,
+        Transaccion.ESTADO_RECHAZADA,
+        Transaccion.ESTADO_REVISION,
+        Transaccion.ESTADO_PROCESADO
+    };
+
+    private static final int PEN = 0;
+    private static final int APR = 1;
+    private static final int REC = 2;
+    private static final int REV = 3;
+    private static final int PRO = 4;
+
+    private static final boolean[][] TRANSICIONES = new boolean[ESTADOS.length][ESTADOS.length];
+    private static final List<List<String>> PREDECESORES = new ArrayList<>(ESTADOS.length);
+
+    static {
+        TRANSICIONES[PEN][APR] = true;
+        TRANSICIONES[PEN][REC] = true;
+        TRANSICIONES[PEN][REV] = true;
+        TRANSICIONES[APR][REV] = true;
+        TRANSICIONES[REV][PEN] = true;
+        TRANSICIONES[REV][APR] = true;
+        TRANSICIONES[REV][REC] = true;
+        TRANSICIONES[REV][PRO] = true;
+        TRANSICIONES[PRO][PEN] = true;
+        TRANSICIONES[PRO][APR] = true;
+        TRANSICIONES[PRO][REC] = true;
+        TRANSICIONES[PRO][REV] = true;
+
+        for (int destino = 0; destino < ESTADOS.length; destino++) {
+            List<String> origenes = new ArrayList<>();
+            for (int origen = 0; origen < ESTADOS.length; origen++) {
+                if (TRANSICIONES[origen][destino]) {
+                    origenes.add(ESTADOS[origen]);
+                }
+            }
+            PREDECESORES.add(List.copyOf(origenes));
+        }
+    }
+
+    private final TransaccionJdbcRepository transaccionJdbcRepository;
+
+    public MaquinaEstadosTransaccion(TransaccionJdbcRepository transaccionJdbcRepository) {
+        this.transaccionJdbcRepository = transaccionJdbcRepository;
+    }
+
+    public boolean esTransicionValida(String estadoActual, String nuevoEstado) {
+        int origen = indice(estadoActual);
+        int destino = indice(nuevoEstado);
+        return origen >= 0 && destino >= 0 && TRANSICIONES[origen][destino];
+    }
+
+    /**
+     * Aplica la transición desde cualquier estado que la permita.
+     */
+    @Transactional(noRollbackFor = TransicionRechazadaException.class)
+    public HistorialEstadoTransaccionDTO transicionar(Integer codigo, String nuevoEstado, String detalle) {
+        int destino = indice(nuevoEstado);
+        if (destino < 0) {
+            throw new BusinessException("Estado no válido", ENTITY_NAME, "validar estado");
+        }
+        return aplicar(codigo, nuevoEstado, detalle, PREDECESORES.get(destino));
+    }
+
+    /**
+     * Aplica la transición solo si la transacción sigue en el estado esperado.
+     */
+    @Transactional(noRollbackFor = TransicionRechazadaException.class)
+    public HistorialEstadoTransaccionDTO transicionar(Integer codigo, String estadoEsperado, String nuevoEstado,
+                                                     String detalle) {
+        if (!esTransicionValida(estadoEsperado, nuevoEstado)) {
+            throw new BusinessException(estadoEsperado, ENTITY_NAME, "validar cambio estado");
+        }
+        return aplicar(codigo, nuevoEstado, detalle, List.of(estadoEsperado));
+    }
+
+    private HistorialEstadoTransaccionDTO aplicar(Integer codigo, String nuevoEstado, String detalle,
+                                                  List<String> estadosEsperados) {
+        Transaccion transaccion = transaccionJdbcRepository
+                .actualizarEstado(codigo, nuevoEstado, truncar(detalle, LONGITUD_DETALLE_TRANSACCION), estadosEsperados)
+                .orElseThrow(() -> rechazo(codigo, nuevoEstado));
+
+        HistorialEstadoTransaccion historial = new HistorialEstadoTransaccion();
+        historial.setTransaccion(transaccion);
+        historial.setEstado(nuevoEstado);
+        historial.setFechaEstadoCambio(LocalDateTime.now());
+        historial.setDetalle(truncar(detalle, LONGITUD_DETALLE_HISTORIAL));
+        transaccionJdbcRepository.insertarHistorial(historial);
+
+        TransaccionDTO transaccionDTO = new TransaccionDTO();
+        transaccionDTO.setCodigo(transaccion.getCodigo());
+        transaccionDTO.setCodigoUnicoTransaccion(transaccion.getCodigoUnicoTransaccion());
+        transaccionDTO.setMonto(transaccion.getMonto());
+        transaccionDTO.setEstado(transaccion.getEstado());
+        transaccionDTO.setDetalle(transaccion.getDetalle());
+
+        HistorialEstadoTransaccionDTO historialDTO = new HistorialEstadoTransaccionDTO();
+        historialDTO.setCodHistorialEstado(historial.getCodHistorialEstado());
+        historialDTO.setCodigoTransaccion(transaccion.getCodigo());
+        historialDTO.setEstado(historial.getEstado());
+        historialDTO.setFechaEstadoCambio(historial.getFechaEstadoCambio());
+        historialDTO.setDetalle(historial.getDetalle());
+        historialDTO.setTransaccion(transaccionDTO);
+        return historialDTO;
+    }
+
+    /**
+     * Solo se lee la fila cuando el UPDATE no aplicó, para distinguir una
+     * transacción inexistente de una transición no permitida.
+     */
+    private RuntimeException rechazo(Integer codigo, String nuevoEstado) {
+        String estadoActual = transaccionJdbcRepository.obtenerEstado(codigo)
+                .orElseThrow(() -> new NotFoundException(codigo.toString(), ENTITY_NAME));
+        log.warn("Transición {} -> {} rechazada para transacción {}", estadoActual, nuevoEstado, codigo);
+        return new TransicionRechazadaException(estadoActual, ENTITY_NAME);
+    }
+
+    private static int indice(String estado) {
+        if (estado == null) {
+            return -1;
+        }
+        return switch (estado) {
+            case Transaccion.ESTADO_PENDIENTE -> PEN;
+            case Transaccion.ESTADO_APROBADA -> APR;
+            case Transaccion.ESTADO_RECHAZADA -> REC;
+            case Transaccion.ESTADO_REVISION -> REV;
+            case Transaccion.ESTADO_PROCESADO -> PRO;
+            default -> -1;
+        };
+    }
+
+    private static String truncar(String valor, int longitud) {
+        return valor != null && valor.length() > longitud ? valor.substring(0, longitud) : valor;
+    }
+}
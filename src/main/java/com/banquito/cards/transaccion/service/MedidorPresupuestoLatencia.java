@@ -0,0 +1,59 @@
+package com.banquito.cards.transaccion.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crea el {@link PresupuestoLatencia} de cada transacción y publica cuánto del
+ * plazo consume cada etapa (pagos.presupuesto.etapa) y en qué etapa se agota
+ * (pagos.presupuesto.agotado).
+ */
+@Component
+public class MedidorPresupuestoLatencia {
+
+    private final MeterRegistry meterRegistry;
+    private final long totalNanos;
+    private final long conexionMaximaMs;
+    private final ConcurrentMap<String, Timer> etapas = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> agotados = new ConcurrentHashMap<>();
+
+    public MedidorPresupuestoLatencia(MeterRegistry meterRegistry,
+                                      @Value("${transaccion.presupuesto.total-ms:2500}") long totalMs,
+                                      @Value("${transaccion.presupuesto.conexion-maxima-ms:1000}") long conexionMaximaMs) {
+        this.meterRegistry = meterRegistry;
+        this.totalNanos = TimeUnit.MILLISECONDS.toNanos(totalMs);
+        this.conexionMaximaMs = conexionMaximaMs;
+    }
+
+    public PresupuestoLatencia iniciar() {
+        return new PresupuestoLatencia(this, System.nanoTime(), totalNanos);
+    }
+
+    long getConexionMaximaMs() {
+        return conexionMaximaMs;
+    }
+
+    void registrarEtapa(String etapa, long nanos) {
+        etapas.computeIfAbsent(etapa, nombre -> Timer.builder("pagos.presupuesto.etapa")
+                .description("Parte del plazo de la transacción consumida por etapa")
+                .tag("etapa", nombre)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry))
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void registrarAgotado(String etapa) {
+        agotados.computeIfAbsent(etapa, nombre -> Counter.builder("pagos.presupuesto.agotado")
+                .description("Transacciones cuyo plazo se agotó antes de la etapa")
+                .tag("etapa", nombre)
+                .register(meterRegistry))
+            .increment();
+    }
+}
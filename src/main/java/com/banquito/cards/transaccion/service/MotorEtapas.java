@@ -0,0 +1,251 @@
+package com.banquito.cards.transaccion.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * Procesa trabajos por una secuencia fija de etapas, cada una con sus propios hilos
+ * y un {@link AnilloAcotado} de entrada. Un hilo toma un trabajo de su anillo, le
+ * aplica la etapa y lo deja en el anillo de la siguiente; si ese anillo está lleno
+ * se bloquea hasta que se libere, de modo que una etapa lenta frena a las
+ * anteriores hasta llegar a {@link #enviar}, que rechaza en lugar de encolar sin
+ * límite. Cada anillo lleva dos semáforos, trabajos disponibles y casillas libres:
+ * un hilo sin trabajo queda bloqueado en el primero sin consumir CPU y despierta
+ * en cuanto un productor publica uno. El paso entre etapas, por lo tanto, no es
+ * libre de bloqueos: solo lo es la operación sobre el anillo una vez obtenido el
+ * permiso, y únicamente {@link #enviar} nunca espera.
+ *
+ * <p>El anillo publica cada trabajo con semántica release/acquire, así que una
+ * etapa ve todo lo que las anteriores escribieron en él sin más sincronización.
+ */
+@Slf4j
+final class MotorEtapas<T> {
+
+    private static final long ESPERA_DETENCION_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long ESPERA_HILOS_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Una etapa del motor. Retorna false si el trabajo quedó resuelto y no debe
+     * pasar a las etapas siguientes.
+     */
+    @FunctionalInterface
+    interface Etapa<T> {
+        boolean ejecutar(T trabajo) throws Exception;
+    }
+
+    record DefinicionEtapa<T>(String nombre, int hilos, Etapa<T> etapa) {
+    }
+
+    private final String nombre;
+    private final List<DefinicionEtapa<T>> etapas;
+    private final List<Entrada<T>> entradas;
+    private final BiConsumer<T, Throwable> finalizacion;
+    private final Counter rechazados;
+    private final List<Thread> hilos = new ArrayList<>();
+    private final AtomicInteger enCurso = new AtomicInteger();
+    private volatile boolean aceptando;
+    private volatile boolean detenido;
+
+    /**
+     * @param finalizacion recibe cada trabajo al terminar su última etapa, al quedar
+     *                     resuelto antes, con el error de la etapa que falló o con
+     *                     IllegalStateException si el motor se detuvo antes de terminarlo
+     */
+    MotorEtapas(String nombre, int capacidadAnillo, List<DefinicionEtapa<T>> etapas,
+                BiConsumer<T, Throwable> finalizacion, MeterRegistry meterRegistry) {
+        this.nombre = nombre;
+        this.etapas = List.copyOf(etapas);
+        this.finalizacion = finalizacion;
+        this.entradas = new ArrayList<>(etapas.size());
+        for (DefinicionEtapa<T> etapa : etapas) {
+            Entrada<T> entrada = new Entrada<>(new AnilloAcotado<>(capacidadAnillo));
+            entradas.add(entrada);
+            Gauge.builder("pagos.motor.cola", entrada.anillo, AnilloAcotado::tamano)
+                    .description("Trabajos esperando en el anillo de entrada de la etapa")
+                    .tag("motor", nombre)
+                    .tag("etapa", etapa.nombre())
+                    .register(meterRegistry);
+        }
+        this.rechazados = Counter.builder("pagos.motor.rechazados")
+                .description("Trabajos rechazados por anillo de entrada lleno")
+                .tag("motor", nombre)
+                .register(meterRegistry);
+    }
+
+    void iniciar() {
+        aceptando = true;
+        for (int i = 0; i < etapas.size(); i++) {
+            int indice = i;
+            DefinicionEtapa<T> etapa = etapas.get(i);
+            Thread.Builder constructor = Thread.ofPlatform()
+                .name(nombre + "-" + etapa.nombre() + "-", 0)
+                .daemon(true);
+            for (int h = 0; h < etapa.hilos(); h++) {
+                hilos.add(constructor.start(() -> atender(indice)));
+            }
+        }
+        log.info("Motor {} iniciado: {} etapas, {} hilos, anillos de {}", nombre, etapas.size(), hilos.size(),
+            entradas.get(0).anillo.capacidad());
+    }
+
+    /**
+     * Deja de aceptar trabajos y espera hasta esperaMs a que terminen los que ya
+     * están en el motor. Luego interrumpe los hilos y finaliza con error los
+     * trabajos que quedaron en los anillos, para que ningún llamador quede
+     * esperando un resultado que no llegará.
+     */
+    void detener(long esperaMs) {
+        aceptando = false;
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaMs);
+        while (enCurso.get() > 0 && System.nanoTime() - limite < 0) {
+            LockSupport.parkNanos(ESPERA_DETENCION_NANOS);
+        }
+        if (enCurso.get() > 0) {
+            log.warn("Motor {} detenido con {} trabajos en curso", nombre, enCurso.get());
+        }
+        detenido = true;
+        hilos.forEach(Thread::interrupt);
+        long limiteHilos = System.nanoTime() + ESPERA_HILOS_NANOS;
+        for (Thread hilo : hilos) {
+            try {
+                hilo.join(TimeUnit.NANOSECONDS.toMillis(Math.max(0, limiteHilos - System.nanoTime())) + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        IllegalStateException error = detenidoError();
+        for (Entrada<T> entrada : entradas) {
+            for (T trabajo = entrada.anillo.tomar(); trabajo != null; trabajo = entrada.anillo.tomar()) {
+                finalizar(trabajo, error);
+            }
+        }
+    }
+
+    /**
+     * Entrega el trabajo a la primera etapa. Retorna false, sin esperar, si el motor
+     * no acepta trabajos o su anillo de entrada está lleno.
+     */
+    boolean enviar(T trabajo) {
+        if (!aceptando) {
+            return false;
+        }
+        enCurso.incrementAndGet();
+        if (entradas.get(0).ofrecer(trabajo)) {
+            return true;
+        }
+        enCurso.decrementAndGet();
+        rechazados.increment();
+        return false;
+    }
+
+    private void atender(int indice) {
+        Entrada<T> entrada = entradas.get(indice);
+        Entrada<T> salida = indice + 1 < entradas.size() ? entradas.get(indice + 1) : null;
+        Etapa<T> etapa = etapas.get(indice).etapa();
+        while (!detenido) {
+            T trabajo;
+            try {
+                trabajo = entrada.tomar();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            boolean continuar;
+            try {
+                continuar = etapa.ejecutar(trabajo);
+            } catch (Throwable e) {
+                finalizar(trabajo, e);
+                continue;
+            }
+            if (continuar && salida != null) {
+                entregar(salida, trabajo);
+            } else {
+                finalizar(trabajo, null);
+            }
+        }
+    }
+
+    private void entregar(Entrada<T> salida, T trabajo) {
+        try {
+            if (!detenido) {
+                salida.entregar(trabajo);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finalizar(trabajo, detenidoError());
+    }
+
+    private IllegalStateException detenidoError() {
+        return new IllegalStateException("Motor " + nombre + " detenido");
+    }
+
+    private void finalizar(T trabajo, Throwable error) {
+        try {
+            finalizacion.accept(trabajo, error);
+        } catch (RuntimeException e) {
+            log.error("Error al finalizar trabajo del motor {}: {}", nombre, e.getMessage());
+        } finally {
+            enCurso.decrementAndGet();
+        }
+    }
+
+    /**
+     * Anillo de entrada de una etapa con sus semáforos. Un permiso de casillas
+     * libres o de trabajos disponibles garantiza que la operación sobre el anillo
+     * tendrá éxito en cuanto termine el hilo que ocupa esa casilla, que ya pasó por
+     * su compareAndSet; el reintento solo cubre ese instante.
+     */
+    private static final class Entrada<T> {
+
+        private final AnilloAcotado<T> anillo;
+        private final Semaphore libres;
+        private final Semaphore disponibles = new Semaphore(0);
+
+        private Entrada(AnilloAcotado<T> anillo) {
+            this.anillo = anillo;
+            this.libres = new Semaphore(anillo.capacidad());
+        }
+
+        boolean ofrecer(T trabajo) {
+            if (!libres.tryAcquire()) {
+                return false;
+            }
+            publicar(trabajo);
+            return true;
+        }
+
+        void entregar(T trabajo) throws InterruptedException {
+            libres.acquire();
+            publicar(trabajo);
+        }
+
+        T tomar() throws InterruptedException {
+            disponibles.acquire();
+            T trabajo;
+            while ((trabajo = anillo.tomar()) == null) {
+                Thread.onSpinWait();
+            }
+            libres.release();
+            return trabajo;
+        }
+
+        private void publicar(T trabajo) {
+            while (!anillo.ofrecer(trabajo)) {
+                Thread.onSpinWait();
+            }
+            disponibles.release();
+        }
+    }
+}
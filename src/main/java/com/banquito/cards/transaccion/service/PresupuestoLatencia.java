@@ -0,0 +1,69 @@
+package com.banquito.cards.transaccion.service;
+
+import feign.Request;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plazo total de una transacción desde su llegada. Se pasa explícitamente por las
+ * etapas del procesamiento; cada etapa deriva su tiempo máximo de lo que queda y
+ * registra lo que consumió. No es seguro entre hilos: las etapas se marcan desde
+ * el hilo que procesa la transacción.
+ */
+public final class PresupuestoLatencia {
+
+    private final MedidorPresupuestoLatencia medidor;
+    private final long limiteNanos;
+    private long marcaNanos;
+
+    PresupuestoLatencia(MedidorPresupuestoLatencia medidor, long inicioNanos, long totalNanos) {
+        this.medidor = medidor;
+        this.limiteNanos = inicioNanos + totalNanos;
+        this.marcaNanos = inicioNanos;
+    }
+
+    public long restanteNanos() {
+        return Math.max(0, limiteNanos - System.nanoTime());
+    }
+
+    public long restanteMs() {
+        return TimeUnit.NANOSECONDS.toMillis(restanteNanos());
+    }
+
+    /**
+     * Indica si lo que queda no alcanza para una etapa que necesita al menos
+     * {@code minimoMs}; si es así lo registra contra esa etapa.
+     */
+    public boolean agotado(String etapa, long minimoMs) {
+        if (restanteMs() >= minimoMs) {
+            return false;
+        }
+        medidor.registrarAgotado(etapa);
+        return true;
+    }
+
+    /**
+     * Registra el tiempo transcurrido desde la etapa anterior.
+     */
+    public void registrarEtapa(String etapa) {
+        long ahora = System.nanoTime();
+        medidor.registrarEtapa(etapa, ahora - marcaNanos);
+        marcaNanos = ahora;
+    }
+
+    /**
+     * Tiempos de conexión y lectura de Feign acotados a lo que queda del plazo.
+     */
+    public Request.Options opcionesFeign() {
+        return opcionesFeign(Long.MAX_VALUE);
+    }
+
+    /**
+     * Igual que {@link #opcionesFeign()} sin exceder además el plazo indicado.
+     */
+    public Request.Options opcionesFeign(long plazoMs) {
+        long restante = Math.max(1, Math.min(restanteMs(), plazoMs));
+        return new Request.Options(Math.min(restante, medidor.getConexionMaximaMs()), TimeUnit.MILLISECONDS,
+            restante, TimeUnit.MILLISECONDS, true);
+    }
+}
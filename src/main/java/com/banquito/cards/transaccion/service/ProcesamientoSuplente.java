@@ -0,0 +1,362 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.exception.BusinessException;
+import com.banquito.cards.transaccion.controller.dto.ConsumoTarjetaRequestDTO;
+import com.banquito.cards.transaccion.controller.dto.RespuestaAutorizacionBancoDTO;
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.banquito.cards.transaccion.repository.AvisoSuplenteJdbcRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Procesamiento suplente (STIP): con el circuito del banco abierto aprueba
+ * localmente las transacciones de bajo riesgo cuyas verificaciones de
+ * preautorización (fraude remoto, reglas locales y tarjeta) concluyeron todas sin
+ * objeciones; si alguna se ignoró por fallo-abierto o están deshabilitadas, no se
+ * aprueba. Además debe caber en los límites del banco (monto por transacción,
+ * monto acumulado y cantidad de aprobaciones sin avisar) y de la tarjeta
+ * (aprobaciones sin avisar).
+ *
+ * <p>Los límites se miden en memoria, sin consultar la base con el circuito
+ * abierto: la exposición de cada banco es un valor inmutable que {@link #reservar}
+ * reemplaza con compareAndSet, y la de cada tarjeta un contador del mapa
+ * concurrente. Cada nodo aplica su parte de los límites, el límite dividido por
+ * transaccion.stip.nodos, así el clúster no los excede sin coordinarse; la
+ * cantidad por tarjeta se reparte igual pero cada nodo admite al menos una. Cada
+ * reserva se libera cuando su aviso se entrega o el banco lo rechaza.
+ * {@link #conciliarReservas} corrige periódicamente contra los avisos pendientes
+ * en la base: libera las reservas cuyo aviso ya no existe (lo entregó otro nodo o
+ * la aprobación no llegó a confirmarse) y, en la primera pasada tras el arranque,
+ * carga los avisos que quedaron pendientes, de modo que un nodo reiniciado empieza
+ * contando toda la exposición sin avisar del clúster en lugar de ninguna.
+ *
+ * <p>{@link DespachadorAvisosSuplente} envía los avisos al banco, con la misma
+ * Idempotency-Key, cuando el circuito vuelve a cerrarse; si el banco rechaza uno
+ * la transacción pasa a revisión.
+ */
+@Slf4j
+@Component
+public class ProcesamientoSuplente {
+
+    static final String DETALLE_SUPLENTE = "Aprobada por procesamiento suplente (STIP)";
+    private static final String ESTADO_APROBADA = "APR";
+    private static final String ESTADO_REVISION = "REV";
+    private static final String PREFIJO_BANCO = "transaccion.stip.bancos.";
+
+    private final boolean habilitado;
+    private final AutorizadorBanco autorizadorBanco;
+    private final MaquinaEstadosTransaccion maquinaEstados;
+    private final MedidorPresupuestoLatencia medidorPresupuesto;
+    private final AvisoSuplenteJdbcRepository avisoJdbcRepository;
+    private final TransactionTemplate transaccionEscritura;
+    private final Environment environment;
+    private final BigDecimal montoMaximoTransaccion;
+    private final BigDecimal montoMaximoBanco;
+    private final int transaccionesMaximasBanco;
+    private final int maximoPorTarjeta;
+    private final int nodos;
+    private final long intervaloConciliacionNanos;
+    private final ConcurrentMap<Integer, LimiteBanco> limitesBanco = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, AtomicReference<Exposicion>> exposicionBancos = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Integer> exposicionTarjetas = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Reserva> reservas = new ConcurrentHashMap<>();
+    private final AtomicBoolean pendientesCargados = new AtomicBoolean();
+    private final Counter aprobadas;
+    private final Counter noElegibles;
+    private final Counter sinPreautorizacion;
+    private final Counter avisosRechazados;
+
+    public ProcesamientoSuplente(AutorizadorBanco autorizadorBanco,
+                                 MaquinaEstadosTransaccion maquinaEstados,
+                                 MedidorPresupuestoLatencia medidorPresupuesto,
+                                 AvisoSuplenteJdbcRepository avisoJdbcRepository,
+                                 PlatformTransactionManager transactionManager,
+                                 Environment environment,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${transaccion.stip.habilitado:false}") boolean habilitado,
+                                 @Value("${transaccion.stip.monto-maximo-transaccion:100}") BigDecimal montoMaximoTransaccion,
+                                 @Value("${transaccion.stip.monto-maximo-banco:5000}") BigDecimal montoMaximoBanco,
+                                 @Value("${transaccion.stip.transacciones-maximas-banco:200}") int transaccionesMaximasBanco,
+                                 @Value("${transaccion.stip.maximo-por-tarjeta:2}") int maximoPorTarjeta,
+                                 @Value("${transaccion.stip.nodos:1}") int nodos,
+                                 @Value("${transaccion.stip.intervalo-conciliacion-ms:30000}") long intervaloConciliacionMs) {
+        this.habilitado = habilitado;
+        this.autorizadorBanco = autorizadorBanco;
+        this.maquinaEstados = maquinaEstados;
+        this.medidorPresupuesto = medidorPresupuesto;
+        this.avisoJdbcRepository = avisoJdbcRepository;
+        this.transaccionEscritura = new TransactionTemplate(transactionManager);
+        this.environment = environment;
+        this.montoMaximoTransaccion = montoMaximoTransaccion;
+        this.montoMaximoBanco = montoMaximoBanco;
+        this.transaccionesMaximasBanco = transaccionesMaximasBanco;
+        this.nodos = Math.max(1, nodos);
+        this.maximoPorTarjeta = Math.max(1, maximoPorTarjeta / this.nodos);
+        this.intervaloConciliacionNanos = TimeUnit.MILLISECONDS.toNanos(intervaloConciliacionMs);
+        this.aprobadas = Counter.builder("pagos.stip.aprobadas")
+                .description("Transacciones aprobadas por procesamiento suplente")
+                .register(meterRegistry);
+        this.noElegibles = Counter.builder("pagos.stip.no.elegibles")
+                .description("Transacciones con el circuito abierto que excedían los límites del suplente")
+                .register(meterRegistry);
+        this.sinPreautorizacion = Counter.builder("pagos.stip.sin.preautorizacion")
+                .description("Transacciones con el circuito abierto cuyas verificaciones previas no concluyeron")
+                .register(meterRegistry);
+        this.avisosRechazados = Counter.builder("pagos.stip.avisos.rechazados")
+                .description("Aprobaciones del suplente que el banco rechazó al recibir el aviso")
+                .register(meterRegistry);
+    }
+
+    public boolean habilitado() {
+        return habilitado;
+    }
+
+    /**
+     * Indica si la transacción puede intentarse en el suplente sin consultar la
+     * base: suplente habilitado, verificaciones previas concluidas y monto dentro
+     * del máximo por transacción del banco.
+     */
+    public boolean admite(Transaccion transaccion, boolean preautorizada) {
+        if (!habilitado) {
+            return false;
+        }
+        if (!preautorizada) {
+            sinPreautorizacion.increment();
+            return false;
+        }
+        if (transaccion.getMonto().compareTo(limite(transaccion).montoMaximoTransaccion()) > 0) {
+            noElegibles.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reserva la transacción en la parte de los límites del banco y de la tarjeta
+     * que corresponde a este nodo; retorna false, sin reservar nada, si no cabe.
+     * La reserva se mantiene hasta {@link #liberar}; si la aprobación no llega a
+     * registrarse el llamador debe liberarla.
+     */
+    public boolean reservar(Transaccion transaccion) {
+        Reserva reserva = new Reserva(transaccion.getBanco().getCodigo(), transaccion.getMonto(),
+            transaccion.getNumeroTarjeta(), System.nanoTime());
+        if (reservas.putIfAbsent(transaccion.getCodigo(), reserva) != null) {
+            return true;
+        }
+        if (!cargar(reserva, limite(transaccion))) {
+            reservas.remove(transaccion.getCodigo(), reserva);
+            noElegibles.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Devuelve a los límites la reserva de la transacción, si este nodo la tiene.
+     */
+    public void liberar(Integer codigoTransaccion) {
+        Reserva reserva = reservas.remove(codigoTransaccion);
+        if (reserva == null) {
+            return;
+        }
+        exposicionBanco(reserva.codigoBanco()).accumulateAndGet(reserva.exposicion(), Exposicion::restar);
+        if (reserva.numeroTarjeta() != null) {
+            exposicionTarjetas.computeIfPresent(reserva.numeroTarjeta(),
+                (tarjeta, cantidad) -> cantidad > 1 ? cantidad - 1 : null);
+        }
+    }
+
+    /**
+     * Corrige las reservas contra los avisos pendientes en la base. Libera las que
+     * no tienen aviso desde hace más de un intervalo, para no soltar una aprobación
+     * cuyo aviso todavía no se confirmó, y en la primera pasada carga sin límite los
+     * avisos pendientes que este nodo no reservó.
+     */
+    @Scheduled(fixedDelayString = "${transaccion.stip.intervalo-conciliacion-ms:30000}")
+    public void conciliarReservas() {
+        if (!habilitado) {
+            return;
+        }
+        List<AvisoSuplenteJdbcRepository.AvisoPendiente> pendientes;
+        try {
+            pendientes = avisoJdbcRepository.pendientes();
+        } catch (RuntimeException e) {
+            log.error("No se pudo conciliar las reservas del suplente: {}", e.getMessage());
+            return;
+        }
+        if (pendientesCargados.compareAndSet(false, true)) {
+            for (AvisoSuplenteJdbcRepository.AvisoPendiente aviso : pendientes) {
+                Reserva reserva = new Reserva(aviso.codigoBanco(), aviso.monto(), aviso.numeroTarjeta(),
+                    System.nanoTime());
+                if (reservas.putIfAbsent(aviso.codigoTransaccion(), reserva) == null) {
+                    cargar(reserva, null);
+                }
+            }
+            log.info("Suplente: {} avisos pendientes cargados en las reservas", pendientes.size());
+        }
+        Set<Integer> conAviso = pendientes.stream()
+            .map(AvisoSuplenteJdbcRepository.AvisoPendiente::codigoTransaccion)
+            .collect(Collectors.toSet());
+        long limite = System.nanoTime() - intervaloConciliacionNanos;
+        reservas.forEach((codigo, reserva) -> {
+            if (!conAviso.contains(codigo) && reserva.registrada() - limite <= 0) {
+                liberar(codigo);
+            }
+        });
+    }
+
+    public void registrarAviso(Integer codigoTransaccion) {
+        avisoJdbcRepository.registrar(codigoTransaccion);
+        aprobadas.increment();
+    }
+
+    /**
+     * Envía al banco el aviso reclamado con el arrendamiento indicado. Sin respuesta
+     * definitiva vuelve a reintentarse; si el banco lo rechaza, la transacción pasa
+     * de APR a revisión en la misma transacción que elimina el aviso.
+     */
+    public void avisar(Transaccion transaccion, ConsumoTarjetaRequestDTO request, int arrendamiento) {
+        Integer codigo = transaccion.getCodigo();
+        AutorizadorBanco.Resultado resultado;
+        try {
+            resultado = autorizadorBanco.autorizar(request, transaccion.getCodigoUnicoTransaccion(),
+                medidorPresupuesto.iniciar());
+        } catch (RuntimeException e) {
+            log.warn("Error al avisar al banco la transacción {}: {}", codigo, e.getMessage());
+            avisoJdbcRepository.reintentar(codigo, arrendamiento);
+            return;
+        }
+        RespuestaAutorizacionBancoDTO respuesta = resultado.respuesta();
+        if (resultado.desenlace() != AutorizadorBanco.Desenlace.RESPONDIDA || respuesta.esFallaDelBanco()) {
+            avisoJdbcRepository.reintentar(codigo, arrendamiento);
+            return;
+        }
+        if (respuesta.isAprobada()) {
+            if (avisoJdbcRepository.completar(codigo, arrendamiento)) {
+                liberar(codigo);
+            }
+            return;
+        }
+        avisosRechazados.increment();
+        log.warn("El banco rechazó el aviso de la transacción {} aprobada por el suplente: {}", codigo,
+            respuesta.getMensaje());
+        AtomicBoolean completado = new AtomicBoolean();
+        transaccionEscritura.executeWithoutResult(status -> {
+            if (!avisoJdbcRepository.completar(codigo, arrendamiento)) {
+                return;
+            }
+            completado.set(true);
+            try {
+                maquinaEstados.transicionar(codigo, ESTADO_APROBADA, ESTADO_REVISION,
+                    "Aviso STIP rechazado por el banco: " + respuesta.getMensaje());
+            } catch (BusinessException e) {
+                log.info("Transacción {} ya no está aprobada, se descarta el aviso", codigo);
+            }
+        });
+        if (completado.get()) {
+            liberar(codigo);
+        }
+    }
+
+    /**
+     * Suma la reserva a la exposición del banco y de la tarjeta. Con límite, no
+     * suma nada si alguno se excedería; sin él, usado al cargar avisos pendientes,
+     * suma siempre.
+     */
+    private boolean cargar(Reserva reserva, LimiteBanco limite) {
+        if (reserva.numeroTarjeta() != null) {
+            AtomicBoolean admitida = new AtomicBoolean();
+            exposicionTarjetas.compute(reserva.numeroTarjeta(), (tarjeta, cantidad) -> {
+                int actual = cantidad != null ? cantidad : 0;
+                if (limite != null && actual >= maximoPorTarjeta) {
+                    return cantidad;
+                }
+                admitida.set(true);
+                return actual + 1;
+            });
+            if (!admitida.get()) {
+                return false;
+            }
+        }
+        AtomicReference<Exposicion> exposicion = exposicionBanco(reserva.codigoBanco());
+        Exposicion actual;
+        Exposicion nueva;
+        do {
+            actual = exposicion.get();
+            nueva = actual.sumar(reserva.exposicion());
+            if (limite != null && (nueva.transacciones() > limite.transaccionesMaximas()
+                    || nueva.monto().compareTo(limite.montoMaximo()) > 0)) {
+                if (reserva.numeroTarjeta() != null) {
+                    exposicionTarjetas.computeIfPresent(reserva.numeroTarjeta(),
+                        (tarjeta, cantidad) -> cantidad > 1 ? cantidad - 1 : null);
+                }
+                return false;
+            }
+        } while (!exposicion.compareAndSet(actual, nueva));
+        return true;
+    }
+
+    private AtomicReference<Exposicion> exposicionBanco(Integer codigoBanco) {
+        return exposicionBancos.computeIfAbsent(codigoBanco, codigo -> new AtomicReference<>(Exposicion.NINGUNA));
+    }
+
+    private LimiteBanco limite(Transaccion transaccion) {
+        return limitesBanco.computeIfAbsent(transaccion.getBanco().getCodigo(), this::crearLimite);
+    }
+
+    private LimiteBanco crearLimite(Integer codigoBanco) {
+        String prefijo = PREFIJO_BANCO + codigoBanco + ".";
+        BigDecimal montoMaximo = environment.getProperty(prefijo + "monto-maximo-banco", BigDecimal.class,
+            montoMaximoBanco);
+        int transaccionesMaximas = environment.getProperty(prefijo + "transacciones-maximas-banco", Integer.class,
+            transaccionesMaximasBanco);
+        return new LimiteBanco(
+            environment.getProperty(prefijo + "monto-maximo-transaccion", BigDecimal.class, montoMaximoTransaccion),
+            montoMaximo.divide(BigDecimal.valueOf(nodos), 2, RoundingMode.DOWN),
+            transaccionesMaximas / nodos);
+    }
+
+    /**
+     * Límites del banco; montoMaximo y transaccionesMaximas son la parte de este nodo.
+     */
+    private record LimiteBanco(BigDecimal montoMaximoTransaccion, BigDecimal montoMaximo, int transaccionesMaximas) {
+    }
+
+    private record Exposicion(int transacciones, BigDecimal monto) {
+
+        static final Exposicion NINGUNA = new Exposicion(0, BigDecimal.ZERO);
+
+        Exposicion sumar(Exposicion otra) {
+            return new Exposicion(transacciones + otra.transacciones, monto.add(otra.monto));
+        }
+
+        Exposicion restar(Exposicion otra) {
+            return new Exposicion(transacciones - otra.transacciones, monto.subtract(otra.monto));
+        }
+    }
+
+    private record Reserva(Integer codigoBanco, BigDecimal monto, String numeroTarjeta, long registrada) {
+
+        Exposicion exposicion() {
+            return new Exposicion(1, monto);
+        }
+    }
+}
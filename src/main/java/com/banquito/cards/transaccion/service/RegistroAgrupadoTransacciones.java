@@ -0,0 +1,299 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.exception.BusinessException;
+import com.banquito.cards.exception.CapacidadExcedidaException;
+import com.banquito.cards.exception.CodigoUnicoRegistradoException;
+import com.banquito.cards.fraude.service.VentanasTarjeta;
+import com.banquito.cards.transaccion.model.HistorialEstadoTransaccion;
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.banquito.cards.transaccion.repository.OutboxAutorizacionJdbcRepository;
+import com.banquito.cards.transaccion.repository.TransaccionJdbcRepository;
+import com.banquito.cards.transaccion.repository.TransaccionRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Commit agrupado de transacciones nuevas. Cada solicitud deja su transacción en
+ * una cola y un escritor junta las que llegan hasta completar tamano-maximo o
+ * hasta que pasen espera-maxima-us desde la primera; las inserta con su historial
+ * y su solicitud en el outbox en lotes JDBC y una sola confirmación, y completa
+ * el futuro de cada llamador con la transacción ya con su código. Si el lote
+ * falla se reintenta cada transacción por separado para que una fila inválida
+ * no arrastre a las demás; la que choca con un código único ya registrado falla
+ * con {@link CodigoUnicoRegistradoException}. Con el {@link DiarioTransacciones}
+ * habilitado, un lote que falla porque la base no responde se anota en el diario
+ * local y se confirma a los llamadores sin código; se registra en la base al
+ * reproducirse el diario.
+ */
+@Slf4j
+@Component
+public class RegistroAgrupadoTransacciones {
+
+    private static final String ENTITY_NAME = "Transaccion";
+    private static final String DETALLE_REGISTRO = "Transacción registrada - Esperando respuesta del banco";
+    private static final String DETALLE_DIARIO =
+        "Transacción registrada desde el diario local - Esperando respuesta del banco";
+
+    private final TransaccionRepository transaccionRepository;
+    private final TransaccionJdbcRepository transaccionJdbcRepository;
+    private final OutboxAutorizacionJdbcRepository outboxJdbcRepository;
+    private final RegistroCodigosUnicos registroCodigosUnicos;
+    private final VentanasTarjeta ventanasTarjeta;
+    private final DiarioTransacciones diario;
+    private final TransactionTemplate transaccionEscritura;
+    private final BlockingQueue<Solicitud> pendientes;
+    private final int tamanoMaximo;
+    private final long esperaMaximaNanos;
+    private final int escritores;
+    private final DistributionSummary tamanoLotes;
+    private final List<Thread> hilos = new ArrayList<>();
+    private volatile boolean activo;
+
+    public RegistroAgrupadoTransacciones(TransaccionRepository transaccionRepository,
+                                         TransaccionJdbcRepository transaccionJdbcRepository,
+                                         OutboxAutorizacionJdbcRepository outboxJdbcRepository,
+                                         RegistroCodigosUnicos registroCodigosUnicos,
+                                         VentanasTarjeta ventanasTarjeta,
+                                         ObjectProvider<DiarioTransacciones> diario,
+                                         PlatformTransactionManager transactionManager,
+                                         MeterRegistry meterRegistry,
+                                         @Value("${transaccion.registro-agrupado.tamano-maximo:200}") int tamanoMaximo,
+                                         @Value("${transaccion.registro-agrupado.espera-maxima-us:2000}") long esperaMaximaUs,
+                                         @Value("${transaccion.registro-agrupado.escritores:2}") int escritores,
+                                         @Value("${transaccion.registro-agrupado.capacidad-cola:10000}") int capacidadCola) {
+        this.transaccionRepository = transaccionRepository;
+        this.transaccionJdbcRepository = transaccionJdbcRepository;
+        this.outboxJdbcRepository = outboxJdbcRepository;
+        this.registroCodigosUnicos = registroCodigosUnicos;
+        this.ventanasTarjeta = ventanasTarjeta;
+        this.diario = diario.getIfAvailable();
+        this.transaccionEscritura = new TransactionTemplate(transactionManager);
+        this.pendientes = new ArrayBlockingQueue<>(capacidadCola);
+        this.tamanoMaximo = tamanoMaximo;
+        this.esperaMaximaNanos = TimeUnit.MICROSECONDS.toNanos(esperaMaximaUs);
+        this.escritores = escritores;
+        this.tamanoLotes = DistributionSummary.builder("pagos.registro.agrupado.lote")
+                .description("Transacciones confirmadas en cada commit agrupado")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        activo = true;
+        Thread.Builder constructor = Thread.ofPlatform().name("registro-agrupado-", 0).daemon(true);
+        for (int i = 0; i < escritores; i++) {
+            hilos.add(constructor.start(this::escribir));
+        }
+    }
+
+    /**
+     * Deja de aceptar solicitudes y espera a que los escritores confirmen las que
+     * ya están en la cola.
+     */
+    @PreDestroy
+    public void detener() throws InterruptedException {
+        activo = false;
+        for (Thread hilo : hilos) {
+            hilo.join(TimeUnit.SECONDS.toMillis(30));
+        }
+    }
+
+    /**
+     * Encola la transacción para el próximo commit agrupado. El futuro se completa
+     * con la misma instancia, ya con su código, cuando el commit termina, o sin
+     * código si quedó anotada en el diario local.
+     *
+     * @throws CapacidadExcedidaException si la cola está llena
+     */
+    public CompletableFuture<Transaccion> registrar(Transaccion transaccion) {
+        Solicitud solicitud = new Solicitud(transaccion, new CompletableFuture<>());
+        if (!activo || !pendientes.offer(solicitud)) {
+            throw new CapacidadExcedidaException(String.valueOf(transaccion.getCodigoUnicoTransaccion()), ENTITY_NAME);
+        }
+        return solicitud.resultado();
+    }
+
+    private void escribir() {
+        List<Solicitud> lote = new ArrayList<>(tamanoMaximo);
+        while (activo || !pendientes.isEmpty()) {
+            try {
+                Solicitud primera = pendientes.poll(100, TimeUnit.MILLISECONDS);
+                if (primera == null) {
+                    continue;
+                }
+                lote.add(primera);
+                long limite = System.nanoTime() + esperaMaximaNanos;
+                while (lote.size() < tamanoMaximo) {
+                    if (pendientes.drainTo(lote, tamanoMaximo - lote.size()) > 0) {
+                        continue;
+                    }
+                    long restante = limite - System.nanoTime();
+                    Solicitud siguiente = restante > 0 ? pendientes.poll(restante, TimeUnit.NANOSECONDS) : null;
+                    if (siguiente == null) {
+                        break;
+                    }
+                    lote.add(siguiente);
+                }
+                confirmar(lote);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lote.forEach(solicitud -> solicitud.resultado().completeExceptionally(
+                    new BusinessException("registro interrumpido", ENTITY_NAME, "guardar transacción")));
+                return;
+            } finally {
+                lote.clear();
+            }
+        }
+    }
+
+    /**
+     * Indica si, ante una caída de la base, las transacciones nuevas se anotan en
+     * el diario local en lugar de rechazarse.
+     */
+    public boolean conDiario() {
+        return diario != null;
+    }
+
+    /**
+     * Huella de la solicitud anotada en el diario local con el código único y
+     * todavía no reproducida en la base, si la hay.
+     */
+    public Optional<String> huellaEnDiario(String codigoUnicoTransaccion) {
+        return diario == null ? Optional.empty() : diario.huellaPendiente(codigoUnicoTransaccion);
+    }
+
+    /**
+     * Registra transacciones recuperadas del diario local en una sola transacción,
+     * omitiendo las que ya existen por código único para que reproducir dos veces
+     * el mismo tramo no las duplique. Retorna las registradas; sus solicitudes
+     * quedan en el outbox con el arrendamiento inicial, como las de una solicitud en
+     * línea.
+     */
+    public List<Transaccion> reproducir(List<Transaccion> transacciones) {
+        List<Transaccion> nuevas = transaccionEscritura.execute(status -> {
+            Set<String> codigosUnicos = transacciones.stream()
+                .map(Transaccion::getCodigoUnicoTransaccion)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+            Set<String> existentes = codigosUnicos.isEmpty() ? Set.of() : transaccionRepository
+                .findByCodigoUnicoTransaccionIn(codigosUnicos)
+                .stream()
+                .map(Transaccion::getCodigoUnicoTransaccion)
+                .collect(Collectors.toSet());
+            Set<String> vistos = new HashSet<>();
+            List<Transaccion> pendientes = transacciones.stream()
+                .filter(t -> t.getCodigoUnicoTransaccion() == null
+                    || (!existentes.contains(t.getCodigoUnicoTransaccion()) && vistos.add(t.getCodigoUnicoTransaccion())))
+                .collect(Collectors.toList());
+            insertar(pendientes, DETALLE_DIARIO);
+            return pendientes;
+        });
+        nuevas.forEach(transaccion -> {
+            registroCodigosUnicos.registrar(transaccion.getCodigoUnicoTransaccion());
+            ventanasTarjeta.registrar(transaccion);
+        });
+        log.info("Diario local: {} transacciones registradas, {} ya existían", nuevas.size(),
+            transacciones.size() - nuevas.size());
+        return nuevas;
+    }
+
+    private void confirmar(List<Solicitud> lote) {
+        try {
+            transaccionEscritura.executeWithoutResult(status ->
+                insertar(lote.stream().map(Solicitud::transaccion).collect(Collectors.toList()), DETALLE_REGISTRO));
+            tamanoLotes.record(lote.size());
+        } catch (RuntimeException e) {
+            if (diario != null && DiarioTransacciones.esInterrupcionBaseDeDatos(e)) {
+                anotarEnDiario(lote, e);
+                return;
+            }
+            if (lote.size() == 1 && RegistroCodigosUnicos.esCodigoUnicoDuplicado(e)) {
+                lote.get(0).resultado().completeExceptionally(new CodigoUnicoRegistradoException(
+                    lote.get(0).transaccion().getCodigoUnicoTransaccion(), ENTITY_NAME));
+                return;
+            }
+            if (lote.size() == 1) {
+                log.error("Error al guardar transacción: {}", e.getMessage());
+                lote.get(0).resultado().completeExceptionally(new BusinessException(
+                    "Error al guardar transacción: " + e.getMessage(), ENTITY_NAME, "guardar transacción"));
+                return;
+            }
+            log.warn("Commit agrupado de {} transacciones falló, se reintentan por separado: {}",
+                lote.size(), e.getMessage());
+            for (Solicitud solicitud : lote) {
+                confirmar(List.of(solicitud));
+            }
+            return;
+        }
+        for (Solicitud solicitud : lote) {
+            registroCodigosUnicos.registrar(solicitud.transaccion().getCodigoUnicoTransaccion());
+            ventanasTarjeta.registrar(solicitud.transaccion());
+            solicitud.resultado().complete(solicitud.transaccion());
+        }
+    }
+
+    private void anotarEnDiario(List<Solicitud> lote, RuntimeException causa) {
+        List<Transaccion> transacciones = lote.stream().map(Solicitud::transaccion).collect(Collectors.toList());
+        transacciones.forEach(transaccion -> transaccion.setCodigo(null));
+        try {
+            diario.anotar(transacciones);
+        } catch (RuntimeException e) {
+            log.error("No se pudo anotar en el diario local {} transacciones: {}", lote.size(), e.getMessage());
+            lote.forEach(solicitud -> solicitud.resultado().completeExceptionally(e instanceof CapacidadExcedidaException
+                ? e : new BusinessException("Error al guardar transacción: " + causa.getMessage(), ENTITY_NAME,
+                    "guardar transacción")));
+            return;
+        }
+        log.warn("Base de datos no disponible, {} transacciones anotadas en el diario local: {}",
+            lote.size(), causa.getMessage());
+        lote.forEach(solicitud -> solicitud.resultado().complete(solicitud.transaccion()));
+    }
+
+    /**
+     * Inserta transacciones, historiales y solicitudes del outbox; debe ejecutarse
+     * dentro de una transacción.
+     */
+    private void insertar(List<Transaccion> transacciones, String detalle) {
+        if (transacciones.isEmpty()) {
+            return;
+        }
+        LocalDateTime fechaRegistro = LocalDateTime.now();
+        transaccionJdbcRepository.insertarTransacciones(transacciones);
+        List<HistorialEstadoTransaccion> historiales = new ArrayList<>(transacciones.size());
+        for (Transaccion transaccion : transacciones) {
+            HistorialEstadoTransaccion historial = new HistorialEstadoTransaccion();
+            historial.setTransaccion(transaccion);
+            historial.setEstado(transaccion.getEstado());
+            historial.setFechaEstadoCambio(fechaRegistro);
+            historial.setDetalle(detalle);
+            historiales.add(historial);
+        }
+        transaccionJdbcRepository.insertarHistoriales(historiales);
+        outboxJdbcRepository.registrarLote(transacciones.stream().map(Transaccion::getCodigo)
+            .collect(Collectors.toList()));
+    }
+
+    private record Solicitud(Transaccion transaccion, CompletableFuture<Transaccion> resultado) {
+    }
+}
@@ -0,0 +1,89 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.transaccion.repository.TransaccionJdbcRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chequeo negativo en memoria de códigos únicos de transacción. El filtro conoce
+ * los códigos cargados al arrancar y los que registró este nodo: uno que conoce
+ * se confirma contra la base y uno que no conoce se inserta sin consultarla.
+ * Hasta terminar la carga inicial todos los códigos se tratan como posibles
+ * duplicados. Un código registrado en otro nodo después de la carga, o anterior
+ * a la ventana de carga, lo rechaza la restricción UK_TRANSACCION_CODIGO_UNICO al
+ * insertar ({@link #esCodigoUnicoDuplicado(Throwable)}), y la capa de
+ * idempotencia responde con la transacción ya registrada.
+ */
+@Slf4j
+@Component
+public class RegistroCodigosUnicos {
+
+    private static final String RESTRICCION_CODIGO_UNICO = "UK_TRANSACCION_CODIGO_UNICO";
+
+    private final TransaccionJdbcRepository transaccionJdbcRepository;
+    private final FiltroBloom filtro;
+    private final int ventanaHoras;
+    private final AtomicLong registrados = new AtomicLong();
+    private volatile boolean cargado;
+
+    public RegistroCodigosUnicos(TransaccionJdbcRepository transaccionJdbcRepository,
+                                 @Value("${transaccion.idempotencia.bloom.elementos:1000000}") long elementos,
+                                 @Value("${transaccion.idempotencia.bloom.falsos-positivos:0.01}") double falsosPositivos,
+                                 @Value("${transaccion.idempotencia.bloom.ventana-horas:72}") int ventanaHoras) {
+        this.transaccionJdbcRepository = transaccionJdbcRepository;
+        this.filtro = new FiltroBloom(elementos, falsosPositivos);
+        this.ventanaHoras = ventanaHoras;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void cargar() {
+        long inicio = System.nanoTime();
+        try {
+            transaccionJdbcRepository.recorrerCodigosUnicosDesde(
+                LocalDateTime.now().minusHours(ventanaHoras), this::registrar);
+            cargado = true;
+            log.info("Filtro de códigos únicos cargado con {} códigos en {} ms", registrados.get(),
+                (System.nanoTime() - inicio) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.error("No se pudo cargar el filtro de códigos únicos, se consultará la base: {}", e.getMessage());
+        }
+    }
+
+    public void registrar(String codigoUnico) {
+        if (codigoUnico != null) {
+            filtro.agregar(codigoUnico);
+            registrados.incrementAndGet();
+        }
+    }
+
+    public boolean podriaExistir(String codigoUnico) {
+        return !cargado || filtro.podriaContener(codigoUnico);
+    }
+
+    /**
+     * Indica si el error de un insert lo causó la restricción única del código
+     * único de transacción.
+     */
+    public static boolean esCodigoUnicoDuplicado(Throwable error) {
+        if (!(error instanceof DataIntegrityViolationException)) {
+            return false;
+        }
+        for (Throwable causa = error; causa != null; causa = causa.getCause()) {
+            String mensaje = causa.getMessage();
+            if (mensaje != null && mensaje.toUpperCase(Locale.ROOT).contains(RESTRICCION_CODIGO_UNICO)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
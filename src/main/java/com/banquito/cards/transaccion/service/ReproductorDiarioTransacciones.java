@@ -0,0 +1,72 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.transaccion.model.Transaccion;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Reproduce en la base, en el orden en que se anotaron, las transacciones que
+ * quedaron en el diario local durante una caída. Cada tramo se registra en una
+ * transacción y solo después se marca como reproducido; si el proceso cae entre
+ * ambos pasos el tramo se vuelve a leer y las transacciones ya registradas se
+ * omiten por código único. Mientras la base siga sin responder el tramo queda
+ * pendiente para la siguiente ejecución.
+ *
+ * <p>Cada transacción registrada se autoriza como una aceptada en línea: pasa por
+ * las verificaciones de preautorización antes de llegar al banco. Sin capacidad
+ * para autorizarla en el momento queda liberada en el outbox, cuyo despachador
+ * también ejecuta esas verificaciones primero.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "transaccion.diario.habilitado", havingValue = "true")
+public class ReproductorDiarioTransacciones {
+
+    private final DiarioTransacciones diario;
+    private final RegistroAgrupadoTransacciones registroAgrupado;
+    private final AutorizacionAsincronaService autorizacionAsincronaService;
+    private final int tamanoLote;
+
+    public ReproductorDiarioTransacciones(DiarioTransacciones diario,
+                                          RegistroAgrupadoTransacciones registroAgrupado,
+                                          AutorizacionAsincronaService autorizacionAsincronaService,
+                                          @Value("${transaccion.diario.tamano-lote:200}") int tamanoLote) {
+        this.diario = diario;
+        this.registroAgrupado = registroAgrupado;
+        this.autorizacionAsincronaService = autorizacionAsincronaService;
+        this.tamanoLote = tamanoLote;
+    }
+
+    @Scheduled(fixedDelayString = "${transaccion.diario.intervalo-ms:1000}")
+    public void reproducir() {
+        while (diario.hayPendientes()) {
+            DiarioTransacciones.Lectura lectura = diario.leerPendientes(tamanoLote);
+            if (lectura.transacciones().isEmpty()) {
+                return;
+            }
+            List<Transaccion> registradas;
+            try {
+                registradas = registroAgrupado.reproducir(lectura.transacciones());
+            } catch (RuntimeException e) {
+                log.warn("No se pudo reproducir el diario local, se reintenta luego: {}", e.getMessage());
+                return;
+            }
+            diario.confirmarReproduccion(lectura.hasta());
+            registradas.forEach(this::autorizar);
+        }
+    }
+
+    private void autorizar(Transaccion transaccion) {
+        try {
+            autorizacionAsincronaService.programarAutorizacion(transaccion.getCodigo());
+        } catch (RuntimeException e) {
+            log.warn("Transacción {} del diario queda para el despachador del outbox: {}", transaccion.getCodigo(),
+                e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.transaccion.controller.dto.LoteTransaccionDTO;
+import com.banquito.cards.transaccion.controller.dto.LoteTransaccionResponseDTO;
+import com.banquito.cards.transaccion.controller.dto.ResultadoLoteDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+@Slf4j
+@Service
+public class TransaccionLoteService {
+
+    private final TransaccionService transaccionService;
+    private final AutorizacionAsincronaService autorizacionAsincronaService;
+
+    public TransaccionLoteService(TransaccionService transaccionService,
+                                  AutorizacionAsincronaService autorizacionAsincronaService) {
+        this.transaccionService = transaccionService;
+        this.autorizacionAsincronaService = autorizacionAsincronaService;
+    }
+
+    public LoteTransaccionResponseDTO procesarLote(LoteTransaccionDTO lote) {
+        List<ResultadoLoteDTO> resultados = transaccionService.registrarLote(lote.getTransacciones());
+
+        int registradas = 0;
+        int sinCapacidad = 0;
+        for (ResultadoLoteDTO resultado : resultados) {
+            if (!resultado.isRegistrada()) {
+                continue;
+            }
+            registradas++;
+            if (!autorizacionAsincronaService.programarAutorizacion(resultado.getCodigo())) {
+                sinCapacidad++;
+            }
+        }
+        if (sinCapacidad > 0) {
+            log.warn("{} transacciones del lote quedaron en el outbox para el despachador", sinCapacidad);
+        }
+
+        return new LoteTransaccionResponseDTO(resultados.size(), registradas,
+            resultados.size() - registradas, resultados);
+    }
+}
@@ -3,24 +3,55 @@ package com.banquito.cards.transaccion.service;
 import com.banquito.cards.transaccion.model.*;
 import com.banquito.cards.transaccion.repository.TransaccionRepository;
 import com.banquito.cards.transaccion.repository.HistorialEstadoTransaccionRepository;
+import com.banquito.cards.transaccion.repository.TransaccionJdbcRepository;
+import com.banquito.cards.transaccion.repository.OutboxAutorizacionJdbcRepository;
+import com.banquito.cards.transaccion.repository.ConciliacionAutorizacionJdbcRepository;
 import com.banquito.cards.transaccion.controller.dto.*;
 import com.banquito.cards.transaccion.controller.mapper.TransaccionMapper;
 import com.banquito.cards.transaccion.client.*;
 import com.banquito.cards.comision.service.ComisionService;
+import com.banquito.cards.config.MonitorConexiones;
 import com.banquito.cards.comision.model.Banco;
+import com.banquito.cards.comision.model.ComisionSegmento;
 import com.banquito.cards.comision.repository.BancoRepository;
 import com.banquito.cards.exception.NotFoundException;
+import com.banquito.cards.exception.TransicionRechazadaException;
 import com.banquito.cards.exception.BusinessException;
+import com.banquito.cards.exception.CapacidadExcedidaException;
+import com.banquito.cards.exception.ClaveReutilizadaException;
+import com.banquito.cards.exception.CodigoUnicoRegistradoException;
 import com.banquito.cards.fraude.service.MonitoreoFraudeService;
+import com.banquito.cards.fraude.service.VentanasTarjeta;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.http.ResponseEntity;
-import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import lombok.extern.slf4j.Slf4j;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -35,7 +66,7 @@ public class TransaccionService {
     private static final String ESTADO_APROBADA = "APR";
     private static final String ESTADO_RECHAZADA = "REC";
     private static final String ESTADO_REVISION = "REV";
-    private static final String ESTADO_PROCESADO = "PRO";
+    private static final String DETALLE_SIN_CVV = "Sin CVV tras el diario local - revisión manual";
     
     private final TransaccionRepository transaccionRepository;
     private final HistorialEstadoTransaccionRepository historialRepository;
@@ -43,9 +74,33 @@ public class TransaccionService {
     private final ComisionService comisionService;
     private final BancoRepository bancoRepository;
     private final TarjetaServiceClient tarjetaServiceClient;
-    private final TarjetaConsumoServiceClient tarjetaConsumoServiceClient;
     private final MonitoreoFraudeClient monitoreoFraudeClient;
     private final TransaccionMapper transaccionMapper;
+    private final TransaccionJdbcRepository transaccionJdbcRepository;
+    private final Validator validator;
+    private final MonitorConexiones monitorConexiones;
+    private final RegistroCodigosUnicos registroCodigosUnicos;
+    private final VentanasTarjeta ventanasTarjeta;
+    private final MaquinaEstadosTransaccion maquinaEstados;
+    private final OutboxAutorizacionJdbcRepository outboxJdbcRepository;
+    private final LimitadorConcurrenciaBancos limitadorBancos;
+    private final CircuitoBanco circuitoBanco;
+    private final AutorizadorBanco autorizadorBanco;
+    private final ConciliacionAutorizacionJdbcRepository conciliacionJdbcRepository;
+    private final EvaluacionPreautorizacionService evaluacionPreautorizacionService;
+    private final MedidorPresupuestoLatencia medidorPresupuesto;
+    private final RegistroAgrupadoTransacciones registroAgrupado;
+    private final ProcesamientoSuplente procesamientoSuplente;
+    private final Map<Integer, Banco> bancosConocidos = new ConcurrentHashMap<>();
+    private final Map<Integer, List<ComisionSegmento>> segmentosConocidos = new ConcurrentHashMap<>();
+    private final long minimoBancoMs;
+    private final String estadoPresupuestoAgotado;
+    private final String estadoRespaldoCircuito;
+    private final TransactionTemplate transaccionLectura;
+    private final TransactionTemplate transaccionEscritura;
+    private final MotorEtapas<TrabajoTransaccion> motor;
+    private final long esperaDetencionMotorMs;
+    private final long margenEsperaMotorNanos;
 
     public TransaccionService(TransaccionRepository transaccionRepository,
                             HistorialEstadoTransaccionRepository historialRepository,
@@ -53,18 +108,101 @@ public class TransaccionService {
                             ComisionService comisionService,
                             BancoRepository bancoRepository,
                             TarjetaServiceClient tarjetaServiceClient,
-                            TarjetaConsumoServiceClient tarjetaConsumoServiceClient,
                             MonitoreoFraudeClient monitoreoFraudeClient,
-                            TransaccionMapper transaccionMapper) {
+                            TransaccionMapper transaccionMapper,
+                            TransaccionJdbcRepository transaccionJdbcRepository,
+                            Validator validator,
+                            MonitorConexiones monitorConexiones,
+                            RegistroCodigosUnicos registroCodigosUnicos,
+                            VentanasTarjeta ventanasTarjeta,
+                            MaquinaEstadosTransaccion maquinaEstados,
+                            OutboxAutorizacionJdbcRepository outboxJdbcRepository,
+                            LimitadorConcurrenciaBancos limitadorBancos,
+                            CircuitoBanco circuitoBanco,
+                            AutorizadorBanco autorizadorBanco,
+                            ConciliacionAutorizacionJdbcRepository conciliacionJdbcRepository,
+                            EvaluacionPreautorizacionService evaluacionPreautorizacionService,
+                            MedidorPresupuestoLatencia medidorPresupuesto,
+                            RegistroAgrupadoTransacciones registroAgrupado,
+                            ProcesamientoSuplente procesamientoSuplente,
+                            @Value("${transaccion.presupuesto.minimo-banco-ms:100}") long minimoBancoMs,
+                            @Value("${transaccion.presupuesto.estado-agotado:REC}") String estadoPresupuestoAgotado,
+                            @Value("${transaccion.banco.circuito.estado-respaldo:PEN}") String estadoRespaldoCircuito,
+                            @Value("${transaccion.motor.habilitado:true}") boolean motorHabilitado,
+                            @Value("${transaccion.motor.capacidad-anillo:1024}") int capacidadAnilloMotor,
+                            @Value("${transaccion.motor.hilos.validacion:2}") int hilosValidacion,
+                            @Value("${transaccion.motor.hilos.comision:2}") int hilosComision,
+                            @Value("${transaccion.motor.hilos.registro:64}") int hilosRegistro,
+                            @Value("${transaccion.motor.hilos.preautorizacion:16}") int hilosPreautorizacion,
+                            @Value("${transaccion.motor.hilos.banco:32}") int hilosBanco,
+                            @Value("${transaccion.motor.espera-detencion-ms:30000}") long esperaDetencionMotorMs,
+                            @Value("${transaccion.motor.margen-espera-ms:500}") long margenEsperaMotorMs,
+                            MeterRegistry meterRegistry,
+                            PlatformTransactionManager transactionManager) {
         this.transaccionRepository = transaccionRepository;
         this.historialRepository = historialRepository;
         this.monitoreoFraudeService = monitoreoFraudeService;
         this.comisionService = comisionService;
         this.bancoRepository = bancoRepository;
         this.tarjetaServiceClient = tarjetaServiceClient;
-        this.tarjetaConsumoServiceClient = tarjetaConsumoServiceClient;
         this.monitoreoFraudeClient = monitoreoFraudeClient;
         this.transaccionMapper = transaccionMapper;
+        this.transaccionJdbcRepository = transaccionJdbcRepository;
+        this.validator = validator;
+        this.monitorConexiones = monitorConexiones;
+        this.registroCodigosUnicos = registroCodigosUnicos;
+        this.ventanasTarjeta = ventanasTarjeta;
+        this.maquinaEstados = maquinaEstados;
+        this.outboxJdbcRepository = outboxJdbcRepository;
+        this.limitadorBancos = limitadorBancos;
+        this.circuitoBanco = circuitoBanco;
+        this.autorizadorBanco = autorizadorBanco;
+        this.conciliacionJdbcRepository = conciliacionJdbcRepository;
+        this.evaluacionPreautorizacionService = evaluacionPreautorizacionService;
+        this.medidorPresupuesto = medidorPresupuesto;
+        this.registroAgrupado = registroAgrupado;
+        this.procesamientoSuplente = procesamientoSuplente;
+        this.minimoBancoMs = minimoBancoMs;
+        this.estadoPresupuestoAgotado = validarEstadoSinBanco(estadoPresupuestoAgotado);
+        this.estadoRespaldoCircuito = validarEstadoSinBanco(estadoRespaldoCircuito);
+        this.transaccionLectura = new TransactionTemplate(transactionManager);
+        this.transaccionLectura.setReadOnly(true);
+        this.transaccionEscritura = new TransactionTemplate(transactionManager);
+        this.esperaDetencionMotorMs = esperaDetencionMotorMs;
+        this.margenEsperaMotorNanos = TimeUnit.MILLISECONDS.toNanos(margenEsperaMotorMs);
+        this.motor = !motorHabilitado ? null : new MotorEtapas<>("motor-transacciones", capacidadAnilloMotor, List.of(
+                new MotorEtapas.DefinicionEtapa<>("validacion", hilosValidacion, this::etapaValidacion),
+                new MotorEtapas.DefinicionEtapa<>("comision", hilosComision, this::etapaComision),
+                new MotorEtapas.DefinicionEtapa<>("registro", hilosRegistro, this::etapaRegistro),
+                new MotorEtapas.DefinicionEtapa<>("preautorizacion", hilosPreautorizacion, this::etapaPreautorizacion),
+                new MotorEtapas.DefinicionEtapa<>("banco", hilosBanco, this::etapaBanco)),
+            TransaccionService::finalizarTrabajo, meterRegistry);
+    }
+
+    @PostConstruct
+    public void iniciarMotor() {
+        if (motor != null) {
+            motor.iniciar();
+        }
+    }
+
+    @PreDestroy
+    public void detenerMotor() {
+        if (motor != null) {
+            motor.detener(esperaDetencionMotorMs);
+        }
+    }
+
+    /**
+     * Una transacción que no llegó al banco solo puede quedar en PEN, para que el
+     * outbox la envíe, o en REC. En REV no la reenviaría nadie y la conciliación
+     * no tendría qué consultar en el banco.
+     */
+    private static String validarEstadoSinBanco(String estado) {
+        if (!List.of(ESTADO_PENDIENTE, ESTADO_RECHAZADA).contains(estado)) {
+            throw new IllegalArgumentException("Estado sin banco no válido: " + estado);
+        }
+        return estado;
     }
 
     @Transactional(readOnly = true)
@@ -89,6 +227,65 @@ public class TransaccionService {
         return transaccionMapper.toDTO(transaccion);
     }
 
+    @Transactional(readOnly = true)
+    public EstadoTransaccionDTO obtenerEstadoTransaccion(Integer id) {
+        return construirEstado(obtenerTransaccionPorEntidad(id));
+    }
+
+    /**
+     * Resultado de una transacción ya registrada, reconstruido desde la base. La
+     * referencia del banco no se persiste, por lo que llega vacía. Si la
+     * transacción guardó la huella de su solicitud y no coincide con la indicada,
+     * el código único se está reutilizando para otra solicitud.
+     */
+    @Transactional(readOnly = true)
+    public Optional<ResultadoProcesamientoDTO> obtenerResultadoPorCodigoUnico(String codigoUnicoTransaccion,
+                                                                              String hashSolicitud) {
+        return this.transaccionRepository
+                .findFirstByCodigoUnicoTransaccionOrderByFechaCreacionDesc(codigoUnicoTransaccion)
+                .map(transaccion -> {
+                    validarHashSolicitud(transaccion, hashSolicitud);
+                    return construirEstado(transaccion);
+                })
+                .map(estado -> new ResultadoProcesamientoDTO(estado.getCodigo(), estado.getCodigoUnicoTransaccion(),
+                    estado.getEstado(), estado.getMonto(),
+                    ESTADO_RECHAZADA.equals(estado.getEstado()) ? estado.getDetalle() : null, null));
+    }
+
+    private static void validarHashSolicitud(Transaccion transaccion, String hashSolicitud) {
+        if (transaccion.getHashSolicitud() != null && hashSolicitud != null
+                && !transaccion.getHashSolicitud().equals(hashSolicitud)) {
+            throw new ClaveReutilizadaException(transaccion.getCodigoUnicoTransaccion(), ENTITY_NAME);
+        }
+    }
+
+    /**
+     * Código único con el que se registra la solicitud: en modalidad recurrente se
+     * completa con ceros a la izquierda hasta 32 caracteres.
+     */
+    static String codigoUnicoRegistrado(TransaccionDTO transaccionDTO) {
+        String codigo = transaccionDTO.getCodigoUnicoTransaccion();
+        if (codigo == null || !MODALIDAD_RECURRENTE.equals(transaccionDTO.getModalidad()) || codigo.length() >= 32) {
+            return codigo;
+        }
+        return "0".repeat(32 - codigo.length()) + codigo;
+    }
+
+    private EstadoTransaccionDTO construirEstado(Transaccion transaccion) {
+        EstadoTransaccionDTO estado = new EstadoTransaccionDTO();
+        estado.setCodigo(transaccion.getCodigo());
+        estado.setCodigoUnicoTransaccion(transaccion.getCodigoUnicoTransaccion());
+        estado.setEstado(transaccion.getEstado());
+        estado.setMonto(transaccion.getMonto());
+        estado.setEstadoFinal(!ESTADO_PENDIENTE.equals(transaccion.getEstado()));
+        this.historialRepository.findFirstByTransaccionCodigoOrderByFechaEstadoCambioDesc(transaccion.getCodigo())
+                .ifPresent(historial -> {
+                    estado.setDetalle(historial.getDetalle());
+                    estado.setFechaEstadoCambio(historial.getFechaEstadoCambio());
+                });
+        return estado;
+    }
+
     @Transactional(readOnly = true)
     public List<TransaccionDTO> obtenerTransaccionesPorBancoYMonto(Integer codigoBanco, BigDecimal montoMinimo, BigDecimal montoMaximo) {
         if (montoMinimo != null && montoMaximo != null && montoMinimo.compareTo(montoMaximo) > 0) {
@@ -101,28 +298,215 @@ public class TransaccionService {
                 .collect(Collectors.toList());
     }
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
     public TransaccionDTO guardarTransaccion(TransaccionDTO transaccionDTO) {
+        return guardarTransaccion(transaccionDTO, medidorPresupuesto.iniciar());
+    }
+
+    /**
+     * Registra la transacción en PEN con las mismas etapas que
+     * {@link #crearYProcesar(TransaccionDTO, PresupuestoLatencia)}, sin autorizarla.
+     * Si la base no respondió y quedó en el diario local, el resultado no tiene
+     * código y la solicitud del outbox se crea al reproducirse el diario.
+     */
+    public TransaccionDTO guardarTransaccion(TransaccionDTO transaccionDTO, PresupuestoLatencia presupuesto) {
         log.debug("Guardando transacción: {}", transaccionDTO);
-        
-        if (transaccionRepository.existsByCodigoUnicoTransaccion(transaccionDTO.getCodigoUnicoTransaccion())) {
-            throw new BusinessException(transaccionDTO.getCodigoUnicoTransaccion(), ENTITY_NAME, "validar código único");
+        TrabajoTransaccion trabajo = new TrabajoTransaccion(transaccionDTO, presupuesto);
+        etapaValidacion(trabajo);
+        etapaComision(trabajo);
+        etapaRegistro(trabajo);
+        return transaccionMapper.toDTO(trabajo.transaccion);
+    }
+
+    private Banco validarNueva(TransaccionDTO transaccionDTO) {
+        String codigoUnico = codigoUnicoRegistrado(transaccionDTO);
+        transaccionDTO.setCodigoUnicoTransaccion(codigoUnico);
+        registroAgrupado.huellaEnDiario(codigoUnico)
+                .filter(huella -> !huella.equals(HuellaSolicitud.calcular(transaccionDTO)))
+                .ifPresent(huella -> {
+                    throw new ClaveReutilizadaException(codigoUnico, ENTITY_NAME);
+                });
+        if (registroCodigosUnicos.podriaExistir(codigoUnico) && existeCodigoUnico(codigoUnico)) {
+            throw new CodigoUnicoRegistradoException(transaccionDTO.getCodigoUnicoTransaccion(), ENTITY_NAME);
         }
 
-        Banco banco = bancoRepository.findById(transaccionDTO.getCodigoBanco())
+        Banco banco = buscarBanco(transaccionDTO.getCodigoBanco())
                 .orElseThrow(() -> new NotFoundException(transaccionDTO.getCodigoBanco().toString(), ENTITY_NAME));
         
         if (banco.getComision() == null) {
             throw new BusinessException(transaccionDTO.getCodigoBanco().toString(), ENTITY_NAME, "validar comisión");
         }
+        return banco;
+    }
+
+    /**
+     * Con el diario local habilitado tolera la caída de la base: el código único se
+     * da por nuevo, ya que el diario omite duplicados al reproducirse. Que no se
+     * reutilice con otra solicitud lo verifica antes la huella del diario.
+     */
+    private boolean existeCodigoUnico(String codigoUnico) {
+        try {
+            return transaccionRepository.existsByCodigoUnicoTransaccion(codigoUnico);
+        } catch (RuntimeException e) {
+            if (!registroAgrupado.conDiario() || !DiarioTransacciones.esInterrupcionBaseDeDatos(e)) {
+                throw e;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Con el diario local habilitado, si la base no responde se usa el banco de la
+     * última lectura exitosa; igual con los segmentos en {@link #buscarSegmentos}.
+     */
+    private Optional<Banco> buscarBanco(Integer codigoBanco) {
+        try {
+            Optional<Banco> banco = bancoRepository.findById(codigoBanco);
+            if (registroAgrupado.conDiario()) {
+                banco.ifPresent(encontrado -> bancosConocidos.put(codigoBanco, encontrado));
+            }
+            return banco;
+        } catch (RuntimeException e) {
+            Banco conocido = bancosConocidos.get(codigoBanco);
+            if (conocido == null || !DiarioTransacciones.esInterrupcionBaseDeDatos(e)) {
+                throw e;
+            }
+            return Optional.of(conocido);
+        }
+    }
+
+    private List<ComisionSegmento> buscarSegmentos(Banco banco) {
+        Integer codigoComision = banco.getComision().getCodigo();
+        try {
+            List<ComisionSegmento> segmentos = comisionService.obtenerSegmentos(banco.getComision());
+            if (registroAgrupado.conDiario()) {
+                segmentosConocidos.put(codigoComision, segmentos);
+            }
+            return segmentos;
+        } catch (RuntimeException e) {
+            List<ComisionSegmento> conocidos = segmentosConocidos.get(codigoComision);
+            if (conocidos == null || !DiarioTransacciones.esInterrupcionBaseDeDatos(e)) {
+                throw e;
+            }
+            return conocidos;
+        }
+    }
+
+    /**
+     * Registra un lote de transacciones en estado PEN. Bancos, comisiones y códigos
+     * duplicados se resuelven una sola vez para todo el lote y las filas se escriben
+     * con lotes JDBC. Los errores de un elemento no detienen el resto del lote. Un
+     * elemento cuyo código único ya está registrado con la misma solicitud no se
+     * vuelve a registrar y recibe el código y estado de la transacción existente.
+     */
+    @Transactional
+    public List<ResultadoLoteDTO> registrarLote(List<TransaccionDTO> transacciones) {
+        log.info("Registrando lote de {} transacciones", transacciones.size());
+
+        transacciones.forEach(transaccionDTO ->
+            transaccionDTO.setCodigoUnicoTransaccion(codigoUnicoRegistrado(transaccionDTO)));
+        Set<String> codigosUnicos = transacciones.stream()
+                .map(TransaccionDTO::getCodigoUnicoTransaccion)
+                .filter(Objects::nonNull)
+                .filter(registroCodigosUnicos::podriaExistir)
+                .collect(Collectors.toSet());
+        Map<String, Transaccion> existentes = codigosUnicos.isEmpty() ? Map.of() : transaccionRepository
+                .findByCodigoUnicoTransaccionIn(codigosUnicos)
+                .stream()
+                .collect(Collectors.toMap(Transaccion::getCodigoUnicoTransaccion, Function.identity(),
+                    (primera, otra) -> primera));
+        Set<Integer> codigosBanco = transacciones.stream()
+                .map(TransaccionDTO::getCodigoBanco)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<Integer, Banco> bancos = bancoRepository.findAllById(codigosBanco)
+                .stream()
+                .collect(Collectors.toMap(Banco::getCodigo, Function.identity()));
+        Map<Integer, List<ComisionSegmento>> segmentosPorComision = new HashMap<>();
 
+        List<ResultadoLoteDTO> resultados = new ArrayList<>(transacciones.size());
+        List<ResultadoLoteDTO> resultadosValidos = new ArrayList<>();
+        List<Transaccion> validas = new ArrayList<>();
+        Set<String> vistos = new HashSet<>();
+        LocalDateTime fechaCreacion = LocalDateTime.now();
+
+        for (int i = 0; i < transacciones.size(); i++) {
+            TransaccionDTO transaccionDTO = transacciones.get(i);
+            ResultadoLoteDTO resultado = new ResultadoLoteDTO();
+            resultado.setIndice(i);
+            resultado.setCodigoUnicoTransaccion(transaccionDTO.getCodigoUnicoTransaccion());
+            resultados.add(resultado);
+            try {
+                String codigoUnico = transaccionDTO.getCodigoUnicoTransaccion();
+                Transaccion existente = codigoUnico != null ? existentes.get(codigoUnico) : null;
+                if (existente != null) {
+                    validarHashSolicitud(existente, HuellaSolicitud.calcular(transaccionDTO));
+                    resultado.setCodigo(existente.getCodigo());
+                    resultado.setEstado(existente.getEstado());
+                    resultado.setRegistrada(false);
+                    continue;
+                }
+                if (codigoUnico != null && !vistos.add(codigoUnico)) {
+                    throw new BusinessException(codigoUnico, ENTITY_NAME, "validar código único");
+                }
+                Banco banco = bancos.get(transaccionDTO.getCodigoBanco());
+                if (banco == null) {
+                    throw new NotFoundException(String.valueOf(transaccionDTO.getCodigoBanco()), ENTITY_NAME);
+                }
+                if (banco.getComision() == null) {
+                    throw new BusinessException(banco.getCodigo().toString(), ENTITY_NAME, "validar comisión");
+                }
+                List<ComisionSegmento> segmentos = segmentosPorComision.computeIfAbsent(
+                    banco.getComision().getCodigo(), codigo -> comisionService.obtenerSegmentos(banco.getComision()));
+
+                transaccionDTO.setEstado(ESTADO_PENDIENTE);
+                transaccionDTO.setFechaCreacion(fechaCreacion);
+                Transaccion transaccion = construirTransaccion(transaccionDTO, banco, segmentos);
+                validarRestricciones(transaccion);
+
+                validas.add(transaccion);
+                resultadosValidos.add(resultado);
+            } catch (BusinessException | NotFoundException | ClaveReutilizadaException e) {
+                resultado.setRegistrada(false);
+                resultado.setError(e.getMessage());
+            }
+        }
+
+        transaccionJdbcRepository.insertarTransacciones(validas);
+        validas.forEach(transaccion -> registroCodigosUnicos.registrar(transaccion.getCodigoUnicoTransaccion()));
+        ventanasTarjeta.registrarAlConfirmar(validas);
+
+        List<HistorialEstadoTransaccion> historiales = new ArrayList<>(validas.size());
+        for (int i = 0; i < validas.size(); i++) {
+            Transaccion transaccion = validas.get(i);
+            HistorialEstadoTransaccion historial = new HistorialEstadoTransaccion();
+            historial.setTransaccion(transaccion);
+            historial.setEstado(transaccion.getEstado());
+            historial.setFechaEstadoCambio(fechaCreacion);
+            historial.setDetalle("Transacción registrada por lote - Esperando respuesta del banco");
+            historiales.add(historial);
+
+            ResultadoLoteDTO resultado = resultadosValidos.get(i);
+            resultado.setCodigo(transaccion.getCodigo());
+            resultado.setEstado(transaccion.getEstado());
+            resultado.setRegistrada(true);
+        }
+        transaccionJdbcRepository.insertarHistoriales(historiales);
+        outboxJdbcRepository.registrarLote(validas.stream().map(Transaccion::getCodigo).collect(Collectors.toList()));
+
+        log.info("Lote registrado: {} de {} transacciones", validas.size(), transacciones.size());
+        return resultados;
+    }
+
+    private Transaccion construirTransaccion(TransaccionDTO transaccionDTO, Banco banco, List<ComisionSegmento> segmentos) {
         if (MODALIDAD_SIMPLE.equals(transaccionDTO.getModalidad())) {
             log.debug("Configurando transacción simple en DTO");
             transaccionDTO.setCuotas(0);
             transaccionDTO.setInteresDiferido(false);
         }
 
+        transaccionDTO.setCodigoUnicoTransaccion(codigoUnicoRegistrado(transaccionDTO));
         Transaccion transaccion = transaccionMapper.toModel(transaccionDTO);
+        transaccion.setHashSolicitud(HuellaSolicitud.calcular(transaccionDTO));
         transaccion.setBanco(banco);
         transaccion.setComision(banco.getComision());
         transaccion.setFechaCreacion(LocalDateTime.now());
@@ -134,14 +518,14 @@ public class TransaccionService {
             transaccion.setInteresDiferido(false);
             transaccion.setFechaEjecucionRecurrencia(null);
             transaccion.setFechaFinRecurrencia(null);
-            asignarComisionSimple(transaccion);
+            asignarComisionSimple(transaccion, segmentos);
         } else if (MODALIDAD_RECURRENTE.equals(transaccionDTO.getModalidad())) {
             log.debug("Configurando transacción recurrente");
             transaccion.setModalidad(MODALIDAD_RECURRENTE);
             if (transaccion.getCuotas() == null || transaccion.getCuotas() < 1) {
                 throw new BusinessException("cuotas", ENTITY_NAME, "validar cuotas para modalidad recurrente");
             }
-            asignarComisionRecurrente(transaccion);
+            asignarComisionRecurrente(transaccion, segmentos);
         }
 
         try {
@@ -151,50 +535,394 @@ public class TransaccionService {
             log.error("Error en validación: {}", e.getMessage());
             throw e;
         }
+        return transaccion;
+    }
 
+    private void validarRestricciones(Transaccion transaccion) {
+        Set<ConstraintViolation<Transaccion>> violaciones = validator.validate(transaccion);
+        if (!violaciones.isEmpty()) {
+            ConstraintViolation<Transaccion> violacion = violaciones.iterator().next();
+            throw new BusinessException(violacion.getPropertyPath() + " " + violacion.getMessage(),
+                ENTITY_NAME, "validar restricciones");
+        }
+    }
+
+    /**
+     * Registra la transacción y la autoriza con el banco. Con el motor de etapas
+     * habilitado el trabajo pasa por sus hilos (validación, comisión, registro,
+     * preautorización y banco) y el llamador solo espera el resultado; si el motor
+     * está lleno se rechaza sin registrar nada. La espera dura lo que queda del
+     * presupuesto más un margen: si vence antes del registro el trabajo se abandona
+     * y se rechaza con 503; si ya se registró se responde PEN y el outbox termina la
+     * autorización. Sin motor se ejecuta en el hilo del llamador. En ambos casos el
+     * registro se confirma junto con el de otras solicitudes concurrentes en
+     * {@link RegistroAgrupadoTransacciones}.
+     */
+    public ResultadoProcesamientoDTO crearYProcesar(TransaccionDTO transaccionDTO, PresupuestoLatencia presupuesto) {
+        TrabajoTransaccion trabajo = new TrabajoTransaccion(transaccionDTO, presupuesto);
+        if (motor == null) {
+            etapaValidacion(trabajo);
+            etapaComision(trabajo);
+            if (!etapaRegistro(trabajo)) {
+                return trabajo.resuelta;
+            }
+            return procesarConBanco(trabajo.transaccion.getCodigo(), presupuesto);
+        }
+        if (!motor.enviar(trabajo)) {
+            log.warn("Motor de transacciones lleno, se rechaza transacción {}", transaccionDTO.getCodigoUnicoTransaccion());
+            throw new CapacidadExcedidaException(transaccionDTO.getCodigoUnicoTransaccion(), ENTITY_NAME);
+        }
         try {
-            log.debug("Guardando transacción en BD: modalidad={}, cuotas={}", transaccion.getModalidad(), transaccion.getCuotas());
-            Transaccion transaccionGuardada = transaccionRepository.save(transaccion);
-            registrarCambioEstado(transaccionGuardada, transaccion.getEstado(), 
-                "Transacción registrada - Esperando respuesta del banco");
-            
-            return transaccionMapper.toDTO(transaccionGuardada);
-        } catch (Exception e) {
-            log.error("Error al guardar transacción: {}", e.getMessage());
-            throw new BusinessException("Error al guardar transacción: " + e.getMessage(), ENTITY_NAME, "guardar transacción");
+            return trabajo.resultado.get(presupuesto.restanteNanos() + margenEsperaMotorNanos, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw errorDeProcesamiento(e);
+        } catch (TimeoutException e) {
+            return sinResultadoDelMotor(trabajo);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return sinResultadoDelMotor(trabajo);
         }
     }
 
-    @Transactional
-    public void procesarConBanco(Integer transaccionId) {
-        Transaccion transaccion = transaccionRepository.findById(transaccionId)
-                .orElseThrow(() -> new NotFoundException(transaccionId.toString(), ENTITY_NAME));
-                
+    private ResultadoProcesamientoDTO sinResultadoDelMotor(TrabajoTransaccion trabajo) {
+        String codigoUnico = trabajo.transaccionDTO.getCodigoUnicoTransaccion();
+        if (trabajo.registro.compareAndSet(false, true)) {
+            log.warn("Transacción {} sin registrar al vencer el presupuesto, se abandona", codigoUnico);
+            throw new CapacidadExcedidaException(codigoUnico, ENTITY_NAME);
+        }
+        log.warn("Transacción {} registrada sin resultado al vencer el presupuesto, queda pendiente", codigoUnico);
+        return new ResultadoProcesamientoDTO(null, codigoUnicoRegistrado(trabajo.transaccionDTO), ESTADO_PENDIENTE,
+            trabajo.transaccionDTO.getMonto(), null, null);
+    }
+
+    /**
+     * Autoriza la transacción con el banco en tres pasos: lectura en una transacción
+     * corta, llamada remota sin conexión retenida y escritura del nuevo estado en
+     * otra transacción corta. Retorna el resultado tal como quedó registrado, sin
+     * volver a leer la transacción. La solicitud del outbox se elimina en la misma
+     * transacción que registra la respuesta; una transacción que ya no está en PEN
+     * no se reenvía al banco. Antes de la llamada se ejecutan las verificaciones de
+     * preautorización, que pueden resolverla sin llamar al banco. Una transacción
+     * reproducida desde el diario local no tiene CVV: no se envía al banco y pasa a
+     * REV para revisión manual, fuera de la conciliación.
+     */
+    public ResultadoProcesamientoDTO procesarConBanco(Integer transaccionId) {
+        return procesarConBanco(transaccionId, medidorPresupuesto.iniciar());
+    }
+
+    /**
+     * Igual que {@link #procesarConBanco(Integer)} para una solicitud reclamada del
+     * outbox con el arrendamiento indicado; si entretanto otro despachador la
+     * reclamó, el resultado no se registra y se retorna el estado vigente.
+     */
+    public ResultadoProcesamientoDTO procesarConBanco(Integer transaccionId, int arrendamiento) {
+        return procesar(transaccionId, arrendamiento, medidorPresupuesto.iniciar());
+    }
+
+    /**
+     * Igual que {@link #procesarConBanco(Integer)} dentro del presupuesto de latencia
+     * de la transacción: las verificaciones y la llamada al banco se acotan a lo que
+     * queda y, si no alcanza para llamar al banco, la transacción pasa al estado
+     * configurado en transaccion.presupuesto.estado-agotado.
+     */
+    public ResultadoProcesamientoDTO procesarConBanco(Integer transaccionId, PresupuestoLatencia presupuesto) {
+        return procesar(transaccionId, OutboxAutorizacionJdbcRepository.ARRENDAMIENTO_INICIAL, presupuesto);
+    }
+
+    private ResultadoProcesamientoDTO procesar(Integer transaccionId, int arrendamiento, PresupuestoLatencia presupuesto) {
         try {
+            Transaccion transaccion = transaccionLectura.execute(status -> obtenerTransaccionPorEntidad(transaccionId));
+            presupuesto.registrarEtapa("lectura");
+            if (!ESTADO_PENDIENTE.equals(transaccion.getEstado())) {
+                log.info("Transacción {} ya resuelta en {}, no se envía al banco", transaccionId, transaccion.getEstado());
+                outboxJdbcRepository.completar(transaccionId, arrendamiento);
+                return resultadoRegistrado(transaccion);
+            }
+            if (transaccion.getCvv() == null) {
+                log.warn("Transacción {} sin CVV, registrada desde el diario local; pasa a revisión", transaccionId);
+                return registrarSinBanco(transaccionId, arrendamiento, ESTADO_REVISION, DETALLE_SIN_CVV);
+            }
             ConsumoTarjetaRequestDTO request = prepararConsumoRequest(transaccion);
-            try {
-                ResponseEntity<RespuestaBancoDTO> respuesta = tarjetaConsumoServiceClient.procesarConsumoTarjeta(request);
-                
-                if (respuesta.getStatusCodeValue() == 201) {
-                    actualizarEstadoTransaccion(transaccion.getCodigo(), ESTADO_APROBADA, 
-                        "Transacción aceptada por el banco");
+            EvaluacionPreautorizacionService.Evaluacion evaluacion = preautorizar(transaccion, request, presupuesto);
+            if (evaluacion.decision() != null) {
+                return registrarSinBanco(transaccionId, arrendamiento, evaluacion.decision().estado(),
+                    evaluacion.decision().detalle());
+            }
+            return autorizarConBanco(transaccion, request, arrendamiento, evaluacion.concluida(), presupuesto);
+        } catch (NotFoundException | CapacidadExcedidaException e) {
+            throw e;
+        } catch (Exception e) {
+            throw errorDeProcesamiento(e);
+        }
+    }
+
+    /**
+     * Resultado de una transacción tal como está registrada.
+     */
+    private static ResultadoProcesamientoDTO resultadoRegistrado(Transaccion transaccion) {
+        return new ResultadoProcesamientoDTO(transaccion.getCodigo(), transaccion.getCodigoUnicoTransaccion(),
+            transaccion.getEstado(), transaccion.getMonto(),
+            ESTADO_RECHAZADA.equals(transaccion.getEstado()) ? transaccion.getDetalle() : null, null);
+    }
+
+    /**
+     * Otro despachador reclamó la solicitud mientras se procesaba: su titular
+     * registra el resultado y aquí solo se informa el estado vigente.
+     */
+    private ResultadoProcesamientoDTO arrendamientoPerdido(Integer transaccionId) {
+        log.warn("Arrendamiento del outbox perdido para la transacción {}, no se registra el resultado", transaccionId);
+        return resultadoRegistrado(transaccionLectura.execute(status -> obtenerTransaccionPorEntidad(transaccionId)));
+    }
+
+    /**
+     * Saca del outbox una solicitud que agotó sus intentos: si sigue en PEN pasa a
+     * REV y queda en conciliación, que consulta su estado en el banco con la misma
+     * clave de idempotencia. Retorna false si otro nodo la reclamó entretanto.
+     */
+    public boolean conciliarAgotada(Integer transaccionId, int arrendamiento) {
+        return Boolean.TRUE.equals(transaccionEscritura.execute(status -> {
+            if (!outboxJdbcRepository.completar(transaccionId, arrendamiento)) {
+                return false;
+            }
+            if (transaccionJdbcRepository.obtenerEstado(transaccionId).filter(ESTADO_PENDIENTE::equals).isPresent()) {
+                try {
+                    maquinaEstados.transicionar(transaccionId, ESTADO_PENDIENTE, ESTADO_REVISION,
+                        "Sin autorización del banco tras agotar los intentos del outbox");
+                    conciliacionJdbcRepository.registrar(transaccionId);
+                } catch (TransicionRechazadaException e) {
+                    log.info("Transacción {} resuelta mientras se sacaba del outbox", transaccionId);
+                }
+            }
+            return true;
+        }));
+    }
+
+    /**
+     * Verificaciones previas al banco; su decisión, si la hay, se registra sin
+     * llamar al banco.
+     */
+    private EvaluacionPreautorizacionService.Evaluacion preautorizar(Transaccion transaccion,
+                                                                     ConsumoTarjetaRequestDTO request,
+                                                                     PresupuestoLatencia presupuesto) {
+        EvaluacionPreautorizacionService.Evaluacion evaluacion =
+            evaluacionPreautorizacionService.evaluar(transaccion, request, presupuesto);
+        presupuesto.registrarEtapa("preautorizacion");
+        return evaluacion;
+    }
+
+    /**
+     * @param preautorizada si todas las verificaciones previas concluyeron; sin ellas
+     *                      el procesamiento suplente no aprueba con el circuito abierto
+     */
+    private ResultadoProcesamientoDTO autorizarConBanco(Transaccion transaccion, ConsumoTarjetaRequestDTO request,
+                                                        int arrendamiento, boolean preautorizada,
+                                                        PresupuestoLatencia presupuesto) {
+        Integer transaccionId = transaccion.getCodigo();
+        if (presupuesto.agotado("banco", minimoBancoMs)) {
+            return resolverSinBanco(transaccion, arrendamiento, estadoPresupuestoAgotado,
+                "Tiempo de procesamiento agotado");
+        }
+        if (!circuitoBanco.permitirLlamada()) {
+            if (procesamientoSuplente.admite(transaccion, preautorizada)) {
+                Optional<ResultadoProcesamientoDTO> aprobada = aprobarEnSuplente(transaccion, arrendamiento);
+                if (aprobada.isPresent()) {
+                    return aprobada.get();
+                }
+            }
+            return resolverSinBanco(transaccion, arrendamiento, estadoRespaldoCircuito,
+                "Banco no disponible - circuito abierto");
+        }
+        LimitadorConcurrenciaBancos.Permiso permiso;
+        try {
+            permiso = limitadorBancos.adquirir(transaccion.getBanco().getCodigo());
+        } catch (CapacidadExcedidaException e) {
+            circuitoBanco.cancelarLlamada();
+            return quedarPendiente(transaccion, arrendamiento, "Banco al límite de concurrencia");
+        }
+
+        String nuevoEstado;
+        String detalle;
+        String referenciaBanco = null;
+        monitorConexiones.verificarSinConexion("procesarConsumoTarjeta");
+        boolean exitosa = false;
+        AutorizadorBanco.Resultado resultadoBanco;
+        try {
+            resultadoBanco = autorizadorBanco.autorizar(request, transaccion.getCodigoUnicoTransaccion(), presupuesto);
+            RespuestaAutorizacionBancoDTO autorizacion = resultadoBanco.respuesta();
+            exitosa = autorizacion != null && !autorizacion.esFallaDelBanco();
+        } finally {
+            permiso.liberar(exitosa);
+            circuitoBanco.registrarResultado(exitosa);
+            presupuesto.registrarEtapa("banco");
+        }
+
+        switch (resultadoBanco.desenlace()) {
+            case RESPONDIDA -> {
+                RespuestaAutorizacionBancoDTO autorizacion = resultadoBanco.respuesta();
+                detalle = autorizacion.getMensaje();
+                if (autorizacion.isAprobada()) {
+                    nuevoEstado = ESTADO_APROBADA;
+                    referenciaBanco = autorizacion.getCodigoAutorizacion();
                 } else {
-                    actualizarEstadoTransaccion(transaccion.getCodigo(), ESTADO_RECHAZADA, 
-                        "Transacción rechazada por el banco");
+                    nuevoEstado = ESTADO_RECHAZADA;
+                    log.debug("Transacción {} rechazada por el banco (HTTP {}, código {}): {}", transaccionId,
+                        autorizacion.getEstadoHttp(), autorizacion.getCodigoRechazo(), detalle);
                 }
-            } catch (Exception e) {
-                String mensajeError = obtenerMensajeError(e);
-                actualizarEstadoTransaccion(transaccion.getCodigo(), ESTADO_RECHAZADA, mensajeError);
             }
-        } catch (Exception e) {
-            throw new BusinessException("Error al procesar la transacción: " + e.getMessage(), ENTITY_NAME, "procesar transacción");
+            case SIN_CONFIRMAR -> {
+                nuevoEstado = ESTADO_REVISION;
+                detalle = "Respuesta del banco sin confirmar";
+            }
+            default -> {
+                nuevoEstado = ESTADO_RECHAZADA;
+                detalle = "Error al procesar la transacción con el banco";
+            }
+        }
+
+        String estadoFinal = nuevoEstado;
+        String detalleFinal = detalle;
+        TransaccionDTO actualizada = transaccionEscritura.execute(status -> {
+            if (!outboxJdbcRepository.completar(transaccionId, arrendamiento)) {
+                return null;
+            }
+            TransaccionDTO resultado;
+            try {
+                resultado = actualizarEstadoTransaccion(transaccionId, estadoFinal, detalleFinal);
+            } catch (TransicionRechazadaException e) {
+                return estadoVigente(transaccionId, e);
+            }
+            if (ESTADO_REVISION.equals(estadoFinal)) {
+                conciliacionJdbcRepository.registrar(transaccionId);
+            }
+            return resultado;
+        });
+        presupuesto.registrarEtapa("resultado");
+        if (actualizada == null) {
+            return arrendamientoPerdido(transaccionId);
+        }
+        return new ResultadoProcesamientoDTO(actualizada.getCodigo(), actualizada.getCodigoUnicoTransaccion(),
+            actualizada.getEstado(), actualizada.getMonto(),
+            ESTADO_RECHAZADA.equals(actualizada.getEstado()) ? detalle : null, referenciaBanco);
+    }
+
+    private static BusinessException errorDeProcesamiento(Exception e) {
+        return new BusinessException("Error al procesar la transacción: " + e.getMessage(), ENTITY_NAME, "procesar transacción");
+    }
+
+    /**
+     * Resuelve la transacción sin enviarla al banco (circuito abierto o plazo
+     * agotado): pasa al estado configurado o, si es PEN, queda en el outbox para
+     * reintentarse.
+     */
+    private ResultadoProcesamientoDTO resolverSinBanco(Transaccion transaccion, int arrendamiento, String estado,
+                                                       String detalle) {
+        if (ESTADO_PENDIENTE.equals(estado)) {
+            return quedarPendiente(transaccion, arrendamiento, detalle);
+        }
+        return registrarSinBanco(transaccion.getCodigo(), arrendamiento, estado, detalle);
+    }
+
+    /**
+     * Deja la transacción en PEN para que el outbox la autorice tras el retraso de
+     * reintento, sin contar un intento. Como ya está registrada, el llamador recibe
+     * PEN con su código para consultarla en lugar de un error. Sin outbox no hay
+     * quien la reintente y se rechaza sin haber llamado al banco.
+     */
+    private ResultadoProcesamientoDTO quedarPendiente(Transaccion transaccion, int arrendamiento, String motivo) {
+        Integer transaccionId = transaccion.getCodigo();
+        if (!outboxJdbcRepository.habilitado()) {
+            return registrarSinBanco(transaccionId, arrendamiento, ESTADO_RECHAZADA, motivo);
+        }
+        if (!outboxJdbcRepository.posponer(transaccionId, arrendamiento)) {
+            return arrendamientoPerdido(transaccionId);
+        }
+        log.debug("Transacción {} queda en PEN para el outbox: {}", transaccionId, motivo);
+        return new ResultadoProcesamientoDTO(transaccionId, transaccion.getCodigoUnicoTransaccion(), ESTADO_PENDIENTE,
+            transaccion.getMonto(), null, null);
+    }
+
+    /**
+     * Aprueba en el suplente si la transacción cabe en sus límites: la reserva se
+     * toma en memoria y la aprobación se registra junto con su aviso al banco en una
+     * transacción. Vacío si no cabe; en ese caso no se escribe nada. Si la
+     * aprobación no se registra la reserva se libera.
+     */
+    private Optional<ResultadoProcesamientoDTO> aprobarEnSuplente(Transaccion transaccion, int arrendamiento) {
+        Integer transaccionId = transaccion.getCodigo();
+        if (!procesamientoSuplente.reservar(transaccion)) {
+            return Optional.empty();
+        }
+        AtomicBoolean perdido = new AtomicBoolean();
+        AtomicBoolean conAviso = new AtomicBoolean();
+        boolean registrada = false;
+        TransaccionDTO aprobada;
+        try {
+            aprobada = transaccionEscritura.execute(status -> {
+                if (!outboxJdbcRepository.completar(transaccionId, arrendamiento)) {
+                    perdido.set(true);
+                    return null;
+                }
+                TransaccionDTO resultado;
+                try {
+                    resultado = actualizarEstadoTransaccion(transaccionId, ESTADO_APROBADA,
+                        ProcesamientoSuplente.DETALLE_SUPLENTE);
+                } catch (TransicionRechazadaException e) {
+                    return estadoVigente(transaccionId, e);
+                }
+                procesamientoSuplente.registrarAviso(transaccionId);
+                conAviso.set(true);
+                return resultado;
+            });
+            registrada = conAviso.get();
+        } finally {
+            if (!registrada) {
+                procesamientoSuplente.liberar(transaccionId);
+            }
+        }
+        if (perdido.get()) {
+            return Optional.of(arrendamientoPerdido(transaccionId));
+        }
+        return Optional.of(new ResultadoProcesamientoDTO(aprobada.getCodigo(), aprobada.getCodigoUnicoTransaccion(),
+            aprobada.getEstado(), aprobada.getMonto(), null, null));
+    }
+
+    /**
+     * Envía al banco el aviso de una aprobación del suplente reclamado con el
+     * arrendamiento indicado.
+     */
+    public void avisarSuplente(Integer transaccionId, int arrendamiento) {
+        Transaccion transaccion = transaccionLectura.execute(status -> obtenerTransaccionPorEntidad(transaccionId));
+        procesamientoSuplente.avisar(transaccion, prepararConsumoRequest(transaccion), arrendamiento);
+    }
+
+    private ResultadoProcesamientoDTO registrarSinBanco(Integer transaccionId, int arrendamiento, String estado,
+                                                        String detalle) {
+        TransaccionDTO actualizada = transaccionEscritura.execute(status -> {
+            if (!outboxJdbcRepository.completar(transaccionId, arrendamiento)) {
+                return null;
+            }
+            try {
+                return actualizarEstadoTransaccion(transaccionId, estado, detalle);
+            } catch (TransicionRechazadaException e) {
+                return estadoVigente(transaccionId, e);
+            }
+        });
+        if (actualizada == null) {
+            return arrendamientoPerdido(transaccionId);
         }
+        return new ResultadoProcesamientoDTO(actualizada.getCodigo(), actualizada.getCodigoUnicoTransaccion(),
+            actualizada.getEstado(), actualizada.getMonto(),
+            ESTADO_RECHAZADA.equals(actualizada.getEstado()) ? detalle : null, null);
     }
 
-    private void asignarComisionSimple(Transaccion transaccion) {
+    private void asignarComisionSimple(Transaccion transaccion, List<ComisionSegmento> segmentos) {
         if (transaccion.getGtwComision() == null || transaccion.getGtwComision().trim().isEmpty()) {
             BigDecimal comision = comisionService.calcularComision(
-                transaccion.getComision().getCodigo(),
+                transaccion.getComision(),
+                segmentos,
                 1,
                 transaccion.getMonto()
             );
@@ -211,7 +939,7 @@ public class TransaccionService {
         transaccion.setFechaFinRecurrencia(null);
     }
 
-    private void asignarComisionRecurrente(Transaccion transaccion) {
+    private void asignarComisionRecurrente(Transaccion transaccion, List<ComisionSegmento> segmentos) {
         if (transaccion.getCuotas() == null || transaccion.getCuotas() <= 0) {
             throw new BusinessException(transaccion.getCuotas().toString(), ENTITY_NAME, "validar cuotas");
         }
@@ -224,38 +952,43 @@ public class TransaccionService {
 
         if (transaccion.getGtwComision() == null || transaccion.getGtwComision().trim().isEmpty()) {
             BigDecimal comision = comisionService.calcularComision(
-                transaccion.getComision().getCodigo(),
+                transaccion.getComision(),
+                segmentos,
                 transaccion.getCuotas(),
                 transaccion.getMonto()
             );
             transaccion.setGtwComision(comision.toString());
         }
-        
-        if (transaccion.getCodigoUnicoTransaccion() != null) {
-            String codigo = transaccion.getCodigoUnicoTransaccion();
-            while (codigo.length() < 32) {
-                codigo = "0" + codigo;
             }
-            transaccion.setCodigoUnicoTransaccion(codigo);
-        }
-    }
 
-    @Transactional
+    /**
+     * Retorna la transacción con código, código único, monto, estado y detalle
+     * resultantes del cambio. Si el estado vigente no admite el cambio falla con
+     * {@link TransicionRechazadaException} sin revertir la transacción en curso.
+     */
+    @Transactional(noRollbackFor = TransicionRechazadaException.class)
     public TransaccionDTO actualizarEstadoTransaccion(Integer id, String nuevoEstado, String detalle) {
         try {
-            Transaccion transaccion = obtenerTransaccionPorEntidad(id);
-            validarCambioEstado(transaccion.getEstado(), nuevoEstado);
-            
-            transaccion.setEstado(nuevoEstado);
-            transaccion = this.transaccionRepository.save(transaccion);
-            registrarCambioEstado(transaccion, nuevoEstado, detalle);
-            
-            return transaccionMapper.toDTO(transaccion);
+            return maquinaEstados.transicionar(id, nuevoEstado, detalle).getTransaccion();
+        } catch (TransicionRechazadaException | NotFoundException e) {
+            throw e;
         } catch (Exception e) {
             throw new BusinessException(id.toString(), ENTITY_NAME, "actualizar estado");
         }
     }
 
+    /**
+     * Otro camino ya resolvió la transacción (por ejemplo un REC de fraude antes
+     * del APR del banco). El rechazo de la máquina de estados es definitivo: la
+     * solicitud del outbox se completa igual y se responde el estado vigente, en
+     * lugar de revertir y reintentarla sin fin.
+     */
+    private TransaccionDTO estadoVigente(Integer transaccionId, TransicionRechazadaException e) {
+        log.info("Transacción {} ya resuelta en {}, se descarta el nuevo resultado", transaccionId,
+            e.getEstadoActual());
+        return transaccionMapper.toDTO(obtenerTransaccionPorEntidad(transaccionId));
+    }
+
     private void validarTransaccion(Transaccion transaccion) {
         if (transaccion.getMonto() == null || transaccion.getMonto().compareTo(BigDecimal.ZERO) <= 0) {
             throw new BusinessException("monto", ENTITY_NAME, "validar monto");
@@ -294,59 +1027,11 @@ public class TransaccionService {
         }
     }
 
-    private void validarCambioEstado(String estadoActual, String nuevoEstado) {
-        if (ESTADO_RECHAZADA.equals(estadoActual)) {
-            throw new BusinessException(estadoActual, ENTITY_NAME, "validar cambio estado");
-        }
-        if (ESTADO_APROBADA.equals(estadoActual) && !ESTADO_REVISION.equals(nuevoEstado)) {
-            throw new BusinessException(estadoActual, ENTITY_NAME, "validar cambio estado");
-        }
-        if (!List.of(ESTADO_PENDIENTE, ESTADO_APROBADA, ESTADO_RECHAZADA, ESTADO_REVISION, ESTADO_PROCESADO)
-                .contains(nuevoEstado)) {
-            throw new BusinessException("Estado no válido", ENTITY_NAME, "validar estado");
-        }
-    }
-
-    private void registrarCambioEstado(Transaccion transaccion, String estado, String detalle) {
-        try {
-            transaccion = transaccionRepository.save(transaccion);
-            
-            HistorialEstadoTransaccion historial = new HistorialEstadoTransaccion();
-            historial.setTransaccion(transaccion);
-            historial.setEstado(estado);
-            historial.setFechaEstadoCambio(LocalDateTime.now());
-            historial.setDetalle(detalle);
-            this.historialRepository.save(historial);
-        } catch (Exception e) {
-            throw new BusinessException(e.getMessage(), ENTITY_NAME, "registrar cambio estado");
-        }
-    }
-
     private Transaccion obtenerTransaccionPorEntidad(Integer id) {
         return transaccionRepository.findById(id)
                 .orElseThrow(() -> new NotFoundException(id.toString(), ENTITY_NAME));
     }
 
-    private String obtenerMensajeError(Exception e) {
-        String errorMessage = e.getMessage();
-        if (errorMessage != null) {
-            if (errorMessage.contains("\"mensaje\":\"")) {
-                int start = errorMessage.indexOf("\"mensaje\":\"") + 10;
-                int end = errorMessage.indexOf("\"", start);
-                if (end > start) {
-                    return errorMessage.substring(start, end);
-                }
-            } else if (errorMessage.contains("\"message\":\"")) {
-                int start = errorMessage.indexOf("\"message\":\"") + 11;
-                int end = errorMessage.indexOf("\"", start);
-                if (end > start) {
-                    return errorMessage.substring(start, end);
-                }
-            }
-        }
-        return "Error al procesar la transacción con el banco";
-    }
-
     private ConsumoTarjetaRequestDTO prepararConsumoRequest(Transaccion transaccion) {
         try {
             if (transaccion.getMonto() == null) {
@@ -393,19 +1078,117 @@ public class TransaccionService {
         }
     }
 
+    private boolean etapaValidacion(TrabajoTransaccion trabajo) {
+        trabajo.banco = validarNueva(trabajo.transaccionDTO);
+        trabajo.presupuesto.registrarEtapa("validacion");
+        return true;
+    }
+
+    private boolean etapaComision(TrabajoTransaccion trabajo) {
+        trabajo.transaccion = construirTransaccion(trabajo.transaccionDTO, trabajo.banco,
+            buscarSegmentos(trabajo.banco));
+        trabajo.presupuesto.registrarEtapa("comision");
+        return true;
+    }
+
+    /**
+     * Una transacción que quedó en el diario local todavía no tiene código ni
+     * solicitud en el outbox: se responde en PEN y se autoriza cuando el diario se
+     * reproduzca en la base.
+     */
+    private boolean etapaRegistro(TrabajoTransaccion trabajo) {
+        validarRestricciones(trabajo.transaccion);
+        if (!trabajo.registro.compareAndSet(false, true)) {
+            throw new CapacidadExcedidaException(trabajo.transaccionDTO.getCodigoUnicoTransaccion(), ENTITY_NAME);
+        }
+        try {
+            trabajo.transaccion = registroAgrupado.registrar(trabajo.transaccion).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw errorDeProcesamiento(e);
+        }
+        trabajo.presupuesto.registrarEtapa("registro");
+        if (trabajo.transaccion.getCodigo() == null) {
+            trabajo.resuelta = new ResultadoProcesamientoDTO(null, trabajo.transaccion.getCodigoUnicoTransaccion(),
+                ESTADO_PENDIENTE, trabajo.transaccion.getMonto(), null, null);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * La transacción recién registrada está en PEN, así que a diferencia de
+     * {@link #procesarConBanco(Integer, PresupuestoLatencia)} no se vuelve a leer.
+     */
+    private boolean etapaPreautorizacion(TrabajoTransaccion trabajo) {
+        trabajo.request = prepararConsumoRequest(trabajo.transaccion);
+        EvaluacionPreautorizacionService.Evaluacion evaluacion = preautorizar(trabajo.transaccion, trabajo.request,
+            trabajo.presupuesto);
+        trabajo.preautorizada = evaluacion.concluida();
+        if (evaluacion.decision() == null) {
+            return true;
+        }
+        trabajo.resuelta = registrarSinBanco(trabajo.transaccion.getCodigo(),
+            OutboxAutorizacionJdbcRepository.ARRENDAMIENTO_INICIAL, evaluacion.decision().estado(),
+            evaluacion.decision().detalle());
+        return false;
+    }
+
+    private boolean etapaBanco(TrabajoTransaccion trabajo) {
+        trabajo.resuelta = autorizarConBanco(trabajo.transaccion, trabajo.request,
+            OutboxAutorizacionJdbcRepository.ARRENDAMIENTO_INICIAL, trabajo.preautorizada, trabajo.presupuesto);
+        return true;
+    }
+
+    private static void finalizarTrabajo(TrabajoTransaccion trabajo, Throwable error) {
+        if (error == null) {
+            trabajo.resultado.complete(trabajo.resuelta);
+        } else if (error instanceof BusinessException || error instanceof NotFoundException
+                || error instanceof CapacidadExcedidaException) {
+            trabajo.resultado.completeExceptionally(error);
+        } else if (error instanceof Exception e) {
+            trabajo.resultado.completeExceptionally(errorDeProcesamiento(e));
+        } else {
+            trabajo.resultado.completeExceptionally(new IllegalStateException(error));
+        }
+    }
+
+    /**
+     * Estado de una transacción a lo largo del motor de etapas. Cada etapa completa
+     * los campos que usan las siguientes. registro lo toma primero la etapa de
+     * registro o el llamador que dejó de esperar, así nunca se registra una
+     * transacción que ya se respondió como rechazada.
+     */
+    private static final class TrabajoTransaccion {
+        private final TransaccionDTO transaccionDTO;
+        private final PresupuestoLatencia presupuesto;
+        private final CompletableFuture<ResultadoProcesamientoDTO> resultado = new CompletableFuture<>();
+        private final AtomicBoolean registro = new AtomicBoolean();
+        private Banco banco;
+        private Transaccion transaccion;
+        private ConsumoTarjetaRequestDTO request;
+        private boolean preautorizada;
+        private ResultadoProcesamientoDTO resuelta;
+
+        private TrabajoTransaccion(TransaccionDTO transaccionDTO, PresupuestoLatencia presupuesto) {
+            this.transaccionDTO = transaccionDTO;
+            this.presupuesto = presupuesto;
+        }
+    }
+
     @Transactional
     public TransaccionDTO procesarRespuestaFraude(String codigoUnicoTransaccion, String decision) {
         Transaccion transaccion = transaccionRepository.findFirstByCodigoUnicoTransaccionOrderByFechaCreacionDesc(codigoUnicoTransaccion)
                 .orElseThrow(() -> new NotFoundException(codigoUnicoTransaccion, ENTITY_NAME));
         
         if ("APROBAR".equals(decision)) {
-            actualizarEstadoTransaccion(transaccion.getCodigo(), ESTADO_APROBADA, "Aprobado por monitoreo de fraude");
+            return actualizarEstadoTransaccion(transaccion.getCodigo(), ESTADO_APROBADA, "Aprobado por monitoreo de fraude");
         } else if ("RECHAZAR".equals(decision)) {
-            actualizarEstadoTransaccion(transaccion.getCodigo(), ESTADO_RECHAZADA, "Rechazado por monitoreo de fraude");
+            return actualizarEstadoTransaccion(transaccion.getCodigo(), ESTADO_RECHAZADA, "Rechazado por monitoreo de fraude");
         } else {
             throw new BusinessException(decision, ENTITY_NAME, "validar decisión fraude");
         }
-        
-        return transaccionMapper.toDTO(transaccion);
     }
 }
@@ -0,0 +1,14 @@
+-- Se ejecuta en cada arranque después de que Hibernate actualiza el esquema
+-- (spring.jpa.defer-datasource-initialization=true); cada sentencia es repetible.
+
+-- Clave de idempotencia: un solo registro por codigoUnicoTransaccion. Si la tabla
+-- tiene códigos únicos repetidos de antes de la restricción la creación falla y el
+-- arranque se detiene; se resuelven a mano antes de desplegar.
+CREATE UNIQUE INDEX IF NOT EXISTS UK_TRANSACCION_CODIGO_UNICO ON TRANSACCION (CODIGO_UNICO_TRANSACCION);
+
+-- Las transacciones reproducidas desde el diario local no traen CVV.
+ALTER TABLE TRANSACCION ALTER COLUMN CVV DROP NOT NULL;
+
+-- Solicitudes del outbox anteriores a los avisos del procesamiento suplente: todas
+-- son autorizaciones.
+UPDATE OUTBOX_AUTORIZACION SET TIPO = 'AUT' WHERE TIPO IS NULL;
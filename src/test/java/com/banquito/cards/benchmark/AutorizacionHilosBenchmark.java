@@ -0,0 +1,151 @@
+package com.banquito.cards.benchmark;
+
+import com.banquito.cards.transaccion.client.DecodificadorRespuestaBanco;
+import com.banquito.cards.transaccion.client.TarjetaConsumoServiceClient;
+import com.banquito.cards.transaccion.controller.dto.ConsumoTarjetaRequestDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import feign.Feign;
+import feign.Logger;
+import feign.Request;
+import feign.Response;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.cloud.openfeign.support.SpringEncoder;
+import org.springframework.cloud.openfeign.support.SpringMvcContract;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara el cliente Feign del banco ejecutado desde un pool de hilos de plataforma
+ * (equivalente a los 200 hilos por defecto de Tomcat) contra un hilo virtual por
+ * solicitud, frente a un banco simulado lento. No forma parte de la suite de
+ * pruebas; se ejecuta a mano:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java \
+ *     -Dexec.mainClass=com.banquito.cards.benchmark.AutorizacionHilosBenchmark \
+ *     -Dexec.args="5000 200 200"
+ * </pre>
+ *
+ * Argumentos: solicitudes, latencia del banco en ms e hilos de plataforma.
+ */
+@Slf4j
+public class AutorizacionHilosBenchmark {
+
+    private static final Request.Options OPCIONES =
+        new Request.Options(1, TimeUnit.SECONDS, 60, TimeUnit.SECONDS, true);
+
+    private static final DecodificadorRespuestaBanco DECODIFICADOR = new DecodificadorRespuestaBanco(new ObjectMapper());
+
+    private static final String RESPUESTA_BANCO =
+        "{\"codigoAutorizacion\":\"AUT123\",\"estado\":\"APR\",\"detalle\":\"Aprobada\"}";
+
+    public static void main(String[] args) throws Exception {
+        int solicitudes = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int latenciaMs = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int hilosPlataforma = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        HttpServer banco = iniciarBancoLento(latenciaMs);
+        try {
+            String url = "http://localhost:" + banco.getAddress().getPort();
+            TarjetaConsumoServiceClient cliente = crearCliente(url);
+
+            ejecutar("calentamiento", cliente, Math.min(solicitudes, 500),
+                Executors.newVirtualThreadPerTaskExecutor());
+            ejecutar("plataforma(" + hilosPlataforma + ")", cliente, solicitudes,
+                Executors.newFixedThreadPool(hilosPlataforma));
+            ejecutar("virtual", cliente, solicitudes, Executors.newVirtualThreadPerTaskExecutor());
+        } finally {
+            banco.stop(0);
+        }
+    }
+
+    private static void ejecutar(String modo, TarjetaConsumoServiceClient cliente, int solicitudes,
+                                 ExecutorService executor) throws Exception {
+        long[] latencias = new long[solicitudes];
+        List<Future<?>> pendientes = new ArrayList<>(solicitudes);
+        long inicio = System.nanoTime();
+        try (executor) {
+            for (int i = 0; i < solicitudes; i++) {
+                int indice = i;
+                long encolada = System.nanoTime();
+                pendientes.add(executor.submit(() -> {
+                    autorizar(cliente, indice);
+                    latencias[indice] = System.nanoTime() - encolada;
+                }));
+            }
+            for (Future<?> pendiente : pendientes) {
+                pendiente.get();
+            }
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        Arrays.sort(latencias);
+        log.info(String.format("%-20s %8d solicitudes %10.1f sol/s  p50=%6d ms  p99=%6d ms",
+            modo, solicitudes, solicitudes / segundos,
+            latencias[(int) (solicitudes * 0.50)] / 1_000_000,
+            latencias[Math.min(solicitudes - 1, (int) (solicitudes * 0.99))] / 1_000_000));
+    }
+
+    private static HttpServer iniciarBancoLento(int latenciaMs) throws Exception {
+        HttpServer servidor = HttpServer.create(new InetSocketAddress("localhost", 0), 4096);
+        byte[] cuerpo = RESPUESTA_BANCO.getBytes(StandardCharsets.UTF_8);
+        servidor.createContext("/v1/transacciones", intercambio -> {
+            intercambio.getRequestBody().readAllBytes();
+            try {
+                Thread.sleep(latenciaMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            intercambio.getResponseHeaders().add("Content-Type", "application/json");
+            intercambio.sendResponseHeaders(201, cuerpo.length);
+            try (OutputStream salida = intercambio.getResponseBody()) {
+                salida.write(cuerpo);
+            }
+        });
+        // El HttpServer del JDK lee el cuerpo dentro de bloques synchronized; con hilos
+        // de plataforma el banco simulado no limita a ninguno de los dos modos.
+        servidor.setExecutor(Executors.newCachedThreadPool());
+        servidor.start();
+        return servidor;
+    }
+
+    private static TarjetaConsumoServiceClient crearCliente(String url) {
+        HttpMessageConverters convertidores = new HttpMessageConverters(new MappingJackson2HttpMessageConverter());
+        return Feign.builder()
+            .contract(new SpringMvcContract())
+            .encoder(new SpringEncoder(() -> convertidores))
+            .logLevel(Logger.Level.NONE)
+            .target(TarjetaConsumoServiceClient.class, url);
+    }
+
+    private static void autorizar(TarjetaConsumoServiceClient cliente, int indice) {
+        try (Response respuesta = cliente.procesarConsumoTarjeta(crearRequest(indice), "BENCH-" + indice, OPCIONES)) {
+            DECODIFICADOR.decodificar(respuesta);
+        }
+    }
+
+    private static ConsumoTarjetaRequestDTO crearRequest(int indice) {
+        return ConsumoTarjetaRequestDTO.builder()
+            .numeroTarjeta("4111111111111111")
+            .cvv("123")
+            .fechaCaducidad("12/30")
+            .valor(new BigDecimal("10.00"))
+            .descripcion("Benchmark " + indice)
+            .beneficiario("Comercio benchmark")
+            .numeroCuenta("001")
+            .build();
+    }
+}
@@ -0,0 +1,176 @@
+package com.banquito.cards.benchmark;
+
+import com.banquito.cards.transaccion.client.DecodificadorRespuestaBanco;
+import com.banquito.cards.transaccion.client.TarjetaConsumoServiceClient;
+import com.banquito.cards.transaccion.controller.dto.ConsumoTarjetaRequestDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import feign.Client;
+import feign.Feign;
+import feign.Logger;
+import feign.Request;
+import feign.Response;
+import feign.hc5.ApacheHttp5Client;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.cloud.openfeign.support.SpringEncoder;
+import org.springframework.cloud.openfeign.support.SpringMvcContract;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara el cliente por defecto de Feign (HttpURLConnection, que conserva a lo
+ * sumo http.maxConnections=5 conexiones inactivas por destino) contra el pool de
+ * Apache HttpClient 5 que usan los clientes de la aplicación. El banco simulado
+ * cuenta las conexiones distintas que recibe por el puerto remoto de cada
+ * solicitud. No forma parte de la suite de pruebas; se ejecuta a mano:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java \
+ *     -Dexec.mainClass=com.banquito.cards.benchmark.ClienteHttpFeignBenchmark \
+ *     -Dexec.args="10000 100 5"
+ * </pre>
+ *
+ * Argumentos: solicitudes, solicitudes concurrentes y latencia del banco en ms.
+ */
+@Slf4j
+public class ClienteHttpFeignBenchmark {
+
+    private static final Request.Options OPCIONES =
+        new Request.Options(1, TimeUnit.SECONDS, 60, TimeUnit.SECONDS, true);
+
+    private static final DecodificadorRespuestaBanco DECODIFICADOR = new DecodificadorRespuestaBanco(new ObjectMapper());
+
+    private static final String RESPUESTA_BANCO =
+        "{\"codigoAutorizacion\":\"AUT123\",\"estado\":\"APR\",\"detalle\":\"Aprobada\"}";
+
+    private static final Set<Integer> CONEXIONES = ConcurrentHashMap.newKeySet();
+
+    public static void main(String[] args) throws Exception {
+        int solicitudes = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int concurrencia = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int latenciaMs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        HttpServer banco = iniciarBanco(latenciaMs);
+        try (CloseableHttpClient httpClient = crearPool(concurrencia)) {
+            String url = "http://localhost:" + banco.getAddress().getPort();
+            TarjetaConsumoServiceClient porDefecto = crearCliente(url, new Client.Default(null, null));
+            TarjetaConsumoServiceClient conPool = crearCliente(url, new ApacheHttp5Client(httpClient));
+
+            ejecutar("calentamiento", porDefecto, Math.min(solicitudes, 1000), concurrencia);
+            ejecutar("calentamiento", conPool, Math.min(solicitudes, 1000), concurrencia);
+            ejecutar("HttpURLConnection", porDefecto, solicitudes, concurrencia);
+            ejecutar("hc5 con pool", conPool, solicitudes, concurrencia);
+        } finally {
+            banco.stop(0);
+        }
+    }
+
+    private static void ejecutar(String modo, TarjetaConsumoServiceClient cliente, int solicitudes,
+                                 int concurrencia) throws Exception {
+        CONEXIONES.clear();
+        List<Future<?>> pendientes = new ArrayList<>(concurrencia);
+        long inicio = System.nanoTime();
+        try (ExecutorService executor = Executors.newFixedThreadPool(concurrencia)) {
+            int porHilo = solicitudes / concurrencia;
+            for (int h = 0; h < concurrencia; h++) {
+                pendientes.add(executor.submit(() -> {
+                    for (int i = 0; i < porHilo; i++) {
+                        autorizar(cliente, i);
+                    }
+                }));
+            }
+            for (Future<?> pendiente : pendientes) {
+                pendiente.get();
+            }
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        int realizadas = solicitudes / concurrencia * concurrencia;
+        log.info(String.format("%-20s %8d solicitudes %10.1f sol/s  conexiones=%6d  reutilización=%5.1f%%",
+            modo, realizadas, realizadas / segundos, CONEXIONES.size(),
+            100.0 * (realizadas - CONEXIONES.size()) / realizadas));
+    }
+
+    private static HttpServer iniciarBanco(int latenciaMs) throws Exception {
+        HttpServer servidor = HttpServer.create(new InetSocketAddress("localhost", 0), 4096);
+        byte[] cuerpo = RESPUESTA_BANCO.getBytes(StandardCharsets.UTF_8);
+        servidor.createContext("/v1/transacciones", intercambio -> {
+            CONEXIONES.add(intercambio.getRemoteAddress().getPort());
+            intercambio.getRequestBody().readAllBytes();
+            if (latenciaMs > 0) {
+                try {
+                    Thread.sleep(latenciaMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            intercambio.getResponseHeaders().add("Content-Type", "application/json");
+            intercambio.sendResponseHeaders(201, cuerpo.length);
+            try (OutputStream salida = intercambio.getResponseBody()) {
+                salida.write(cuerpo);
+            }
+        });
+        servidor.setExecutor(Executors.newCachedThreadPool());
+        servidor.start();
+        return servidor;
+    }
+
+    /**
+     * Mismo pool que arma Spring Cloud OpenFeign con las propiedades de
+     * application.properties, dimensionado a la concurrencia del benchmark.
+     */
+    private static CloseableHttpClient crearPool(int concurrencia) {
+        return HttpClients.custom()
+            .disableCookieManagement()
+            .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(concurrencia * 2)
+                .setMaxConnPerRoute(concurrencia)
+                .setConnPoolPolicy(PoolReusePolicy.LIFO)
+                .build())
+            .build();
+    }
+
+    private static TarjetaConsumoServiceClient crearCliente(String url, Client client) {
+        HttpMessageConverters convertidores = new HttpMessageConverters(new MappingJackson2HttpMessageConverter());
+        return Feign.builder()
+            .client(client)
+            .contract(new SpringMvcContract())
+            .encoder(new SpringEncoder(() -> convertidores))
+            .logLevel(Logger.Level.NONE)
+            .target(TarjetaConsumoServiceClient.class, url);
+    }
+
+    private static void autorizar(TarjetaConsumoServiceClient cliente, int indice) {
+        try (Response respuesta = cliente.procesarConsumoTarjeta(crearRequest(indice), "BENCH-" + indice, OPCIONES)) {
+            DECODIFICADOR.decodificar(respuesta);
+        }
+    }
+
+    private static ConsumoTarjetaRequestDTO crearRequest(int indice) {
+        return ConsumoTarjetaRequestDTO.builder()
+            .numeroTarjeta("4111111111111111")
+            .cvv("123")
+            .fechaCaducidad("12/30")
+            .valor(new BigDecimal("10.00"))
+            .descripcion("Benchmark " + indice)
+            .beneficiario("Comercio benchmark")
+            .numeroCuenta("001")
+            .build();
+    }
+}
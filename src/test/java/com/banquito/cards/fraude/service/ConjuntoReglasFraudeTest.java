@@ -0,0 +1,180 @@
+package com.banquito.cards.fraude.service;
+
+import com.banquito.cards.fraude.model.ReglaFraude;
+import com.banquito.cards.fraude.repository.ReglaFraudeJdbcRepository;
+import com.banquito.cards.fraude.repository.ReglaFraudeRepository;
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.banquito.cards.transaccion.repository.TransaccionJdbcRepository;
+import com.banquito.cards.transaccion.repository.TransaccionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ConjuntoReglasFraudeTest {
+
+    private static final LocalDateTime AHORA = LocalDateTime.of(2024, 5, 1, 12, 0);
+
+    private final ReglaFraudeRepository reglaFraudeRepository = mock(ReglaFraudeRepository.class);
+    private final ReglaFraudeJdbcRepository reglaFraudeJdbcRepository = mock(ReglaFraudeJdbcRepository.class);
+    private final List<ReglaFraude> reglas = new ArrayList<>();
+    private ConjuntoReglasFraude conjunto;
+
+    @BeforeEach
+    void crearConjunto() {
+        when(reglaFraudeRepository.findByEstadoOrderByPrioridadAsc(ReglaFraude.ESTADO_ACTIVO)).thenReturn(reglas);
+        VentanasTarjeta ventanas = new VentanasTarjeta(mock(TransaccionJdbcRepository.class),
+            new SimpleMeterRegistry(), false, 10);
+        conjunto = new ConjuntoReglasFraude(reglaFraudeRepository, reglaFraudeJdbcRepository,
+            mock(TransaccionRepository.class), ventanas, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void evaluaPrimeroLasReglasSinHistorialConservandoLaPrioridad() {
+        reglas.add(transacciones(1, ReglaFraude.NIVEL_RIESGO_ALTO, 5));
+        reglas.add(monto(2, ReglaFraude.NIVEL_RIESGO_MEDIO, "100"));
+        reglas.add(ubicacion(3, ReglaFraude.NIVEL_RIESGO_MEDIO, "HOR"));
+        reglas.add(monto(4, ReglaFraude.NIVEL_RIESGO_BAJO, "50"));
+
+        ConjuntoReglasFraude.ReglasActivas activas = conjunto.recargar();
+
+        assertThat(codigos(activas)).containsExactly(2, 4, 1, 3);
+        assertThat(activas.periodoHistorial()).isEqualTo(VentanasTarjeta.Periodo.DIA);
+    }
+
+    @Test
+    void calculaElMayorPesoDesdeCadaPosicion() {
+        reglas.add(monto(1, ReglaFraude.NIVEL_RIESGO_BAJO, "100"));
+        reglas.add(monto(2, ReglaFraude.NIVEL_RIESGO_ALTO, "200"));
+        reglas.add(monto(3, ReglaFraude.NIVEL_RIESGO_MEDIO, "300"));
+
+        ConjuntoReglasFraude.ReglasActivas activas = conjunto.recargar();
+
+        assertThat(activas.pesoMaximoDesde(0)).isEqualTo(3);
+        assertThat(activas.pesoMaximoDesde(1)).isEqualTo(3);
+        assertThat(activas.pesoMaximoDesde(2)).isEqualTo(2);
+        assertThat(activas.pesoMaximoDesde(3)).isZero();
+    }
+
+    @Test
+    void omiteReglasSinEvaluadorOConPeriodoDesconocido() {
+        ReglaFraude tipoDesconocido = monto(1, ReglaFraude.NIVEL_RIESGO_ALTO, "100");
+        tipoDesconocido.setTipoRegla("XYZ");
+        reglas.add(tipoDesconocido);
+        reglas.add(ubicacion(2, ReglaFraude.NIVEL_RIESGO_ALTO, "ANO"));
+        reglas.add(monto(3, ReglaFraude.NIVEL_RIESGO_BAJO, "100"));
+
+        assertThat(codigos(conjunto.recargar())).containsExactly(3);
+    }
+
+    @Test
+    void evaluaComoRiesgoAltoUnNivelDesconocido() {
+        reglas.add(monto(1, "XXX", "100"));
+        reglas.add(monto(2, null, "100"));
+
+        ConjuntoReglasFraude.ReglasActivas activas = conjunto.recargar();
+
+        for (int i = 0; i < activas.cantidad(); i++) {
+            assertThat(activas.regla(i).nivel()).isEqualTo(ReglaFraude.NIVEL_RIESGO_ALTO);
+            assertThat(activas.regla(i).pesoNivel()).isEqualTo(3);
+            assertThat(activas.regla(i).puntaje()).isEqualTo(90);
+        }
+        assertThat(activas.pesoMaximoDesde(0)).isEqualTo(3);
+    }
+
+    @Test
+    void compilaPaisesComerciosYHorarios() {
+        ReglaFraude comercio = regla(1, ReglaFraude.TIPO_COMERCIO, ReglaFraude.NIVEL_RIESGO_ALTO);
+        comercio.setPaisesPermitidos("EC, CO PE;xx1");
+        comercio.setComerciosExcluidos("Casino Royale; Bar X");
+        reglas.add(comercio);
+        ReglaFraude horario = regla(2, ReglaFraude.TIPO_HORARIO, ReglaFraude.NIVEL_RIESGO_BAJO);
+        horario.setHoraInicio(AHORA.withHour(22));
+        horario.setHoraFin(AHORA.withHour(6));
+        reglas.add(horario);
+
+        ConjuntoReglasFraude.ReglasActivas activas = conjunto.recargar();
+        EvaluadorReglaFraude paisesYComercios = activas.regla(0).evaluador();
+        EvaluadorReglaFraude nocturno = activas.regla(1).evaluador();
+
+        assertThat(paisesYComercios.cumple(transaccion("co", null, AHORA), null)).isFalse();
+        assertThat(paisesYComercios.cumple(transaccion("US", null, AHORA), null)).isTrue();
+        assertThat(paisesYComercios.cumple(transaccion("EC", "Bar X", AHORA), null)).isTrue();
+        assertThat(nocturno.cumple(transaccion("EC", null, AHORA.withHour(23)), null)).isTrue();
+        assertThat(nocturno.cumple(transaccion("EC", null, AHORA.withHour(5).withMinute(59)), null)).isTrue();
+        assertThat(nocturno.cumple(transaccion("EC", null, AHORA.withHour(6)), null)).isFalse();
+    }
+
+    @Test
+    void recompilaSoloCuandoCambiaLaVersion() {
+        reglas.add(monto(1, ReglaFraude.NIVEL_RIESGO_BAJO, "100"));
+        when(reglaFraudeJdbcRepository.version()).thenReturn("v1");
+        conjunto.recargar();
+
+        conjunto.verificarVersion();
+        assertThat(codigos(conjunto.activas())).containsExactly(1);
+
+        reglas.add(monto(2, ReglaFraude.NIVEL_RIESGO_ALTO, "200"));
+        when(reglaFraudeJdbcRepository.version()).thenReturn("v2");
+        conjunto.verificarVersion();
+
+        assertThat(codigos(conjunto.activas())).containsExactly(1, 2);
+        verify(reglaFraudeRepository, times(2)).findByEstadoOrderByPrioridadAsc(ReglaFraude.ESTADO_ACTIVO);
+    }
+
+    private static List<Integer> codigos(ConjuntoReglasFraude.ReglasActivas activas) {
+        List<Integer> codigos = new ArrayList<>();
+        for (int i = 0; i < activas.cantidad(); i++) {
+            codigos.add(activas.regla(i).regla().getCodRegla());
+        }
+        return codigos;
+    }
+
+    static ReglaFraude regla(int codigo, String tipo, String nivel) {
+        ReglaFraude regla = new ReglaFraude(codigo);
+        regla.setNombreRegla("Regla " + codigo);
+        regla.setTipoRegla(tipo);
+        regla.setNivelRiesgo(nivel);
+        regla.setEstado(ReglaFraude.ESTADO_ACTIVO);
+        regla.setPrioridad(codigo);
+        return regla;
+    }
+
+    static ReglaFraude monto(int codigo, String nivel, String limite) {
+        ReglaFraude regla = regla(codigo, ReglaFraude.TIPO_MONTO, nivel);
+        regla.setLimiteMontoTotal(new BigDecimal(limite));
+        return regla;
+    }
+
+    static ReglaFraude transacciones(int codigo, String nivel, int limite) {
+        ReglaFraude regla = regla(codigo, ReglaFraude.TIPO_TRANSACCIONES, nivel);
+        regla.setLimiteTransacciones(BigDecimal.valueOf(limite));
+        regla.setPeriodoTiempo(ReglaFraude.PERIODO_DIAS);
+        return regla;
+    }
+
+    static ReglaFraude ubicacion(int codigo, String nivel, String periodo) {
+        ReglaFraude regla = regla(codigo, ReglaFraude.TIPO_UBICACION, nivel);
+        regla.setPeriodoTiempo(periodo);
+        return regla;
+    }
+
+    private static Transaccion transaccion(String pais, String beneficiario, LocalDateTime fecha) {
+        Transaccion transaccion = new Transaccion(1);
+        transaccion.setPais(pais);
+        transaccion.setBeneficiario(beneficiario);
+        transaccion.setFechaCreacion(fecha);
+        transaccion.setMonto(BigDecimal.TEN);
+        return transaccion;
+    }
+}
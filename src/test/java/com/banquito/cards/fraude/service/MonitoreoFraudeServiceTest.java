@@ -0,0 +1,132 @@
+package com.banquito.cards.fraude.service;
+
+import com.banquito.cards.fraude.model.MonitoreoFraude;
+import com.banquito.cards.fraude.model.ReglaFraude;
+import com.banquito.cards.fraude.repository.MonitoreoFraudeRepository;
+import com.banquito.cards.fraude.repository.ReglaFraudeJdbcRepository;
+import com.banquito.cards.fraude.repository.ReglaFraudeRepository;
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.banquito.cards.transaccion.repository.TransaccionJdbcRepository;
+import com.banquito.cards.transaccion.repository.TransaccionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.banquito.cards.fraude.service.ConjuntoReglasFraudeTest.monto;
+import static com.banquito.cards.fraude.service.ConjuntoReglasFraudeTest.transacciones;
+import static com.banquito.cards.fraude.service.ConjuntoReglasFraudeTest.ubicacion;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MonitoreoFraudeServiceTest {
+
+    private static final String TARJETA = "4111111111111111";
+    private static final LocalDateTime AHORA = LocalDateTime.of(2024, 5, 1, 12, 0);
+
+    private final ReglaFraudeRepository reglaFraudeRepository = mock(ReglaFraudeRepository.class);
+    private final TransaccionRepository transaccionRepository = mock(TransaccionRepository.class);
+    private final EscritorAlertasFraude escritorAlertas = mock(EscritorAlertasFraude.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<ReglaFraude> reglas = new ArrayList<>();
+    private MonitoreoFraudeService servicio;
+
+    @BeforeEach
+    void crearServicio() {
+        when(reglaFraudeRepository.findByEstadoOrderByPrioridadAsc(ReglaFraude.ESTADO_ACTIVO)).thenReturn(reglas);
+        when(transaccionRepository.findByNumeroTarjetaAndFechaCreacionBetweenOrderByFechaCreacionDesc(
+                eq(TARJETA), any(), any()))
+            .thenReturn(List.of(anterior(AHORA.minusMinutes(30), "CO"), anterior(AHORA.minusMinutes(40), "EC"),
+                anterior(AHORA.minusDays(3), "EC")));
+        VentanasTarjeta ventanas = new VentanasTarjeta(mock(TransaccionJdbcRepository.class), meterRegistry, false, 10);
+        ConjuntoReglasFraude conjunto = new ConjuntoReglasFraude(reglaFraudeRepository,
+            mock(ReglaFraudeJdbcRepository.class), transaccionRepository, ventanas, meterRegistry);
+        servicio = new MonitoreoFraudeService(mock(MonitoreoFraudeRepository.class), conjunto, escritorAlertas);
+    }
+
+    @Test
+    void unaReglaBarataDeRiesgoAltoOmiteLasReglasConHistorial() {
+        reglas.add(transacciones(1, ReglaFraude.NIVEL_RIESGO_MEDIO, 1));
+        reglas.add(ubicacion(2, ReglaFraude.NIVEL_RIESGO_MEDIO, ReglaFraude.PERIODO_DIAS));
+        reglas.add(monto(3, ReglaFraude.NIVEL_RIESGO_ALTO, "100"));
+
+        String nivel = servicio.evaluarRiesgoTransaccion(transaccion("500"));
+
+        assertThat(nivel).isEqualTo(ReglaFraude.NIVEL_RIESGO_ALTO);
+        verify(transaccionRepository, never())
+            .findByNumeroTarjetaAndFechaCreacionBetweenOrderByFechaCreacionDesc(any(), any(), any());
+        ArgumentCaptor<MonitoreoFraude> alertas = ArgumentCaptor.forClass(MonitoreoFraude.class);
+        verify(escritorAlertas).registrar(alertas.capture());
+        assertThat(alertas.getValue().getReglaFraude().getCodRegla()).isEqualTo(3);
+        assertThat(alertas.getValue().getRequiereVerificacionAdicional()).isTrue();
+        assertThat(contador("pagos.fraude.reglas.omitidas", 1)).isEqualTo(1);
+        assertThat(contador("pagos.fraude.reglas.omitidas", 2)).isEqualTo(1);
+        assertThat(contador("pagos.fraude.reglas.evaluadas", 1)).isZero();
+    }
+
+    @Test
+    void lasReglasConHistorialCompartenUnaSolaConsulta() {
+        reglas.add(transacciones(1, ReglaFraude.NIVEL_RIESGO_ALTO, 5));
+        reglas.add(ubicacion(2, ReglaFraude.NIVEL_RIESGO_MEDIO, ReglaFraude.PERIODO_HORAS));
+        reglas.add(monto(3, ReglaFraude.NIVEL_RIESGO_BAJO, "1000"));
+
+        String nivel = servicio.evaluarRiesgoTransaccion(transaccion("50"));
+
+        assertThat(nivel).isEqualTo(ReglaFraude.NIVEL_RIESGO_MEDIO);
+        verify(transaccionRepository, times(1)).findByNumeroTarjetaAndFechaCreacionBetweenOrderByFechaCreacionDesc(
+            eq(TARJETA), eq(AHORA.minusDays(1)), eq(AHORA));
+        ArgumentCaptor<MonitoreoFraude> alertas = ArgumentCaptor.forClass(MonitoreoFraude.class);
+        verify(escritorAlertas).registrar(alertas.capture());
+        assertThat(alertas.getValue().getReglaFraude().getCodRegla()).isEqualTo(2);
+        assertThat(contador("pagos.fraude.reglas.evaluadas", 1)).isEqualTo(1);
+        assertThat(contador("pagos.fraude.reglas.evaluadas", 2)).isEqualTo(1);
+    }
+
+    @Test
+    void unNivelDesconocidoSeReportaComoRiesgoAlto() {
+        reglas.add(monto(1, "XXX", "100"));
+        reglas.add(ubicacion(2, ReglaFraude.NIVEL_RIESGO_MEDIO, ReglaFraude.PERIODO_DIAS));
+
+        String nivel = servicio.evaluarRiesgoTransaccion(transaccion("500"));
+
+        assertThat(nivel).isEqualTo(ReglaFraude.NIVEL_RIESGO_ALTO);
+        ArgumentCaptor<MonitoreoFraude> alertas = ArgumentCaptor.forClass(MonitoreoFraude.class);
+        verify(escritorAlertas).registrar(alertas.capture());
+        assertThat(alertas.getValue().getNivelRiesgo()).isEqualTo(ReglaFraude.NIVEL_RIESGO_ALTO);
+        assertThat(alertas.getValue().getPuntajeRiesgo()).isEqualTo(90);
+    }
+
+    private double contador(String nombre, int regla) {
+        return meterRegistry.get(nombre).tag("regla", String.valueOf(regla)).counter().count();
+    }
+
+    private static Transaccion transaccion(String monto) {
+        Transaccion transaccion = new Transaccion(7);
+        transaccion.setNumeroTarjeta(TARJETA);
+        transaccion.setFechaCreacion(AHORA);
+        transaccion.setPais("EC");
+        transaccion.setMonto(new BigDecimal(monto));
+        transaccion.setCodigoUnicoTransaccion("TRX-7");
+        return transaccion;
+    }
+
+    private static Transaccion anterior(LocalDateTime fecha, String pais) {
+        Transaccion transaccion = new Transaccion();
+        transaccion.setNumeroTarjeta(TARJETA);
+        transaccion.setFechaCreacion(fecha);
+        transaccion.setPais(pais);
+        transaccion.setMonto(BigDecimal.ONE);
+        return transaccion;
+    }
+}
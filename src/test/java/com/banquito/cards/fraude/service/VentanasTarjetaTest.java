@@ -0,0 +1,153 @@
+package com.banquito.cards.fraude.service;
+
+import com.banquito.cards.fraude.service.VentanasTarjeta.Periodo;
+import com.banquito.cards.fraude.service.VentanasTarjeta.Resumen;
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.banquito.cards.transaccion.repository.TransaccionJdbcRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class VentanasTarjetaTest {
+
+    private static final LocalDateTime INICIO = LocalDateTime.of(2024, 5, 1, 12, 0);
+    private static final String TARJETA = "4111111111111111";
+
+    private final TransaccionJdbcRepository transaccionJdbcRepository = mock(TransaccionJdbcRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void resumeLaSemanaCargadaPorPeriodo() {
+        LocalDateTime ahora = LocalDateTime.now();
+        VentanasTarjeta ventanas = cargadas(100, List.of(
+            transaccion(TARJETA, ahora.minusSeconds(20), "10.00", "EC"),
+            transaccion(TARJETA, ahora.minusMinutes(30), "20.50", "CO"),
+            transaccion(TARJETA, ahora.minusDays(3), "5.00", "EC")));
+        LocalDateTime hasta = LocalDateTime.now();
+
+        assertThat(ventanas.resumen(TARJETA, Periodo.MINUTO, hasta))
+            .contains(new Resumen(1, new BigDecimal("10.00"), 1));
+        assertThat(ventanas.resumen(TARJETA, Periodo.HORA, hasta))
+            .contains(new Resumen(2, new BigDecimal("30.50"), 2));
+        assertThat(ventanas.resumen(TARJETA, Periodo.SEMANA, hasta))
+            .contains(new Resumen(3, new BigDecimal("35.50"), 2));
+    }
+
+    @Test
+    void noRespondeAntesDeCargarNiParaUnaTarjetaDesconocida() {
+        VentanasTarjeta ventanas = new VentanasTarjeta(transaccionJdbcRepository, meterRegistry, true, 100);
+        ventanas.registrar(transaccion(TARJETA, INICIO, "10.00", "EC"));
+
+        assertThat(ventanas.resumen(TARJETA, Periodo.MINUTO, INICIO.plusMinutes(1))).isEmpty();
+
+        ventanas.cargar();
+        assertThat(ventanas.resumen(TARJETA, Periodo.MINUTO, INICIO.plusMinutes(1))).isPresent();
+        assertThat(ventanas.resumen("4222222222222222", Periodo.MINUTO, INICIO.plusMinutes(1))).isEmpty();
+        assertThat(ventanas.resumen(null, Periodo.MINUTO, INICIO.plusMinutes(1))).isEmpty();
+    }
+
+    @Test
+    void unaTarjetaNuevaSoloCubreDesdeSuPrimeraTransaccion() {
+        VentanasTarjeta ventanas = cargadas(100, List.of());
+        ventanas.registrar(transaccion(TARJETA, INICIO, "10.00", "EC"));
+
+        assertThat(ventanas.resumen(TARJETA, Periodo.MINUTO, INICIO.plusSeconds(59))).isEmpty();
+        assertThat(ventanas.resumen(TARJETA, Periodo.MINUTO, INICIO.plusMinutes(1)))
+            .contains(new Resumen(1, new BigDecimal("10.00"), 1));
+        assertThat(ventanas.resumen(TARJETA, Periodo.HORA, INICIO.plusMinutes(30))).isEmpty();
+    }
+
+    @Test
+    void cuentaEnteroElIntervaloQueLaVentanaCortaYDescartaLosQueSalieron() {
+        VentanasTarjeta ventanas = cargadas(100, List.of());
+        ventanas.registrar(transaccion(TARJETA, INICIO, "1.00", "EC"));
+
+        assertThat(ventanas.resumen(TARJETA, Periodo.MINUTO, INICIO.plusSeconds(62)))
+            .map(Resumen::cantidad).contains(1);
+
+        ventanas.registrar(transaccion(TARJETA, INICIO.plusSeconds(65), "2.00", "EC"));
+        ventanas.registrar(transaccion(TARJETA, INICIO, "4.00", "EC"));
+
+        assertThat(ventanas.resumen(TARJETA, Periodo.MINUTO, INICIO.plusSeconds(65)))
+            .contains(new Resumen(1, new BigDecimal("2.00"), 1));
+        assertThat(ventanas.resumen(TARJETA, Periodo.SEMANA, INICIO.plusDays(7)))
+            .map(Resumen::monto).contains(new BigDecimal("7.00"));
+    }
+
+    @Test
+    void registrarAlConfirmarEsperaAlCommitDeLaTransaccionEnCurso() {
+        VentanasTarjeta ventanas = cargadas(100, List.of());
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            ventanas.registrarAlConfirmar(List.of(transaccion(TARJETA, INICIO, "10.00", "EC")));
+            assertThat(ventanas.resumen(TARJETA, Periodo.MINUTO, INICIO.plusMinutes(1))).isEmpty();
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertThat(ventanas.resumen(TARJETA, Periodo.MINUTO, INICIO.plusMinutes(1))).map(Resumen::cantidad)
+            .contains(1);
+
+        ventanas.registrarAlConfirmar(List.of(transaccion("4222222222222222", INICIO, "1.00", "CO")));
+        assertThat(ventanas.resumen("4222222222222222", Periodo.MINUTO, INICIO.plusMinutes(1))).isPresent();
+    }
+
+    @Test
+    void noAdmiteMasTarjetasQueElMaximoYLimpiaLasInactivas() {
+        VentanasTarjeta ventanas = cargadas(1, List.of());
+        ventanas.registrar(transaccion(TARJETA, INICIO, "10.00", "EC"));
+        ventanas.registrar(transaccion("4222222222222222", INICIO, "10.00", "EC"));
+
+        assertThat(ventanas.resumen("4222222222222222", Periodo.MINUTO, INICIO.plusMinutes(1))).isEmpty();
+        assertThat(tarjetasEnMemoria()).isEqualTo(1);
+
+        ventanas.limpiar();
+        assertThat(tarjetasEnMemoria()).isZero();
+    }
+
+    @Test
+    void deshabilitadaNoRegistraNiResponde() {
+        VentanasTarjeta ventanas = new VentanasTarjeta(transaccionJdbcRepository, meterRegistry, false, 100);
+        ventanas.cargar();
+        ventanas.registrar(transaccion(TARJETA, INICIO, "10.00", "EC"));
+
+        assertThat(ventanas.resumen(TARJETA, Periodo.MINUTO, INICIO.plusMinutes(1))).isEmpty();
+        assertThat(tarjetasEnMemoria()).isZero();
+    }
+
+    private VentanasTarjeta cargadas(int maximoTarjetas, List<Transaccion> semana) {
+        doAnswer(invocacion -> {
+            Consumer<Transaccion> consumidor = invocacion.getArgument(1);
+            semana.forEach(consumidor);
+            return null;
+        }).when(transaccionJdbcRepository).recorrerActividadDesde(any(), any());
+        VentanasTarjeta ventanas = new VentanasTarjeta(transaccionJdbcRepository, meterRegistry, true, maximoTarjetas);
+        ventanas.cargar();
+        return ventanas;
+    }
+
+    private double tarjetasEnMemoria() {
+        return meterRegistry.get("pagos.fraude.ventanas.tarjetas").gauge().value();
+    }
+
+    private static Transaccion transaccion(String tarjeta, LocalDateTime fecha, String monto, String pais) {
+        Transaccion transaccion = new Transaccion();
+        transaccion.setNumeroTarjeta(tarjeta);
+        transaccion.setFechaCreacion(fecha);
+        transaccion.setMonto(new BigDecimal(monto));
+        transaccion.setPais(pais);
+        return transaccion;
+    }
+}
@@ -0,0 +1,86 @@
+package com.banquito.cards.transaccion.repository;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OutboxAutorizacionJdbcRepositoryTest {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final OutboxAutorizacionJdbcRepository outbox =
+        new OutboxAutorizacionJdbcRepository(jdbcTemplate, true, 60_000, 5_000, 10);
+
+    @Test
+    void completarExigeElArrendamientoConQueSeReclamo() {
+        when(jdbcTemplate.update(anyString(), eq(7), eq(3))).thenReturn(1);
+
+        assertThat(outbox.completar(7, 3)).isTrue();
+        assertThat(outbox.completar(7, 2)).isFalse();
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate).update(sql.capture(), eq(7), eq(2));
+        assertThat(sql.getValue()).startsWith("DELETE").contains("ARRENDAMIENTO = ?").contains("TIPO = 'AUT'");
+    }
+
+    @Test
+    void reprogramarExigeElArrendamientoYSoloCuentaLosIntentosFallidos() {
+        when(jdbcTemplate.update(anyString(), any(), any(), any(), any())).thenReturn(0);
+
+        assertThat(outbox.reintentar(7, 3)).isFalse();
+        outbox.posponer(7, 3);
+        outbox.liberar(7, 3);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate).update(sql.capture(), eq(1), eq(5_000L), eq(7), eq(3));
+        verify(jdbcTemplate).update(anyString(), eq(0), eq(5_000L), eq(7), eq(3));
+        verify(jdbcTemplate).update(anyString(), eq(0), eq(0L), eq(7), eq(3));
+        assertThat(sql.getValue()).contains("ARRENDAMIENTO = ?").contains("TIPO = 'AUT'");
+    }
+
+    @Test
+    void reclamarRenuevaElArrendamientoYCuentaComoIntentoUnaFilaQueSeguiaEnCurso() {
+        outbox.reclamar(5);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate).query(sql.capture(), any(RowMapper.class), eq(60_000L), eq(10), eq(5));
+        assertThat(sql.getValue())
+            .contains("ARRENDAMIENTO = COALESCE(ARRENDAMIENTO, 0) + 1")
+            .contains("CASE WHEN ESTADO = 'PRO' THEN 1 ELSE 0 END")
+            .contains("INTENTOS < ?")
+            .contains("FOR UPDATE SKIP LOCKED")
+            .contains("RETURNING COD_TRANSACCION, ARRENDAMIENTO");
+    }
+
+    @Test
+    void lasAgotadasSeReclamanSinSumarIntentos() {
+        outbox.reclamarAgotadas(5);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate).query(sql.capture(), any(RowMapper.class), eq(60_000L), eq(10), eq(5));
+        assertThat(sql.getValue())
+            .contains("ARRENDAMIENTO = COALESCE(ARRENDAMIENTO, 0) + 1")
+            .contains("INTENTOS >= ?")
+            .doesNotContain("INTENTOS = INTENTOS");
+    }
+
+    @Test
+    void sinOutboxNoSeRegistraNadaYCompletarSiempreProcede() {
+        OutboxAutorizacionJdbcRepository deshabilitado =
+            new OutboxAutorizacionJdbcRepository(jdbcTemplate, false, 60_000, 5_000, 10);
+
+        deshabilitado.registrar(7);
+
+        assertThat(deshabilitado.completar(7, 0)).isTrue();
+        verify(jdbcTemplate, never()).update(anyString(), eq(7), eq(60_000L));
+    }
+}
@@ -0,0 +1,89 @@
+package com.banquito.cards.transaccion.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AnilloAcotadoTest {
+
+    @Test
+    void redondeaLaCapacidadALaSiguientePotenciaDeDos() {
+        assertThat(new AnilloAcotado<>(3).capacidad()).isEqualTo(4);
+        assertThat(new AnilloAcotado<>(8).capacidad()).isEqualTo(8);
+        assertThat(new AnilloAcotado<>(1000).capacidad()).isEqualTo(1024);
+    }
+
+    @Test
+    void entregaEnOrdenYRechazaConElAnilloLleno() {
+        AnilloAcotado<Integer> anillo = new AnilloAcotado<>(4);
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(anillo.ofrecer(i)).isTrue();
+        }
+        assertThat(anillo.ofrecer(4)).isFalse();
+        assertThat(anillo.tamano()).isEqualTo(4);
+
+        List<Integer> tomados = new ArrayList<>();
+        for (Integer elemento = anillo.tomar(); elemento != null; elemento = anillo.tomar()) {
+            tomados.add(elemento);
+        }
+        assertThat(tomados).containsExactly(0, 1, 2, 3);
+        assertThat(anillo.tamano()).isZero();
+    }
+
+    @Test
+    void reutilizaLasCasillasEnVueltasSucesivas() {
+        AnilloAcotado<Integer> anillo = new AnilloAcotado<>(2);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(anillo.ofrecer(i)).isTrue();
+            assertThat(anillo.tomar()).isEqualTo(i);
+        }
+        assertThat(anillo.tomar()).isNull();
+    }
+
+    @Test
+    void variosProductoresYConsumidoresNoPierdenNiDuplicanElementos() throws InterruptedException {
+        AnilloAcotado<Long> anillo = new AnilloAcotado<>(64);
+        int productores = 4;
+        int consumidores = 4;
+        long porProductor = 5_000;
+        long total = productores * porProductor;
+        AtomicLong suma = new AtomicLong();
+        AtomicLong tomados = new AtomicLong();
+        List<Thread> hilos = new ArrayList<>();
+        for (int p = 0; p < productores; p++) {
+            long base = p * porProductor;
+            hilos.add(Thread.ofPlatform().start(() -> {
+                for (long i = 0; i < porProductor; i++) {
+                    while (!anillo.ofrecer(base + i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < consumidores; c++) {
+            hilos.add(Thread.ofPlatform().start(() -> {
+                while (tomados.get() < total) {
+                    Long elemento = anillo.tomar();
+                    if (elemento == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    suma.addAndGet(elemento);
+                    tomados.incrementAndGet();
+                }
+            }));
+        }
+        for (Thread hilo : hilos) {
+            hilo.join(30_000);
+        }
+
+        assertThat(tomados.get()).isEqualTo(total);
+        assertThat(suma.get()).isEqualTo(total * (total - 1) / 2);
+    }
+}
@@ -0,0 +1,105 @@
+package com.banquito.cards.transaccion.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitoBancoTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void noSeAbreAntesDeLasLlamadasMinimas() {
+        CircuitoBanco circuito = circuito(60_000);
+
+        for (int i = 0; i < 3; i++) {
+            circuito.registrarResultado(false);
+        }
+
+        assertThat(circuito.estaCerrado()).isTrue();
+        assertThat(circuito.permitirLlamada()).isTrue();
+    }
+
+    @Test
+    void seAbreAlSuperarElUmbralYCortocircuitaDuranteLaEspera() {
+        CircuitoBanco circuito = circuito(60_000);
+
+        circuito.registrarResultado(true);
+        circuito.registrarResultado(true);
+        circuito.registrarResultado(false);
+        assertThat(circuito.estaCerrado()).isTrue();
+        circuito.registrarResultado(false);
+
+        assertThat(circuito.estaCerrado()).isFalse();
+        assertThat(circuito.permitirLlamada()).isFalse();
+        assertThat(meterRegistry.get("pagos.banco.circuito.cortocircuitos").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("pagos.banco.circuito.estado").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void laVentanaDescartaLosResultadosMasViejos() {
+        CircuitoBanco circuito = circuito(60_000);
+
+        circuito.registrarResultado(false);
+        for (int i = 0; i < 4; i++) {
+            circuito.registrarResultado(true);
+        }
+        circuito.registrarResultado(false);
+
+        assertThat(circuito.estaCerrado()).isTrue();
+    }
+
+    @Test
+    void semiabiertoSeCierraSiTodasLasPruebasResponden() {
+        CircuitoBanco circuito = abierto();
+
+        assertThat(circuito.permitirLlamada()).isTrue();
+        assertThat(circuito.permitirLlamada()).isTrue();
+        assertThat(circuito.permitirLlamada()).isFalse();
+        circuito.registrarResultado(true);
+        assertThat(circuito.estaCerrado()).isFalse();
+        circuito.registrarResultado(true);
+
+        assertThat(circuito.estaCerrado()).isTrue();
+    }
+
+    @Test
+    void semiabiertoVuelveAAbrirseSiFallaUnaPrueba() {
+        CircuitoBanco circuito = abierto();
+
+        assertThat(circuito.permitirLlamada()).isTrue();
+        circuito.registrarResultado(false);
+
+        assertThat(circuito.estaCerrado()).isFalse();
+        assertThat(meterRegistry.get("pagos.banco.circuito.estado").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void cancelarDevuelveElLugarDeUnaPrueba() {
+        CircuitoBanco circuito = abierto();
+
+        assertThat(circuito.permitirLlamada()).isTrue();
+        assertThat(circuito.permitirLlamada()).isTrue();
+        circuito.cancelarLlamada();
+
+        assertThat(circuito.permitirLlamada()).isTrue();
+        assertThat(circuito.permitirLlamada()).isFalse();
+    }
+
+    /**
+     * Circuito abierto con espera cero: la siguiente llamada lo pasa a semiabierto.
+     */
+    private CircuitoBanco abierto() {
+        CircuitoBanco circuito = circuito(0);
+        for (int i = 0; i < 4; i++) {
+            circuito.registrarResultado(false);
+        }
+        assertThat(circuito.estaCerrado()).isFalse();
+        return circuito;
+    }
+
+    private CircuitoBanco circuito(long esperaAbiertoMs) {
+        return new CircuitoBanco(meterRegistry, 4, 4, 0.5, esperaAbiertoMs, 2);
+    }
+}
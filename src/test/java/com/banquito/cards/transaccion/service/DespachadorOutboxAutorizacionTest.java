@@ -0,0 +1,87 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.config.MonitorConexiones;
+import com.banquito.cards.exception.BusinessException;
+import com.banquito.cards.transaccion.repository.OutboxAutorizacionJdbcRepository;
+import com.banquito.cards.transaccion.repository.OutboxAutorizacionJdbcRepository.Reclamada;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DespachadorOutboxAutorizacionTest {
+
+    private final OutboxAutorizacionJdbcRepository outbox = mock(OutboxAutorizacionJdbcRepository.class);
+    private final TransaccionService transaccionService = mock(TransaccionService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void autorizaCadaSolicitudConElArrendamientoConQueLaReclamo() {
+        when(outbox.reclamar(anyInt())).thenReturn(List.of(new Reclamada(1, 4), new Reclamada(2, 7)), List.of());
+
+        despachador(Runnable::run, 16).despachar();
+
+        verify(transaccionService).procesarConBanco(1, 4);
+        verify(transaccionService).procesarConBanco(2, 7);
+        verify(outbox, never()).reintentar(1, 4);
+    }
+
+    @Test
+    void unErrorDevuelveLaSolicitudConSuArrendamientoYCuentaUnIntento() {
+        when(outbox.reclamar(anyInt())).thenReturn(List.of(new Reclamada(1, 4)), List.of());
+        when(transaccionService.procesarConBanco(1, 4))
+            .thenThrow(new BusinessException("1", "Transaccion", "procesar transacción"));
+
+        despachador(Runnable::run, 16).despachar();
+
+        verify(outbox).reintentar(1, 4);
+    }
+
+    @Test
+    void sinCapacidadEnElExecutorSePosponeSinContarIntento() {
+        when(outbox.reclamar(anyInt())).thenReturn(List.of(new Reclamada(1, 4)), List.of());
+        TaskExecutor lleno = tarea -> {
+            throw new TaskRejectedException("lleno");
+        };
+
+        despachador(lleno, 16).despachar();
+
+        verify(outbox).posponer(1, 4);
+        verify(outbox, never()).reintentar(1, 4);
+    }
+
+    @Test
+    void soloReclamaTantasFilasComoTrabajadoresLibres() {
+        when(outbox.reclamar(anyInt())).thenReturn(List.of());
+
+        despachador(Runnable::run, 3).despachar();
+
+        verify(outbox).reclamar(3);
+    }
+
+    @Test
+    void lasAgotadasPasanAConciliacionSoloSiConservanElArrendamiento() {
+        when(outbox.reclamarAgotadas(anyInt())).thenReturn(List.of(new Reclamada(1, 4), new Reclamada(2, 9)));
+        when(outbox.reclamar(anyInt())).thenReturn(List.of());
+        when(transaccionService.conciliarAgotada(1, 4)).thenReturn(true);
+        when(transaccionService.conciliarAgotada(2, 9)).thenReturn(false);
+
+        despachador(Runnable::run, 16).despachar();
+
+        assertThat(meterRegistry.get("pagos.outbox.agotadas").counter().count()).isEqualTo(1);
+    }
+
+    private DespachadorOutboxAutorizacion despachador(TaskExecutor executor, int trabajadores) {
+        return new DespachadorOutboxAutorizacion(outbox, transaccionService, executor, mock(MonitorConexiones.class),
+            trabajadores, 100, meterRegistry);
+    }
+}
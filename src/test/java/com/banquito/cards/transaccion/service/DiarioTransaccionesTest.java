@@ -0,0 +1,155 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.comision.model.Banco;
+import com.banquito.cards.comision.model.Comision;
+import com.banquito.cards.exception.CapacidadExcedidaException;
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DiarioTransaccionesTest {
+
+    private static final String CLAVE = Base64.getEncoder().encodeToString(new byte[32]);
+    private static final String OTRA_CLAVE = Base64.getEncoder().encodeToString("0123456789abcdef".getBytes());
+    private static final String TARJETA = "4111111111111111";
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void leeLasPendientesEnOrdenSinElCvv() throws IOException {
+        DiarioTransacciones diario = diario(CLAVE);
+        diario.anotar(List.of(transaccion(1), transaccion(2), transaccion(3)));
+        diario.anotar(List.of(transaccion(4)));
+
+        DiarioTransacciones.Lectura lectura = diario.leerPendientes(10);
+        diario.cerrar();
+
+        assertThat(lectura.transacciones()).extracting(Transaccion::getCodigoUnicoTransaccion)
+            .containsExactly("TRX-1", "TRX-2", "TRX-3", "TRX-4");
+        Transaccion primera = lectura.transacciones().get(0);
+        assertThat(primera.getBanco().getCodigo()).isEqualTo(1);
+        assertThat(primera.getComision().getCodigo()).isEqualTo(2);
+        assertThat(primera.getMonto()).isEqualByComparingTo("10.50");
+        assertThat(primera.getNumeroTarjeta()).isEqualTo(TARJETA);
+        assertThat(primera.getCvv()).isNull();
+    }
+
+    @Test
+    void noGuardaDatosDeLaTarjetaEnClaro() throws IOException {
+        DiarioTransacciones diario = diario(CLAVE);
+        diario.anotar(List.of(transaccion(1)));
+        diario.cerrar();
+
+        String contenido = new String(Files.readAllBytes(directorio.resolve("transacciones.diario")),
+            StandardCharsets.ISO_8859_1);
+        assertThat(contenido).doesNotContain(TARJETA).doesNotContain("TRX-1");
+    }
+
+    @Test
+    void conservaLoNoReproducidoTrasReiniciar() throws IOException {
+        DiarioTransacciones diario = diario(CLAVE);
+        diario.anotar(List.of(transaccion(1), transaccion(2), transaccion(3)));
+        diario.confirmarReproduccion(diario.leerPendientes(2).hasta());
+        diario.cerrar();
+
+        diario = diario(CLAVE);
+        DiarioTransacciones.Lectura lectura = diario.leerPendientes(10);
+        assertThat(lectura.transacciones()).extracting(Transaccion::getCodigoUnicoTransaccion)
+            .containsExactly("TRX-3");
+
+        diario.confirmarReproduccion(lectura.hasta());
+        assertThat(diario.hayPendientes()).isFalse();
+        diario.anotar(List.of(transaccion(9)));
+        diario.cerrar();
+
+        diario = diario(CLAVE);
+        assertThat(diario.leerPendientes(10).transacciones()).extracting(Transaccion::getCodigoUnicoTransaccion)
+            .containsExactly("TRX-9");
+        diario.cerrar();
+    }
+
+    @Test
+    void recuerdaLaHuellaDeLoPendienteHastaReproducirlo() throws IOException {
+        DiarioTransacciones diario = diario(CLAVE);
+        diario.anotar(List.of(transaccion(1), transaccion(2)));
+
+        assertThat(diario.huellaPendiente("TRX-1")).contains("HUELLA-1");
+        assertThat(diario.huellaPendiente("TRX-3")).isEmpty();
+        assertThat(diario.huellaPendiente(null)).isEmpty();
+
+        DiarioTransacciones.Lectura primera = diario.leerPendientes(1);
+        diario.confirmarReproduccion(primera.hasta());
+        assertThat(diario.huellaPendiente("TRX-1")).isEmpty();
+        assertThat(diario.huellaPendiente("TRX-2")).contains("HUELLA-2");
+        diario.cerrar();
+
+        diario = diario(CLAVE);
+        assertThat(diario.huellaPendiente("TRX-2")).contains("HUELLA-2");
+        diario.confirmarReproduccion(diario.leerPendientes(10).hasta());
+        assertThat(diario.huellaPendiente("TRX-2")).isEmpty();
+        diario.cerrar();
+    }
+
+    @Test
+    void rechazaUnLoteQueNoCabe() throws IOException {
+        DiarioTransacciones diario = diario(CLAVE);
+        List<Transaccion> lote = IntStream.range(0, 5000).mapToObj(this::transaccion).toList();
+
+        assertThatThrownBy(() -> diario.anotar(lote)).isInstanceOf(CapacidadExcedidaException.class);
+        assertThat(diario.hayPendientes()).isFalse();
+        diario.cerrar();
+    }
+
+    @Test
+    void exigeUnaClaveValidaYFallaConOtraClave() throws IOException {
+        assertThatThrownBy(() -> diario("")).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> diario(Base64.getEncoder().encodeToString(new byte[10])))
+            .isInstanceOf(IllegalStateException.class);
+
+        DiarioTransacciones diario = diario(CLAVE);
+        diario.anotar(List.of(transaccion(1)));
+        diario.cerrar();
+
+        DiarioTransacciones conOtraClave = diario(OTRA_CLAVE);
+        assertThat(conOtraClave.hayPendientes()).isTrue();
+        assertThatThrownBy(() -> conOtraClave.leerPendientes(10)).isInstanceOf(IllegalStateException.class);
+        conOtraClave.cerrar();
+    }
+
+    private DiarioTransacciones diario(String clave) throws IOException {
+        return new DiarioTransacciones(objectMapper, new SimpleMeterRegistry(), directorio.toString(), 1, clave);
+    }
+
+    private Transaccion transaccion(int indice) {
+        Transaccion transaccion = new Transaccion();
+        transaccion.setBanco(new Banco(1));
+        transaccion.setComision(new Comision(2));
+        transaccion.setMonto(new BigDecimal("10.50"));
+        transaccion.setNumeroTarjeta(TARJETA);
+        transaccion.setCvv("123");
+        transaccion.setCodigoUnicoTransaccion("TRX-" + indice);
+        transaccion.setHashSolicitud("HUELLA-" + indice);
+        transaccion.setFechaCreacion(LocalDateTime.of(2024, 5, 1, 12, 0));
+        transaccion.setEstado(Transaccion.ESTADO_PENDIENTE);
+        return transaccion;
+    }
+}
@@ -0,0 +1,39 @@
+package com.banquito.cards.transaccion.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FiltroBloomTest {
+
+    @Test
+    void reconoceTodoLoAgregado() {
+        FiltroBloom filtro = new FiltroBloom(10_000, 0.01);
+
+        IntStream.range(0, 10_000).forEach(i -> filtro.agregar("TRX-" + i));
+
+        assertThat(IntStream.range(0, 10_000)).allMatch(i -> filtro.podriaContener("TRX-" + i));
+    }
+
+    @Test
+    void losFalsosPositivosQuedanCercaDeLaProbabilidadConfigurada() {
+        FiltroBloom filtro = new FiltroBloom(10_000, 0.01);
+        IntStream.range(0, 10_000).forEach(i -> filtro.agregar("TRX-" + i));
+
+        long falsosPositivos = IntStream.range(0, 100_000)
+            .filter(i -> filtro.podriaContener("OTRO-" + i))
+            .count();
+
+        assertThat(falsosPositivos).isLessThan(2_000);
+    }
+
+    @Test
+    void unFiltroVacioNoContieneNada() {
+        FiltroBloom filtro = new FiltroBloom(1_000, 0.01);
+
+        assertThat(filtro.podriaContener("TRX-1")).isFalse();
+        assertThat(filtro.podriaContener("")).isFalse();
+    }
+}
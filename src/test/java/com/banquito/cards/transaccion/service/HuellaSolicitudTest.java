@@ -0,0 +1,73 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.transaccion.controller.dto.TransaccionDTO;
+import com.banquito.cards.transaccion.model.Transaccion;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HuellaSolicitudTest {
+
+    @Test
+    void ignoraElCvvYLosCamposQueAsignaElServidor() {
+        TransaccionDTO otra = solicitud();
+        otra.setCvv("999");
+        otra.setEstado("APR");
+        otra.setFechaCreacion(LocalDateTime.of(2024, 5, 2, 8, 0));
+        otra.setGtwComision("1.50");
+
+        assertThat(HuellaSolicitud.calcular(otra)).isEqualTo(HuellaSolicitud.calcular(solicitud()));
+    }
+
+    @Test
+    void comparaLosMontosPorValor() {
+        TransaccionDTO otra = solicitud();
+        otra.setMonto(new BigDecimal("10.500"));
+
+        assertThat(HuellaSolicitud.calcular(otra)).isEqualTo(HuellaSolicitud.calcular(solicitud()));
+    }
+
+    @Test
+    void unaTransaccionSimpleSeTomaSinCuotasNiDiferido() {
+        TransaccionDTO otra = solicitud();
+        otra.setCuotas(6);
+        otra.setInteresDiferido(true);
+
+        assertThat(HuellaSolicitud.calcular(otra)).isEqualTo(HuellaSolicitud.calcular(solicitud()));
+    }
+
+    @Test
+    void cambiaConLosDatosDelCliente() {
+        String original = HuellaSolicitud.calcular(solicitud());
+
+        TransaccionDTO otroMonto = solicitud();
+        otroMonto.setMonto(new BigDecimal("10.51"));
+        TransaccionDTO otraTarjeta = solicitud();
+        otraTarjeta.setNumeroTarjeta("4111111111111112");
+        TransaccionDTO diferida = solicitud();
+        diferida.setModalidad(Transaccion.MODALIDAD_RECURRENTE);
+
+        assertThat(HuellaSolicitud.calcular(otroMonto)).isNotEqualTo(original);
+        assertThat(HuellaSolicitud.calcular(otraTarjeta)).isNotEqualTo(original);
+        assertThat(HuellaSolicitud.calcular(diferida)).isNotEqualTo(original);
+    }
+
+    static TransaccionDTO solicitud() {
+        TransaccionDTO solicitud = new TransaccionDTO();
+        solicitud.setCodigoBanco(1);
+        solicitud.setNumeroTarjeta("4111111111111111");
+        solicitud.setMarca("VISA");
+        solicitud.setModalidad(Transaccion.MODALIDAD_SIMPLE);
+        solicitud.setCodigoMoneda("USD");
+        solicitud.setMonto(new BigDecimal("10.50"));
+        solicitud.setPais("EC");
+        solicitud.setFechaExpiracionTarjeta("12/30");
+        solicitud.setNombreTarjeta("CLIENTE");
+        solicitud.setCvv("123");
+        solicitud.setCodigoUnicoTransaccion("TRX-1");
+        return solicitud;
+    }
+}
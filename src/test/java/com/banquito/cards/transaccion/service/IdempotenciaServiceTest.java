@@ -0,0 +1,127 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.exception.ClaveReutilizadaException;
+import com.banquito.cards.exception.CodigoUnicoRegistradoException;
+import com.banquito.cards.transaccion.controller.dto.ResultadoProcesamientoDTO;
+import com.banquito.cards.transaccion.controller.dto.TransaccionDTO;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.banquito.cards.transaccion.service.HuellaSolicitudTest.solicitud;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IdempotenciaServiceTest {
+
+    private final TransaccionService transaccionService = mock(TransaccionService.class);
+    private final RegistroCodigosUnicos registroCodigosUnicos = mock(RegistroCodigosUnicos.class);
+    private final IdempotenciaService servicio =
+        new IdempotenciaService(transaccionService, registroCodigosUnicos, 100, 5_000);
+    private final AtomicInteger ejecuciones = new AtomicInteger();
+
+    @Test
+    void unReintentoDeUnaTransaccionResueltaSeRespondeDesdeLaCache() {
+        ResultadoProcesamientoDTO primero = servicio.ejecutar(solicitud(), () -> resultado("APR"));
+        ResultadoProcesamientoDTO reintento = servicio.ejecutar(solicitud(), () -> resultado("REC"));
+
+        assertThat(reintento).isSameAs(primero);
+        assertThat(ejecuciones).hasValue(1);
+        verify(transaccionService, never()).obtenerResultadoPorCodigoUnico(anyString(), any());
+    }
+
+    @Test
+    void unaTransaccionSinResolverNoSeGuardaEnLaCache() {
+        servicio.ejecutar(solicitud(), () -> resultado("PEN"));
+        servicio.ejecutar(solicitud(), () -> resultado("PEN"));
+
+        assertThat(ejecuciones).hasValue(2);
+    }
+
+    @Test
+    void reutilizarElCodigoConOtraSolicitudSeRechaza() {
+        servicio.ejecutar(solicitud(), () -> resultado("APR"));
+        TransaccionDTO otra = solicitud();
+        otra.setMonto(new BigDecimal("99.00"));
+
+        assertThatThrownBy(() -> servicio.ejecutar(otra, () -> resultado("APR")))
+            .isInstanceOf(ClaveReutilizadaException.class);
+        assertThat(ejecuciones).hasValue(1);
+    }
+
+    @Test
+    void unCodigoQueElFiltroConoceSeRespondeDesdeLaBase() {
+        ResultadoProcesamientoDTO registrado =
+            new ResultadoProcesamientoDTO(1, "TRX-1", "REV", new BigDecimal("10.50"), null, null);
+        when(registroCodigosUnicos.podriaExistir("TRX-1")).thenReturn(true);
+        when(transaccionService.obtenerResultadoPorCodigoUnico("TRX-1", HuellaSolicitud.calcular(solicitud())))
+            .thenReturn(Optional.of(registrado));
+
+        assertThat(servicio.ejecutar(solicitud(), () -> resultado("APR"))).isSameAs(registrado);
+        assertThat(ejecuciones).hasValue(0);
+    }
+
+    @Test
+    void unCodigoRegistradoEnOtroNodoSeRespondeConSuResultado() {
+        ResultadoProcesamientoDTO registrado = resultado("APR");
+        when(transaccionService.obtenerResultadoPorCodigoUnico("TRX-1", HuellaSolicitud.calcular(solicitud())))
+            .thenReturn(Optional.of(registrado));
+
+        ResultadoProcesamientoDTO respuesta = servicio.ejecutar(solicitud(), () -> {
+            throw new CodigoUnicoRegistradoException("TRX-1", "Transaccion");
+        });
+
+        assertThat(respuesta).isSameAs(registrado);
+        assertThat(servicio.ejecutar(solicitud(), () -> resultado("REC"))).isSameAs(registrado);
+    }
+
+    @Test
+    void unCodigoRegistradoEnOtroNodoConOtraSolicitudSeRechaza() {
+        when(transaccionService.obtenerResultadoPorCodigoUnico(anyString(), any()))
+            .thenThrow(new ClaveReutilizadaException("TRX-1", "Transaccion"));
+
+        assertThatThrownBy(() -> servicio.ejecutar(solicitud(), () -> {
+            throw new CodigoUnicoRegistradoException("TRX-1", "Transaccion");
+        })).isInstanceOf(ClaveReutilizadaException.class);
+    }
+
+    @Test
+    void unReintentoConcurrenteEsperaAlPrimerIntento() throws Exception {
+        CountDownLatch enCurso = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        CompletableFuture<ResultadoProcesamientoDTO> primero = CompletableFuture.supplyAsync(() ->
+            servicio.ejecutar(solicitud(), () -> {
+                enCurso.countDown();
+                try {
+                    liberar.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return resultado("APR");
+            }));
+        assertThat(enCurso.await(5, TimeUnit.SECONDS)).isTrue();
+
+        CompletableFuture<ResultadoProcesamientoDTO> reintento = CompletableFuture.supplyAsync(() ->
+            servicio.ejecutar(solicitud(), () -> resultado("REC")));
+        liberar.countDown();
+
+        assertThat(reintento.get(5, TimeUnit.SECONDS)).isSameAs(primero.get(5, TimeUnit.SECONDS));
+        assertThat(ejecuciones).hasValue(1);
+    }
+
+    private ResultadoProcesamientoDTO resultado(String estado) {
+        ejecuciones.incrementAndGet();
+        return new ResultadoProcesamientoDTO(1, "TRX-1", estado, new BigDecimal("10.50"), null, null);
+    }
+}
@@ -0,0 +1,77 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.exception.CapacidadExcedidaException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LimitadorConcurrenciaBancosTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void rechazaAlLlegarAlLimiteSinAfectarAOtroBanco() {
+        LimitadorConcurrenciaBancos limitador = limitador(2, 1, 10, 0.5);
+
+        limitador.adquirir(1);
+        limitador.adquirir(1);
+
+        assertThatThrownBy(() -> limitador.adquirir(1)).isInstanceOf(CapacidadExcedidaException.class);
+        assertThat(limitador.adquirir(2)).isNotNull();
+        assertThat(meterRegistry.get("pagos.banco.rechazos").tag("banco", "1").counter().count()).isEqualTo(1);
+        assertThat(enCurso(1)).isEqualTo(2);
+    }
+
+    @Test
+    void liberarDevuelveElLugar() {
+        LimitadorConcurrenciaBancos limitador = limitador(1, 1, 10, 0.5);
+
+        limitador.adquirir(1).liberar(true);
+
+        assertThat(limitador.adquirir(1)).isNotNull();
+        assertThat(enCurso(1)).isEqualTo(1);
+    }
+
+    @Test
+    void reduceElLimiteAnteUnErrorSinBajarDelMinimo() {
+        LimitadorConcurrenciaBancos limitador = limitador(10, 4, 20, 0.5);
+
+        limitador.adquirir(1).liberar(false);
+        assertThat(limite(1)).isEqualTo(5);
+
+        limitador.adquirir(1).liberar(false);
+        assertThat(limite(1)).isEqualTo(4);
+    }
+
+    @Test
+    void creceConRespuestasRapidasMientrasElLimiteEstaEnUso() {
+        LimitadorConcurrenciaBancos limitador = limitador(4, 1, 5, 0.5);
+
+        for (int ronda = 0; ronda < 40; ronda++) {
+            List<LimitadorConcurrenciaBancos.Permiso> permisos = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                permisos.add(limitador.adquirir(1));
+            }
+            permisos.forEach(permiso -> permiso.liberar(true));
+        }
+
+        assertThat(limite(1)).isEqualTo(5);
+    }
+
+    private LimitadorConcurrenciaBancos limitador(int inicial, int minimo, int maximo, double factorReduccion) {
+        return new LimitadorConcurrenciaBancos(meterRegistry, inicial, minimo, maximo, 60_000, factorReduccion);
+    }
+
+    private double enCurso(int banco) {
+        return meterRegistry.get("pagos.banco.en.curso").tag("banco", String.valueOf(banco)).gauge().value();
+    }
+
+    private double limite(int banco) {
+        return meterRegistry.get("pagos.banco.limite").tag("banco", String.valueOf(banco)).gauge().value();
+    }
+}
@@ -0,0 +1,109 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.exception.BusinessException;
+import com.banquito.cards.exception.NotFoundException;
+import com.banquito.cards.exception.TransicionRechazadaException;
+import com.banquito.cards.transaccion.controller.dto.HistorialEstadoTransaccionDTO;
+import com.banquito.cards.transaccion.model.HistorialEstadoTransaccion;
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.banquito.cards.transaccion.repository.TransaccionJdbcRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MaquinaEstadosTransaccionTest {
+
+    private static final List<String> ESTADOS = List.of(Transaccion.ESTADO_PENDIENTE, Transaccion.ESTADO_APROBADA,
+        Transaccion.ESTADO_RECHAZADA, Transaccion.ESTADO_REVISION, Transaccion.ESTADO_PROCESADO);
+
+    private static final List<String> PERMITIDAS = List.of("PEN>APR", "PEN>REC", "PEN>REV", "APR>REV",
+        "REV>PEN", "REV>APR", "REV>REC", "REV>PRO", "PRO>PEN", "PRO>APR", "PRO>REC", "PRO>REV");
+
+    private final TransaccionJdbcRepository transaccionJdbcRepository = mock(TransaccionJdbcRepository.class);
+    private final MaquinaEstadosTransaccion maquina = new MaquinaEstadosTransaccion(transaccionJdbcRepository);
+
+    @Test
+    void permiteSoloLasTransicionesDeLaMatriz() {
+        for (String origen : ESTADOS) {
+            for (String destino : ESTADOS) {
+                assertThat(maquina.esTransicionValida(origen, destino))
+                    .as(origen + " -> " + destino)
+                    .isEqualTo(PERMITIDAS.contains(origen + ">" + destino));
+            }
+        }
+        assertThat(maquina.esTransicionValida(null, Transaccion.ESTADO_APROBADA)).isFalse();
+        assertThat(maquina.esTransicionValida(Transaccion.ESTADO_PENDIENTE, "XXX")).isFalse();
+    }
+
+    @Test
+    void condicionaLaActualizacionALosPredecesoresDelDestino() {
+        when(transaccionJdbcRepository.actualizarEstado(eq(1), eq(Transaccion.ESTADO_REVISION), anyString(), anyList()))
+            .thenReturn(Optional.of(transaccion(1, Transaccion.ESTADO_REVISION)));
+
+        HistorialEstadoTransaccionDTO historial =
+            maquina.transicionar(1, Transaccion.ESTADO_REVISION, "Sin respuesta del banco");
+
+        verify(transaccionJdbcRepository).actualizarEstado(1, Transaccion.ESTADO_REVISION, "Sin respuesta del banco",
+            List.of(Transaccion.ESTADO_PENDIENTE, Transaccion.ESTADO_APROBADA, Transaccion.ESTADO_PROCESADO));
+        assertThat(historial.getEstado()).isEqualTo(Transaccion.ESTADO_REVISION);
+        assertThat(historial.getTransaccion().getEstado()).isEqualTo(Transaccion.ESTADO_REVISION);
+    }
+
+    @Test
+    void truncaElDetalleDeLaTransaccionYDelHistorial() {
+        String detalle = "x".repeat(250);
+        when(transaccionJdbcRepository.actualizarEstado(eq(1), eq(Transaccion.ESTADO_APROBADA), anyString(), anyList()))
+            .thenReturn(Optional.of(transaccion(1, Transaccion.ESTADO_APROBADA)));
+
+        maquina.transicionar(1, Transaccion.ESTADO_PENDIENTE, Transaccion.ESTADO_APROBADA, detalle);
+
+        verify(transaccionJdbcRepository).actualizarEstado(1, Transaccion.ESTADO_APROBADA, detalle.substring(0, 50),
+            List.of(Transaccion.ESTADO_PENDIENTE));
+        ArgumentCaptor<HistorialEstadoTransaccion> historial = ArgumentCaptor.forClass(HistorialEstadoTransaccion.class);
+        verify(transaccionJdbcRepository).insertarHistorial(historial.capture());
+        assertThat(historial.getValue().getDetalle()).hasSize(200);
+    }
+
+    @Test
+    void rechazaUnaTransicionNoPermitidaSinTocarLaBase() {
+        assertThatThrownBy(() -> maquina.transicionar(1, Transaccion.ESTADO_RECHAZADA, Transaccion.ESTADO_APROBADA,
+                "Reintento"))
+            .isInstanceOf(BusinessException.class);
+        assertThatThrownBy(() -> maquina.transicionar(1, "XXX", "Estado inválido"))
+            .isInstanceOf(BusinessException.class);
+        verify(transaccionJdbcRepository, never()).actualizarEstado(any(), any(), any(), any());
+    }
+
+    @Test
+    void distingueUnEstadoQueNoAdmiteLaTransicionDeUnaTransaccionInexistente() {
+        when(transaccionJdbcRepository.actualizarEstado(any(), any(), any(), any())).thenReturn(Optional.empty());
+        when(transaccionJdbcRepository.obtenerEstado(1)).thenReturn(Optional.of(Transaccion.ESTADO_RECHAZADA));
+        when(transaccionJdbcRepository.obtenerEstado(2)).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> maquina.transicionar(1, Transaccion.ESTADO_APROBADA, "Aprobada"))
+            .isInstanceOfSatisfying(TransicionRechazadaException.class,
+                e -> assertThat(e.getEstadoActual()).isEqualTo(Transaccion.ESTADO_RECHAZADA));
+        assertThatThrownBy(() -> maquina.transicionar(2, Transaccion.ESTADO_APROBADA, "Aprobada"))
+            .isInstanceOf(NotFoundException.class);
+        verify(transaccionJdbcRepository, never()).insertarHistorial(any());
+    }
+
+    private static Transaccion transaccion(Integer codigo, String estado) {
+        Transaccion transaccion = new Transaccion(codigo);
+        transaccion.setEstado(estado);
+        return transaccion;
+    }
+}
@@ -0,0 +1,156 @@
+package com.banquito.cards.transaccion.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MotorEtapasTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Map<Integer, Throwable> finalizados = new ConcurrentHashMap<>();
+    private final CountDownLatch bloqueo = new CountDownLatch(1);
+    private MotorEtapas<Trabajo> motor;
+
+    @AfterEach
+    void detenerMotor() {
+        bloqueo.countDown();
+        if (motor != null) {
+            motor.detener(1000);
+        }
+    }
+
+    @Test
+    void pasaCadaTrabajoPorTodasLasEtapasEnOrden() throws InterruptedException {
+        CountDownLatch terminados = new CountDownLatch(100);
+        motor = motor(8, List.of(
+            etapa("primera", 2, trabajo -> trabajo.registrar(1)),
+            etapa("segunda", 2, trabajo -> trabajo.registrar(2)),
+            etapa("tercera", 1, trabajo -> trabajo.registrar(3))), terminados);
+        motor.iniciar();
+
+        Trabajo[] trabajos = new Trabajo[100];
+        for (int i = 0; i < trabajos.length; i++) {
+            trabajos[i] = new Trabajo(i);
+            while (!motor.enviar(trabajos[i])) {
+                Thread.onSpinWait();
+            }
+        }
+
+        assertThat(terminados.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(finalizados).hasSize(100).allSatisfy((codigo, error) -> assertThat(error).isInstanceOf(Sin.class));
+        for (Trabajo trabajo : trabajos) {
+            assertThat(trabajo.etapas).isEqualTo(123);
+        }
+    }
+
+    @Test
+    void unTrabajoResueltoOFallidoNoPasaALasEtapasSiguientes() throws InterruptedException {
+        CountDownLatch terminados = new CountDownLatch(2);
+        AtomicInteger segunda = new AtomicInteger();
+        motor = motor(8, List.of(
+            new MotorEtapas.DefinicionEtapa<>("primera", 1, trabajo -> {
+                if (trabajo.codigo == 1) {
+                    throw new IllegalArgumentException("falla");
+                }
+                return false;
+            }),
+            etapa("segunda", 1, trabajo -> segunda.incrementAndGet())), terminados);
+        motor.iniciar();
+
+        motor.enviar(new Trabajo(0));
+        motor.enviar(new Trabajo(1));
+
+        assertThat(terminados.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(finalizados.get(0)).isInstanceOf(Sin.class);
+        assertThat(finalizados.get(1)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(segunda).hasValue(0);
+    }
+
+    @Test
+    void rechazaSinEsperarConElAnilloDeEntradaLleno() throws InterruptedException {
+        CountDownLatch tomado = new CountDownLatch(1);
+        motor = motor(2, List.of(etapa("lenta", 1, trabajo -> {
+            tomado.countDown();
+            bloqueo.await();
+        })), new CountDownLatch(0));
+        motor.iniciar();
+
+        assertThat(motor.enviar(new Trabajo(0))).isTrue();
+        assertThat(tomado.await(10, TimeUnit.SECONDS)).isTrue();
+        int aceptados = 0;
+        while (motor.enviar(new Trabajo(aceptados + 1))) {
+            aceptados++;
+        }
+
+        assertThat(aceptados).isEqualTo(new AnilloAcotado<>(2).capacidad());
+        assertThat(meterRegistry.get("pagos.motor.rechazados").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void alDetenerseFinalizaConErrorLosTrabajosPendientes() throws InterruptedException {
+        CountDownLatch tomado = new CountDownLatch(1);
+        motor = motor(4, List.of(etapa("lenta", 1, trabajo -> {
+            tomado.countDown();
+            bloqueo.await();
+        })), new CountDownLatch(0));
+        motor.iniciar();
+        motor.enviar(new Trabajo(0));
+        assertThat(tomado.await(10, TimeUnit.SECONDS)).isTrue();
+        motor.enviar(new Trabajo(1));
+        motor.enviar(new Trabajo(2));
+
+        motor.detener(50);
+        motor = null;
+
+        assertThat(finalizados.get(1)).isInstanceOf(IllegalStateException.class);
+        assertThat(finalizados.get(2)).isInstanceOf(IllegalStateException.class);
+    }
+
+    private MotorEtapas<Trabajo> motor(int capacidad, List<MotorEtapas.DefinicionEtapa<Trabajo>> etapas,
+                                       CountDownLatch terminados) {
+        return new MotorEtapas<>("prueba", capacidad, etapas, (trabajo, error) -> {
+            finalizados.put(trabajo.codigo, error != null ? error : new Sin());
+            terminados.countDown();
+        }, meterRegistry);
+    }
+
+    private static MotorEtapas.DefinicionEtapa<Trabajo> etapa(String nombre, int hilos, Accion accion) {
+        return new MotorEtapas.DefinicionEtapa<>(nombre, hilos, trabajo -> {
+            accion.aplicar(trabajo);
+            return true;
+        });
+    }
+
+    @FunctionalInterface
+    private interface Accion {
+        void aplicar(Trabajo trabajo) throws Exception;
+    }
+
+    /**
+     * Marca de un trabajo finalizado sin error; el mapa no admite valores nulos.
+     */
+    private static final class Sin extends Throwable {
+    }
+
+    private static final class Trabajo {
+        private final int codigo;
+        private int etapas;
+
+        private Trabajo(int codigo) {
+            this.codigo = codigo;
+        }
+
+        private void registrar(int etapa) {
+            etapas = etapas * 10 + etapa;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.comision.model.Banco;
+import com.banquito.cards.transaccion.controller.dto.ConsumoTarjetaRequestDTO;
+import com.banquito.cards.transaccion.controller.dto.RespuestaAutorizacionBancoDTO;
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.banquito.cards.transaccion.repository.AvisoSuplenteJdbcRepository;
+import com.banquito.cards.transaccion.repository.AvisoSuplenteJdbcRepository.AvisoPendiente;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ProcesamientoSuplenteTest {
+
+    private final AutorizadorBanco autorizadorBanco = mock(AutorizadorBanco.class);
+    private final MaquinaEstadosTransaccion maquinaEstados = mock(MaquinaEstadosTransaccion.class);
+    private final AvisoSuplenteJdbcRepository avisos = mock(AvisoSuplenteJdbcRepository.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final MockEnvironment environment = new MockEnvironment();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    ProcesamientoSuplenteTest() {
+        when(transactionManager.getTransaction(any())).thenAnswer(invocacion -> new SimpleTransactionStatus());
+    }
+
+    @Test
+    void admiteSoloConPreautorizacionYDentroDelMontoPorTransaccion() {
+        ProcesamientoSuplente suplente = suplente(1, 10, "1000", 5);
+
+        assertThat(suplente.admite(transaccion(1, 1, "50", "4111"), true)).isTrue();
+        assertThat(suplente.admite(transaccion(2, 1, "50", "4111"), false)).isFalse();
+        assertThat(suplente.admite(transaccion(3, 1, "150", "4111"), true)).isFalse();
+        assertThat(meterRegistry.get("pagos.stip.sin.preautorizacion").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("pagos.stip.no.elegibles").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void reservaHastaLaParteDelNodoSinConsultarLaBase() {
+        ProcesamientoSuplente suplente = suplente(2, 4, "1000", 10);
+
+        assertThat(suplente.reservar(transaccion(1, 1, "10", "4111"))).isTrue();
+        assertThat(suplente.reservar(transaccion(2, 1, "10", "4222"))).isTrue();
+        assertThat(suplente.reservar(transaccion(3, 1, "10", "4333"))).isFalse();
+        assertThat(suplente.reservar(transaccion(4, 2, "10", "4444"))).isTrue();
+        verifyNoInteractions(avisos);
+    }
+
+    @Test
+    void respetaElMontoAcumuladoYElMaximoPorTarjeta() {
+        ProcesamientoSuplente suplente = suplente(1, 10, "100", 2);
+
+        assertThat(suplente.reservar(transaccion(1, 1, "60", "4111"))).isTrue();
+        assertThat(suplente.reservar(transaccion(2, 1, "50", "4222"))).isFalse();
+        assertThat(suplente.reservar(transaccion(3, 1, "40", "4111"))).isTrue();
+        assertThat(suplente.reservar(transaccion(4, 2, "1", "4111"))).isFalse();
+        assertThat(suplente.reservar(transaccion(5, 2, "1", "4222"))).isTrue();
+    }
+
+    @Test
+    void liberarDevuelveLaReservaUnaSolaVez() {
+        ProcesamientoSuplente suplente = suplente(1, 2, "1000", 10);
+        suplente.reservar(transaccion(1, 1, "10", "4111"));
+        suplente.reservar(transaccion(2, 1, "10", "4222"));
+
+        suplente.liberar(1);
+        suplente.liberar(1);
+
+        assertThat(suplente.reservar(transaccion(3, 1, "10", "4333"))).isTrue();
+        assertThat(suplente.reservar(transaccion(4, 1, "10", "4444"))).isFalse();
+    }
+
+    @Test
+    void aplicaLosLimitesConfiguradosPorBanco() {
+        environment.setProperty("transaccion.stip.bancos.7.transacciones-maximas-banco", "1");
+        ProcesamientoSuplente suplente = suplente(1, 10, "1000", 10);
+
+        assertThat(suplente.reservar(transaccion(1, 7, "10", "4111"))).isTrue();
+        assertThat(suplente.reservar(transaccion(2, 7, "10", "4222"))).isFalse();
+        assertThat(suplente.reservar(transaccion(3, 1, "10", "4333"))).isTrue();
+    }
+
+    @Test
+    void alConciliarCargaLosAvisosPendientesYLiberaLosQueYaNoEstan() {
+        ProcesamientoSuplente suplente = suplente(1, 2, "1000", 10);
+        when(avisos.pendientes()).thenReturn(
+            List.of(new AvisoPendiente(10, 1, new BigDecimal("10"), "4111"),
+                new AvisoPendiente(11, 1, new BigDecimal("10"), "4222")),
+            List.of(new AvisoPendiente(11, 1, new BigDecimal("10"), "4222")));
+
+        suplente.conciliarReservas();
+        assertThat(suplente.reservar(transaccion(1, 1, "10", "4333"))).isFalse();
+
+        suplente.conciliarReservas();
+        assertThat(suplente.reservar(transaccion(2, 1, "10", "4333"))).isTrue();
+    }
+
+    @Test
+    void unAvisoEntregadoOLiberaSuReserva() {
+        ProcesamientoSuplente suplente = suplente(1, 1, "1000", 10);
+        Transaccion aprobada = transaccion(1, 1, "10", "4111");
+        suplente.reservar(aprobada);
+        when(autorizadorBanco.autorizar(any(), anyString(), any())).thenReturn(new AutorizadorBanco.Resultado(
+            AutorizadorBanco.Desenlace.RESPONDIDA, new RespuestaAutorizacionBancoDTO(200, true, "AUT", null, "OK")));
+        when(avisos.completar(1, 3)).thenReturn(true);
+
+        suplente.avisar(aprobada, new ConsumoTarjetaRequestDTO(), 3);
+
+        verify(avisos).completar(1, 3);
+        assertThat(suplente.reservar(transaccion(2, 1, "10", "4222"))).isTrue();
+    }
+
+    @Test
+    void unAvisoRechazadoPasaARevisionYLiberaSuReserva() {
+        ProcesamientoSuplente suplente = suplente(1, 1, "1000", 10);
+        Transaccion aprobada = transaccion(1, 1, "10", "4111");
+        suplente.reservar(aprobada);
+        when(autorizadorBanco.autorizar(any(), anyString(), any())).thenReturn(new AutorizadorBanco.Resultado(
+            AutorizadorBanco.Desenlace.RESPONDIDA,
+            new RespuestaAutorizacionBancoDTO(402, false, null, "51", "Fondos insuficientes")));
+        when(avisos.completar(1, 3)).thenReturn(true);
+
+        suplente.avisar(aprobada, new ConsumoTarjetaRequestDTO(), 3);
+
+        verify(maquinaEstados).transicionar(eq(1), eq(Transaccion.ESTADO_APROBADA), eq(Transaccion.ESTADO_REVISION),
+            anyString());
+        assertThat(suplente.reservar(transaccion(2, 1, "10", "4222"))).isTrue();
+    }
+
+    @Test
+    void sinRespuestaDefinitivaReintentaElAvisoSinLiberar() {
+        ProcesamientoSuplente suplente = suplente(1, 1, "1000", 10);
+        Transaccion aprobada = transaccion(1, 1, "10", "4111");
+        suplente.reservar(aprobada);
+        when(autorizadorBanco.autorizar(any(), anyString(), any())).thenReturn(new AutorizadorBanco.Resultado(
+            AutorizadorBanco.Desenlace.SIN_CONFIRMAR, null));
+
+        suplente.avisar(aprobada, new ConsumoTarjetaRequestDTO(), 3);
+
+        verify(avisos).reintentar(1, 3);
+        assertThat(suplente.reservar(transaccion(2, 1, "10", "4222"))).isFalse();
+    }
+
+    private ProcesamientoSuplente suplente(int nodos, int transaccionesMaximas, String montoMaximoBanco,
+                                           int maximoPorTarjeta) {
+        return new ProcesamientoSuplente(autorizadorBanco, maquinaEstados, mock(MedidorPresupuestoLatencia.class),
+            avisos, transactionManager, environment, meterRegistry, true, new BigDecimal("100"),
+            new BigDecimal(montoMaximoBanco), transaccionesMaximas, maximoPorTarjeta, nodos, 0);
+    }
+
+    private static Transaccion transaccion(int codigo, int banco, String monto, String tarjeta) {
+        Transaccion transaccion = new Transaccion(codigo);
+        transaccion.setBanco(new Banco(banco));
+        transaccion.setMonto(new BigDecimal(monto));
+        transaccion.setNumeroTarjeta(tarjeta);
+        transaccion.setCodigoUnicoTransaccion("TRX-" + codigo);
+        return transaccion;
+    }
+}
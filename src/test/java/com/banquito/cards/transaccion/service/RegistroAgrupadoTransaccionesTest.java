@@ -0,0 +1,251 @@
+package com.banquito.cards.transaccion.service;
+
+import com.banquito.cards.comision.model.Banco;
+import com.banquito.cards.comision.model.Comision;
+import com.banquito.cards.exception.BusinessException;
+import com.banquito.cards.exception.CapacidadExcedidaException;
+import com.banquito.cards.exception.CodigoUnicoRegistradoException;
+import com.banquito.cards.fraude.service.VentanasTarjeta;
+import com.banquito.cards.transaccion.model.Transaccion;
+import com.banquito.cards.transaccion.repository.OutboxAutorizacionJdbcRepository;
+import com.banquito.cards.transaccion.repository.TransaccionJdbcRepository;
+import com.banquito.cards.transaccion.repository.TransaccionRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RegistroAgrupadoTransaccionesTest {
+
+    private static final String CLAVE = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private final TransaccionRepository transaccionRepository = mock(TransaccionRepository.class);
+    private final TransaccionJdbcRepository transaccionJdbcRepository = mock(TransaccionJdbcRepository.class);
+    private final OutboxAutorizacionJdbcRepository outbox = mock(OutboxAutorizacionJdbcRepository.class);
+    private final RegistroCodigosUnicos registroCodigosUnicos = mock(RegistroCodigosUnicos.class);
+    private final VentanasTarjeta ventanasTarjeta = mock(VentanasTarjeta.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger secuencia = new AtomicInteger();
+    private final List<List<String>> insertados = new ArrayList<>();
+    private RegistroAgrupadoTransacciones registro;
+    private DiarioTransacciones diario;
+
+    @TempDir
+    Path directorio;
+
+    RegistroAgrupadoTransaccionesTest() {
+        when(transactionManager.getTransaction(any())).thenAnswer(invocacion -> new SimpleTransactionStatus());
+        doAnswer(invocacion -> {
+            List<Transaccion> transacciones = invocacion.getArgument(0);
+            synchronized (insertados) {
+                insertados.add(transacciones.stream().map(Transaccion::getCodigoUnicoTransaccion).toList());
+            }
+            transacciones.forEach(transaccion -> transaccion.setCodigo(secuencia.incrementAndGet()));
+            return null;
+        }).when(transaccionJdbcRepository).insertarTransacciones(anyList());
+    }
+
+    @AfterEach
+    void detener() throws InterruptedException, IOException {
+        if (registro != null) {
+            registro.detener();
+        }
+        if (diario != null) {
+            diario.cerrar();
+        }
+    }
+
+    @Test
+    void confirmaLasSolicitudesConcurrentesEnUnSoloCommit() throws Exception {
+        registro = registro(null, 4, 1);
+
+        List<CompletableFuture<Transaccion>> resultados = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            resultados.add(registro.registrar(transaccion(i)));
+        }
+
+        List<Transaccion> registradas = esperar(resultados);
+        assertThat(registradas).extracting(Transaccion::getCodigo).doesNotContainNull().doesNotHaveDuplicates();
+        assertThat(insertados).containsExactly(List.of("TRX-1", "TRX-2", "TRX-3", "TRX-4"));
+        verify(transactionManager, times(1)).commit(any());
+        verify(transaccionJdbcRepository).insertarHistoriales(anyList());
+        verify(outbox).registrarLote(registradas.stream().map(Transaccion::getCodigo).toList());
+        verify(registroCodigosUnicos).registrar("TRX-1");
+        verify(ventanasTarjeta, times(4)).registrar(any());
+        assertThat(meterRegistry.get("pagos.registro.agrupado.lote").summary().totalAmount()).isEqualTo(4);
+    }
+
+    @Test
+    void siFallaElLoteReintentaCadaTransaccionPorSeparado() throws Exception {
+        doAnswer(invocacion -> {
+            List<Transaccion> transacciones = invocacion.getArgument(0);
+            if (transacciones.stream().anyMatch(t -> "TRX-2".equals(t.getCodigoUnicoTransaccion()))) {
+                throw new DataIntegrityViolationException("duplicate key value violates unique constraint",
+                    new RuntimeException("UK_TRANSACCION_CODIGO_UNICO"));
+            }
+            synchronized (insertados) {
+                insertados.add(transacciones.stream().map(Transaccion::getCodigoUnicoTransaccion).toList());
+            }
+            transacciones.forEach(transaccion -> transaccion.setCodigo(secuencia.incrementAndGet()));
+            return null;
+        }).when(transaccionJdbcRepository).insertarTransacciones(anyList());
+        registro = registro(null, 3, 1);
+
+        CompletableFuture<Transaccion> primera = registro.registrar(transaccion(1));
+        CompletableFuture<Transaccion> duplicada = registro.registrar(transaccion(2));
+        CompletableFuture<Transaccion> tercera = registro.registrar(transaccion(3));
+
+        assertThat(esperar(List.of(primera, tercera))).extracting(Transaccion::getCodigo).doesNotContainNull();
+        assertThatThrownBy(() -> duplicada.get(5, TimeUnit.SECONDS))
+            .isInstanceOf(ExecutionException.class)
+            .hasCauseInstanceOf(CodigoUnicoRegistradoException.class);
+        assertThat(insertados).containsExactly(List.of("TRX-1"), List.of("TRX-3"));
+        verify(transactionManager, times(2)).rollback(any());
+        verify(registroCodigosUnicos, never()).registrar("TRX-2");
+    }
+
+    @Test
+    void otroErrorDeUnaSolaTransaccionFallaComoErrorDeNegocio() {
+        doAnswer(invocacion -> {
+            throw new IllegalStateException("columna inválida");
+        }).when(transaccionJdbcRepository).insertarTransacciones(anyList());
+        registro = registro(null, 1, 1);
+
+        CompletableFuture<Transaccion> resultado = registro.registrar(transaccion(1));
+
+        assertThatThrownBy(() -> resultado.get(5, TimeUnit.SECONDS))
+            .hasCauseInstanceOf(BusinessException.class);
+        verify(outbox, never()).registrarLote(anyList());
+    }
+
+    @Test
+    void conLaBaseCaidaAnotaElLoteEnElDiarioSinCodigo() throws Exception {
+        doAnswer(invocacion -> {
+            throw new DataAccessResourceFailureException("Connection refused");
+        }).when(transaccionJdbcRepository).insertarTransacciones(anyList());
+        diario = new DiarioTransacciones(new ObjectMapper().registerModule(new JavaTimeModule()),
+            new SimpleMeterRegistry(), directorio.toString(), 1, CLAVE);
+        registro = registro(diario, 2, 1);
+
+        List<Transaccion> anotadas = esperar(List.of(registro.registrar(transaccion(1)),
+            registro.registrar(transaccion(2))));
+
+        assertThat(registro.conDiario()).isTrue();
+        assertThat(anotadas).extracting(Transaccion::getCodigo).containsOnlyNulls();
+        assertThat(diario.leerPendientes(10).transacciones()).extracting(Transaccion::getCodigoUnicoTransaccion)
+            .containsExactly("TRX-1", "TRX-2");
+        verify(ventanasTarjeta, never()).registrar(any());
+    }
+
+    @Test
+    void sinDiarioLaBaseCaidaFallaLaSolicitud() {
+        doAnswer(invocacion -> {
+            throw new DataAccessResourceFailureException("Connection refused");
+        }).when(transaccionJdbcRepository).insertarTransacciones(anyList());
+        registro = registro(null, 1, 1);
+
+        CompletableFuture<Transaccion> resultado = registro.registrar(transaccion(1));
+
+        assertThat(registro.conDiario()).isFalse();
+        assertThatThrownBy(() -> resultado.get(5, TimeUnit.SECONDS))
+            .hasCauseInstanceOf(BusinessException.class);
+    }
+
+    @Test
+    void rechazaConLaColaLlenaOSinIniciar() {
+        RegistroAgrupadoTransacciones sinIniciar = nuevo(null, 1, 1, 1);
+        assertThatThrownBy(() -> sinIniciar.registrar(transaccion(1))).isInstanceOf(CapacidadExcedidaException.class);
+
+        registro = nuevo(null, 1, 0, 1);
+        registro.iniciar();
+        registro.registrar(transaccion(1));
+        assertThatThrownBy(() -> registro.registrar(transaccion(2))).isInstanceOf(CapacidadExcedidaException.class);
+    }
+
+    @Test
+    void reproducirOmiteLasYaRegistradasYLosRepetidos() {
+        Transaccion existente = transaccion(1);
+        when(transaccionRepository.findByCodigoUnicoTransaccionIn(any())).thenReturn(List.of(existente));
+        registro = nuevo(null, 10, 1, 100);
+
+        List<Transaccion> nuevas = registro.reproducir(List.of(transaccion(1), transaccion(2), transaccion(2),
+            transaccion(3)));
+
+        assertThat(nuevas).extracting(Transaccion::getCodigoUnicoTransaccion).containsExactly("TRX-2", "TRX-3");
+        assertThat(insertados).containsExactly(List.of("TRX-2", "TRX-3"));
+        verify(transactionManager).commit(any());
+        verify(registroCodigosUnicos, never()).registrar("TRX-1");
+        verify(ventanasTarjeta, times(2)).registrar(any());
+    }
+
+    private RegistroAgrupadoTransacciones registro(DiarioTransacciones diario, int tamanoMaximo, int escritores) {
+        RegistroAgrupadoTransacciones nuevo = nuevo(diario, tamanoMaximo, escritores, 100);
+        nuevo.iniciar();
+        return nuevo;
+    }
+
+    /**
+     * Con una espera máxima de 5 s el lote solo se confirma al completar
+     * tamanoMaximo, así que cada prueba decide qué solicitudes van juntas.
+     */
+    @SuppressWarnings("unchecked")
+    private RegistroAgrupadoTransacciones nuevo(DiarioTransacciones diario, int tamanoMaximo, int escritores,
+                                                int capacidadCola) {
+        ObjectProvider<DiarioTransacciones> proveedor = mock(ObjectProvider.class);
+        when(proveedor.getIfAvailable()).thenReturn(diario);
+        return new RegistroAgrupadoTransacciones(transaccionRepository, transaccionJdbcRepository, outbox,
+            registroCodigosUnicos, ventanasTarjeta, proveedor, transactionManager, meterRegistry,
+            tamanoMaximo, 5_000_000, escritores, capacidadCola);
+    }
+
+    private static List<Transaccion> esperar(List<CompletableFuture<Transaccion>> resultados) throws Exception {
+        List<Transaccion> transacciones = new ArrayList<>();
+        for (CompletableFuture<Transaccion> resultado : resultados) {
+            transacciones.add(resultado.get(5, TimeUnit.SECONDS));
+        }
+        return transacciones;
+    }
+
+    private static Transaccion transaccion(int indice) {
+        Transaccion transaccion = new Transaccion();
+        transaccion.setBanco(new Banco(1));
+        transaccion.setComision(new Comision(2));
+        transaccion.setMonto(new BigDecimal("10.50"));
+        transaccion.setNumeroTarjeta("4111111111111111");
+        transaccion.setCodigoUnicoTransaccion("TRX-" + indice);
+        transaccion.setFechaCreacion(LocalDateTime.of(2024, 5, 1, 12, 0));
+        transaccion.setEstado(Transaccion.ESTADO_PENDIENTE);
+        return transaccion;
+    }
+}